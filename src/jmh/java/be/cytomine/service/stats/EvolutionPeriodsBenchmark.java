@@ -0,0 +1,135 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evolution of a project over a year: aggregation in java of every creation date (before), against the periods
+ * built once and filled with the counts returned by the database (width_bucket or $bucket).
+ * Only the java side is measured, reading the dates from the database is not.
+ * Run with ./gradlew jmh -PjmhInclude=EvolutionPeriodsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvolutionPeriodsBenchmark {
+
+    @Param({"10000", "1000000"})
+    int items;
+
+    @Param({"1", "7"})
+    int daysRange;
+
+    Date startDate;
+
+    Date endDate;
+
+    List<Date> creationDates;
+
+    long[] countsByPeriod;
+
+    @Setup
+    public void setUp() {
+        endDate = new Date();
+        startDate = new Date(endDate.getTime() - 365L * 24 * 3600 * 1000);
+        Random random = new Random(42);
+        creationDates = random.longs(items, startDate.getTime(), endDate.getTime()).sorted()
+                .mapToObj(Date::new).toList();
+
+        EvolutionPeriods periods = new EvolutionPeriods(daysRange, startDate, endDate);
+        countsByPeriod = new long[periods.size()];
+        for (Date date : creationDates) {
+            int index = periods.indexOf(date);
+            if (index < countsByPeriod.length) {
+                countsByPeriod[index]++;
+            }
+        }
+    }
+
+    @Benchmark
+    public List<JsonObject> aggregateEveryDate() {
+        return aggregateByPeriods(creationDates, daysRange, startDate, endDate, true);
+    }
+
+    @Benchmark
+    public List<JsonObject> countedByPeriod() {
+        EvolutionPeriods periods = new EvolutionPeriods(daysRange, startDate, endDate);
+        for (int i = 0; i < countsByPeriod.length; i++) {
+            periods.addToPeriod(i, countsByPeriod[i]);
+        }
+        return periods.toJsonObjects(true);
+    }
+
+    /**
+     * Aggregation done by StatsService before the evolutions were counted in the databases
+     */
+    private static List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        List<JsonObject> data = new ArrayList<>();
+        int nbItems = creationDates.size();
+        int count = 0;
+        int idx = 0;
+
+        Date current = startDate;
+        Long endTime = endDate.getTime();
+        Calendar cal = Calendar.getInstance();
+
+        while(current.getTime() <= endTime) {
+            JsonObject item = new JsonObject();
+            item.put("date", current.getTime());
+
+            cal.setTime(current);
+            cal.add(Calendar.DATE, daysRange);
+            current = cal.getTime();
+
+            if(!accumulate) {
+                count = 0;
+            }
+
+            while(idx < nbItems && creationDates.get(idx).getTime() < current.getTime()) {
+                count++;
+                idx++;
+            }
+
+            item.put("endDate", Math.min(current.getTime(), endTime));
+            item.put("size", count);
+            data.add(item);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,117 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simplification of annotations to the number of points of a listing (100 to 150) and of a crop.
+ * Besides the generated shapes, the annotations of the test dataset (src/test/resources/dataset, read from the
+ * project directory) are real drawings.
+ * Run with ./gradlew jmh -PjmhInclude=SimplifyGeometryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimplifyGeometryBenchmark {
+
+    @Param({"small", "huge", "multipolygon", "invalid", "big_annotation", "very_big_annotation", "annotationbig_emptyspace"})
+    String shape;
+
+    SimplifyGeometryService simplifyGeometryService;
+
+    Geometry geometry;
+
+    @Setup
+    public void setUp() throws IOException, ParseException {
+        simplifyGeometryService = new SimplifyGeometryService();
+        simplifyGeometryService.maxNumberOfPoint = 200d;
+        geometry = switch (shape) {
+            case "small" -> freehandPolygon(500, 5000, 5000, 300);
+            case "huge" -> freehandPolygon(50000, 5000, 5000, 3000);
+            case "multipolygon" -> new GeometryFactory().createMultiPolygon(new Polygon[] {
+                    freehandPolygon(5000, 2000, 2000, 1000),
+                    freehandPolygon(5000, 6000, 2000, 1000),
+                    freehandPolygon(5000, 2000, 6000, 1000)});
+            case "invalid" -> figureEight(4000, 5000, 5000, 3000);
+            default -> new WKTReader().read(Files.readString(Path.of("src/test/resources/dataset", shape + ".txt")));
+        };
+    }
+
+    @Benchmark
+    public Geometry simplifyForListing() {
+        return simplifyGeometryService.simplifyPolygon(geometry, 100L, 150L).getNewAnnotation();
+    }
+
+    @Benchmark
+    public Geometry simplifyForCrop() {
+        return simplifyGeometryService.simplifyPolygonForCrop(geometry);
+    }
+
+    /**
+     * Star-shaped polygon with a wavy border, as drawn by hand (or traced by an algorithm)
+     */
+    private static Polygon freehandPolygon(int numberOfPoints, double centerX, double centerY, double radius) {
+        Coordinate[] coordinates = new Coordinate[numberOfPoints + 1];
+        for (int i = 0; i < numberOfPoints; i++) {
+            double angle = 2 * Math.PI * i / numberOfPoints;
+            double r = radius * (1 + 0.05 * Math.sin(37 * angle) + 0.02 * Math.sin(301 * angle));
+            coordinates[i] = new Coordinate(centerX + r * Math.cos(angle), centerY + r * Math.sin(angle));
+        }
+        coordinates[numberOfPoints] = coordinates[0];
+        GeometryFactory factory = new GeometryFactory();
+        return factory.createPolygon(factory.createLinearRing(coordinates), null);
+    }
+
+    /**
+     * Invalid polygon: the ring crosses itself in the middle
+     */
+    private static Polygon figureEight(int numberOfPoints, double centerX, double centerY, double radius) {
+        Coordinate[] coordinates = new Coordinate[numberOfPoints + 1];
+        for (int i = 0; i < numberOfPoints; i++) {
+            double angle = 2 * Math.PI * i / numberOfPoints;
+            coordinates[i] = new Coordinate(centerX + radius * Math.sin(angle), centerY + radius / 2 * Math.sin(2 * angle));
+        }
+        coordinates[numberOfPoints] = coordinates[0];
+        GeometryFactory factory = new GeometryFactory();
+        return factory.createPolygon(factory.createLinearRing(coordinates), null);
+    }
+}
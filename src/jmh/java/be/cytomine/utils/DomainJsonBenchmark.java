@@ -0,0 +1,163 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.image.UploadedFile;
+import be.cytomine.domain.ontology.Ontology;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * List responses of ImageInstance, UserAnnotation and Project: every domain converted to a JsonObject then written
+ * by a new ObjectMapper (before), against the domains of the page written by the shared mapper (DomainJsonModule).
+ * max=0 writes the whole list, as a listing without pagination does.
+ * Run with ./gradlew jmh -PjmhInclude=DomainJsonBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DomainJsonBenchmark {
+
+    @Param({"imageInstance", "userAnnotation", "project"})
+    String domain;
+
+    @Param({"1000", "10000"})
+    int size;
+
+    @Param({"0", "25"})
+    int max;
+
+    List<CytomineDomain> domains;
+
+    @Setup
+    public void setUp() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("user");
+        Ontology ontology = new Ontology();
+        ontology.setId(2L);
+        ontology.setName("ontology");
+
+        domains = new ArrayList<>();
+        for (long i = 0; i < size; i++) {
+            Project project = project(1000 + i, ontology);
+            ImageInstance image = imageInstance(100_000 + 10 * i, project, user);
+            domains.add(switch (domain) {
+                case "imageInstance" -> image;
+                case "userAnnotation" -> userAnnotation(10_000_000 + 10 * i, image, user);
+                case "project" -> project;
+                default -> throw new IllegalArgumentException(domain);
+            });
+        }
+    }
+
+    @Benchmark
+    public String toJsonObjectThenWrite() throws JsonProcessingException {
+        List<JsonObject> jsonObjects = domains.stream().map(CytomineDomain::toJsonObject).collect(Collectors.toList());
+        return new ObjectMapper().writeValueAsString(JsonObject.of("collection", page(jsonObjects), "size", jsonObjects.size()));
+    }
+
+    @Benchmark
+    public String streamingSerializer() {
+        return JsonObject.of("collection", page(domains), "size", domains.size()).toJsonString();
+    }
+
+    private <T> List<T> page(List<T> list) {
+        return (max == 0 ? list : list.subList(0, Math.min(max, list.size())));
+    }
+
+    private static Project project(long id, Ontology ontology) {
+        Project project = new Project();
+        project.setId(id);
+        project.setName("project " + id);
+        project.setOntology(ontology);
+        project.setCreated(new Date());
+        return project;
+    }
+
+    private static ImageInstance imageInstance(long id, Project project, User user) {
+        UploadedFile uploadedFile = new UploadedFile();
+        uploadedFile.setId(id + 1);
+        uploadedFile.setFilename("/data/images/" + id + ".ndpi");
+        uploadedFile.setContentType("openslide/ndpi");
+        AbstractImage abstractImage = new AbstractImage();
+        abstractImage.setId(id + 2);
+        abstractImage.setUploadedFile(uploadedFile);
+        abstractImage.setOriginalFilename(id + ".ndpi");
+        abstractImage.setWidth(40000);
+        abstractImage.setHeight(30000);
+        ImageInstance image = new ImageInstance();
+        image.setId(id);
+        image.setBaseImage(abstractImage);
+        image.setProject(project);
+        image.setUser(user);
+        image.setCreated(new Date());
+        return image;
+    }
+
+    private static UserAnnotation userAnnotation(long id, ImageInstance image, User user) {
+        SliceInstance slice = new SliceInstance();
+        slice.setId(id + 1);
+        GeometryFactory factory = new GeometryFactory();
+        Coordinate[] coordinates = new Coordinate[101];
+        for (int i = 0; i < 100; i++) {
+            double angle = 2 * Math.PI * i / 100;
+            coordinates[i] = new Coordinate(1000 + 500 * Math.cos(angle), 1000 + 500 * Math.sin(angle));
+        }
+        coordinates[100] = coordinates[0];
+        UserAnnotation annotation = new UserAnnotation();
+        annotation.setId(id);
+        annotation.setImage(image);
+        annotation.setSlice(slice);
+        annotation.setProject(image.getProject());
+        annotation.setUser(user);
+        annotation.setLocation(factory.createPolygon(factory.createLinearRing(coordinates), null));
+        annotation.setArea(785_000d);
+        annotation.setPerimeter(3140d);
+        annotation.setCreated(new Date());
+        return annotation;
+    }
+}
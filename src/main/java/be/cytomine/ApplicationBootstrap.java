@@ -28,6 +28,8 @@ import be.cytomine.service.UrlApi;
 import be.cytomine.service.database.BootstrapDataService;
 import be.cytomine.service.database.BootstrapTestsDataService;
 import be.cytomine.service.database.BootstrapUtilsService;
+import be.cytomine.service.social.MemberActivityService;
+import be.cytomine.service.stats.StatsRollupService;
 import be.cytomine.service.utils.Dataset;
 import be.cytomine.utils.EnvironmentUtils;
 import be.cytomine.utils.StringUtils;
@@ -85,6 +87,12 @@ class ApplicationBootstrap {
     @Autowired
     InitialMongodbSetupMigration initialSetupMigration;
 
+    @Autowired
+    StatsRollupService statsRollupService;
+
+    @Autowired
+    MemberActivityService memberActivityService;
+
     @Autowired
     Dataset dataset;
 
@@ -111,6 +119,9 @@ class ApplicationBootstrap {
 
         initialSetupMigration.changeSet();
 
+        statsRollupService.backfillIfEmpty();
+        memberActivityService.backfillIfEmpty();
+
         log.info ("#############################################################################");
         log.info ("#############################################################################");
         log.info ("#############################################################################");
@@ -21,6 +21,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.io.File;
 
@@ -28,6 +29,7 @@ import java.io.File;
 @SpringBootApplication
 @EnableMongoRepositories("be.cytomine.repositorynosql")
 @EnableJpaRepositories("be.cytomine.repository")
+@EnableScheduling
 public class CytomineCoreApplication {
 
 	public static void main(String[] args) {
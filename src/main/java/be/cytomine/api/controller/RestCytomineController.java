@@ -18,9 +18,11 @@ package be.cytomine.api.controller;
 
 import be.cytomine.api.JsonResponseEntity;
 import be.cytomine.api.controller.utils.RequestParams;
+import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.CytomineSocialDomain;
 import be.cytomine.dto.PimsResponse;
+import be.cytomine.dto.PimsStreamResponse;
 import be.cytomine.dto.JsonInput;
 import be.cytomine.dto.JsonMultipleObject;
 import be.cytomine.dto.JsonSingleObject;
@@ -42,19 +44,29 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -63,6 +75,9 @@ public abstract class RestCytomineController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
     @Autowired
     protected HttpServletRequest request;
 
@@ -168,12 +183,8 @@ public abstract class RestCytomineController {
 
     private JsonObject buildJsonList(Page page, Integer offsetParameter, Integer maxParameter) {
         // TODO: should we need params if we have page
+        // domains are converted by the JSON writer (see DomainJsonModule)
         List finalContent = page.getContent();
-        if (page.getContent().size() > 0 && page.getContent().get(0) instanceof CytomineDomain) {
-            finalContent = convertCytomineDomainListToJSON(page.getContent());
-        } else if (page.getContent().size() > 0 && page.getContent().get(0) instanceof CytomineSocialDomain) {
-            finalContent = convertCytomineSocialDomainListToJSON(page.getContent());
-        }
         Integer offset = offsetParameter != null ? offsetParameter : 0;
         Integer max = (maxParameter != null && maxParameter!=0) ? maxParameter : Integer.MAX_VALUE;
         return JsonObject.of("collection", finalContent, "offset", offset, "perPage", Math.min(max, page.getContent().size()), "size", page.getTotalElements(), "totalPages", (int)Math.ceil((double)page.getTotalElements()/(double)max));
@@ -260,15 +271,16 @@ public abstract class RestCytomineController {
     }
 
     private ResponseEntity<String> responseSuccessDomainList(List<? extends CytomineDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+        // only the domains of the page are converted, by the JSON writer (see DomainJsonModule)
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString());
     }
 
     private ResponseEntity<String> responseSuccessSocialDomainList(List<? extends CytomineSocialDomain> list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(convertCytomineSocialDomainListToJSON(list), offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString());
     }
 
     private ResponseEntity<String> responseSuccessGenericList(List list, Integer offsetParameter, Integer maxParameter) {
-        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
+        return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString());
     }
 
     protected ResponseEntity<String> responseSuccess(CytomineDomain response, boolean isFilterRequired) {
@@ -561,6 +573,16 @@ public abstract class RestCytomineController {
     }
 
     protected void responseReportFile(String name, byte[] array, String format) throws IOException {
+        try(OutputStream os = responseReportStream(name, format)) {
+            os.write(array , 0, array.length);
+            os.flush();
+        }
+    }
+
+    /**
+     * Set the report headers and return the response stream, the report is written directly in the response.
+     */
+    protected OutputStream responseReportStream(String name, String format) throws IOException {
         response.setStatus(200);
         switch (format) {
             case "pdf":
@@ -574,10 +596,7 @@ public abstract class RestCytomineController {
                 break;
         }
         response.setHeader("Content-disposition", "attachment; filename=" + name);
-        try(OutputStream os = response.getOutputStream()) {
-            os.write(array , 0, array.length);
-            os.flush();
-        }
+        return response.getOutputStream();
     }
 
     protected void responseString(String contentType, String string) throws IOException {
@@ -607,6 +626,61 @@ public abstract class RestCytomineController {
     }
 
 
+    /**
+     * Response an image from the image server without holding the request thread while the image server works.
+     * The request is resumed when the image server headers are received, then the image is streamed to the client.
+     * The image server response is always closed (it holds a slot of the image server): when the request times out,
+     * when the response arrives after the timeout, or when the request completes without writing it.
+     */
+    protected DeferredResult<ResponseEntity<Resource>> responseImageAsync(CompletableFuture<PimsStreamResponse> image) {
+        boolean head = request.getMethod().equals("HEAD");
+        DeferredResult<ResponseEntity<Resource>> result = new DeferredResult<>(
+                TimeUnit.SECONDS.toMillis(applicationProperties.getImageServerClient().getRequestTimeoutInSeconds()));
+        AtomicReference<InputStream> content = new AtomicReference<>();
+        AtomicBoolean completed = new AtomicBoolean(false);
+
+        result.onTimeout(() -> {
+            image.cancel(false);
+            result.setErrorResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build());
+        });
+        result.onCompletion(() -> {
+            completed.set(true);
+            closeQuietly(content.getAndSet(null));
+        });
+
+        image.whenComplete((pimsResponse, error) -> {
+            if (error != null) {
+                result.setErrorResult(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            HttpHeaders headers = new HttpHeaders();
+            pimsResponse.getHeaders().forEach(headers::set);
+            if (head) {
+                closeQuietly(pimsResponse.getContent());
+                result.setResult(ResponseEntity.ok().headers(headers).build());
+                return;
+            }
+            content.set(pimsResponse.getContent());
+            boolean set = result.setResult(ResponseEntity.ok().headers(headers).body(new InputStreamResource(pimsResponse.getContent())));
+            if (!set || completed.get()) {
+                // too late: the request has already timed out or completed
+                closeQuietly(content.getAndSet(null));
+            }
+        });
+        return result;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.debug("Cannot close image server response", e);
+        }
+    }
+
     /**
      * Response an image as a HTTP response
      * @param bytes Image
@@ -22,6 +22,7 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.social.LastConnection;
 import be.cytomine.domain.social.PersistentConnection;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.repositorynosql.social.PersistentConnectionRepository;
 import be.cytomine.security.jwt.TokenProvider;
 import be.cytomine.security.jwt.TokenType;
@@ -58,6 +59,8 @@ public class ServerController extends RestCytomineController {
 
     private final LastConnectionRepository lastConnectionRepository;
 
+    private final PresenceService presenceService;
+
     private final TokenProvider tokenProvider;
 
     //@Secured("IS_AUTHENTICATED_REMEMBERED") //TODO????
@@ -101,6 +104,7 @@ public class ServerController extends RestCytomineController {
             connection.setCreated(connection.getDate());
             connection.setProject(idProject);
             lastConnectionRepository.insert(connection); //don't use save (stateless collection)
+            presenceService.connected(user.getId(), idProject, connection.getDate());
 
             PersistentConnection connectionPersist = new PersistentConnection();
             connectionPersist.setId(sequenceService.generateID());
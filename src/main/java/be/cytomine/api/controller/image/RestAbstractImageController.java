@@ -34,8 +34,10 @@ import be.cytomine.utils.JsonObject;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.view.RedirectView;
 
 import java.io.IOException;
@@ -212,7 +214,7 @@ public class RestAbstractImageController extends RestCytomineController {
     }
 //
     @RequestMapping(value = "/abstractimage/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void crop(
+    public DeferredResult<ResponseEntity<Resource>> crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -274,7 +276,7 @@ public class RestAbstractImageController extends RestCytomineController {
         cropParameter.setFormat(format);
 
         String etag = getRequestETag();
-        responseImage(imageServerService.crop(sliceCoordinatesService.getReferenceSlice(abstractImage), cropParameter, etag));
+        return responseImageAsync(imageServerService.cropAsync(sliceCoordinatesService.getReferenceSlice(abstractImage), cropParameter, etag));
     }
 
     @RequestMapping(value = "/abstractimage/{id}/window_url-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
@@ -302,7 +304,7 @@ public class RestAbstractImageController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/abstractimage/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void window(
+    public DeferredResult<ResponseEntity<Resource>> window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
@@ -322,7 +324,7 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        responseImage(imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag));
+        return responseImageAsync(imageServerService.windowAsync(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag));
     }
 
     @RequestMapping(value = "/abstractimage/{id}/camera_url-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
@@ -349,7 +351,7 @@ public class RestAbstractImageController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/abstractimage/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void camera(
+    public DeferredResult<ResponseEntity<Resource>> camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
@@ -368,7 +370,7 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        responseImage(imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag));
+        return responseImageAsync(imageServerService.windowAsync(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag));
     }
 
 
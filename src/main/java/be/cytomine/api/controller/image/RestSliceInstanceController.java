@@ -32,8 +32,10 @@ import be.cytomine.utils.JsonObject;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -181,7 +183,7 @@ public class RestSliceInstanceController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void crop(
+    public DeferredResult<ResponseEntity<Resource>> crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -244,7 +246,7 @@ public class RestSliceInstanceController extends RestCytomineController {
 
         String etag = getRequestETag();
 
-        responseImage(imageServerService.crop(sliceInstance.getBaseSlice(), cropParameter,etag));
+        return responseImageAsync(imageServerService.cropAsync(sliceInstance.getBaseSlice(), cropParameter,etag));
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/window_url-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
@@ -272,7 +274,7 @@ public class RestSliceInstanceController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void window(
+    public DeferredResult<ResponseEntity<Resource>> window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
@@ -297,7 +299,7 @@ public class RestSliceInstanceController extends RestCytomineController {
 //            params.location = getWKTGeometry(sliceInstance, params)
 
         String etag = getRequestETag();
-        responseImage(imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag));
+        return responseImageAsync(imageServerService.windowAsync(sliceInstance.getBaseSlice(), windowParameter, etag));
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/camera_url-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
@@ -324,7 +326,7 @@ public class RestSliceInstanceController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void camera(
+    public DeferredResult<ResponseEntity<Resource>> camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
@@ -344,7 +346,7 @@ public class RestSliceInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("SliceInstance", id));
 
         String etag = getRequestETag();
-        responseImage(imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag));
+        return responseImageAsync(imageServerService.windowAsync(sliceInstance.getBaseSlice(), windowParameter, etag));
     }
 
 
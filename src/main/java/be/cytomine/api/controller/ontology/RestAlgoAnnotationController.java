@@ -47,6 +47,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
 
@@ -189,8 +190,8 @@ public class RestAlgoAnnotationController extends RestCytomineController {
         users = secUserService.fillEmptyUserIds(users, idProject);
         terms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, users, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        OutputStream output = responseReportStream(reportService.getAnnotationReportFileName(format, idProject), format);
+        annotationListingBuilder.writeAnnotationReport(idProject, users, params, terms, format, output);
     }
     // TODO
 //    @RestApiMethod(description="Download a report (pdf, xls,...) with software annotation data from a specific project")
@@ -18,6 +18,7 @@ package be.cytomine.api.controller.ontology;
 
 import be.cytomine.api.controller.RestCytomineController;
 import be.cytomine.api.controller.utils.AnnotationListingBuilder;
+import be.cytomine.api.controller.utils.JsonCollectionStreamWriter;
 import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.image.CompanionFile;
 import be.cytomine.domain.image.ImageInstance;
@@ -29,6 +30,7 @@ import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.*;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.dto.AnnotationResult;
 import be.cytomine.service.dto.CropParameter;
 import be.cytomine.service.image.CompanionFileService;
 import be.cytomine.service.image.ImageInstanceService;
@@ -98,25 +100,55 @@ public class RestAnnotationDomainController extends RestCytomineController {
      */
 
     @RequestMapping(value = { "/annotation/search.json"}, method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<String> searchSpecified() throws IOException {
-        return search();
+    public void searchSpecified() throws IOException {
+        search();
     }
 
     @RequestMapping(value = {"/annotation.json"}, method = {RequestMethod.GET})
-    public ResponseEntity<String> search() throws IOException {
+    public void search() throws IOException {
         JsonObject params = mergeQueryParamsAndBodyParams();
         AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
-        List annotations = annotationListingService.listGeneric(annotationListing);
+        Long offset = params.getJSONAttrLong("offset", 0L);
+        Long max = params.getJSONAttrLong("max", 0L);
+        if (!(annotationListing instanceof AlgoAnnotationListing)) {
+            // algo listing merges two listings, so its page can only be computed while writing the response
+            annotationListing.setOffset(offset);
+            annotationListing.setMax(max);
+            annotationListing.setAfterAnnotation(params.getJSONAttrLong("cursor"));
+        }
+        annotationListingService.prepareListing(annotationListing);
+        boolean paginatedInSql = annotationListing.isPaginatedInSql();
+
+        // annotations are written in the response as soon as they are read from the database
+        JsonCollectionStreamWriter writer = paginatedInSql ?
+                new JsonCollectionStreamWriter(response, 0, 0) :
+                new JsonCollectionStreamWriter(response, offset, max);
+        annotationListingService.streamRequest(annotationListing, writer);
+        Long size = paginatedInSql ? annotationListingService.countGeneric(annotationListing) : null;
+
         if (annotationListing instanceof AlgoAnnotationListing) {
             //if algo, we look for user_annotation JOIN algo_annotation_term  too
             params.put("suggestedTerm", params.get("term"));
             params.remove("term");
             params.remove("usersForTermAlgo");
             annotationListing = annotationListingBuilder.buildAnnotationListing(new UserAnnotationListing(entityManager), params);
-            annotations.addAll(annotationListingService.listGeneric(annotationListing));
+            annotationListingService.prepareListing(annotationListing);
+            annotationListingService.streamRequest(annotationListing, writer);
         }
 
-        return responseSuccess(annotations, params.getJSONAttrLong("offset", 0L),params.getJSONAttrLong("max", 0L));
+        if (size == null) {
+            size = writer.getCount();
+        }
+        long realMax = max != 0 ? max : Integer.MAX_VALUE;
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("offset", offset);
+        fields.put("perPage", Math.min(realMax, size));
+        fields.put("size", size);
+        fields.put("totalPages", (int) Math.ceil((double) size / (double) realMax));
+        // id to give as "cursor" to get the next page (null if there is no next page)
+        fields.put("nextCursor", paginatedInSql && max != 0 && writer.getWritten() == max ?
+                ((AnnotationResult) writer.getLastWritten()).get("id") : null);
+        writer.finish(fields);
     }
 
     @RequestMapping(value = {"/project/{project}/annotation/download"}, method = {RequestMethod.GET})
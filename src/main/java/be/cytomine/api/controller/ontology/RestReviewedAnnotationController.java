@@ -44,6 +44,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
 
@@ -288,8 +289,8 @@ public class RestReviewedAnnotationController extends RestCytomineController {
         terms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
         params.put("reviewed", true);
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, reviewUsers, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        OutputStream output = responseReportStream(reportService.getAnnotationReportFileName(format, idProject), format);
+        annotationListingBuilder.writeAnnotationReport(idProject, reviewUsers, params, terms, format, output);
     }
 
     @RequestMapping(value = "/reviewedannotation/{id}/crop.{format}", method = {GET, POST})
@@ -44,10 +44,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
 
@@ -73,6 +76,8 @@ public class RestUserAnnotationController extends RestCytomineController {
 
     private final AnnotationListingBuilder annotationListingBuilder;
 
+    private final ObjectMapper objectMapper;
+
     @GetMapping("/userannotation.json")
     public ResponseEntity<String> listLight(
     ) {
@@ -130,8 +135,8 @@ public class RestUserAnnotationController extends RestCytomineController {
         users = secUserService.fillEmptyUserIds(users, idProject);
         terms = termService.fillEmptyTermIds(terms, project);
         JsonObject params = mergeQueryParamsAndBodyParams();
-        byte[] report = annotationListingBuilder.buildAnnotationReport(idProject, users, params, terms, format);
-        responseReportFile(reportService.getAnnotationReportFileName(format, idProject), report, format);
+        OutputStream output = responseReportStream(reportService.getAnnotationReportFileName(format, idProject), format);
+        annotationListingBuilder.writeAnnotationReport(idProject, users, params, terms, format, output);
     }
 
     /**
@@ -206,7 +211,7 @@ public class RestUserAnnotationController extends RestCytomineController {
         log.debug("REST request to save user annotation");
         JsonInput data;
         try {
-            data = new ObjectMapper().readValue(json, JsonMultipleObject.class);
+            data = objectMapper.readValue(json, JsonMultipleObject.class);
             for (JsonObject datum : ((JsonMultipleObject) data)) {
                 datum.putIfAbsent("minPoint", minPoint);
                 datum.putIfAbsent("maxPoint", maxPoint);
@@ -214,7 +219,7 @@ public class RestUserAnnotationController extends RestCytomineController {
             // If fails to parse as a single object, parse as a list
         } catch (Exception ex) {
             try {
-                data = new ObjectMapper().readValue(json, JsonSingleObject.class);
+                data = objectMapper.readValue(json, JsonSingleObject.class);
                 ((JsonSingleObject)data).putIfAbsent("minPoint", minPoint);
                 ((JsonSingleObject)data).putIfAbsent("maxPoint", maxPoint);
             } catch (JsonProcessingException e) {
@@ -224,6 +229,29 @@ public class RestUserAnnotationController extends RestCytomineController {
         return add(userAnnotationService, data);
     }
 
+    /**
+     * Add many annotations at once (faster than userannotation.json for large imports, but the creation cannot be undone)
+     */
+    @PostMapping("/userannotation/bulk.json")
+    public ResponseEntity<String> addBulk(
+            @RequestBody String json,
+            @RequestParam(required = false) Long minPoint,
+            @RequestParam(required = false) Long maxPoint
+    ) {
+        log.debug("REST request to save user annotations in bulk");
+        JsonMultipleObject data;
+        try {
+            data = objectMapper.readValue(json, JsonMultipleObject.class);
+        } catch (JsonProcessingException e) {
+            throw new WrongArgumentException("Json not valid");
+        }
+        for (JsonObject datum : data) {
+            datum.putIfAbsent("minPoint", minPoint);
+            datum.putIfAbsent("maxPoint", maxPoint);
+        }
+        return responseSuccess(userAnnotationService.addBulk(data));
+    }
+
     public CommandResponse addOne(ModelService service, JsonObject json) {
         if (json.isMissing("location")) {
             throw new WrongArgumentException("Annotation must have a valid geometry:" + json.get("location"));
@@ -260,7 +288,7 @@ public class RestUserAnnotationController extends RestCytomineController {
 
 
     @RequestMapping(value = "/userannotation/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void crop(
+    public DeferredResult<ResponseEntity<Resource>> crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -321,11 +349,11 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        responseImage(imageServerService.crop(userAnnotation, cropParameter, etag));
+        return responseImageAsync(imageServerService.cropAsync(userAnnotation, cropParameter, etag));
     }
 
     @RequestMapping(value = "/userannotation/{id}/mask.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void cropMask(
+    public DeferredResult<ResponseEntity<Resource>> cropMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -384,11 +412,11 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        responseImage(imageServerService.crop(userAnnotation, cropParameter, etag));
+        return responseImageAsync(imageServerService.cropAsync(userAnnotation, cropParameter, etag));
     }
 
     @RequestMapping(value = "/userannotation/{id}/alphamask.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public void cropAlphaMask(
+    public DeferredResult<ResponseEntity<Resource>> cropAlphaMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -446,6 +474,6 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        responseImage(imageServerService.crop(userAnnotation, cropParameter, etag));
+        return responseImageAsync(imageServerService.cropAsync(userAnnotation, cropParameter, etag));
     }
 }
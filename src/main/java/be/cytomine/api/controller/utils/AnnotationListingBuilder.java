@@ -27,8 +27,10 @@ import be.cytomine.service.dto.AnnotationResult;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.report.ReportService;
+import be.cytomine.service.report.ReportWriter;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.utils.ParamsService;
+import be.cytomine.utils.GeometryFormat;
 import be.cytomine.utils.GeometryUtils;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.StringUtils;
@@ -37,6 +39,7 @@ import lombok.AllArgsConstructor;
 import org.springframework.stereotype.Component;
 
 import javax.persistence.EntityManager;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -59,28 +62,41 @@ public class AnnotationListingBuilder {
     private final ProjectService projectService;
 
 
-    public byte[] buildAnnotationReport(Long project, String users, JsonObject params, String terms, String format){
-        List<Map<String, Object>> annotations = buildAnnotationList(params, users);
+    /**
+     * Write the annotation report in the output stream.
+     * Annotations are read through a cursor and written one by one, the whole listing is never kept in memory.
+     */
+    public void writeAnnotationReport(Long project, String users, JsonObject params, String terms, String format, OutputStream output){
+        AnnotationListing annotationListing = buildAnnotationReportListing(params);
+        annotationListingService.prepareListing(annotationListing);
+        List<Long> userIds = getUserIds(users);
         Set<String> termNames = getTermNames(terms);
         Set<String> userNames = getUserNames(users);
-        return reportService.generateAnnotationsReport(projectService.get(project).getName(), termNames, userNames, annotations, format);
+        try (ReportWriter writer = reportService.openAnnotationsReport(projectService.get(project).getName(), termNames, userNames, format, output)) {
+            annotationListingService.streamRequest(annotationListing, annotation -> {
+                Map<String, Object> item = (Map<String, Object>) annotation;
+                if (userIds.contains((long) item.get("user"))) {
+                    reportService.writeAnnotation(writer, item);
+                }
+            });
+        }
     }
 
     public List<Map<String, Object>> buildAnnotationList(JsonObject params, String users){
+        return filterAnnotationByUsers(annotationListingService.listGeneric(buildAnnotationReportListing(params)), users);
+    }
+
+    private AnnotationListing buildAnnotationReportListing(JsonObject params){
         AnnotationListing annotationListing = buildAnnotationListing(params);
         annotationListing.getColumnsToPrint().add("gis");
         annotationListing.getColumnsToPrint().add("image");
         annotationListing.getColumnsToPrint().add("user");
-        return filterAnnotationByUsers(annotationListingService.listGeneric(annotationListing), users);
+        return annotationListing;
     }
 
     private List<Map<String, Object>> filterAnnotationByUsers(List<AnnotationResult> annotations, String users){
         List<Map<String, Object>> filteredAnnotations = new ArrayList<>();
-        List<Long> userIds = Arrays.stream(users.split(","))
-                .sequential()
-                .filter(id -> !id.isEmpty())
-                .map(id -> Long.parseLong(id))
-                .collect(Collectors.toList());
+        List<Long> userIds = getUserIds(users);
 
         for(AnnotationResult annotation : annotations){
             if(userIds.contains((long)annotation.get("user"))){
@@ -91,6 +107,14 @@ public class AnnotationListingBuilder {
         return filteredAnnotations;
     }
 
+    private List<Long> getUserIds(String users){
+        return Arrays.stream(users.split(","))
+                .sequential()
+                .filter(id -> !id.isEmpty())
+                .map(id -> Long.parseLong(id))
+                .collect(Collectors.toList());
+    }
+
 
     public AnnotationListing buildAnnotationListing(JsonObject params) {
         AnnotationListing al;
@@ -210,6 +234,10 @@ public class AnnotationListingBuilder {
 
         al.setExcludedAnnotation(params.getJSONAttrLong("excludedAnnotation")); // TODO ?
 
+        // Geometry format of the locations (wkt, wkb or twkb)
+        al.setGeometryFormat(GeometryFormat.fromParameter(params.getJSONAttrStr("geometryFormat")));
+        al.setGeometryPrecision(params.getJSONAttrInteger("geometryPrecision", 0));
+
         return al;
     }
 
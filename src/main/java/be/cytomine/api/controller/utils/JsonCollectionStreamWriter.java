@@ -0,0 +1,116 @@
+package be.cytomine.api.controller.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.DomainJsonModule;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Write a list response ({"collection": [...], "offset": ..., ...}) directly into the HTTP response,
+ * one item at a time, instead of building the whole JSON string in memory.
+ * Items outside [offset, offset + max[ are counted but not written (max = 0 means no limit).
+ * The response is only opened when the first item is written (or on finish), so that an error thrown
+ * before that point is still handled as a regular error response.
+ */
+public class JsonCollectionStreamWriter implements Consumer<Object> {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new DomainJsonModule())
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final HttpServletResponse response;
+
+    private final long offset;
+
+    private final long max;
+
+    private JsonGenerator generator;
+
+    private long count = 0;
+
+    private long written = 0;
+
+    private Object lastWritten;
+
+    public JsonCollectionStreamWriter(HttpServletResponse response, long offset, long max) {
+        this.response = response;
+        this.offset = offset;
+        this.max = max;
+    }
+
+    @Override
+    public void accept(Object item) {
+        if (count >= offset && (max == 0 || written < max)) {
+            try {
+                start();
+                generator.writeObject(item);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written++;
+            lastWritten = item;
+        }
+        count++;
+    }
+
+    /**
+     * Close the collection and write the other fields of the response
+     */
+    public void finish(Map<String, Object> fields) throws IOException {
+        start();
+        generator.writeEndArray();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            generator.writeObjectField(field.getKey(), field.getValue());
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    /**
+     * Number of items given to the writer (written or not)
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public Object getLastWritten() {
+        return lastWritten;
+    }
+
+    private void start() throws IOException {
+        if (generator == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("collection");
+        }
+    }
+}
@@ -16,21 +16,60 @@ package be.cytomine.config;
 * limitations under the License.
 */
 
+import be.cytomine.service.database.SequenceBlockAllocator;
 import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.hibernate.id.IdentifierGenerator;
-import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
 
 import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
 
-public class CustomIdentifierGenerator extends SequenceStyleGenerator {
+/**
+ * Keep the id already set on the entity (e.g. reserved by SequenceService), otherwise take one from the
+ * in memory block of the sequence (see SequenceBlockAllocator).
+ */
+public class CustomIdentifierGenerator implements IdentifierGenerator {
+
+    private String sequenceName;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        sequenceName = ConfigurationHelper.getString("sequence_name", params, "hibernate_sequence");
+    }
 
     @Override
     public Serializable generate(SharedSessionContractImplementor session, Object object)
             throws HibernateException {
-        // TODO Auto-generated method stub
         Serializable id = session.getEntityPersister(null, object)
                 .getClassMetadata().getIdentifier(object, session);
-        return id != null ? id : super.generate(session, object);
+        return id != null ? id : SequenceBlockAllocator.forSequence(sequenceName).next(size -> reserve(session, size));
+    }
+
+    private long[] reserve(SharedSessionContractImplementor session, int size) {
+        String sql = "select nextval('" + sequenceName + "') from generate_series(1, " + size + ")";
+        JdbcCoordinator jdbcCoordinator = session.getJdbcCoordinator();
+        PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(sql);
+        try {
+            ResultSet resultSet = jdbcCoordinator.getResultSetReturn().extract(statement);
+            long[] ids = new long[size];
+            int i = 0;
+            while (resultSet.next()) {
+                ids[i++] = resultSet.getLong(1);
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new HibernateException("Cannot reserve ids from sequence " + sequenceName, e);
+        } finally {
+            jdbcCoordinator.getLogicalConnection().getResourceRegistry().release(statement);
+            jdbcCoordinator.afterStatementExecution();
+        }
     }
 }
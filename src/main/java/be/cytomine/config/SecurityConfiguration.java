@@ -135,6 +135,8 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
             .antMatchers("/api/login/impersonate*").hasAuthority("ROLE_ADMIN")
             .antMatchers("/api/**").authenticated()
             .antMatchers("/session/admin/**").authenticated()
+            .antMatchers("/actuator/health").permitAll()
+            .antMatchers("/actuator/**").hasAuthority("ROLE_ADMIN")
             .antMatchers(HttpMethod.GET, "/server/**").permitAll()
             .antMatchers(HttpMethod.POST, "/server/**").permitAll()
             .antMatchers("/**").permitAll()
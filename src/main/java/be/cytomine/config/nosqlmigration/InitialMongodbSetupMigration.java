@@ -362,6 +362,34 @@ public class InitialMongodbSetupMigration {
                         new IndexModel(Indexes.compoundIndex(Indexes.ascending("image")), new IndexOptions().name("image_1").version(1))
                 )
         );
+
+        // hourly and daily counters of connections and consultations (see StatsRollupService)
+        createCollectionIfNotExists(
+                "statsRollup",
+                List.of(
+                        new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("type"), Indexes.ascending("granularity"), Indexes.ascending("project"), Indexes.ascending("bucket")),
+                                new IndexOptions().name("type_1_granularity_1_project_1_bucket_1").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("type"), Indexes.ascending("granularity"), Indexes.ascending("user"), Indexes.ascending("bucket")),
+                                new IndexOptions().name("type_1_granularity_1_user_1_bucket_1").version(1))
+                )
+        );
+
+        // last connection, number of connections and last image of each project member (see MemberActivityService)
+        createCollectionIfNotExists(
+                "projectMemberActivity",
+                List.of(
+                        new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("project"), Indexes.ascending("user")),
+                                new IndexOptions().name("project_1_user_1").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("project"), Indexes.ascending("lastConnection"), Indexes.ascending("user")),
+                                new IndexOptions().name("project_1_lastConnection_1_user_1").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("project"), Indexes.ascending("connections"), Indexes.ascending("user")),
+                                new IndexOptions().name("project_1_connections_1_user_1").version(1)),
+                        new IndexModel(Indexes.compoundIndex(Indexes.ascending("project"), Indexes.ascending("lastImageName"), Indexes.ascending("user")),
+                                new IndexOptions().name("project_1_lastImageName_1_user_1").version(1))
+                )
+        );
     }
 
     public MongoCollection<Document> createCollectionIfNotExists(String name, List<IndexModel> indexes) {
@@ -0,0 +1,16 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class AclCacheProperties {
+
+    // How long the ACL masks of a user are kept before being reloaded (0 disables the cache).
+    // Invalidation is process-local: with several nodes, a revoked permission remains granted on the other nodes
+    // for up to this delay.
+    Long timeToLiveInSeconds = 10L;
+
+    // Maximum number of users whose ACL masks are kept in memory
+    Integer maxUsers = 10000;
+}
@@ -0,0 +1,14 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class AnnotationCounterProperties {
+
+    // Delay between two flushes of the pending annotation counter deltas
+    Long flushDelayInMilliseconds = 5000L;
+
+    // When counters are recomputed from the annotation tables
+    String reconciliationCron = "0 0 3 * * *";
+}
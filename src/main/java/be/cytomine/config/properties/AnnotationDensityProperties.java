@@ -0,0 +1,20 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class AnnotationDensityProperties {
+
+    // How long the annotation density of a slice is used before its annotation counters are checked again (0 disables the cache)
+    Long timeToLiveInSeconds = 60L;
+
+    // How long the annotation density of a slice is kept when its annotation counters do not change
+    Long maxAgeInSeconds = 3600L;
+
+    // Maximum number of slices whose annotation density is kept in memory
+    Integer maxSlices = 1000;
+
+    // Number of rows and columns of the density histogram of a slice
+    Integer gridSize = 32;
+}
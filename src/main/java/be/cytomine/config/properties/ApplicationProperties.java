@@ -92,8 +92,37 @@ public class ApplicationProperties {
 
     private String defaultLanguage;
 
+    // Number of ids reserved at once from the database sequence
+    private Integer sequenceBlockSize = 50;
+
     private List<String> imageServerURL;
 
+    private ImageServerClientProperties imageServerClient = new ImageServerClientProperties();
+
+    private ImageServerCacheProperties imageServerCache = new ImageServerCacheProperties();
+
+    private AnnotationCounterProperties annotationCounter = new AnnotationCounterProperties();
+
+    private PrincipalCacheProperties principalCache = new PrincipalCacheProperties();
+
+    private AclCacheProperties aclCache = new AclCacheProperties();
+
+    private UserPositionBufferProperties userPositionBuffer = new UserPositionBufferProperties();
+
+    private PresenceProperties presence = new PresenceProperties();
+
+    private StatsRollupProperties statsRollup = new StatsRollupProperties();
+
+    private ConsultationActivityProperties consultationActivity = new ConsultationActivityProperties();
+
+    private AnnotationDensityProperties annotationDensity = new AnnotationDensityProperties();
+
+    private CascadeDeletionProperties cascadeDeletion = new CascadeDeletionProperties();
+
+    private ReviewLayerProperties reviewLayer = new ReviewLayerProperties();
+
+    private MemberActivityProperties memberActivity = new MemberActivityProperties();
+
     private String messageBrokerServerURL;
 
     private Software software;
@@ -0,0 +1,17 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class CascadeDeletionProperties {
+
+    // A project or an image with more annotations (user, algo and reviewed) is deleted in background
+    Long backgroundThreshold = 10000L;
+
+    // Maximum number of rows removed by a delete statement
+    Integer chunkSize = 10000;
+
+    // Number of images whose dependencies are deleted together
+    Integer imagesByChunk = 10;
+}
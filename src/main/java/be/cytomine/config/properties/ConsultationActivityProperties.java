@@ -0,0 +1,14 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class ConsultationActivityProperties {
+
+    // When disabled, the time of an image consultation is computed from the persistentUserPosition collection when it is closed
+    Boolean enabled = true;
+
+    // The activity of a consultation without position for this long is forgotten (computed from the positions if it is closed later)
+    Long maxIdleInMinutes = 1440L;
+}
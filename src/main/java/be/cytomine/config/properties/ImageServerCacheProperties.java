@@ -0,0 +1,18 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class ImageServerCacheProperties {
+
+    Boolean enabled = false;
+
+    // Size of the responses kept in memory
+    Long maxSizeInMegabytes = 256L;
+
+    // Directory where responses evicted from memory are written (no disk spill if empty)
+    String diskPath;
+
+    Long diskMaxSizeInMegabytes = 2048L;
+}
@@ -0,0 +1,25 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class ImageServerClientProperties {
+
+    // Number of threads handling the image server responses (0 = default executor of the HTTP client)
+    int executorThreads = 0;
+
+    Long connectTimeoutInSeconds = 10L;
+
+    // Maximum time to receive the response headers of an image server (the client request fails after it)
+    Long requestTimeoutInSeconds = 60L;
+
+    // Maximum number of requests in progress on one image server, others wait for a free slot (0 = no limit)
+    int maxConcurrentRequestsPerServer = 64;
+
+    // Validity of the token used by core to authenticate on the image servers
+    Long tokenValidityInMinutes = 30L;
+
+    // A new token is generated when the cached one expires in less than this delay
+    Long tokenRefreshMarginInMinutes = 5L;
+}
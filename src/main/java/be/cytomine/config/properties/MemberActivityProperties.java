@@ -0,0 +1,17 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class MemberActivityProperties {
+
+    // When disabled, the last image, last connection and number of connections of the members are aggregated from the raw collections
+    Boolean enabled = true;
+
+    // Rebuild the member activities from the raw collections at startup if there is none yet
+    Boolean backfillOnStartup = true;
+
+    // Maximum execution time of the activity lookup of a user page (MongoDB maxTimeMS), the columns are left empty when it expires (0: no limit)
+    Long lookupTimeoutInMillis = 5000L;
+}
@@ -0,0 +1,18 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class PresenceProperties {
+
+    // When disabled, online users are read from the lastConnection/lastUserPosition collections.
+    // Only enable it if a single core instance runs: the presence registry is kept in the memory of each instance
+    Boolean enabled = false;
+
+    // A user stays online this long after its last connection (ping)
+    Long connectionTimeToLiveInSeconds = 300L;
+
+    // A user stays online on an image this long after its last position
+    Long positionTimeToLiveInSeconds = 30L;
+}
@@ -0,0 +1,14 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class PrincipalCacheProperties {
+
+    // How long an authenticated user is reused before being read again from the database (0 disables the cache)
+    Long timeToLiveInSeconds = 30L;
+
+    // Maximum number of (username, token) entries kept in memory
+    Integer maxEntries = 10000;
+}
@@ -0,0 +1,14 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class ReviewLayerProperties {
+
+    // Layers with more annotations to review (or unreview) are processed in background
+    Long backgroundThreshold = 5000L;
+
+    // Maximum number of annotations reviewed (or unreviewed) by a statement
+    Integer chunkSize = 5000;
+}
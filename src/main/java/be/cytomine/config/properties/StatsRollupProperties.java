@@ -0,0 +1,14 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class StatsRollupProperties {
+
+    // When disabled, connection and consultation stats are aggregated from the raw collections
+    Boolean enabled = true;
+
+    // Rebuild the rollups from the raw collections at startup if there is none yet
+    Boolean backfillOnStartup = true;
+}
@@ -0,0 +1,17 @@
+package be.cytomine.config.properties;
+
+
+import lombok.Data;
+
+@Data
+public class UserPositionBufferProperties {
+
+    // When disabled, each position is written to the database directly
+    Boolean enabled = true;
+
+    // Delay between two flushes of the buffered positions
+    Long flushDelayInMilliseconds = 1000L;
+
+    // Maximum number of positions waiting to be written, a full buffer is flushed by the caller
+    Integer capacity = 10000;
+}
@@ -0,0 +1,20 @@
+package be.cytomine.dto;
+
+import lombok.Getter;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Image server response whose content is not loaded in memory: it must be read (and closed) by the caller.
+ */
+@Getter
+public class PimsStreamResponse {
+    private final InputStream content;
+    private final Map<String, String> headers;
+
+    public PimsStreamResponse(InputStream content, Map<String, String> headers) {
+        this.content = content;
+        this.headers = headers;
+    }
+}
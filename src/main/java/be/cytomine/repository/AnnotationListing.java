@@ -26,6 +26,7 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.utils.GeometryFormat;
 import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
@@ -111,6 +112,16 @@ public abstract class AnnotationListing {
     Boolean kmeans = false;
     Integer kmeansValue = 3;
 
+    //format of the location column (the stored WKT by default), decimal digits kept with TWKB
+    GeometryFormat geometryFormat = GeometryFormat.WKT;
+    Integer geometryPrecision = 0;
+
+    //pagination, only applied in SQL if the result is sorted by annotation id (see isPaginatedInSql)
+    Long offset = null;
+    Long max = null;
+    //keyset cursor: only list annotations with an id lower than this one
+    Long afterAnnotation = null;
+
     abstract String getFrom(Map<String, Object> parameters);
 
     public abstract String getDomainClass();
@@ -165,6 +176,9 @@ public abstract class AnnotationListing {
             }
         }
         columns.putAll(extraColmun);
+        if (geometryFormat != GeometryFormat.WKT && columns.containsKey("location")) {
+            columns.put("location", geometryFormat.toSqlColumn("a.location", geometryPrecision));
+        }
         return columns;
     }
 
@@ -220,48 +234,8 @@ public abstract class AnnotationListing {
                 postComputedColumns.put(colum.getKey(), colum.getValue());
             }
         }
-        String whereRequest =
-                getProjectConst(parameters) +
-                        getUserConst(parameters) +
-                        getUsersConst(parameters) +
-
-                        getImageConst(parameters) +
-                        getImagesConst(parameters) +
-
-                        getSliceConst(parameters) +
-                        getSlicesConst(parameters) +
-
-                        getTagConst(parameters) +
-                        getTagsConst(parameters) +
-
-                        getTermConst(parameters) +
-                        getTermsConst(parameters) +
-
-                        getTrackConst(parameters) +
-                        getTracksConst(parameters) +
-                        getBeforeOrAfterSliceConst(parameters) +
-
-                        getUsersForTermConst(parameters) +
-
-                        getUserForTermAlgoConst(parameters) +
-                        getUsersForTermAlgoConst(parameters) +
-
-                        getSuggestedTermConst(parameters) +
-                        getSuggestedTermsConst(parameters) +
-
-                        getNotReviewedOnlyConst() +
-                        getParentsConst(parameters) +
-                        getAvoidEmptyCentroidConst() +
-                        getReviewUsersConst(parameters) +
-
-                        getIntersectConst(parameters) +
-                        getIntersectAnnotationConst(parameters) +
-                        getMaxDistanceAnnotationConst(parameters) +
-                        getExcludedAnnotationConst(parameters) +
-
-                        getBeforeThan(parameters) +
-                        getAfterThan(parameters) +
-                        createOrderBy();
+        String whereConst = getWhereConst(parameters);
+        String whereRequest = whereConst + getPaginationConst(parameters, whereConst) + createOrderBy();
 
         if (term!=null || terms!=null || track!=null || tracks!=null) {
             String request = "SELECT DISTINCT a.*, ";
@@ -339,6 +313,99 @@ public abstract class AnnotationListing {
 
     }
 
+    /**
+     * Generate SQL request string counting the annotations matching the filters (pagination is ignored)
+     */
+    public String getAnnotationsCountRequest(Map<String, Object> parameters) {
+        buildExtraRequest(parameters);
+        buildColumnToPrint();
+        String whereConst = getWhereConst(parameters);
+        return "SELECT COUNT(DISTINCT a.id) " + getFrom(parameters) + whereConst;
+    }
+
+    /**
+     * Generate SQL string for all search criteria (without order)
+     */
+    String getWhereConst(Map<String, Object> parameters) {
+        return getProjectConst(parameters) +
+                        getUserConst(parameters) +
+                        getUsersConst(parameters) +
+
+                        getImageConst(parameters) +
+                        getImagesConst(parameters) +
+
+                        getSliceConst(parameters) +
+                        getSlicesConst(parameters) +
+
+                        getTagConst(parameters) +
+                        getTagsConst(parameters) +
+
+                        getTermConst(parameters) +
+                        getTermsConst(parameters) +
+
+                        getTrackConst(parameters) +
+                        getTracksConst(parameters) +
+                        getBeforeOrAfterSliceConst(parameters) +
+
+                        getUsersForTermConst(parameters) +
+
+                        getUserForTermAlgoConst(parameters) +
+                        getUsersForTermAlgoConst(parameters) +
+
+                        getSuggestedTermConst(parameters) +
+                        getSuggestedTermsConst(parameters) +
+
+                        getNotReviewedOnlyConst() +
+                        getParentsConst(parameters) +
+                        getAvoidEmptyCentroidConst() +
+                        getReviewUsersConst(parameters) +
+
+                        getIntersectConst(parameters) +
+                        getIntersectAnnotationConst(parameters) +
+                        getMaxDistanceAnnotationConst(parameters) +
+                        getExcludedAnnotationConst(parameters) +
+
+                        getBeforeThan(parameters) +
+                        getAfterThan(parameters);
+    }
+
+    /**
+     * Check if offset/max/afterAnnotation can be applied in the SQL request.
+     * Annotations must be sorted by id desc: it is the key used for the cursor and it keeps all rows
+     * of an annotation (one per term/track) in the same page.
+     */
+    public boolean isPaginatedInSql() {
+        boolean paginationAsked = (max != null && max > 0) || afterAnnotation != null;
+        return paginationAsked && kmeansValue != null && kmeansValue >= 3 && track == null && tracks == null && isSortedByAnnotationId();
+    }
+
+    boolean isSortedByAnnotationId() {
+        return orderBy == null || orderBy.isEmpty() || (orderBy.size() == 1 && "desc".equals(orderBy.get("id")));
+    }
+
+    /**
+     * Generate SQL string restricting the request to the asked page.
+     * An annotation may be on several rows (one per term/track), so the page is computed on distinct annotation ids.
+     */
+    String getPaginationConst(Map<String, Object> parameters, String whereConst) {
+        if (!isPaginatedInSql()) {
+            return "";
+        }
+        String cursorConst = "";
+        if (afterAnnotation != null) {
+            parameters.put("afterAnnotation", afterAnnotation);
+            cursorConst = "AND a.id < :afterAnnotation\n";
+        }
+        if (max == null || max <= 0) {
+            return cursorConst;
+        }
+        parameters.put("pageMax", max);
+        parameters.put("pageOffset", offset != null ? offset : 0L);
+        return cursorConst +
+                "AND a.id IN (SELECT DISTINCT a.id " + getFrom(parameters) + whereConst + cursorConst +
+                "ORDER BY a.id desc LIMIT :pageMax OFFSET :pageOffset)\n";
+    }
+
     /**
      * Generate SQL string for SELECT with only asked properties
      */
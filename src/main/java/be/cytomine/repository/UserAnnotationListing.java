@@ -191,10 +191,18 @@ public class UserAnnotationListing extends AnnotationListing {
         return (notReviewedOnly ? "AND a.count_reviewed_annotations=0\n" : "");
     }
 
+    @Override
+    boolean isSortedByAnnotationId() {
+        return !isOrderedByRate() && super.isSortedByAnnotationId();
+    }
+
+    private boolean isOrderedByRate() {
+        return (usersForTermAlgo != null || userForTermAlgo != null || suggestedTerm != null || suggestedTerms != null);
+    }
+
     String createOrderBy() {
         if (kmeansValue < 3) return "";
-        boolean orderByRate = (usersForTermAlgo != null || userForTermAlgo != null || suggestedTerm != null || suggestedTerms != null);
-        if (orderByRate) {
+        if (isOrderedByRate()) {
             return "ORDER BY aat.rate desc";
         } else if (orderBy == null || orderBy.isEmpty()) {
             String order = (track != null || tracks != null) ? "rank asc" : "a.id desc ";
@@ -54,6 +54,9 @@ public interface ImageInstanceRepository extends JpaRepository<ImageInstance, Lo
     @Query(value = "SELECT a.id FROM image_instance a WHERE project_id=:projectId AND parent_id IS NULL", nativeQuery = true)
     List<Long> getAllImageId(Long projectId);
 
+    @Query("SELECT i.id FROM ImageInstance i WHERE i.project.id = :projectId")
+    List<Long> findAllIdsByProject(Long projectId);
+
     @Query(value = "SELECT a FROM image_instance a WHERE project_id=:projectId AND base_image_id=:baseImageId AND parent_id IS NULL", nativeQuery = true)
     Optional<ImageInstance> findByProjectIdAndBaseImageId(Long projectId, Long baseImageId);
 
@@ -30,11 +30,40 @@ import java.util.Optional;
 
 public interface AnnotationIndexRepository extends JpaRepository<AnnotationIndex, Long>, JpaSpecificationExecutor<AnnotationIndex>  {
 
-    @Query( value = "SELECT user_id as user, slice_id as slice ,count_annotation as countAnnotation,count_reviewed_annotation as countReviewedAnnotation " +
-            " FROM annotation_index " +
-            " WHERE slice_id = :slice", nativeQuery = true)
+    /**
+     * Annotation indexes of the slice, including the pending counter deltas (see AnnotationCounterService)
+     */
+    @Query( value = "SELECT user_id as user, slice_id as slice, CAST(sum(count_annotation) AS BIGINT) as countAnnotation, CAST(sum(count_reviewed_annotation) AS BIGINT) as countReviewedAnnotation " +
+            " FROM (SELECT user_id, slice_id, count_annotation, count_reviewed_annotation " +
+            "       FROM annotation_index " +
+            "       WHERE slice_id = :slice " +
+            "       UNION ALL " +
+            "       SELECT target_id, slice_id, " +
+            "           CASE WHEN counter = 'annotation_index.count_annotation' THEN delta ELSE 0 END, " +
+            "           CASE WHEN counter = 'annotation_index.count_reviewed_annotation' THEN delta ELSE 0 END " +
+            "       FROM annotation_counter_delta " +
+            "       WHERE slice_id = :slice) counts " +
+            " GROUP BY user_id, slice_id", nativeQuery = true)
     List<AnnotationIndexLightDTO> findAllLightBySliceInstance(long slice);
 
+    /**
+     * Number of annotations of the user in these slices, including the pending counter deltas
+     */
+    @Query( value = "SELECT CAST(COALESCE(sum(count_annotation), 0) AS BIGINT) " +
+            " FROM (SELECT count_annotation FROM annotation_index WHERE slice_id IN (:slices) AND user_id = :user " +
+            "       UNION ALL " +
+            "       SELECT delta FROM annotation_counter_delta WHERE counter = 'annotation_index.count_annotation' AND slice_id IN (:slices) AND target_id = :user) counts", nativeQuery = true)
+    Long countAnnotations(List<Long> slices, Long user);
+
+    /**
+     * Number of reviewed annotations in these slices, including the pending counter deltas
+     */
+    @Query( value = "SELECT CAST(COALESCE(sum(count_reviewed_annotation), 0) AS BIGINT) " +
+            " FROM (SELECT count_reviewed_annotation FROM annotation_index WHERE slice_id IN (:slices) " +
+            "       UNION ALL " +
+            "       SELECT delta FROM annotation_counter_delta WHERE counter = 'annotation_index.count_reviewed_annotation' AND slice_id IN (:slices)) counts", nativeQuery = true)
+    Long countReviewedAnnotations(List<Long> slices);
+
 
     Optional<AnnotationIndexLightDTO> findOneBySliceAndUser(SliceInstance slice, SecUser user);
 
@@ -52,6 +52,9 @@ public interface UserAnnotationRepository extends JpaRepository<UserAnnotation,
 
     Long countByProjectAndCreatedBetween(Project project, Date createdMin, Date createdMax);
 
+    @Query("SELECT count(a) FROM UserAnnotation a WHERE a.project.id = :project AND a.user.id = :user AND a.image.id = :image AND a.created > :after AND a.created < :before")
+    Long countCreatedInImage(Long project, Long user, Long image, Date after, Date before);
+
 
     @Query(
             value = "SELECT a.id id, a.project_id container, '' url FROM user_annotation a, image_instance ii, abstract_image ai WHERE a.image_id = ii.id AND ii.base_image_id = ai.id AND ai.original_filename not like '%ndpi%svs%' AND GeometryType(a.location) != 'POINT' AND st_area(a.location) < 1500000 ORDER BY st_area(a.location) DESC",
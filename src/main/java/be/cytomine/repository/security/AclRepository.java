@@ -22,6 +22,7 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.Tuple;
 import java.util.List;
 
 @Repository
@@ -49,6 +50,12 @@ public interface AclRepository extends JpaRepository<SecUser, Long> {
             "AND ae.sid = sid.id ", nativeQuery = true)
     List<Integer> listMaskForUsers(Long domainId);
 
+    @Query(value = "SELECT aoi.object_id_identity AS domainId, ae.mask AS mask FROM acl_object_identity aoi, acl_sid sid, acl_entry ae " +
+            "WHERE sid.sid = :humanUsername "  +
+            "AND ae.acl_object_identity = aoi.id "+
+            "AND ae.sid = sid.id ", nativeQuery = true)
+    List<Tuple> listMasksForUser(String humanUsername);
+
     @Query(value = "SELECT id FROM acl_object_identity WHERE object_id_identity = :domainId", nativeQuery = true)
     Long getAclObjectIdentityFromDomainId(Long domainId);
 
@@ -74,6 +81,9 @@ public interface AclRepository extends JpaRepository<SecUser, Long> {
     @Query(value = "SELECT id FROM acl_sid WHERE sid = :username", nativeQuery = true)
     Long getAclSid(String username);
 
+    @Query(value = "SELECT sid FROM acl_sid WHERE id = :sid", nativeQuery = true)
+    String getAclSidName(Long sid);
+
     @Modifying
     @Query(value = "INSERT INTO acl_sid(id,principal,sid) VALUES(nextval('hibernate_sequence'),true,:username)", nativeQuery = true)
     void insertAclSid(String username);
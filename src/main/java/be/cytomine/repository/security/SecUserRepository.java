@@ -40,6 +40,9 @@ public interface SecUserRepository extends JpaRepository<SecUser, Long>, JpaSpec
     @EntityGraph(attributePaths = "roles")
     Optional<SecUser> findByUsernameLikeIgnoreCase(String username);
 
+    @EntityGraph(attributePaths = "roles")
+    Optional<SecUser> findWithRolesByUsernameLikeIgnoreCase(String username);
+
     @EntityGraph(attributePaths = "roles")
     Optional<SecUser> findByPublicKey(String publicKey);
 
@@ -16,9 +16,7 @@ package be.cytomine.security;
 * limitations under the License.
 */
 
-import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.ForbiddenException;
-import be.cytomine.repository.security.SecUserRepository;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,7 +40,7 @@ public class DomainUserDetailsService implements UserDetailsService {
 
     private final Logger log = LoggerFactory.getLogger(DomainUserDetailsService.class);
 
-    private final SecUserRepository secUserRepository;
+    private final PrincipalCache principalCache;
 
     @Override
     @Transactional
@@ -50,23 +48,23 @@ public class DomainUserDetailsService implements UserDetailsService {
         log.debug("Authenticating {}", login);
 
         String lowercaseLogin = login.toLowerCase(Locale.ENGLISH);
-        return secUserRepository.findByUsernameLikeIgnoreCase(lowercaseLogin)
+        return principalCache.findPrincipal(lowercaseLogin)
                 .map(user -> createSpringSecurityUser(lowercaseLogin, user))
                 .orElseThrow(() -> new UsernameNotFoundException("User " + lowercaseLogin + " was not found in the database"));
 
     }
-    private org.springframework.security.core.userdetails.User createSpringSecurityUser(String lowercaseLogin, SecUser user) {
-        if (!user.getEnabled()) {
+    private org.springframework.security.core.userdetails.User createSpringSecurityUser(String lowercaseLogin, PrincipalCache.Principal user) {
+        if (!user.isEnabled()) {
             throw new ForbiddenException("User " + lowercaseLogin + " was not permitted");
         }
         return new org.springframework.security.core.userdetails.User(
                 user.getUsername(),
                 user.getPassword(),
-                user.getEnabled(),
-                !user.getAccountExpired(),
-                !user.getPasswordExpired(),
-                !user.getAccountLocked(),
-                user.getRoles().stream().map(x -> new SimpleGrantedAuthority(x.getAuthority())).collect(Collectors.toList())
+                user.isEnabled(),
+                !user.isAccountExpired(),
+                !user.isPasswordExpired(),
+                !user.isAccountLocked(),
+                user.getAuthorities().stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList())
         );
     }
 }
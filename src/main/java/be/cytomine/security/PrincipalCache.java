@@ -0,0 +1,172 @@
+package be.cytomine.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.security.SecRole;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.utils.ExpiringMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Short lived cache of the users resolved while authenticating a request.
+ * Entries are keyed by username and token so that each JWT (or session) resolves its user once per TTL.
+ * A detached snapshot of the user is cached (id, username, roles and account status), so that authenticating
+ * a request does not read the database. Callers that need the entity get it from findByUsername(), which loads it
+ * by primary key in their own persistence context, so that lazy associations can be read and changes made by a
+ * request are not seen by the others.
+ * Every change to the account status, the password or the roles of a user must call invalidate().
+ */
+@Component
+public class PrincipalCache {
+
+    public static final String NO_TOKEN = "";
+
+    private final ExpiringMap<Key, Principal> entries;
+
+    private final SecUserRepository secUserRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    public PrincipalCache(SecUserRepository secUserRepository, ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.secUserRepository = secUserRepository;
+        this.applicationProperties = applicationProperties;
+        this.entries = new ExpiringMap<Key, Principal>(
+                () -> 1000 * applicationProperties.getPrincipalCache().getTimeToLiveInSeconds(),
+                () -> applicationProperties.getPrincipalCache().getMaxEntries(),
+                false
+        ).withMetrics(meterRegistry, "principal");
+    }
+
+    public Optional<SecUser> findByUsername(String username) {
+        return findByUsername(username, NO_TOKEN);
+    }
+
+    /**
+     * Load the entity of a user, in the persistence context of the caller.
+     */
+    public Optional<SecUser> findByUsername(String username, String tokenId) {
+        return findPrincipal(username, tokenId).flatMap(principal -> secUserRepository.findById(principal.getId()));
+    }
+
+    public Optional<Principal> findPrincipal(String username) {
+        return findPrincipal(username, NO_TOKEN);
+    }
+
+    public Optional<Principal> findPrincipal(String username, String tokenId) {
+        long timeToLive = 1000 * applicationProperties.getPrincipalCache().getTimeToLiveInSeconds();
+        if (timeToLive <= 0 || username == null) {
+            return secUserRepository.findWithRolesByUsernameLikeIgnoreCase(username).map(Principal::new);
+        }
+        Key key = new Key(username.toLowerCase(Locale.ENGLISH), Objects.requireNonNullElse(tokenId, NO_TOKEN));
+        Principal cached = entries.get(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<Principal> principal = secUserRepository.findWithRolesByUsernameLikeIgnoreCase(username).map(Principal::new);
+        principal.ifPresent(value -> entries.put(key, value));
+        return principal;
+    }
+
+    /**
+     * Forget all the entries of a user. If a transaction is running, entries are removed again after commit
+     * so that a concurrent request cannot cache the state read before the change was committed.
+     */
+    public void invalidate(String username) {
+        if (username == null) {
+            return;
+        }
+        String lowercaseUsername = username.toLowerCase(Locale.ENGLISH);
+        remove(lowercaseUsername);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    remove(lowercaseUsername);
+                }
+            });
+        }
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private void remove(String lowercaseUsername) {
+        entries.keySet().removeIf(key -> key.username.equals(lowercaseUsername));
+    }
+
+    /**
+     * What authentication needs to know about a user, read once from the database.
+     */
+    @Getter
+    public static class Principal implements Serializable {
+        private final Long id;
+        private final String username;
+        private final String password;
+        private final List<String> authorities;
+        private final boolean enabled;
+        private final boolean accountExpired;
+        private final boolean accountLocked;
+        private final boolean passwordExpired;
+
+        private Principal(SecUser user) {
+            this.id = user.getId();
+            this.username = user.getUsername();
+            this.password = user.getPassword();
+            this.authorities = user.getRoles().stream().map(SecRole::getAuthority).toList();
+            this.enabled = Boolean.TRUE.equals(user.getEnabled());
+            this.accountExpired = Boolean.TRUE.equals(user.getAccountExpired());
+            this.accountLocked = Boolean.TRUE.equals(user.getAccountLocked());
+            this.passwordExpired = Boolean.TRUE.equals(user.getPasswordExpired());
+        }
+    }
+
+    private static class Key {
+        private final String username;
+        private final String tokenId;
+
+        private Key(String username, String tokenId) {
+            this.username = username;
+            this.tokenId = tokenId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return username.equals(key.username) && tokenId.equals(key.tokenId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(username, tokenId);
+        }
+    }
+}
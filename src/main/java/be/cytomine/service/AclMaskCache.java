@@ -0,0 +1,133 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.repository.security.AclRepository;
+import be.cytomine.utils.ExpiringMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.Tuple;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory copy of the ACL masks (domain id, sid) => masks.
+ * All the masks of a sid are loaded with a single query the first time one of them is needed.
+ *
+ * Each ACL write must call invalidate() for the modified sid. Until the end of the transaction that modified it,
+ * the sid is read from the database (so that uncommitted entries are never shared with other requests)
+ * and its entries are dropped again once the transaction completes.
+ *
+ * Invalidation is local to this process: other nodes keep their copy until it expires (aclCache.timeToLiveInSeconds).
+ */
+@Component
+public class AclMaskCache {
+
+    private final ExpiringMap<String, Map<Long, List<Integer>>> entries;
+
+    // incremented on each invalidation, a load started before an invalidation is not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AclRepository aclRepository;
+
+    private final ApplicationProperties applicationProperties;
+
+    public AclMaskCache(AclRepository aclRepository, ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.aclRepository = aclRepository;
+        this.applicationProperties = applicationProperties;
+        this.entries = new ExpiringMap<String, Map<Long, List<Integer>>>(
+                () -> 1000 * applicationProperties.getAclCache().getTimeToLiveInSeconds(),
+                () -> applicationProperties.getAclCache().getMaxUsers(),
+                false
+        ).withMetrics(meterRegistry, "acl");
+    }
+
+    public List<Integer> getMasks(Long domainId, String sid) {
+        long timeToLive = 1000 * applicationProperties.getAclCache().getTimeToLiveInSeconds();
+        if (timeToLive <= 0 || sid == null || getModifiedSids().contains(sid)) {
+            return aclRepository.listMaskForUsers(domainId, sid);
+        }
+        Map<Long, List<Integer>> masks = entries.get(sid);
+        if (masks == null) {
+            long currentGeneration = generation.get();
+            masks = load(sid);
+            if (generation.get() == currentGeneration) {
+                entries.put(sid, masks);
+                // an invalidation may have run between the check and the put
+                if (generation.get() != currentGeneration) {
+                    entries.remove(sid, masks);
+                }
+            }
+        }
+        return masks.getOrDefault(domainId, List.of());
+    }
+
+    public void invalidate(String sid) {
+        if (sid == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        entries.remove(sid);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getOrBindModifiedSids().add(sid);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    private Map<Long, List<Integer>> load(String sid) {
+        Map<Long, List<Integer>> masks = new HashMap<>();
+        for (Tuple tuple : aclRepository.listMasksForUser(sid)) {
+            masks.computeIfAbsent(((BigInteger) tuple.get(0)).longValue(), x -> new ArrayList<>())
+                    .add((Integer) tuple.get(1));
+        }
+        masks.replaceAll((domainId, domainMasks) -> List.copyOf(domainMasks));
+        return masks;
+    }
+
+    private Set<String> getModifiedSids() {
+        Set<String> sids = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        return (sids != null ? sids : Set.of());
+    }
+
+    private Set<String> getOrBindModifiedSids() {
+        Set<String> sids = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (sids == null) {
+            Set<String> modifiedSids = ConcurrentHashMap.newKeySet();
+            TransactionSynchronizationManager.bindResource(this, modifiedSids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(AclMaskCache.this);
+                    generation.incrementAndGet();
+                    modifiedSids.forEach(entries::remove);
+                }
+            });
+            sids = modifiedSids;
+        }
+        return sids;
+    }
+}
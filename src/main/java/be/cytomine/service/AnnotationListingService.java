@@ -26,8 +26,7 @@ import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.KmeansGeometryService;
 import be.cytomine.utils.GisUtils;
 import be.cytomine.utils.JsonObject;
-import liquibase.pro.packaged.f;
-
+import org.hibernate.jpa.QueryHints;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -38,6 +37,8 @@ import javax.persistence.TupleElement;
 import javax.transaction.Transactional;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -45,6 +46,11 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Service
 public class AnnotationListingService  {
 
+    /**
+     * Number of rows fetched at once from the database when reading a listing result
+     */
+    private static final int FETCH_SIZE = 1000;
+
     @Autowired
     private SecurityACLService securityACLService;
 
@@ -56,6 +62,14 @@ public class AnnotationListingService  {
 
 
     public List listGeneric(AnnotationListing al) {
+        prepareListing(al);
+        return executeRequest(al);
+    }
+
+    /**
+     * Check read access on the listing container and set the kmeans rule to apply
+     */
+    public void prepareListing(AnnotationListing al) {
         securityACLService.check(al.container(),READ);
         if((al.getKmeans()!=null && al.getKmeans()) && al.getKmeansValue()==null) {
             if(al.getBbox()==null) {
@@ -72,7 +86,6 @@ public class AnnotationListingService  {
             //no kmeans
             al.setKmeansValue(KmeansGeometryService.FULL);
         }
-        return executeRequest(al);
     }
 
     public List executeRequest(AnnotationListing al) {
@@ -86,12 +99,46 @@ public class AnnotationListingService  {
         }
     }
 
+    /**
+     * Same as executeRequest, but each annotation is given to the consumer as soon as all its rows are read,
+     * so that the whole result is never kept in memory (listing must be prepared, see prepareListing).
+     */
+    public void streamRequest(AnnotationListing al, Consumer<Object> consumer) {
+        if(al.getKmeansValue()==KmeansGeometryService.FULL) {
+            selectGenericAnnotation(al, consumer::accept);
+        } else {
+            executeRequest(al).forEach(consumer);
+        }
+    }
+
+    /**
+     * Count annotations matching the listing filters (offset, max and cursor are ignored)
+     */
+    public Long countGeneric(AnnotationListing al) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        Query nativeQuery = entityManager.createNativeQuery(al.getAnnotationsCountRequest(parameters));
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            nativeQuery.setParameter(entry.getKey(), entry.getValue());
+        }
+        return ((Number) nativeQuery.getSingleResult()).longValue();
+    }
+
     /**
      * Execute request and format result into a list of map
      */
     private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
-
         List<AnnotationResult> data = new ArrayList<>();
+        selectGenericAnnotation(al, data::add);
+        return data;
+    }
+
+    /**
+     * Execute request and give each annotation (as a map) to the consumer.
+     * Rows are read through a cursor, an annotation is given to the consumer once its last row (term/track) is merged.
+     */
+    private void selectGenericAnnotation(AnnotationListing al, Consumer<AnnotationResult> consumer) {
+
+        AnnotationResult lastResult = null;
         long lastAnnotationId = -1;
         long lastTermId = -1;
         long lastTrackId = -1;
@@ -109,119 +156,127 @@ public class AnnotationListingService  {
 
 
         Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
+        nativeQuery.setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE);
         for (Map.Entry<String, Object> entry : parameters.entrySet()) {
             nativeQuery.setParameter(entry.getKey(), entry.getValue());
         }
-        List<Tuple> resultList = nativeQuery.getResultList();
-
-        for (Tuple rowResult : resultList) {
-            Map<String, Object> tuple = new LinkedHashMap<>();
-            for (TupleElement<?> element : rowResult.getElements()) {
-                Object value = rowResult.get(element.getAlias());
-                if (value instanceof BigInteger) {
-                    value = ((BigInteger)value).longValue();
+
+        try (Stream<Tuple> resultStream = nativeQuery.getResultStream()) {
+            Iterator<Tuple> resultIterator = resultStream.iterator();
+            while (resultIterator.hasNext()) {
+                Tuple rowResult = resultIterator.next();
+                Map<String, Object> tuple = new LinkedHashMap<>();
+                for (TupleElement<?> element : rowResult.getElements()) {
+                    Object value = rowResult.get(element.getAlias());
+                    if (value instanceof BigInteger) {
+                        value = ((BigInteger)value).longValue();
+                    }
+                    tuple.put(element.getAlias(), value);
                 }
-                tuple.put(element.getAlias(), value);
-            }
 
-            /**
-             * If an annotation has n multiple term, it will be on "n" lines.
-             * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
-             * For the other lines, we add term data to the last annotation
-             */
-            if ((Long)tuple.get("id") != lastAnnotationId) {
-                termAsked = false;
-                trackAsked = false;
-
-                if(first) {
-                    for (String columnName : al.getAllPropertiesName()) {
-                        if(columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
-                            realColumn.add(columnName);
+                /**
+                 * If an annotation has n multiple term, it will be on "n" lines.
+                 * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
+                 * For the other lines, we add term data to the last annotation
+                 */
+                if ((Long)tuple.get("id") != lastAnnotationId) {
+                    termAsked = false;
+                    trackAsked = false;
+
+                    if(first) {
+                        for (String columnName : al.getAllPropertiesName()) {
+                            if(columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
+                                realColumn.add(columnName);
+                            }
                         }
+                        first = false;
                     }
-                    first = false;
-                }
 
-                AnnotationResult item = new AnnotationResult();
-                item.put("class", al.getDomainClass());
+                    AnnotationResult item = new AnnotationResult();
+                    item.put("class", al.getDomainClass());
 
-                for (String columnName : realColumn) {
-                    item.put(columnName, tuple.get(columnName)!=null? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
-                }
+                    for (String columnName : realColumn) {
+                        item.put(columnName, tuple.get(columnName)!=null? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
+                    }
 
 
-                if(al.getColumnsToPrint().contains("term")) {
-                    termAsked = true;
-                    item.put("term", tuple.get("term")!=null? buildList(tuple.get("term")) : new ArrayList<>());
-                    item.put("userByTerm",
-                            tuple.get("term")!=null?
-                                    buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
-                }
+                    if(al.getColumnsToPrint().contains("term")) {
+                        termAsked = true;
+                        item.put("term", tuple.get("term")!=null? buildList(tuple.get("term")) : new ArrayList<>());
+                        item.put("userByTerm",
+                                tuple.get("term")!=null?
+                                        buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
+                    }
 
-                if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing)) {
-                    trackAsked = true;
-                    item.put("track", (tuple.get("track")!=null ? buildList(tuple.get("track")) : new ArrayList<>()));
-                    item.put("annotationTrack", (tuple.get("track")!=null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
-                }
+                    if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing || al instanceof AlgoAnnotationListing)) {
+                        trackAsked = true;
+                        item.put("track", (tuple.get("track")!=null ? buildList(tuple.get("track")) : new ArrayList<>()));
+                        item.put("annotationTrack", (tuple.get("track")!=null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
+                    }
 
-                if(al.getColumnsToPrint().contains("gis")) {
-                    item.put("perimeterUnit", tuple.get("perimeterunit") != null? GisUtils.retrieveUnit((Integer)tuple.get("perimeterunit")) : null);
-                    item.put("areaUnit", tuple.get("areaunit") != null? GisUtils.retrieveUnit((Integer)tuple.get("areaunit")) : null);
-                    item.put("centroid", new Point((Double)tuple.get("x"), (Double)tuple.get("y")));
-                }
+                    if(al.getColumnsToPrint().contains("gis")) {
+                        item.put("perimeterUnit", tuple.get("perimeterunit") != null? GisUtils.retrieveUnit((Integer)tuple.get("perimeterunit")) : null);
+                        item.put("areaUnit", tuple.get("areaunit") != null? GisUtils.retrieveUnit((Integer)tuple.get("areaunit")) : null);
+                        item.put("centroid", new Point((Double)tuple.get("x"), (Double)tuple.get("y")));
+                    }
 
-                if(al.getColumnsToPrint().contains("meta")) {
-                    if(al.getClass().getName().contains("UserAnnotation")) {
-                        item.put("cropURL",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    } else if(al.getClass().getName().contains("AlgoAnnotation")) {
-                        item.put("cropURL",UrlApi.getAlgoAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getAlgoAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    } else if(al.getClass().getName().contains("ReviewedAnnotation")) {
-                        item.put("cropURL",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+                    if(al.getColumnsToPrint().contains("meta")) {
+                        if(al.getClass().getName().contains("UserAnnotation")) {
+                            item.put("cropURL",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("smallCropURL",UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
+                            item.put("url",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+                        } else if(al.getClass().getName().contains("AlgoAnnotation")) {
+                            item.put("cropURL",UrlApi.getAlgoAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("smallCropURL",UrlApi.getAlgoAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
+                            item.put("url",UrlApi.getAlgoAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+                        } else if(al.getClass().getName().contains("ReviewedAnnotation")) {
+                            item.put("cropURL",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("smallCropURL",UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
+                            item.put("url",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
+                            item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
+                        }
                     }
-                }
-                data.add(item);
-            } else {
-                AnnotationResult lastResult = data.get(data.size()-1);
-                if (termAsked && tuple.get("term")!=null) {
-                    List lasResultUserByTerm = (List) lastResult.get("userByTerm");
-                    Map userByTerm = (Map)(lasResultUserByTerm).get(lasResultUserByTerm.size()-1);
-                    List term = ((List)lastResult.get("term"));
-                    if ((Long)tuple.get("term") == lastTermId) {
-                        if (!((List)(userByTerm.get("user"))).contains(tuple.get("userterm"))) {
-                            ((List)(userByTerm.get("user"))).add(tuple.get("userterm"));
+                    if (lastResult != null) {
+                        consumer.accept(lastResult);
+                    }
+                    lastResult = item;
+                } else {
+                    if (termAsked && tuple.get("term")!=null) {
+                        List lasResultUserByTerm = (List) lastResult.get("userByTerm");
+                        Map userByTerm = (Map)(lasResultUserByTerm).get(lasResultUserByTerm.size()-1);
+                        List term = ((List)lastResult.get("term"));
+                        if ((Long)tuple.get("term") == lastTermId) {
+                            if (!((List)(userByTerm.get("user"))).contains(tuple.get("userterm"))) {
+                                ((List)(userByTerm.get("user"))).add(tuple.get("userterm"));
+                            }
+                        } else if (!term.contains(tuple.get("term"))) {
+                            ((List)(lastResult.get("term"))).add(tuple.get("term"));
+                            ((List)lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
                         }
-                    } else if (!term.contains(tuple.get("term"))) {
-                        ((List)(lastResult.get("term"))).add(tuple.get("term"));
-                        ((List)lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
+                    }
+
+                    if (trackAsked && tuple.get("track")!=null && (long)tuple.get("track") != lastTrackId && !((List)lastResult.get("track")).contains(tuple.get("track"))) {
+                        ((List)lastResult.get("track")).add(tuple.get("track"));
+                        ((List)lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track") )));
                     }
                 }
 
-                if (trackAsked && tuple.get("track")!=null && (long)tuple.get("track") != lastTrackId && !((List)lastResult.get("track")).contains(tuple.get("track"))) {
-                    ((List)lastResult.get("track")).add(tuple.get("track"));
-                    ((List)lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track") )));
+                if (termAsked) {
+                    lastTermId = (tuple.get("term")!=null? (long)tuple.get("term") : -1);
                 }
-            }
 
-            if (termAsked) {
-                lastTermId = (tuple.get("term")!=null? (long)tuple.get("term") : -1);
-            }
+                if (trackAsked) {
+                    lastTrackId = (tuple.get("track")!=null? (long)tuple.get("track") : -1);
+                }
 
-            if (trackAsked) {
-                lastTrackId = (tuple.get("track")!=null? (long)tuple.get("track") : -1);
+                lastAnnotationId = (long)tuple.get("id");
             }
-
-            lastAnnotationId = (long)tuple.get("id");
         }
-        return data;
+        if (lastResult != null) {
+            consumer.accept(lastResult);
+        }
     }
 
     private boolean columnExists(Map<String, Object> tuple, String columnName) {
@@ -0,0 +1,324 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.meta.AttachedFile;
+import be.cytomine.domain.meta.Description;
+import be.cytomine.domain.meta.Property;
+import be.cytomine.domain.meta.TagDomainAssociation;
+import be.cytomine.domain.ontology.*;
+import be.cytomine.domain.social.AnnotationAction;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.service.ontology.AnnotationCounterService;
+import be.cytomine.service.social.MemberActivityService;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.Task;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static be.cytomine.utils.ClassUtils.getClassName;
+
+/**
+ * Delete images with all their dependencies (annotations and their terms, tracks, metadata, slices, social data...)
+ * with set-based statements, instead of deleting each dependency through its service.
+ *
+ * The tables are emptied in a fixed order (a row is deleted after the rows that reference it), chunkSize rows
+ * per statement, imagesByChunk images at a time. Only the deleted root (project or image) gets a command:
+ * dependencies are not saved one by one in the command history and cannot be restored by an undo.
+ * The annotation triggers are bypassed (cytomine.bulk_delete), the project counters are updated once per statement.
+ *
+ * Without a current transaction (background deletion), each statement is committed on its own:
+ * an interrupted deletion leaves no dangling row and is completed by deleting the root again.
+ */
+@Slf4j
+@Service
+public class CascadeDeletionService {
+
+    private static final String USER_ANNOTATIONS = "SELECT id FROM user_annotation WHERE image_id IN (:images)";
+
+    private static final String ALGO_ANNOTATIONS = "SELECT id FROM algo_annotation WHERE image_id IN (:images)";
+
+    private static final String REVIEWED_ANNOTATIONS = "SELECT id FROM reviewed_annotation WHERE image_id IN (:images)";
+
+    private static final String ANNOTATIONS = USER_ANNOTATIONS + " UNION ALL " + ALGO_ANNOTATIONS + " UNION ALL " + REVIEWED_ANNOTATIONS;
+
+    private static final String SLICES = "SELECT id FROM slice_instance WHERE image_id IN (:images)";
+
+    private static final String TRACKS = "SELECT id FROM track WHERE image_id IN (:images)";
+
+    private static final List<Step> IMAGE_DEPENDENCIES = new ArrayList<>();
+
+    static {
+        IMAGE_DEPENDENCIES.add(new Step("annotation_term", "user_annotation_id IN (" + USER_ANNOTATIONS + ")", AnnotationTerm.class));
+        IMAGE_DEPENDENCIES.add(new Step("algo_annotation_term", "annotation_ident IN (" + ANNOTATIONS + ")", AlgoAnnotationTerm.class));
+        IMAGE_DEPENDENCIES.add(new Step("reviewed_annotation_term", "reviewed_annotation_terms_id IN (" + REVIEWED_ANNOTATIONS + ")", null));
+        IMAGE_DEPENDENCIES.add(new Step("shared_annotation_user", "shared_annotation_receivers_id IN (SELECT id FROM shared_annotation WHERE annotation_ident IN (" + ANNOTATIONS + "))", null));
+        IMAGE_DEPENDENCIES.add(new Step("shared_annotation", "annotation_ident IN (" + ANNOTATIONS + ")", SharedAnnotation.class));
+        IMAGE_DEPENDENCIES.add(new Step("annotation_track", "slice_id IN (" + SLICES + ") OR track_id IN (" + TRACKS + ")", AnnotationTrack.class));
+        IMAGE_DEPENDENCIES.addAll(metadataSteps(ANNOTATIONS));
+        // a reviewed annotation is in the image of its parent, the parent review counter is not updated
+        IMAGE_DEPENDENCIES.add(new Step("reviewed_annotation", "image_id IN (:images)", ReviewedAnnotation.class, AnnotationCounterService.PROJECT_REVIEWED_ANNOTATIONS));
+        IMAGE_DEPENDENCIES.add(new Step("algo_annotation", "image_id IN (:images)", AlgoAnnotation.class, AnnotationCounterService.PROJECT_JOB_ANNOTATIONS));
+        IMAGE_DEPENDENCIES.add(new Step("user_annotation", "image_id IN (:images)", UserAnnotation.class, AnnotationCounterService.PROJECT_ANNOTATIONS));
+        IMAGE_DEPENDENCIES.addAll(metadataSteps("(:images)"));
+        IMAGE_DEPENDENCIES.add(new Step("annotation_index", "slice_id IN (" + SLICES + ")", AnnotationIndex.class));
+        IMAGE_DEPENDENCIES.add(new Step("track", "image_id IN (:images)", Track.class));
+        IMAGE_DEPENDENCIES.add(new Step("image_instance", "parent_id IN (:images)", ImageInstance.class));
+        IMAGE_DEPENDENCIES.add(new Step("slice_instance", "image_id IN (:images)", SliceInstance.class));
+    }
+
+    private static final Step IMAGES = new Step("image_instance", "id IN (:images)", ImageInstance.class);
+
+    private static final List<Class<?>> IMAGE_DOCUMENTS = List.of(AnnotationAction.class, LastUserPosition.class,
+            PersistentUserPosition.class, PersistentImageConsultation.class);
+
+    private final EntityManager entityManager;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final MemberActivityService memberActivityService;
+
+    private final TaskService taskService;
+
+    private final CurrentUserService currentUserService;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService executor;
+
+    public CascadeDeletionService(EntityManager entityManager, MongoTemplate mongoTemplate, MemberActivityService memberActivityService, TaskService taskService,
+                                  CurrentUserService currentUserService, ApplicationProperties applicationProperties, PlatformTransactionManager transactionManager) {
+        this.entityManager = entityManager;
+        this.mongoTemplate = mongoTemplate;
+        this.memberActivityService = memberActivityService;
+        this.taskService = taskService;
+        this.currentUserService = currentUserService;
+        this.applicationProperties = applicationProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // one deletion at a time, with the security context of the user who asked it
+        this.executor = new DelegatingSecurityContextExecutorService(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cascade-deletion");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean mustRunInBackground(long numberOfAnnotations) {
+        return numberOfAnnotations > applicationProperties.getCascadeDeletion().getBackgroundThreshold();
+    }
+
+    /**
+     * Delete the dependencies of the images, and the images themselves if withImages.
+     * The deletion progress is written in the task (if any).
+     * @return Number of rows deleted by table
+     */
+    public Map<String, Long> deleteImages(List<Long> images, boolean withImages, Task task) {
+        Map<String, Long> deleted = new LinkedHashMap<>();
+        if (images.isEmpty()) {
+            return deleted;
+        }
+        List<Step> steps = new ArrayList<>(IMAGE_DEPENDENCIES);
+        if (withImages) {
+            steps.add(IMAGES);
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            entityManager.flush();
+        }
+
+        int imagesByChunk = applicationProperties.getCascadeDeletion().getImagesByChunk();
+        for (int from = 0; from < images.size(); from += imagesByChunk) {
+            List<Long> chunk = images.subList(from, Math.min(images.size(), from + imagesByChunk));
+            if (task != null) {
+                taskService.updateTask(task, Math.min(99, from * 100 / images.size()),
+                        "Delete images " + (from + 1) + " to " + (from + chunk.size()) + " of " + images.size());
+            }
+            for (Step step : steps) {
+                long count;
+                long total = 0;
+                do {
+                    count = transactionTemplate.execute(status -> deleteChunk(step, chunk));
+                    total += count;
+                } while (count > 0 && count >= applicationProperties.getCascadeDeletion().getChunkSize());
+                deleted.merge(step.table, total, Long::sum);
+            }
+            for (Class<?> document : IMAGE_DOCUMENTS) {
+                long count = mongoTemplate.remove(Query.query(Criteria.where("image").in(chunk)), document).getDeletedCount();
+                deleted.merge(mongoTemplate.getCollectionName(document), count, Long::sum);
+            }
+            // the last image of the members who consulted these images is taken from their remaining consultations
+            memberActivityService.removeImages(chunk);
+        }
+        log.info("Images {} deleted: {}", images, deleted);
+        return deleted;
+    }
+
+    /**
+     * Delete the dependencies of the images in background, then run the deletion command of the root
+     * (a project or an image) in a new transaction.
+     * The job starts when the current transaction is committed. A task is created if none is given.
+     * @return Response with the root and the task following the deletion
+     */
+    public CommandResponse deleteInBackground(CytomineDomain root, List<Long> images, boolean withImages, Task task, Supplier<CommandResponse> command) {
+        Task deletionTask = (task != null ? task : taskService.createNewTask(null, currentUserService.getCurrentUser(), false));
+        String name = getClassName(root) + " " + root.getId();
+        Runnable job = () -> {
+            try {
+                deleteImages(images, withImages, deletionTask);
+                transactionTemplate.execute(status -> command.get());
+                taskService.finishTask(deletionTask);
+                log.info("{} deleted in background", name);
+            } catch (Exception e) {
+                log.error("Cannot delete " + name, e);
+                taskService.updateTask(deletionTask, deletionTask.getProgress(), "Deletion failed: " + e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    executor.submit(job);
+                }
+            });
+        } else {
+            executor.submit(job);
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("message", name + " is being deleted");
+        data.put("printMessage", true);
+        data.put("task", deletionTask.toJsonObject());
+        data.put(getClassName(root).toLowerCase(), root.toJsonObject());
+        CommandResponse response = new CommandResponse();
+        response.setStatus(200);
+        response.setObject(root);
+        response.setData(data);
+        return response;
+    }
+
+    private long deleteChunk(Step step, List<Long> images) {
+        entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_delete', 'true', true)").getSingleResult();
+        try {
+            String delete = "DELETE FROM " + step.table + " WHERE ctid IN (SELECT ctid FROM " + step.table +
+                    " WHERE " + step.condition + " LIMIT :limit)";
+            if (step.entity == null) {
+                return entityManager.createNativeQuery(delete)
+                        .setParameter("images", images)
+                        .setParameter("limit", applicationProperties.getCascadeDeletion().getChunkSize())
+                        .executeUpdate();
+            }
+            String request;
+            if (step.projectCounter == null) {
+                request = "WITH deleted AS (" + delete + " RETURNING id) SELECT id FROM deleted";
+            } else {
+                // the triggers are bypassed: one counter delta by project for the whole statement
+                request = "WITH deleted AS (" + delete + " RETURNING id, project_id, deleted), " +
+                        "deltas AS (INSERT INTO annotation_counter_delta(counter, target_id, slice_id, delta) " +
+                        "SELECT '" + step.projectCounter + "', project_id, NULL, -count(*) FROM deleted WHERE deleted IS NULL GROUP BY project_id) " +
+                        "SELECT id FROM deleted";
+            }
+            List<Number> ids = entityManager.createNativeQuery(request)
+                    .setParameter("images", images)
+                    .setParameter("limit", applicationProperties.getCascadeDeletion().getChunkSize())
+                    .getResultList();
+            detach(step.entity, ids);
+            return ids.size();
+        } finally {
+            entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_delete', 'false', true)").getSingleResult();
+        }
+    }
+
+    /**
+     * Deleted rows may still be loaded in the current persistence context (deletion in the request transaction)
+     */
+    private void detach(Class<?> entity, List<Number> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Set<Long> deleted = new HashSet<>();
+        for (Number id : ids) {
+            deleted.add(id.longValue());
+        }
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            if (entity.isInstance(entry.getKey()) && entry.getValue().getId() instanceof Long
+                    && deleted.contains((Long) entry.getValue().getId())) {
+                entityManager.detach(entry.getKey());
+            }
+        }
+    }
+
+    private static List<Step> metadataSteps(String domains) {
+        String condition = "domain_ident IN " + (domains.startsWith("(") ? domains : "(" + domains + ")");
+        return List.of(
+                new Step("property", condition, Property.class),
+                new Step("description", condition, Description.class),
+                new Step("attached_file", condition, AttachedFile.class),
+                new Step("tag_domain_association", condition, TagDomainAssociation.class)
+        );
+    }
+
+    private static class Step {
+        private final String table;
+        private final String condition;
+        // entity mapped on the table, null for join tables
+        private final Class<?> entity;
+        // project counter to decrement for the deleted annotations
+        private final String projectCounter;
+
+        private Step(String table, String condition, Class<?> entity) {
+            this(table, condition, entity, null);
+        }
+
+        private Step(String table, String condition, Class<?> entity, String projectCounter) {
+            this.table = table;
+            this.condition = condition;
+            this.entity = entity;
+            this.projectCounter = projectCounter;
+        }
+    }
+}
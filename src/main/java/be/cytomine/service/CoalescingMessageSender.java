@@ -0,0 +1,83 @@
+package be.cytomine.service;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Send messages to a WebSocket session, one at a time, keeping only the latest message while a send is in progress.
+ * A slow client skips the stale messages instead of buffering them.
+ */
+@Slf4j
+public class CoalescingMessageSender {
+
+    private final ConcurrentWebSocketSessionDecorator session;
+
+    private final AtomicReference<TextMessage> pending = new AtomicReference<>();
+
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    public CoalescingMessageSender(ConcurrentWebSocketSessionDecorator session) {
+        this.session = session;
+    }
+
+    public ConcurrentWebSocketSessionDecorator getSession() {
+        return session;
+    }
+
+    /**
+     * Queue the message, replacing the one not sent yet
+     * @return true if a pending message has been dropped
+     */
+    public boolean send(TextMessage message, Executor executor) {
+        boolean dropped = pending.getAndSet(message) != null;
+        schedule(executor);
+        return dropped;
+    }
+
+    private void schedule(Executor executor) {
+        if (sending.compareAndSet(false, true)) {
+            executor.execute(() -> drain(executor));
+        }
+    }
+
+    private void drain(Executor executor) {
+        try {
+            TextMessage message;
+            while ((message = pending.getAndSet(null)) != null) {
+                if (session.isOpen()) {
+                    session.sendMessage(message);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to send message to session {}: {}", session.getId(), e.getMessage());
+        } finally {
+            sending.set(false);
+        }
+        // a message queued between the last poll and the release of the flag
+        if (pending.get() != null) {
+            schedule(executor);
+        }
+    }
+}
@@ -21,7 +21,8 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
-import be.cytomine.utils.WeakConcurrentHashMap;
+import be.cytomine.utils.ExpiringMap;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
@@ -33,7 +34,9 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.annotation.SessionScope;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -43,7 +46,16 @@ public class CurrentRoleService {
     @Autowired
     private SecUserSecRoleRepository secUserSecRoleRepository;
 
-    public Map<String, Date> currentAdmins = new WeakConcurrentHashMap<>(120 * 60 * 1000); //admin session = 120 min max
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public Map<String, Date> currentAdmins;
+
+    @PostConstruct
+    public void init() {
+        //admin session = 120 min max
+        currentAdmins = new ExpiringMap<String, Date>(Duration.ofMinutes(120)).withMetrics(meterRegistry, "admin.session");
+    }
 
     public void clearAllAdminSession() {
         currentAdmins.clear();
@@ -20,10 +20,9 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.ServerException;
-import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.utils.SecurityUtils;
-import be.cytomine.utils.WeakConcurrentHashMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,7 +42,7 @@ import java.util.concurrent.ConcurrentMap;
 public class CurrentUserService {
 
     @Autowired
-    private SecUserRepository secUserRepository;
+    private PrincipalCache principalCache;
 
 
     public String getCurrentUsername() {
@@ -60,21 +59,24 @@ public class CurrentUserService {
         SecUser secUser;
         if (currentUser.isFullObjectProvided()) {
             secUser = currentUser.getUser();
+            checkAccountStatus(secUser.getAccountExpired(), secUser.getAccountLocked(), secUser.getEnabled());
         } else if(currentUser.isUsernameProvided()) {
-            secUser = secUserRepository.findByUsernameLikeIgnoreCase(currentUser.getUser().getUsername()).orElseThrow(() -> new ServerException("Cannot find current user with username " + currentUser.getUser().getUsername()));
+            String username = currentUser.getUser().getUsername();
+            PrincipalCache.Principal principal = principalCache.findPrincipal(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
+            checkAccountStatus(principal.isAccountExpired(), principal.isAccountLocked(), principal.isEnabled());
+            secUser = principalCache.findByUsername(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
         } else {
             throw new ObjectNotFoundException("User", "Cannot read current user. Object " + currentUser + " is not supported");
         }
-        checkAccountStatus(secUser);
         return secUser;
     }
 
-    private void checkAccountStatus(SecUser secUser) {
-        if (secUser.getAccountExpired()) {
+    private void checkAccountStatus(boolean accountExpired, boolean accountLocked, boolean enabled) {
+        if (accountExpired) {
             throw new ForbiddenException("Account expired");
-        } else if (secUser.getAccountLocked()) {
+        } else if (accountLocked) {
             throw new ForbiddenException("Account locked");
-        } else if (!secUser.getEnabled()) {
+        } else if (!enabled) {
             throw new ForbiddenException("Account disabled");
         }
 
@@ -526,7 +526,13 @@ public abstract class ModelService<T extends CytomineDomain> {
 
             result.add(resp);
         }
+        return buildAddMultipleResponse(result, errors);
+    }
 
+    /**
+     * Build the response of a multiple add from the result of each entry ({domain: id, status: ...} or {message: ..., status: ...})
+     */
+    protected JsonObject buildAddMultipleResponse(List<JsonObject> result, List errors) {
         JsonObject response = new JsonObject();
 
         List<JsonObject> succeeded = result.stream().filter(x -> x.getJSONAttrInteger("status")>=200 && x.getJSONAttrInteger("status")<=300).toList();
@@ -44,6 +44,9 @@ public class PermissionService {
     @Autowired
     private AclRepository aclRepository;
 
+    @Autowired
+    private AclMaskCache aclMaskCache;
+
     public boolean hasACLPermission(CytomineDomain domain, String username, Permission permission) {
         List<Integer> masks = getPermissionInACL(domain,username);
         return masks.stream().max(Integer::compare).orElse(-1) >= permission.getMask();
@@ -63,17 +66,19 @@ public class PermissionService {
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, User user) {
-        return aclRepository.listMaskForUsers(domain.getId(), user.humanUsername());
+        return aclMaskCache.getMasks(domain.getId(), user.humanUsername());
     }
 
     List<Integer> getPermissionInACL(CytomineDomain domain, String username) {
-        return aclRepository.listMaskForUsers(domain.getId(), username);
+        return aclMaskCache.getMasks(domain.getId(), username);
     }
 
 
     public void deletePermission(CytomineDomain domain, String username, Permission permission) {
         log.debug("Current mask for user {} on domain {} before request: {}", username, domain.getId(), aclRepository.listMaskForUsers(domain.getId(), username));
-        if (hasACLPermission(domain, username, permission)) {
+        // writes are decided on the database content, not on the cache
+        List<Integer> masks = aclRepository.listMaskForUsers(domain.getId(), username);
+        if (masks.stream().max(Integer::compare).orElse(-1) >= permission.getMask()) {
             log.info("Delete permission for {}, {}, {}", username, permission.getMask(), domain.getId());
 
             Long aclObjectIdentity = aclRepository.getAclObjectIdentityFromDomainId(domain.getId());
@@ -84,6 +89,7 @@ public class PermissionService {
                 throw new ObjectNotFoundException("User " + username + " or Object " + domain.getId() + " are not in ACL");
             }
             aclRepository.deleteAclEntry(aclObjectIdentity, mask, sid);
+            aclMaskCache.invalidate(username);
 
             log.info("User " + username + " right " + permission.getMask() + " in domain " + domain + " => " + hasACLPermission(domain, username, permission));
         }
@@ -105,7 +111,7 @@ public class PermissionService {
     }
 
     public void addPermission(CytomineDomain domain, String username, Permission permission, SecUser user) {
-        if (!hasExactACLPermission(domain, username, permission)) {
+        if (!aclRepository.listMaskForUsers(domain.getId(), username).contains(permission.getMask())) {
             //get domain class id
             Long aclClassId = getAclClassId(domain);
 
@@ -128,6 +134,7 @@ public class PermissionService {
         //get acl sid for the user
         Long sid = getAclSid(username);
         aclRepository.insertAclEntry(index, aclObjectIdentity, permission.getMask(), sid);
+        aclMaskCache.invalidate(username);
     }
 
 
@@ -149,6 +156,7 @@ public class PermissionService {
                 log.debug("next ace order {} for {}", max, aoi);
                 aclRepository.insertAclEntry(max, aoi, mask, sid);
                 aclEntryId = aclRepository.getAclEntryId(aoi, sid, mask);
+                aclMaskCache.invalidate(aclRepository.getAclSidName(sid));
             }
             return aclEntryId;
         }
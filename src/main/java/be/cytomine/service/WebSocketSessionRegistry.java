@@ -0,0 +1,203 @@
+package be.cytomine.service;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Open WebSocket sessions, indexed by user, by session id and by broadcast.
+ * A broadcast is identified by a key (e.g. "userId/imageId") and is followed by sessions of other users.
+ * Every lookup, connection and disconnection is done without scanning the other sessions.
+ */
+public class WebSocketSessionRegistry {
+
+    // user id -> (session id -> session)
+    private final Map<String, Map<String, ConcurrentWebSocketSessionDecorator>> sessionsByUser = new ConcurrentHashMap<>();
+
+    // session id -> user id
+    private final Map<String, String> owners = new ConcurrentHashMap<>();
+
+    // session id -> session
+    private final Map<String, ConcurrentWebSocketSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    // broadcast key -> broadcasting session
+    private final Map<String, ConcurrentWebSocketSessionDecorator> broadcasts = new ConcurrentHashMap<>();
+
+    // broadcasting session id -> broadcast key
+    private final Map<String, String> broadcastKeys = new ConcurrentHashMap<>();
+
+    // broadcast key -> (follower session id -> sender)
+    private final Map<String, Map<String, CoalescingMessageSender>> followers = new ConcurrentHashMap<>();
+
+    // follower session id -> followed broadcast keys
+    private final Map<String, Set<String>> followedBroadcasts = new ConcurrentHashMap<>();
+
+    public void register(String userId, ConcurrentWebSocketSessionDecorator session) {
+        sessions.put(session.getId(), session);
+        owners.put(session.getId(), userId);
+        sessionsByUser.compute(userId, (key, userSessions) -> {
+            if (userSessions == null) {
+                userSessions = new ConcurrentHashMap<>();
+            }
+            userSessions.put(session.getId(), session);
+            return userSessions;
+        });
+    }
+
+    /**
+     * Remove the session and stop it from following any broadcast
+     * @return The user of the session, null if the session was not registered
+     */
+    public String unregister(String sessionId) {
+        unfollow(sessionId);
+        sessions.remove(sessionId);
+        String userId = owners.remove(sessionId);
+        if (userId != null) {
+            sessionsByUser.computeIfPresent(userId, (key, userSessions) -> {
+                userSessions.remove(sessionId);
+                return userSessions.isEmpty() ? null : userSessions;
+            });
+        }
+        return userId;
+    }
+
+    public ConcurrentWebSocketSessionDecorator getSession(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    public Collection<ConcurrentWebSocketSessionDecorator> getSessions(String userId) {
+        Map<String, ConcurrentWebSocketSessionDecorator> userSessions = sessionsByUser.get(userId);
+        return (userSessions != null ? List.copyOf(userSessions.values()) : List.of());
+    }
+
+    public String getOwner(String sessionId) {
+        return owners.get(sessionId);
+    }
+
+    public void registerBroadcast(String broadcastKey, ConcurrentWebSocketSessionDecorator session) {
+        ConcurrentWebSocketSessionDecorator previous = broadcasts.put(broadcastKey, session);
+        if (previous != null && !previous.getId().equals(session.getId())) {
+            broadcastKeys.remove(previous.getId(), broadcastKey);
+        }
+        broadcastKeys.put(session.getId(), broadcastKey);
+    }
+
+    public ConcurrentWebSocketSessionDecorator getBroadcast(String broadcastKey) {
+        return broadcasts.get(broadcastKey);
+    }
+
+    public String getBroadcastKey(String sessionId) {
+        return broadcastKeys.get(sessionId);
+    }
+
+    /**
+     * Stop the broadcast made by this session
+     * @return The sessions that were following the broadcast
+     */
+    public List<ConcurrentWebSocketSessionDecorator> removeBroadcast(String sessionId) {
+        String broadcastKey = broadcastKeys.remove(sessionId);
+        if (broadcastKey == null) {
+            return List.of();
+        }
+        broadcasts.computeIfPresent(broadcastKey, (key, session) -> session.getId().equals(sessionId) ? null : session);
+        Map<String, CoalescingMessageSender> broadcastFollowers = followers.remove(broadcastKey);
+        if (broadcastFollowers == null) {
+            return List.of();
+        }
+        broadcastFollowers.keySet().forEach(followerId -> followedBroadcasts.computeIfPresent(followerId, (key, keys) -> {
+            keys.remove(broadcastKey);
+            return keys.isEmpty() ? null : keys;
+        }));
+        return broadcastFollowers.values().stream()
+                .map(CoalescingMessageSender::getSession)
+                .toList();
+    }
+
+    /**
+     * @return false if the session was already following the broadcast
+     */
+    public boolean follow(String broadcastKey, ConcurrentWebSocketSessionDecorator follower) {
+        boolean[] added = new boolean[1];
+        followers.compute(broadcastKey, (key, broadcastFollowers) -> {
+            if (broadcastFollowers == null) {
+                broadcastFollowers = new ConcurrentHashMap<>();
+            }
+            added[0] = broadcastFollowers.putIfAbsent(follower.getId(), new CoalescingMessageSender(follower)) == null;
+            return broadcastFollowers;
+        });
+        followedBroadcasts.compute(follower.getId(), (key, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(broadcastKey);
+            return keys;
+        });
+        return added[0];
+    }
+
+    public void unfollow(String followerSessionId) {
+        Set<String> keys = followedBroadcasts.remove(followerSessionId);
+        if (keys == null) {
+            return;
+        }
+        for (String broadcastKey : keys) {
+            followers.computeIfPresent(broadcastKey, (key, broadcastFollowers) -> {
+                broadcastFollowers.remove(followerSessionId);
+                return broadcastFollowers;
+            });
+        }
+    }
+
+    public Collection<CoalescingMessageSender> getFollowers(String broadcastKey) {
+        Map<String, CoalescingMessageSender> broadcastFollowers = followers.get(broadcastKey);
+        return (broadcastFollowers != null ? broadcastFollowers.values() : List.of());
+    }
+
+    /**
+     * Distinct users following the broadcast
+     */
+    public List<String> getFollowerIds(String broadcastKey) {
+        Map<String, CoalescingMessageSender> broadcastFollowers = followers.get(broadcastKey);
+        if (broadcastFollowers == null) {
+            return List.of();
+        }
+        return broadcastFollowers.keySet().stream()
+                .map(owners::get)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    public void clear() {
+        sessionsByUser.clear();
+        owners.clear();
+        sessions.clear();
+        broadcasts.clear();
+        broadcastKeys.clear();
+        followers.clear();
+        followedBroadcasts.clear();
+    }
+}
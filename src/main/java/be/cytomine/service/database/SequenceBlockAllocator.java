@@ -0,0 +1,87 @@
+package be.cytomine.service.database;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Hand out ids reserved by blocks from a database sequence.
+ *
+ * A block is a set of values returned by nextval, so it stays unique across several core instances
+ * and with the triggers that call nextval directly. The block is shared by the hibernate id generator
+ * and SequenceService (JPA entities and Mongo social documents). Ids are taken from memory without lock,
+ * only the refill of an exhausted block is synchronized.
+ * Unused ids of a block are lost when the application stops, ids are unique but not strictly increasing
+ * across instances.
+ */
+public final class SequenceBlockAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 50;
+
+    private static final Map<String, SequenceBlockAllocator> ALLOCATORS = new ConcurrentHashMap<>();
+
+    private static volatile int blockSize = DEFAULT_BLOCK_SIZE;
+
+    private final AtomicReference<Block> current = new AtomicReference<>(new Block(new long[0]));
+
+    private SequenceBlockAllocator() {
+
+    }
+
+    public static SequenceBlockAllocator forSequence(String sequenceName) {
+        return ALLOCATORS.computeIfAbsent(sequenceName, x -> new SequenceBlockAllocator());
+    }
+
+    public static void setBlockSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + size);
+        }
+        blockSize = size;
+    }
+
+    /**
+     * Get the next id.
+     * @param reserve Read the given number of new values from the sequence, only called when the block is exhausted
+     */
+    public long next(IntFunction<long[]> reserve) {
+        while (true) {
+            Block block = current.get();
+            int index = block.next.getAndIncrement();
+            if (index < block.ids.length) {
+                return block.ids[index];
+            }
+            synchronized (this) {
+                if (current.get() == block) {
+                    current.set(new Block(reserve.apply(blockSize)));
+                }
+            }
+        }
+    }
+
+    private static class Block {
+        private final long[] ids;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Block(long[] ids) {
+            this.ids = ids;
+        }
+    }
+}
@@ -16,17 +16,19 @@ package be.cytomine.service.database;
 * limitations under the License.
 */
 
+import be.cytomine.config.properties.ApplicationProperties;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.sql.DataSource;
 import javax.transaction.Transactional;
-import java.math.BigInteger;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
 
 @Service
 @Transactional
@@ -38,6 +40,9 @@ public class SequenceService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private ApplicationProperties applicationProperties;
+
 
 
 //    private Session getSession() {
@@ -64,19 +69,52 @@ public class SequenceService {
 //            throwables.printStackTrace();
 //        }
 //    }
+    @PostConstruct
+    public void initBlockSize() {
+        SequenceBlockAllocator.setBlockSize(applicationProperties.getSequenceBlockSize());
+    }
+
     /**
-     * Get a new id number
+     * Get a new id number.
+     * Ids are reserved by blocks and shared with the hibernate id generator, see SequenceBlockAllocator.
      */
     public Long generateID()  {
-        Statement statement = null;
+        return SequenceBlockAllocator.forSequence(SEQ_NAME).next(this::reserveIDs);
+    }
+
+    private long[] reserveIDs(int count) {
         try {
-            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
-            BigInteger val = (BigInteger) query.getSingleResult();
-            return val.longValue();
+            // plain JDBC, a native query would flush the session
+            return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("select nextval('" + SEQ_NAME + "') from generate_series(1, ?)")) {
+                    statement.setInt(1, count);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        long[] ids = new long[count];
+                        int i = 0;
+                        while (resultSet.next()) {
+                            ids[i++] = resultSet.getLong(1);
+                        }
+                        return ids;
+                    }
+                }
+            });
         } catch (Exception e) {
             throw new RuntimeException("Cannot generate ID with sequence: " + e, e);
         }
+    }
 
+    /**
+     * Get count new id numbers with a single query
+     */
+    public List<Long> generateIDs(int count)  {
+        try {
+            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "') from generate_series(1, :count);");
+            query.setParameter("count", count);
+            List<Object> values = query.getResultList();
+            return values.stream().map(x -> ((Number) x).longValue()).toList();
+        } catch (Exception e) {
+            throw new RuntimeException("Cannot generate IDs with sequence: " + e, e);
+        }
     }
 
 }
@@ -26,14 +26,10 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.*;
 import be.cytomine.repository.image.AbstractSliceRepository;
 import be.cytomine.repository.image.ImageInstanceRepository;
-import be.cytomine.repository.image.NestedImageInstanceRepository;
 import be.cytomine.repository.image.SliceInstanceRepository;
 import be.cytomine.repository.meta.PropertyRepository;
 import be.cytomine.repository.ontology.*;
-import be.cytomine.repositorynosql.social.AnnotationActionRepository;
-import be.cytomine.repositorynosql.social.LastUserPositionRepository;
-import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
-import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
+import be.cytomine.service.CascadeDeletionService;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
@@ -105,12 +101,6 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private AbstractSliceRepository abstractSliceRepository;
 
-    @Autowired
-    private SliceInstanceService sliceInstanceService;
-
-    @Autowired
-    private NestedImageInstanceRepository nestedImageInstanceRepository;
-
     @Autowired
     private SliceInstanceRepository sliceInstanceRepository;
 
@@ -132,18 +122,6 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private ReviewedAnnotationService reviewedAnnotationService;
 
-    @Autowired
-    private AnnotationActionRepository annotationActionRepository;
-
-    @Autowired
-    private PersistentUserPositionRepository persistentUserPositionRepository;
-
-    @Autowired
-    private LastUserPositionRepository lastUserPositionRepository;
-
-    @Autowired
-    private PersistentImageConsultationRepository persistentImageConsultationRepository;
-
     @Autowired
     PropertyService propertyService;
 
@@ -151,13 +129,10 @@ public class ImageInstanceService extends ModelService {
     PropertyRepository propertyRepository;
 
     @Autowired
-    AnnotationTrackRepository annotationTrackRepository;
-
-    @Autowired
-    TrackService trackService;
+    MongoClient mongoClient;
 
     @Autowired
-    MongoClient mongoClient;
+    CascadeDeletionService cascadeDeletionService;
 
     private AlgoAnnotationService algoAnnotationService;
 
@@ -881,12 +856,24 @@ public class ImageInstanceService extends ModelService {
         securityACLService.check(domain.container(), READ);
         securityACLService.checkFullOrRestrictedForOwner(domain.container(), ((ImageInstance)domain).getUser());
 
-        Project project = ((ImageInstance) domain).getProject();
+        ImageInstance image = (ImageInstance) domain;
+        long numberOfAnnotations = image.getCountImageAnnotations() + image.getCountImageJobAnnotations() + image.getCountImageReviewedAnnotations();
+        if (cascadeDeletionService.mustRunInBackground(numberOfAnnotations)) {
+            Long id = image.getId();
+            return cascadeDeletionService.deleteInBackground(image, List.of(id), false, task,
+                    () -> executeDeleteCommand(imageInstanceRepository.findById(id)
+                            .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id)), currentUser, transaction));
+        }
+        return executeDeleteCommand(image, currentUser, transaction);
+    }
+
+    private CommandResponse executeDeleteCommand(ImageInstance image, SecUser currentUser, Transaction transaction) {
+        Project project = image.getProject();
         if (Lock.getInstance().lockProject(project)) {
             try {
-                log.debug("Delete image " + domain.getId());
+                log.debug("Delete image " + image.getId());
                 Command c = new DeleteCommand(currentUser, transaction);
-                return executeCommand(c,domain, null);
+                return executeCommand(c,image, null);
             } finally {
                 Lock.getInstance().unlockProject(project);
             }
@@ -897,81 +884,7 @@ public class ImageInstanceService extends ModelService {
 
     @Override
     public void deleteDependencies(CytomineDomain domain, Transaction transaction, Task task) {
-        ImageInstance imageInstance = (ImageInstance)domain;
-        deleteDependentAlgoAnnotation(imageInstance, transaction, task);
-        deleteDependentReviewedAnnotation(imageInstance, transaction, task);
-        deleteDependentUserAnnotation(imageInstance, transaction, task);
-        deleteDependentAnnotationAction(imageInstance, transaction, task);
-        deleteDependentLastUserPosition(imageInstance, transaction, task);
-        deleteDependentPersistentUserPosition(imageInstance, transaction, task);
-        deleteDependentPersistentImageConsultation(imageInstance, transaction, task);
-        deleteDependentMetadata(imageInstance, transaction, task);
-        deleteDependentDescription(imageInstance, transaction, task);
-        deleteDependentAttachedFile(imageInstance, transaction, task);
-        deleteDependentTagDomainAssociation(imageInstance, transaction, task);
-        deleteDependentNestedImageInstance(imageInstance, transaction, task);
-        deleteDependentSliceInstance(imageInstance, transaction, task);
-        deleteDependentTrack(imageInstance, transaction, task);
-    }
-
-    private void deleteDependentAlgoAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (AlgoAnnotation algoAnnotation : algoAnnotationRepository.findAllByImage(image)) {
-            algoAnnotationService.delete(algoAnnotation, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentReviewedAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (ReviewedAnnotation reviewedAnnotation : reviewedAnnotationRepository.findAllByImage(image)) {
-            reviewedAnnotationService.delete(reviewedAnnotation, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentUserAnnotation(ImageInstance image, Transaction transaction, Task task) {
-        for (UserAnnotation userAnnotation : userAnnotationRepository.findAllByImage(image)) {
-            log.debug("Delete userAnnotation : " + userAnnotation.getUser());
-            userAnnotationService.delete(userAnnotation, transaction, task, false);
-        }
-    }
-
-
-
-    private void deleteDependentAnnotationAction(ImageInstance image, Transaction transaction, Task task) {
-        annotationActionRepository.deleteAllByImage(image.getId());
-    }
-
-    private void deleteDependentLastUserPosition(ImageInstance image, Transaction transaction, Task task) {
-        lastUserPositionRepository.deleteAllByImage(image.getId());
-    }
-
-    private void deleteDependentPersistentUserPosition(ImageInstance image, Transaction transaction, Task task) {
-        persistentUserPositionRepository.deleteAllByImage(image.getId());
-    }
-
-    private void deleteDependentPersistentImageConsultation(ImageInstance image, Transaction transaction, Task task) {
-        persistentImageConsultationRepository.deleteAllByImage(image.getId());
-    }
-
-
-    private void deleteDependentNestedImageInstance(ImageInstance image, Transaction transaction, Task task) {
-        List<NestedImageInstance> nestedImageInstances = nestedImageInstanceRepository.findAllByParent(image);
-        for (NestedImageInstance nestedImageInstance : nestedImageInstances) {
-            nestedImageInstanceRepository.delete(nestedImageInstance);
-        }
-    }
-
-
-
-    private void deleteDependentSliceInstance(ImageInstance image, Transaction transaction, Task task) {
-        List<SliceInstance> slices = sliceInstanceRepository.findAllByImage(image);
-        for (SliceInstance slice : slices) {
-            sliceInstanceService.delete(slice, transaction, task, false);
-        }
-    }
-
-    private void deleteDependentTrack(ImageInstance image, Transaction transaction, Task task) {
-        for (Track track : trackService.list(image)) {
-            trackService.delete(track, transaction, task, false);
-        }
+        cascadeDeletionService.deleteImages(List.of(domain.getId()), false, task);
     }
 
     @Override
@@ -0,0 +1,395 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerClientProperties;
+import be.cytomine.security.jwt.JwtTokenGenerator;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLSession;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * HTTP client shared by all requests from core to the image servers (PIMS).
+ * There is one client (thus one pool of keep-alive connections) per image server,
+ * and the token authenticating core on the image servers is reused until it is about to expire.
+ * The number of requests in progress on an image server is limited: other requests wait (without holding a thread
+ * for asynchronous ones) until a slot is released.
+ * Each request is timed in the "cytomine.imageserver.requests" metric (tags: server, outcome).
+ */
+@Slf4j
+@Component
+public class ImageServerHttpClient {
+
+    private final ImageServerClientProperties properties;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService executor;
+
+    private final Map<String, HttpClient> clients = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> activeRequests = new ConcurrentHashMap<>();
+
+    private final Map<String, ConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    private volatile String token;
+
+    private volatile Instant tokenExpiryTime = Instant.EPOCH;
+
+    public ImageServerHttpClient(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.applicationProperties = applicationProperties;
+        this.properties = applicationProperties.getImageServerClient();
+        this.meterRegistry = meterRegistry;
+        this.executor = properties.getExecutorThreads() > 0 ? Executors.newFixedThreadPool(properties.getExecutorThreads()) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Send the request to the given image server (its internal url) with the core token
+     */
+    public <T> HttpResponse<T> send(String server, HttpRequest.Builder requestBuilder, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        requestBuilder.setHeader("Authorization", "Bearer " + getToken());
+        requestBuilder.timeout(Duration.ofSeconds(properties.getRequestTimeoutInSeconds()));
+        ConcurrencyLimit limit = getLimit(server);
+        CompletableFuture<Void> slot = limit.acquire();
+        try {
+            slot.get(properties.getRequestTimeoutInSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // if the slot has been handed over meanwhile, it must be given back
+            if (!slot.cancel(false)) {
+                limit.release();
+            }
+            throw new IOException("No free slot for a request to " + server + " after " + properties.getRequestTimeoutInSeconds() + "s");
+        } catch (CancellationException | ExecutionException e) {
+            throw new IOException("Request to " + server + " cancelled");
+        }
+        AtomicInteger active = activeRequests.computeIfAbsent(server, this::registerActiveRequestsGauge);
+        active.incrementAndGet();
+        long start = System.nanoTime();
+        String outcome = "ERROR";
+        try {
+            HttpResponse<T> response = getClient(server).send(requestBuilder.build(), bodyHandler);
+            outcome = outcome(response.statusCode());
+            return response;
+        } finally {
+            active.decrementAndGet();
+            limit.release();
+            recordRequest(server, outcome, start);
+        }
+    }
+
+    /**
+     * Send the request to the given image server without blocking the calling thread.
+     * The future completes as soon as the response headers are received, the body is streamed.
+     * The slot of the image server is released when the body stream is closed: it must always be closed.
+     * Cancelling the future gives up the request: it leaves the queue of the image server, the request in progress
+     * is cancelled and a response received afterwards is closed. The time spent waiting for a slot is bounded
+     * by the request timeout too.
+     */
+    public CompletableFuture<HttpResponse<InputStream>> sendAsync(String server, HttpRequest.Builder requestBuilder) {
+        requestBuilder.setHeader("Authorization", "Bearer " + getToken());
+        requestBuilder.timeout(Duration.ofSeconds(properties.getRequestTimeoutInSeconds()));
+        HttpRequest request = requestBuilder.build();
+        ConcurrencyLimit limit = getLimit(server);
+        CompletableFuture<HttpResponse<InputStream>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<HttpResponse<InputStream>>> upstream = new AtomicReference<>();
+        CompletableFuture<Void> slot = limit.acquire().orTimeout(properties.getRequestTimeoutInSeconds(), TimeUnit.SECONDS);
+
+        result.whenComplete((ignored, error) -> {
+            if (result.isCancelled()) {
+                slot.cancel(false);
+                CompletableFuture<HttpResponse<InputStream>> sent = upstream.get();
+                if (sent != null) {
+                    sent.cancel(true);
+                }
+            }
+        });
+
+        slot.whenComplete((ignored, slotError) -> {
+            if (slotError != null) {
+                result.completeExceptionally(slotError instanceof TimeoutException ?
+                        new IOException("No free slot for a request to " + server + " after " + properties.getRequestTimeoutInSeconds() + "s") :
+                        slotError);
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled while the slot was handed over
+                limit.release();
+                return;
+            }
+            AtomicInteger active = activeRequests.computeIfAbsent(server, this::registerActiveRequestsGauge);
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            Runnable onClose = () -> {
+                active.decrementAndGet();
+                limit.release();
+            };
+            CompletableFuture<HttpResponse<InputStream>> sent;
+            try {
+                sent = getClient(server).sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            upstream.set(sent);
+            sent.whenComplete((response, error) -> {
+                recordRequest(server, response != null ? outcome(response.statusCode()) : "ERROR", start);
+                if (error != null) {
+                    onClose.run();
+                    result.completeExceptionally(error);
+                    return;
+                }
+                ReleasingResponse releasingResponse = new ReleasingResponse(response, new ReleasingInputStream(response.body(), onClose));
+                if (!result.complete(releasingResponse)) {
+                    // the request has been cancelled meanwhile: nobody will read the body
+                    closeQuietly(releasingResponse.body());
+                }
+            });
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.debug("Cannot close image server response", e);
+        }
+    }
+
+    HttpClient getClient(String server) {
+        return clients.computeIfAbsent(server, key -> {
+            log.info("Create HTTP client for image server {}", key);
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(properties.getConnectTimeoutInSeconds()));
+            if (executor != null) {
+                builder.executor(executor);
+            }
+            return builder.build();
+        });
+    }
+
+    /**
+     * Token for core on the image servers. It is generated again when it expires in less than the refresh margin.
+     */
+    String getToken() {
+        Instant refreshLimit = Instant.now().plus(Duration.ofMinutes(properties.getTokenRefreshMarginInMinutes()));
+        if (token == null || tokenExpiryTime.isBefore(refreshLimit)) {
+            synchronized (this) {
+                if (token == null || tokenExpiryTime.isBefore(refreshLimit)) {
+                    Map<String, Object> payload = new HashMap<>();
+                    payload.put("application", "core");
+                    Map<String, Object> tokenData = JwtTokenGenerator.generateJwtToken(applicationProperties, payload,
+                            SignatureAlgorithm.HS256, properties.getTokenValidityInMinutes());
+                    tokenExpiryTime = (Instant) tokenData.get("expiryTime");
+                    token = (String) tokenData.get("token");
+                }
+            }
+        }
+        return token;
+    }
+
+    int getRequestsInProgress(String server) {
+        return getLimit(server).getInProgress();
+    }
+
+    private ConcurrencyLimit getLimit(String server) {
+        return limits.computeIfAbsent(server, key -> new ConcurrencyLimit(properties.getMaxConcurrentRequestsPerServer()));
+    }
+
+    private void recordRequest(String server, String outcome, long start) {
+        Timer.builder("cytomine.imageserver.requests")
+                .tag("server", server)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private AtomicInteger registerActiveRequestsGauge(String server) {
+        AtomicInteger active = new AtomicInteger();
+        meterRegistry.gauge("cytomine.imageserver.requests.active", Tags.of("server", server), active);
+        return active;
+    }
+
+    private static String outcome(int statusCode) {
+        if (statusCode >= 500) {
+            return "SERVER_ERROR";
+        } else if (statusCode >= 400) {
+            return "CLIENT_ERROR";
+        }
+        return "SUCCESS";
+    }
+
+    /**
+     * Limit of requests in progress on one image server. Requests over the limit are queued (FIFO) and their future
+     * completes when a slot is released. A max of 0 or less means no limit.
+     */
+    static class ConcurrencyLimit {
+
+        private final int max;
+
+        private int inProgress = 0;
+
+        private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+
+        ConcurrencyLimit(int max) {
+            this.max = max;
+        }
+
+        synchronized CompletableFuture<Void> acquire() {
+            if (max <= 0 || inProgress < max) {
+                inProgress++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> slot = new CompletableFuture<>();
+            waiting.add(slot);
+            return slot;
+        }
+
+        void release() {
+            while (true) {
+                CompletableFuture<Void> next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        inProgress--;
+                        return;
+                    }
+                }
+                // the slot is handed over to the next request (unless it has been cancelled meanwhile)
+                if (next.complete(null)) {
+                    return;
+                }
+            }
+        }
+
+        synchronized int getInProgress() {
+            return inProgress;
+        }
+    }
+
+    private static class ReleasingInputStream extends FilterInputStream {
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private final Runnable onClose;
+
+        ReleasingInputStream(InputStream in, Runnable onClose) {
+            super(in);
+            this.onClose = onClose;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    onClose.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Same response, but with a body stream releasing the image server slot when closed
+     */
+    private static class ReleasingResponse implements HttpResponse<InputStream> {
+
+        private final HttpResponse<InputStream> response;
+
+        private final InputStream body;
+
+        ReleasingResponse(HttpResponse<InputStream> response, InputStream body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+
+        @Override
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public HttpRequest request() {
+            return response.request();
+        }
+
+        @Override
+        public Optional<HttpResponse<InputStream>> previousResponse() {
+            return response.previousResponse();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return response.headers();
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return response.sslSession();
+        }
+
+        @Override
+        public URI uri() {
+            return response.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return response.version();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageServerCacheProperties;
+import be.cytomine.dto.PimsResponse;
+import be.cytomine.exceptions.NotModifiedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Local cache for image server (PIMS) responses carrying an ETag (thumbs, associated images, histograms).
+ * Responses are kept in memory (LRU bounded by size). If a disk path is configured, responses evicted from
+ * memory are written on disk (LRU bounded by size too) and moved back to memory on the next hit.
+ * A response is served from the cache while it is fresh (Cache-Control max-age),
+ * then it must be revalidated on the image server with its ETag.
+ * The disk entries only live as long as the process: the files spilled by a previous run are deleted on startup.
+ */
+@Slf4j
+@Component
+public class ImageServerResponseCache {
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private final ImageServerCacheProperties properties;
+
+    private final MeterRegistry meterRegistry;
+
+    private final LinkedHashMap<String, CachedResponse> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memorySize = 0;
+
+    private final LinkedHashMap<String, CachedResponse> disk = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long diskSize = 0;
+
+    public ImageServerResponseCache(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.properties = applicationProperties.getImageServerCache();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Delete the responses spilled on disk by a previous run (their headers were only kept in memory).
+     * Only the files named by the cache (UUID) are deleted, the directory may be shared.
+     */
+    @PostConstruct
+    public void clearDiskSpill() {
+        if (!isDiskEnabled() || !Files.isDirectory(Paths.get(properties.getDiskPath()))) {
+            return;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(properties.getDiskPath()))) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file) && isSpillFileName(file.getFileName().toString())) {
+                    deleteFile(file);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot clear image server cache directory {}", properties.getDiskPath(), e);
+        }
+        if (deleted > 0) {
+            log.info("{} image server responses of a previous run deleted from {}", deleted, properties.getDiskPath());
+        }
+    }
+
+    private static boolean isSpillFileName(String name) {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.getEnabled() != null && properties.getEnabled();
+    }
+
+    private boolean isDiskEnabled() {
+        return properties.getDiskPath() != null && !properties.getDiskPath().isBlank();
+    }
+
+    public CachedResponse get(String key) {
+        CachedResponse response;
+        CachedResponse spilled = null;
+        synchronized (this) {
+            response = memory.get(key);
+            if (response == null) {
+                spilled = disk.get(key);
+            }
+        }
+        if (response == null && spilled != null) {
+            try {
+                response = spilled.withContent(Files.readAllBytes(spilled.getFile()));
+                put(key, response);
+            } catch (IOException e) {
+                log.warn("Cannot read cached image server response {}", spilled.getFile(), e);
+                removeFromDisk(key, spilled);
+            }
+        }
+        meterRegistry.counter("cytomine.imageserver.cache", "result", response != null ? "hit" : "miss").increment();
+        return response;
+    }
+
+    /**
+     * Cache the response if the image server allows it (ETag given, no "no-store")
+     */
+    public void put(String key, PimsResponse response) {
+        String etag = response.getHeaders().get("ETag");
+        String cacheControl = response.getHeaders().getOrDefault("Cache-Control", "");
+        if (etag == null || cacheControl.contains("no-store")) {
+            return;
+        }
+        put(key, new CachedResponse(response.getContent(), new LinkedHashMap<>(response.getHeaders()), etag, expiresAt(cacheControl), null));
+    }
+
+    /**
+     * The image server confirmed (304) that the cached response is still valid: extend its freshness
+     */
+    public CachedResponse revalidated(String key, CachedResponse cached, Map<String, String> headers) {
+        Map<String, String> newHeaders = new LinkedHashMap<>(cached.getHeaders());
+        if (headers != null) {
+            newHeaders.putAll(headers);
+        }
+        CachedResponse response = new CachedResponse(cached.getContent(), newHeaders, cached.getEtag(),
+                expiresAt(newHeaders.getOrDefault("Cache-Control", "")), null);
+        put(key, response);
+        meterRegistry.counter("cytomine.imageserver.cache", "result", "revalidated").increment();
+        return response;
+    }
+
+    private void put(String key, CachedResponse response) {
+        if (response.size() > properties.getMaxSizeInMegabytes() * MEGABYTE) {
+            return;
+        }
+        List<Map.Entry<String, CachedResponse>> evicted = new ArrayList<>();
+        CachedResponse previousOnDisk;
+        synchronized (this) {
+            CachedResponse previous = memory.put(key, response);
+            if (previous != null) {
+                memorySize -= previous.size();
+            }
+            memorySize += response.size();
+            previousOnDisk = disk.remove(key);
+            if (previousOnDisk != null) {
+                diskSize -= previousOnDisk.size();
+            }
+            Iterator<Map.Entry<String, CachedResponse>> iterator = memory.entrySet().iterator();
+            while (memorySize > properties.getMaxSizeInMegabytes() * MEGABYTE && iterator.hasNext()) {
+                Map.Entry<String, CachedResponse> eldest = iterator.next();
+                iterator.remove();
+                memorySize -= eldest.getValue().size();
+                evicted.add(eldest);
+            }
+        }
+        if (previousOnDisk != null) {
+            deleteFile(previousOnDisk.getFile());
+        }
+        if (isDiskEnabled()) {
+            for (Map.Entry<String, CachedResponse> entry : evicted) {
+                spill(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void spill(String key, CachedResponse response) {
+        Path file = Paths.get(properties.getDiskPath(), UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, response.getContent());
+        } catch (IOException e) {
+            log.warn("Cannot write image server response in cache directory {}", file, e);
+            return;
+        }
+        List<Path> filesToDelete = new ArrayList<>();
+        synchronized (this) {
+            if (memory.containsKey(key)) {
+                // already back in memory with a newer response
+                filesToDelete.add(file);
+            } else {
+                CachedResponse previous = disk.put(key, response.onDisk(file));
+                if (previous != null) {
+                    diskSize -= previous.size();
+                    filesToDelete.add(previous.getFile());
+                }
+                diskSize += response.size();
+                Iterator<CachedResponse> iterator = disk.values().iterator();
+                while (diskSize > properties.getDiskMaxSizeInMegabytes() * MEGABYTE && iterator.hasNext()) {
+                    CachedResponse eldest = iterator.next();
+                    iterator.remove();
+                    diskSize -= eldest.size();
+                    filesToDelete.add(eldest.getFile());
+                }
+            }
+        }
+        filesToDelete.forEach(this::deleteFile);
+    }
+
+    private void removeFromDisk(String key, CachedResponse spilled) {
+        synchronized (this) {
+            if (disk.remove(key, spilled)) {
+                diskSize -= spilled.size();
+            }
+        }
+        deleteFile(spilled.getFile());
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete cached image server response {}", file, e);
+        }
+    }
+
+    private static long expiresAt(String cacheControl) {
+        long maxAge = 0;
+        if (!cacheControl.contains("no-cache")) {
+            for (String directive : cacheControl.split(",")) {
+                String value = directive.trim();
+                if (value.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(value.substring("max-age=".length()));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return System.currentTimeMillis() + maxAge * 1000;
+    }
+
+    @Getter
+    public static class CachedResponse {
+
+        private final byte[] content;
+
+        private final Map<String, String> headers;
+
+        private final String etag;
+
+        private final long expiresAt;
+
+        private final Path file;
+
+        private final long size;
+
+        CachedResponse(byte[] content, Map<String, String> headers, String etag, long expiresAt, Path file) {
+            this.content = content;
+            this.headers = headers;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.file = file;
+            this.size = content != null ? content.length : 0;
+        }
+
+        private CachedResponse(CachedResponse response, byte[] content, Path file) {
+            this.content = content;
+            this.headers = response.headers;
+            this.etag = response.etag;
+            this.expiresAt = response.expiresAt;
+            this.file = file;
+            this.size = response.size;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        long size() {
+            return size;
+        }
+
+        CachedResponse onDisk(Path file) {
+            return new CachedResponse(this, null, file);
+        }
+
+        CachedResponse withContent(byte[] content) {
+            return new CachedResponse(this, content, null);
+        }
+
+        /**
+         * Response for a client that already has the version identified by clientEtag (may be null)
+         */
+        public PimsResponse toPimsResponse(String clientEtag) {
+            if (clientEtag != null && clientEtag.equals(etag)) {
+                throw new NotModifiedException(new LinkedHashMap<>(headers));
+            }
+            return new PimsResponse(content, new LinkedHashMap<>(headers));
+        }
+    }
+}
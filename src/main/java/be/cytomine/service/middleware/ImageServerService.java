@@ -23,9 +23,9 @@ import be.cytomine.domain.image.*;
 import be.cytomine.domain.middleware.ImageServer;
 import be.cytomine.domain.ontology.AnnotationDomain;
 import be.cytomine.dto.PimsResponse;
+import be.cytomine.dto.PimsStreamResponse;
 import be.cytomine.exceptions.*;
 import be.cytomine.repository.middleware.ImageServerRepository;
-import be.cytomine.security.jwt.JwtTokenGenerator;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.UrlApi;
@@ -44,15 +44,18 @@ import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 import static be.cytomine.utils.HttpUtils.getContentFromUrl;
 
@@ -81,6 +84,12 @@ public class ImageServerService extends ModelService {
     @Autowired
     private ApplicationProperties applicationProperties;
 
+    @Autowired
+    private ImageServerHttpClient imageServerHttpClient;
+
+    @Autowired
+    private ImageServerResponseCache imageServerResponseCache;
+
     @Autowired
     public void setImageInstanceService(ImageInstanceService imageInstanceService) {
         this.imageInstanceService = imageInstanceService;
@@ -228,7 +237,7 @@ public class ImageServerService extends ModelService {
         String server = image.getImageServerInternalUrl();
         String uri = this.buildEncodedUri("image", image, "/histogram/per-image");
         LinkedHashMap<String, Object> params = new LinkedHashMap<>(Map.of("n_bins", nBins));
-        PimsResponse pimsResponse = makeRequest("GET", server, uri, params, "json", Map.of());
+        PimsResponse pimsResponse = makeCachedRequest(server, uri, params, "json", null);
         Map<String, Object> json = JsonObject.toMap(new String(pimsResponse.getContent()));
         return StringUtils.keysToCamelCase(json);
     }
@@ -250,7 +259,7 @@ public class ImageServerService extends ModelService {
         String server = image.getImageServerInternalUrl();
         String uri = this.buildEncodedUri("image", image, "/histogram/per-channels");
         LinkedHashMap<String, Object> params = new LinkedHashMap<>(Map.of("n_bins", nBins));
-        PimsResponse pimsResponse = makeRequest("GET", server, uri, params, "json", Map.of());
+        PimsResponse pimsResponse = makeCachedRequest(server, uri, params, "json", null);
         Map<String, Object> json = JsonObject.toMap(new String(pimsResponse.getContent()));
         List<Map<String, Object>> items = (List<Map<String, Object>>) json.get("items");
         return items.stream().map(x -> renameChannelHistogramKeys(StringUtils.keysToCamelCase(x))).toList();
@@ -396,11 +405,7 @@ public class ImageServerService extends ModelService {
         LinkedHashMap<String, Object> parameters = new LinkedHashMap<>();
         parameters.put("length", params.getMaxSize());
 
-        Map<String, Object> headers = new LinkedHashMap<>();
-        if (etag!=null) {
-            headers.put("If-None-Match", etag);
-        }
-        return makeRequest("GET", server, uri, parameters, format, headers);
+        return makeCachedRequest(server, uri, parameters, format, etag);
     }
 
     public PimsResponse thumb(ImageInstance image, ImageParameter params, String etag)  {
@@ -445,11 +450,7 @@ public class ImageServerService extends ModelService {
             }
         }
 
-        Map<String, Object> headers = new LinkedHashMap<>();
-        if (etag!=null) {
-            headers.put("If-None-Match", etag);
-        }
-        return makeRequest("GET", server, uri, parameters, format, headers);
+        return makeCachedRequest(server, uri, parameters, format, etag);
     }
 
 //    public PimsResponse thumb(String server, String path, ImageParameter params, String etag) {
@@ -493,7 +494,22 @@ public class ImageServerService extends ModelService {
     }
 
     public PimsResponse crop(AbstractSlice slice, CropParameter cropParameter, String etag) throws UnsupportedEncodingException, ParseException {
+        return makeRequest(cropRequest(slice, cropParameter, etag));
+    }
+
+    public CompletableFuture<PimsStreamResponse> cropAsync(AnnotationDomain annotation, CropParameter params, String etag) throws UnsupportedEncodingException, ParseException {
+        params.setLocation(annotation.getWktLocation());
+        return cropAsync(annotation.getSlice().getBaseSlice(), params, etag);
+    }
+
+    /**
+     * Same as crop, but the image server is not awaited by the calling thread and the crop is not loaded in memory
+     */
+    public CompletableFuture<PimsStreamResponse> cropAsync(AbstractSlice slice, CropParameter cropParameter, String etag) throws UnsupportedEncodingException, ParseException {
+        return makeStreamRequest(cropRequest(slice, cropParameter, etag));
+    }
 
+    private ImageServerRequest cropRequest(AbstractSlice slice, CropParameter cropParameter, String etag) throws UnsupportedEncodingException, ParseException {
         String server = slice.getImageServerInternalUrl();
         String uri = cropUri(slice.getPath(), cropParameter);
         LinkedHashMap<String,Object> parameters = cropParameters(cropParameter);
@@ -518,7 +534,7 @@ public class ImageServerService extends ModelService {
             }
         }
 
-        return makeRequest("POST", server, uri, parameters, format, headers);
+        return new ImageServerRequest("POST", server, uri, parameters, format, headers);
     }
 
 
@@ -655,6 +671,17 @@ public class ImageServerService extends ModelService {
 //    }
 
     public PimsResponse window(AbstractSlice slice, WindowParameter windowParameter, String etag) throws UnsupportedEncodingException, ParseException {
+        return makeRequest(windowRequest(slice, windowParameter, etag));
+    }
+
+    /**
+     * Same as window, but the image server is not awaited by the calling thread and the window is not loaded in memory
+     */
+    public CompletableFuture<PimsStreamResponse> windowAsync(AbstractSlice slice, WindowParameter windowParameter, String etag) throws UnsupportedEncodingException, ParseException {
+        return makeStreamRequest(windowRequest(slice, windowParameter, etag));
+    }
+
+    private ImageServerRequest windowRequest(AbstractSlice slice, WindowParameter windowParameter, String etag) throws ParseException {
         String server = slice.getImageServerInternalUrl();
         String uri = this.buildEncodedUri("image", slice, "/window");
 
@@ -683,7 +710,7 @@ public class ImageServerService extends ModelService {
             headers.put("If-None-Match", etag);
         }
 
-        return makeRequest("POST", server, uri, parameters, format, headers);
+        return new ImageServerRequest("POST", server, uri, parameters, format, headers);
     }
 
     public String windowUrl(AbstractSlice slice, WindowParameter windowParameter) throws UnsupportedEncodingException, ParseException {
@@ -819,6 +846,54 @@ public class ImageServerService extends ModelService {
         return makeRequest(httpMethod, imageServerInternalUrl, path, parameters, format, headers, false);
     }
 
+    /**
+     * GET request whose response may be served from the local image server response cache.
+     * A fresh cached response is returned without contacting the image server; a stale one is revalidated
+     * with its ETag. etag is the version the client already has (may be null): if it matches, a 304 is thrown.
+     */
+    private PimsResponse makeCachedRequest(String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, String etag) {
+        Map<String, Object> headers = new LinkedHashMap<>();
+        if (!imageServerResponseCache.isEnabled()) {
+            if (etag!=null) {
+                headers.put("If-None-Match", etag);
+            }
+            return makeRequest("GET", imageServerInternalUrl, path, parameters, format, headers);
+        }
+
+        String key;
+        try {
+            key = imageServerInternalUrl + path + "?" + makeParameterUrl(parameters) + "#" + format;
+        } catch (UnsupportedEncodingException e) {
+            throw new InvalidRequestException("Cannot encode parameters " + parameters);
+        }
+
+        ImageServerResponseCache.CachedResponse cached = imageServerResponseCache.get(key);
+        if (cached!=null && cached.isFresh()) {
+            return cached.toPimsResponse(etag);
+        }
+        if (cached!=null) {
+            headers.put("If-None-Match", cached.getEtag());
+        } else if (etag!=null) {
+            headers.put("If-None-Match", etag);
+        }
+
+        PimsResponse response;
+        try {
+            response = makeRequest("GET", imageServerInternalUrl, path, parameters, format, headers);
+        } catch (NotModifiedException e) {
+            if (cached==null) {
+                // the version of the client is still valid, but we have nothing to cache
+                throw e;
+            }
+            return imageServerResponseCache.revalidated(key, cached, e.getHeaders()).toPimsResponse(etag);
+        }
+        imageServerResponseCache.put(key, response);
+        if (etag!=null && etag.equals(response.getHeaders().get("ETag"))) {
+            throw new NotModifiedException(response.getHeaders());
+        }
+        return response;
+    }
+
     private PimsResponse makeRequest(String httpMethod, String imageServerInternalUrl, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers, boolean hms)  {
 
         parameters = filterParameters(parameters);
@@ -830,45 +905,8 @@ public class ImageServerService extends ModelService {
         try {
             parameterUrl = makeParameterUrl(parameters);
             fullUrl = imageServerInternalUrl + path + "?" + parameterUrl;
-            log.debug(fullUrl);
-            HttpClient httpClient = HttpClient.newBuilder()
-                    .version(HttpClient.Version.HTTP_1_1)
-                    .build();
-
-            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
-            if ((fullUrl).length() < GET_URL_MAX_LENGTH && (httpMethod==null || httpMethod.equals("GET"))) {
-                log.debug("GET " + fullUrl);
-                requestBuilder.GET()
-                        .uri(URI.create(fullUrl));
-            } else {
-                log.debug("POST " + imageServerInternalUrl + path);
-                log.debug(JsonObject.toJsonString(parameters));
-                String requestContentType = "application/json";
-                if (hms) {
-                    requestContentType = "application/x-www-form-urlencoded";
-                }
-
-                HttpRequest.BodyPublisher bodyPublisher;
-                if(hms) {
-                    bodyPublisher = HttpRequest.BodyPublishers.ofString(StringUtils.urlEncodeUTF8(parameters));
-                } else {
-                    bodyPublisher = HttpRequest.BodyPublishers.ofString(JsonObject.toJsonString(parameters));
-                }
-
-                requestBuilder.POST(bodyPublisher)
-                        .uri(URI.create(imageServerInternalUrl + path))
-                        .setHeader("content-type", requestContentType);
-            }
-            requestBuilder.setHeader("Accept", responseContentType);
-            for (Map.Entry<String, Object> entry : headers.entrySet()) {
-                requestBuilder.setHeader(entry.getKey(), (String) entry.getValue());
-            }
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("application", "core");
-            Map<String, Object> tokenData = JwtTokenGenerator.generateJwtToken(applicationProperties, payload);
-            requestBuilder.setHeader("Authorization", "Bearer "+tokenData.get("token"));
-            HttpRequest request = requestBuilder.build();
-            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            HttpRequest.Builder requestBuilder = buildRequest(httpMethod, imageServerInternalUrl, path, fullUrl, parameters, responseContentType, headers, hms);
+            HttpResponse<byte[]> response = imageServerHttpClient.send(imageServerInternalUrl, requestBuilder, HttpResponse.BodyHandlers.ofByteArray());
             return processResponse(fullUrl, responseContentType, response);
         } catch(NotModifiedException e){
             throw e;
@@ -878,21 +916,132 @@ public class ImageServerService extends ModelService {
         }
     }
 
+    private PimsResponse makeRequest(ImageServerRequest request) {
+        return makeRequest(request.httpMethod, request.server, request.path, request.parameters, request.format, request.headers);
+    }
+
+    /**
+     * Send the request without waiting for the image server. The future completes when the response headers
+     * are received, or exceptionally (NotModifiedException for a 304, InvalidRequestException, ...). The content is streamed.
+     */
+    private CompletableFuture<PimsStreamResponse> makeStreamRequest(ImageServerRequest request) {
+        LinkedHashMap<String, Object> parameters = filterParameters(request.parameters);
+        String responseContentType = formatToContentType(request.format);
+
+        String parameterUrl;
+        String fullUrl;
+        HttpRequest.Builder requestBuilder;
+        try {
+            parameterUrl = makeParameterUrl(parameters);
+            fullUrl = request.server + request.path + "?" + parameterUrl;
+            requestBuilder = buildRequest(request.httpMethod, request.server, request.path, fullUrl, parameters, responseContentType, request.headers, false);
+        } catch(Exception e){
+            log.error("Error for url : " + request.server + request.path + " with parameters " + parameters, e);
+            throw new InvalidRequestException("Cannot generate image for " + request.server + request.path);
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> sent = imageServerHttpClient.sendAsync(request.server, requestBuilder);
+        CompletableFuture<PimsStreamResponse> streamResponse = sent.handle((response, error) -> {
+            if (error != null) {
+                if (sent.isCancelled()) {
+                    throw new CancellationException();
+                }
+                log.error("Error for url : " + fullUrl + " with parameters " + parameterUrl, error);
+                throw new InvalidRequestException("Cannot generate image for " + fullUrl + " with " + parameterUrl);
+            }
+            if (response.statusCode() != 200) {
+                try (InputStream body = response.body()) {
+                    body.transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    log.debug("Cannot read error response for url : " + fullUrl, e);
+                }
+                checkResponseStatus(fullUrl, response.statusCode(), response.headers());
+            }
+            return new PimsStreamResponse(response.body(), extractPIMSHeaders(response.headers()));
+        });
+        // giving up the response (e.g. the client request timed out) gives up the image server request
+        streamResponse.whenComplete((ignored, error) -> {
+            if (streamResponse.isCancelled() && !sent.cancel(true) && !sent.isCompletedExceptionally()) {
+                ImageServerHttpClient.closeQuietly(sent.join().body());
+            }
+        });
+        return streamResponse;
+    }
+
+    private HttpRequest.Builder buildRequest(String httpMethod, String imageServerInternalUrl, String path, String fullUrl, LinkedHashMap<String, Object> parameters, String responseContentType, Map<String, Object> headers, boolean hms) {
+        log.debug(fullUrl);
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
+        if ((fullUrl).length() < GET_URL_MAX_LENGTH && (httpMethod==null || httpMethod.equals("GET"))) {
+            log.debug("GET " + fullUrl);
+            requestBuilder.GET()
+                    .uri(URI.create(fullUrl));
+        } else {
+            log.debug("POST " + imageServerInternalUrl + path);
+            log.debug(JsonObject.toJsonString(parameters));
+            String requestContentType = "application/json";
+            if (hms) {
+                requestContentType = "application/x-www-form-urlencoded";
+            }
+
+            HttpRequest.BodyPublisher bodyPublisher;
+            if(hms) {
+                bodyPublisher = HttpRequest.BodyPublishers.ofString(StringUtils.urlEncodeUTF8(parameters));
+            } else {
+                bodyPublisher = HttpRequest.BodyPublishers.ofString(JsonObject.toJsonString(parameters));
+            }
+
+            requestBuilder.POST(bodyPublisher)
+                    .uri(URI.create(imageServerInternalUrl + path))
+                    .setHeader("content-type", requestContentType);
+        }
+        requestBuilder.setHeader("Accept", responseContentType);
+        for (Map.Entry<String, Object> entry : headers.entrySet()) {
+            requestBuilder.setHeader(entry.getKey(), (String) entry.getValue());
+        }
+        return requestBuilder;
+    }
+
     private PimsResponse processResponse(String fullUrl, String responseContentType, HttpResponse<byte[]> response) {
-        if (response.statusCode()==200) {
-            return new PimsResponse(response.body(), extractPIMSHeaders(response.headers()));
-        } else  if (response.statusCode()==304) {
-            throw new NotModifiedException(extractPIMSHeaders(response.headers()));
-        } else  if (response.statusCode()==400) {
+        checkResponseStatus(fullUrl, response.statusCode(), response.headers());
+        return new PimsResponse(response.body(), extractPIMSHeaders(response.headers()));
+    }
+
+    private void checkResponseStatus(String fullUrl, int statusCode, HttpHeaders headers) {
+        if (statusCode==200) {
+            return;
+        } else  if (statusCode==304) {
+            throw new NotModifiedException(extractPIMSHeaders(headers));
+        } else  if (statusCode==400) {
             throw new InvalidRequestException(fullUrl + " returned a 400 bad request");
-        } else  if (response.statusCode()==404) {
+        } else  if (statusCode==404) {
             throw new ObjectNotFoundException(fullUrl + " returned a 404 not found");
-        } else  if (response.statusCode()==422) {
+        } else  if (statusCode==422) {
             throw new InvalidRequestException(fullUrl + " returned a 422");
-        } else  if (response.statusCode()==422) {
+        } else  if (statusCode==422) {
             throw new ServerException(fullUrl + " returned a 500");
         }
-        throw new ServerException(fullUrl + " returned a " + response.statusCode() + ". Cannot catch this.");
+        throw new ServerException(fullUrl + " returned a " + statusCode + ". Cannot catch this.");
+    }
+
+    /**
+     * Request to an image server, built once and sent either synchronously or asynchronously
+     */
+    private static class ImageServerRequest {
+        private final String httpMethod;
+        private final String server;
+        private final String path;
+        private final LinkedHashMap<String, Object> parameters;
+        private final String format;
+        private final Map<String, Object> headers;
+
+        ImageServerRequest(String httpMethod, String server, String path, LinkedHashMap<String, Object> parameters, String format, Map<String, Object> headers) {
+            this.httpMethod = httpMethod;
+            this.server = server;
+            this.path = path;
+            this.parameters = parameters;
+            this.format = format;
+            this.headers = headers;
+        }
     }
 
 
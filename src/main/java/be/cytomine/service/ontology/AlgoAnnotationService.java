@@ -46,13 +46,12 @@ import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.service.utils.ValidateGeometryService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.GeometryFormat;
 import be.cytomine.utils.GeometryUtils;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.Task;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKTReader;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -232,7 +231,10 @@ public class AlgoAnnotationService extends ModelService {
 
         Geometry annotationShape;
         try {
-            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
+            annotationShape = GeometryFormat.readLocation(jsonObject);
+        }
+        catch (WrongArgumentException e) {
+            throw e;
         }
         catch (Exception ignored) {
             throw new WrongArgumentException("Annotation location is not valid");
@@ -250,12 +252,7 @@ public class AlgoAnnotationService extends ModelService {
                 envelope.getMaxY() > image.getBaseImage().getHeight())) {
             double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
             double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
+            Geometry insideBounds = GeometryUtils.createBoundingBox(0, maxX, 0, maxY);
             annotationShape = annotationShape.intersection(insideBounds);
         }
 
@@ -267,25 +264,19 @@ public class AlgoAnnotationService extends ModelService {
         }
 
         //simplify annotation
+        Geometry location = annotationShape;
         try {
             SimplifiedAnnotation simplifiedAnnotation =
                     simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
-            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
+            location = simplifiedAnnotation.getNewAnnotation();
             jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
         } catch (Exception e) {
             log.error("Cannot simplify annotation location:" + e);
         }
 
-        if (jsonObject.isMissing("location")) {
-            jsonObject.put("location", annotationShape);
-            jsonObject.put("geometryCompression", 0.0d);
-        }
-
-        if (jsonObject.get("location") instanceof Geometry) {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
-        } else {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
-        }
+        // the location is now kept as a geometry, whatever its format was
+        jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(location));
+        jsonObject.remove("geometryFormat");
 
         //Start transaction
         Transaction transaction = transactionService.start();
@@ -369,9 +360,12 @@ public class AlgoAnnotationService extends ModelService {
 
         Geometry annotationShape;
         try {
-            annotationShape = new WKTReader().read(jsonNewData.getJSONAttrStr("location"));
+            annotationShape = GeometryFormat.readLocation(jsonNewData);
+        }
+        catch (WrongArgumentException e) {
+            throw e;
         }
-        catch (ParseException ignored) {
+        catch (Exception ignored) {
             throw new WrongArgumentException("Annotation location is not valid");
         }
 
@@ -386,25 +380,23 @@ public class AlgoAnnotationService extends ModelService {
                 envelope.getMaxY() > image.getBaseImage().getHeight())) {
             double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
             double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
+            Geometry insideBounds = GeometryUtils.createBoundingBox(0, maxX, 0, maxY);
             annotationShape = annotationShape.intersection(insideBounds);
         }
 
 
         //simplify annotation
+        Geometry location = annotationShape;
         try {
             double rate = jsonNewData.getJSONAttrDouble("geometryCompression", 0d);
             SimplifiedAnnotation data = simplifyGeometryService.simplifyPolygon(annotationShape, rate);
-            jsonNewData.put("location", data.getNewAnnotation());
+            location = data.getNewAnnotation();
             jsonNewData.put("geometryCompression", data.getRate());
         } catch (Exception e) {
             log.error("Cannot simplify annotation location:" + e);
         }
+        jsonNewData.put("location", location);
+        jsonNewData.remove("geometryFormat");
 
         CommandResponse result = executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
         return result;
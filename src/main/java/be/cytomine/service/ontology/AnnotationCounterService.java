@@ -0,0 +1,275 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Annotation counters (project, image instance and annotation index counts).
+ * Annotation triggers do not update (and lock) the project/image/index rows: they append the change
+ * in annotation_counter_delta, in the same transaction as the annotation.
+ * Pending deltas are aggregated and applied periodically (and on shutdown), so a project row is updated once per flush
+ * instead of once per annotation. Read paths that must be exact (annotation index) add the pending deltas.
+ * A reconciliation job recomputes all counters from the annotation tables.
+ */
+@Slf4j
+@Service
+public class AnnotationCounterService {
+
+    public static final String IMAGE_ANNOTATIONS = "image_instance.count_image_annotations";
+    public static final String IMAGE_JOB_ANNOTATIONS = "image_instance.count_image_job_annotations";
+    public static final String IMAGE_REVIEWED_ANNOTATIONS = "image_instance.count_image_reviewed_annotations";
+    public static final String PROJECT_ANNOTATIONS = "project.count_annotations";
+    public static final String PROJECT_JOB_ANNOTATIONS = "project.count_job_annotations";
+    public static final String PROJECT_REVIEWED_ANNOTATIONS = "project.count_reviewed_annotations";
+    public static final String INDEX_ANNOTATIONS = "annotation_index.count_annotation";
+    public static final String INDEX_REVIEWED_ANNOTATIONS = "annotation_index.count_reviewed_annotation";
+
+    private static final List<String> COUNTERS = List.of(IMAGE_ANNOTATIONS, IMAGE_JOB_ANNOTATIONS, IMAGE_REVIEWED_ANNOTATIONS,
+            PROJECT_ANNOTATIONS, PROJECT_JOB_ANNOTATIONS, PROJECT_REVIEWED_ANNOTATIONS, INDEX_ANNOTATIONS, INDEX_REVIEWED_ANNOTATIONS);
+
+    // only one flush/reconciliation at a time, even with several core instances
+    private static final long LOCK_ID = 1636385276500L;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    public AnnotationCounterService(EntityManager entityManager, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Add deltas to a counter in the current transaction (for inserts that bypass the annotation triggers)
+     * @param deltas delta by target id (project, image) or by [user id, slice id] (annotation index)
+     */
+    public void addDeltas(Connection connection, String counter, Map<List<Long>, Integer> deltas) throws SQLException {
+        checkCounter(counter);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO annotation_counter_delta(counter, target_id, slice_id, delta) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<List<Long>, Integer> entry : deltas.entrySet()) {
+                statement.setString(1, counter);
+                statement.setLong(2, entry.getKey().get(0));
+                statement.setObject(3, entry.getKey().size() > 1 ? entry.getKey().get(1) : null);
+                statement.setInt(4, entry.getValue());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.annotationCounter.flushDelayInMilliseconds:5000}",
+            initialDelayString = "${application.annotationCounter.flushDelayInMilliseconds:5000}")
+    public void scheduledFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Cannot flush annotation counters", e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Cannot flush annotation counters on shutdown", e);
+        }
+    }
+
+    /**
+     * Apply all pending deltas to the counters.
+     * Joins the current transaction if any (so that deltas not yet committed are applied too).
+     * @return number of counters updated
+     */
+    public int flush() {
+        Integer updated = transactionTemplate.execute(status -> {
+            lock();
+            List<Object[]> deltas = entityManager.createNativeQuery(
+                    "WITH deltas AS (DELETE FROM annotation_counter_delta RETURNING counter, target_id, slice_id, delta) " +
+                    "SELECT counter, target_id, slice_id, CAST(sum(delta) AS BIGINT) " +
+                    "FROM deltas " +
+                    "GROUP BY counter, target_id, slice_id " +
+                    "HAVING sum(delta) <> 0 " +
+                    "ORDER BY counter, target_id, slice_id").getResultList();
+            if (deltas.isEmpty()) {
+                return 0;
+            }
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                for (Object[] delta : deltas) {
+                    applyDelta(connection, (String) delta[0], ((Number) delta[1]).longValue(),
+                            delta[2] != null ? ((Number) delta[2]).longValue() : null, ((Number) delta[3]).longValue());
+                }
+            });
+            return deltas.size();
+        });
+        if (updated != null && updated > 0) {
+            log.debug("{} annotation counters updated", updated);
+            meterRegistry.counter("cytomine.annotation.counters.flushed").increment(updated);
+        }
+        return updated != null ? updated : 0;
+    }
+
+    private void applyDelta(Connection connection, String counter, Long targetId, Long sliceId, long delta) throws SQLException {
+        checkCounter(counter);
+        String[] tableAndColumn = counter.split("\\.");
+        String table = tableAndColumn[0];
+        String column = tableAndColumn[1];
+        if (!table.equals("annotation_index")) {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE " + table + " SET " + column + " = " + column + " + ? WHERE id = ?")) {
+                statement.setLong(1, delta);
+                statement.setLong(2, targetId);
+                statement.executeUpdate();
+            }
+            return;
+        }
+        if (sliceId == null) {
+            return;
+        }
+        int updated;
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE annotation_index SET " + column + " = " + column + " + ?, version = version + 1 WHERE user_id = ? AND slice_id = ?")) {
+            statement.setLong(1, delta);
+            statement.setLong(2, targetId);
+            statement.setLong(3, sliceId);
+            updated = statement.executeUpdate();
+        }
+        if (updated == 0) {
+            // the slice or the user may have been deleted in the meantime
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO annotation_index(user_id, slice_id, count_annotation, count_reviewed_annotation, version, id) " +
+                    "SELECT ?, ?, 0, 0, 0, nextval('hibernate_sequence') " +
+                    "WHERE EXISTS (SELECT 1 FROM sec_user WHERE id = ?) AND EXISTS (SELECT 1 FROM slice_instance WHERE id = ?)")) {
+                statement.setLong(1, targetId);
+                statement.setLong(2, sliceId);
+                statement.setLong(3, targetId);
+                statement.setLong(4, sliceId);
+                updated = statement.executeUpdate();
+            }
+            if (updated > 0) {
+                applyDelta(connection, counter, targetId, sliceId, delta);
+            }
+        }
+    }
+
+    @Scheduled(cron = "${application.annotationCounter.reconciliationCron:0 0 3 * * *}")
+    public void scheduledReconciliation() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("Cannot reconcile annotation counters", e);
+        }
+    }
+
+    /**
+     * Recompute all counters from the annotation tables (counters drift if annotations are changed without triggers).
+     * A counter is set to its real value minus its pending deltas, so that the next flush gives the real value.
+     * @return number of rows fixed
+     */
+    public int reconcile() {
+        Integer fixed = transactionTemplate.execute(status -> {
+            lock();
+            int rows = entityManager.createNativeQuery(
+                    "UPDATE project p " +
+                    "SET count_annotations = c.count_annotations, count_job_annotations = c.count_job_annotations, count_reviewed_annotations = c.count_reviewed_annotations " +
+                    "FROM (SELECT p2.id, " +
+                    "        (SELECT count(*) FROM user_annotation a WHERE a.project_id = p2.id AND a.deleted IS NULL) - " + pending(PROJECT_ANNOTATIONS, "p2.id") + " AS count_annotations, " +
+                    "        (SELECT count(*) FROM algo_annotation a WHERE a.project_id = p2.id AND a.deleted IS NULL) - " + pending(PROJECT_JOB_ANNOTATIONS, "p2.id") + " AS count_job_annotations, " +
+                    "        (SELECT count(*) FROM reviewed_annotation a WHERE a.project_id = p2.id AND a.deleted IS NULL) - " + pending(PROJECT_REVIEWED_ANNOTATIONS, "p2.id") + " AS count_reviewed_annotations " +
+                    "      FROM project p2) c " +
+                    "WHERE c.id = p.id " +
+                    "AND (p.count_annotations <> c.count_annotations OR p.count_job_annotations <> c.count_job_annotations OR p.count_reviewed_annotations <> c.count_reviewed_annotations)")
+                    .executeUpdate();
+            rows += entityManager.createNativeQuery(
+                    "UPDATE image_instance i " +
+                    "SET count_image_annotations = c.count_image_annotations, count_image_job_annotations = c.count_image_job_annotations, count_image_reviewed_annotations = c.count_image_reviewed_annotations " +
+                    "FROM (SELECT i2.id, " +
+                    "        (SELECT count(*) FROM user_annotation a WHERE a.image_id = i2.id AND a.deleted IS NULL) - " + pending(IMAGE_ANNOTATIONS, "i2.id") + " AS count_image_annotations, " +
+                    "        (SELECT count(*) FROM algo_annotation a WHERE a.image_id = i2.id AND a.deleted IS NULL) - " + pending(IMAGE_JOB_ANNOTATIONS, "i2.id") + " AS count_image_job_annotations, " +
+                    "        (SELECT count(*) FROM reviewed_annotation a WHERE a.image_id = i2.id AND a.deleted IS NULL) - " + pending(IMAGE_REVIEWED_ANNOTATIONS, "i2.id") + " AS count_image_reviewed_annotations " +
+                    "      FROM image_instance i2) c " +
+                    "WHERE c.id = i.id " +
+                    "AND (i.count_image_annotations <> c.count_image_annotations OR i.count_image_job_annotations <> c.count_image_job_annotations OR i.count_image_reviewed_annotations <> c.count_image_reviewed_annotations)")
+                    .executeUpdate();
+
+            String indexCounts =
+                    "(SELECT user_id, slice_id, sum(count_annotation) AS count_annotation, sum(count_reviewed_annotation) AS count_reviewed_annotation " +
+                    " FROM (SELECT user_id, slice_id, count(*) AS count_annotation, 0 AS count_reviewed_annotation FROM user_annotation WHERE deleted IS NULL AND slice_id IS NOT NULL GROUP BY user_id, slice_id " +
+                    "       UNION ALL SELECT user_id, slice_id, count(*), 0 FROM algo_annotation WHERE deleted IS NULL AND slice_id IS NOT NULL GROUP BY user_id, slice_id " +
+                    "       UNION ALL SELECT review_user_id, slice_id, 0, count(*) FROM reviewed_annotation WHERE deleted IS NULL AND slice_id IS NOT NULL GROUP BY review_user_id, slice_id " +
+                    "       UNION ALL SELECT target_id, slice_id, " +
+                    "           -sum(CASE WHEN counter = '" + INDEX_ANNOTATIONS + "' THEN delta ELSE 0 END), " +
+                    "           -sum(CASE WHEN counter = '" + INDEX_REVIEWED_ANNOTATIONS + "' THEN delta ELSE 0 END) " +
+                    "         FROM annotation_counter_delta WHERE slice_id IS NOT NULL GROUP BY target_id, slice_id) counts " +
+                    " GROUP BY user_id, slice_id)";
+            rows += entityManager.createNativeQuery(
+                    "UPDATE annotation_index ai " +
+                    "SET count_annotation = COALESCE(c.count_annotation, 0), count_reviewed_annotation = COALESCE(c.count_reviewed_annotation, 0), version = ai.version + 1 " +
+                    "FROM annotation_index ai2 LEFT JOIN " + indexCounts + " c ON c.user_id = ai2.user_id AND c.slice_id = ai2.slice_id " +
+                    "WHERE ai2.id = ai.id " +
+                    "AND (ai.count_annotation <> COALESCE(c.count_annotation, 0) OR ai.count_reviewed_annotation <> COALESCE(c.count_reviewed_annotation, 0))")
+                    .executeUpdate();
+            rows += entityManager.createNativeQuery(
+                    "INSERT INTO annotation_index(user_id, slice_id, count_annotation, count_reviewed_annotation, version, id) " +
+                    "SELECT c.user_id, c.slice_id, c.count_annotation, c.count_reviewed_annotation, 0, nextval('hibernate_sequence') " +
+                    "FROM " + indexCounts + " c " +
+                    "WHERE (c.count_annotation <> 0 OR c.count_reviewed_annotation <> 0) " +
+                    "AND NOT EXISTS (SELECT 1 FROM annotation_index ai WHERE ai.user_id = c.user_id AND ai.slice_id = c.slice_id) " +
+                    "AND EXISTS (SELECT 1 FROM sec_user u WHERE u.id = c.user_id) " +
+                    "AND EXISTS (SELECT 1 FROM slice_instance s WHERE s.id = c.slice_id)")
+                    .executeUpdate();
+            return rows;
+        });
+        if (fixed != null && fixed > 0) {
+            log.warn("{} annotation counters were wrong and have been fixed", fixed);
+        }
+        return fixed != null ? fixed : 0;
+    }
+
+    private static String pending(String counter, String targetId) {
+        return "COALESCE((SELECT sum(d.delta) FROM annotation_counter_delta d WHERE d.counter = '" + counter + "' AND d.target_id = " + targetId + "), 0)";
+    }
+
+    private void lock() {
+        entityManager.createNativeQuery("SELECT count(*) FROM (SELECT pg_advisory_xact_lock(" + LOCK_ID + ")) l").getSingleResult();
+    }
+
+    private static void checkCounter(String counter) {
+        if (!COUNTERS.contains(counter)) {
+            throw new IllegalArgumentException("Unknown annotation counter " + counter);
+        }
+    }
+}
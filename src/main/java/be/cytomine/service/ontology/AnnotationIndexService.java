@@ -49,22 +49,18 @@ public class AnnotationIndexService {
      * If user is null, return the number of reviewed annotation for this slice
      */
     public Long count(SliceInstance slice, SecUser user) {
-        if (user!=null) {
-            return annotationIndexRepository.findOneBySliceAndUser(slice, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
-        } else {
-            return annotationIndexRepository.findAllBySlice(slice)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
-        }
+        return count(List.of(slice), user);
     }
 
     public Long count(List<SliceInstance> slices, SecUser user) {
+        if (slices.isEmpty()) {
+            return 0L;
+        }
+        List<Long> sliceIds = slices.stream().map(SliceInstance::getId).toList();
         if (user!=null) {
-            return annotationIndexRepository.findOneBySliceInAndUser(slices, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+            return annotationIndexRepository.countAnnotations(sliceIds, user.getId());
         } else {
-            return annotationIndexRepository.findAllBySliceIn(slices)
-                    .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
+            return annotationIndexRepository.countReviewedAnnotations(sliceIds);
         }
     }
 
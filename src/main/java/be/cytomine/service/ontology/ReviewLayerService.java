@@ -0,0 +1,367 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.command.Command;
+import be.cytomine.domain.command.CommandHistory;
+import be.cytomine.domain.ontology.AlgoAnnotation;
+import be.cytomine.domain.ontology.ReviewedAnnotation;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.Task;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Review (or unreview) all the annotations of some layers (users or jobs) on an image with set-based statements,
+ * instead of a review command per annotation.
+ *
+ * The annotations not yet reviewed are found with an anti-join, their reviewed annotations and terms are inserted
+ * with INSERT ... SELECT, chunkSize annotations per statement. The reviewed annotation triggers are bypassed
+ * (cytomine.bulk_insert and cytomine.bulk_delete): each statement adds one counter delta by image, project and slice
+ * and updates the reviewed counter of the parent annotations itself.
+ *
+ * Without a current transaction (background review), each statement is committed on its own:
+ * an interrupted review is completed by reviewing the layers again.
+ */
+@Slf4j
+@Service
+public class ReviewLayerService {
+
+    private static final Layer USER_LAYER = new Layer("user_annotation", UserAnnotation.class.getName(),
+            "SELECT DISTINCT r.id, t.term_id FROM reviewed r " +
+            "INNER JOIN annotation_term t ON t.user_annotation_id = r.parent_ident");
+
+    // the terms of a job annotation added by the job itself
+    private static final Layer ALGO_LAYER = new Layer("algo_annotation", AlgoAnnotation.class.getName(),
+            "SELECT DISTINCT r.id, t.term_id FROM reviewed r " +
+            "INNER JOIN algo_annotation_term t ON t.annotation_ident = r.parent_ident AND t.user_job_id = r.user_id " +
+            "WHERE t.term_id IS NOT NULL");
+
+    private final EntityManager entityManager;
+
+    private final TaskService taskService;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService executor;
+
+    public ReviewLayerService(EntityManager entityManager, TaskService taskService, ApplicationProperties applicationProperties,
+                              PlatformTransactionManager transactionManager) {
+        this.entityManager = entityManager;
+        this.taskService = taskService;
+        this.applicationProperties = applicationProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // one layer review at a time, with the security context of the reviewer
+        this.executor = new DelegatingSecurityContextExecutorService(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "review-layer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean mustRunInBackground(long numberOfAnnotations) {
+        return numberOfAnnotations > applicationProperties.getReviewLayer().getBackgroundThreshold();
+    }
+
+    /**
+     * Number of annotations of the layers on the image that are not reviewed yet
+     */
+    public long countNotReviewed(Long image, List<SecUser> users) {
+        long count = 0;
+        for (Layer layer : List.of(USER_LAYER, ALGO_LAYER)) {
+            List<Long> layerUsers = layer.users(users);
+            if (!layerUsers.isEmpty()) {
+                count += ((Number) entityManager.createNativeQuery("SELECT count(*) FROM " + layer.table + " a " +
+                                "WHERE " + layer.notReviewed())
+                        .setParameter("image", image)
+                        .setParameter("users", layerUsers)
+                        .getSingleResult()).longValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Number of reviewed annotations whose parent is an annotation of the layers on the image
+     */
+    public long countReviewed(Long image, List<SecUser> users) {
+        long count = 0;
+        for (Layer layer : List.of(USER_LAYER, ALGO_LAYER)) {
+            List<Long> layerUsers = layer.users(users);
+            if (!layerUsers.isEmpty()) {
+                count += ((Number) entityManager.createNativeQuery("SELECT count(*) FROM reviewed_annotation r " +
+                                "WHERE " + layer.reviewed())
+                        .setParameter("image", image)
+                        .setParameter("users", layerUsers)
+                        .setParameter("parentClassName", layer.className)
+                        .getSingleResult()).longValue();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Review the annotations of the layers on the image that are not reviewed yet, with their own terms.
+     * The review progress is written in the task (if any).
+     * @return Ids of the new reviewed annotations
+     */
+    public List<Long> review(Long image, List<SecUser> users, SecUser reviewer, Task task) {
+        flush();
+        long total = (task != null ? countNotReviewed(image, users) : 0);
+        List<Long> reviewed = new ArrayList<>();
+        for (Layer layer : List.of(USER_LAYER, ALGO_LAYER)) {
+            List<Long> layerUsers = layer.users(users);
+            if (layerUsers.isEmpty()) {
+                continue;
+            }
+            List<Long> ids;
+            do {
+                ids = transactionTemplate.execute(status -> reviewChunk(layer, image, layerUsers, reviewer.getId()));
+                reviewed.addAll(ids);
+                updateProgress(task, reviewed.size(), total, reviewed.size() + " new reviewed annotations...");
+            } while (ids.size() >= applicationProperties.getReviewLayer().getChunkSize());
+        }
+        log.info("{} annotations reviewed on image {} for layers {}", reviewed.size(), image, layerIds(users));
+        return reviewed;
+    }
+
+    /**
+     * Remove the reviewed annotations whose parent is an annotation of the layers on the image.
+     * The progress is written in the task (if any).
+     * @return Ids of the removed reviewed annotations
+     */
+    public List<Long> unreview(Long image, List<SecUser> users, Task task) {
+        flush();
+        long total = (task != null ? countReviewed(image, users) : 0);
+        List<Long> unreviewed = new ArrayList<>();
+        for (Layer layer : List.of(USER_LAYER, ALGO_LAYER)) {
+            List<Long> layerUsers = layer.users(users);
+            if (layerUsers.isEmpty()) {
+                continue;
+            }
+            List<Long> ids;
+            do {
+                ids = transactionTemplate.execute(status -> unreviewChunk(layer, image, layerUsers));
+                unreviewed.addAll(ids);
+                updateProgress(task, unreviewed.size(), total, unreviewed.size() + " reviewed annotations removed...");
+            } while (ids.size() >= applicationProperties.getReviewLayer().getChunkSize());
+        }
+        log.info("{} annotations unreviewed on image {} for layers {}", unreviewed.size(), image, layerIds(users));
+        return unreviewed;
+    }
+
+    /**
+     * Save a single command for a whole layer review (not undoable)
+     */
+    public void saveCommand(Command command, Long project, String serviceName, String dataKey, List<Long> ids, String message) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            command.setProject(entityManager.getReference(Project.class, project));
+            command.setServiceName(serviceName);
+            command.setSaveOnUndoRedoStack(false);
+            command.setRefuseUndo(true);
+            command.setData(JsonObject.of(dataKey, ids).toJsonString());
+            command.setActionMessage(message);
+            entityManager.persist(command);
+            entityManager.persist(new CommandHistory(command));
+        });
+    }
+
+    /**
+     * Run the job in background when the current transaction is committed, then finish the task.
+     */
+    public void runInBackground(String name, Task task, Runnable job) {
+        Runnable backgroundJob = () -> {
+            try {
+                job.run();
+                taskService.finishTask(task);
+            } catch (Exception e) {
+                log.error("Cannot run " + name, e);
+                taskService.updateTask(task, task.getProgress(), name + " failed: " + e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    executor.submit(backgroundJob);
+                }
+            });
+        } else {
+            executor.submit(backgroundJob);
+        }
+    }
+
+    private List<Long> reviewChunk(Layer layer, Long image, List<Long> users, Long reviewer) {
+        String request = "WITH parents AS (" +
+                "SELECT a.id FROM " + layer.table + " a WHERE " + layer.notReviewed() + " ORDER BY a.id LIMIT :limit), " +
+                "reviewed AS (" +
+                "INSERT INTO reviewed_annotation(id, version, created, updated, parent_ident, parent_class_name, status, " +
+                "user_id, review_user_id, image_id, slice_id, project_id, location, wkt_location, geometry_compression, " +
+                "area, area_unit, perimeter, perimeter_unit, count_comments) " +
+                "SELECT nextval('hibernate_sequence'), 0, now(), now(), a.id, :parentClassName, 1, " +
+                "a.user_id, :reviewer, a.image_id, a.slice_id, a.project_id, a.location, a.wkt_location, a.geometry_compression, " +
+                "a.area, a.area_unit, a.perimeter, a.perimeter_unit, 0 " +
+                "FROM " + layer.table + " a INNER JOIN parents p ON p.id = a.id " +
+                "RETURNING id, parent_ident, user_id, review_user_id, image_id, project_id, slice_id), " +
+                "terms AS (INSERT INTO reviewed_annotation_term(reviewed_annotation_terms_id, term_id) " + layer.terms + "), " +
+                "counts AS (UPDATE " + layer.table + " SET count_reviewed_annotations = count_reviewed_annotations + 1 " +
+                "WHERE id IN (SELECT parent_ident FROM reviewed)), " +
+                "deltas AS (" + counterDeltas("reviewed", "1") + ") " +
+                "SELECT id FROM reviewed ORDER BY id";
+        entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_insert', 'true', true)").getSingleResult();
+        try {
+            List<Number> ids = entityManager.createNativeQuery(request)
+                    .setParameter("image", image)
+                    .setParameter("users", users)
+                    .setParameter("reviewer", reviewer)
+                    .setParameter("parentClassName", layer.className)
+                    .setParameter("limit", applicationProperties.getReviewLayer().getChunkSize())
+                    .getResultList();
+            return ids.stream().map(Number::longValue).toList();
+        } finally {
+            entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_insert', 'false', true)").getSingleResult();
+        }
+    }
+
+    private List<Long> unreviewChunk(Layer layer, Long image, List<Long> users) {
+        // reviewed annotations already soft-deleted are not counted anymore
+        String request = "WITH removed AS (" +
+                "DELETE FROM reviewed_annotation WHERE id IN (" +
+                "SELECT r.id FROM reviewed_annotation r WHERE " + layer.reviewed() + " ORDER BY r.id LIMIT :limit) " +
+                "RETURNING id, parent_ident, review_user_id, image_id, project_id, slice_id, deleted), " +
+                "terms AS (DELETE FROM reviewed_annotation_term WHERE reviewed_annotation_terms_id IN (SELECT id FROM removed)), " +
+                "counted AS (SELECT * FROM removed WHERE deleted IS NULL), " +
+                "counts AS (UPDATE " + layer.table + " SET count_reviewed_annotations = count_reviewed_annotations - 1 " +
+                "WHERE id IN (SELECT parent_ident FROM counted)), " +
+                "deltas AS (" + counterDeltas("counted", "-1") + ") " +
+                "SELECT id FROM removed ORDER BY id";
+        entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_delete', 'true', true)").getSingleResult();
+        try {
+            List<Number> ids = entityManager.createNativeQuery(request)
+                    .setParameter("image", image)
+                    .setParameter("users", users)
+                    .setParameter("parentClassName", layer.className)
+                    .setParameter("limit", applicationProperties.getReviewLayer().getChunkSize())
+                    .getResultList();
+            Set<Long> removed = ids.stream().map(Number::longValue).collect(Collectors.toCollection(LinkedHashSet::new));
+            detach(removed);
+            return new ArrayList<>(removed);
+        } finally {
+            entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_delete', 'false', true)").getSingleResult();
+        }
+    }
+
+    /**
+     * Removed reviewed annotations may still be loaded in the current persistence context (unreview in the request transaction)
+     */
+    private void detach(Set<Long> removed) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            if (entry.getKey() instanceof ReviewedAnnotation && removed.contains((Long) entry.getValue().getId())) {
+                entityManager.detach(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * One counter delta by image, project and (reviewer, slice) for the rows of the CTE
+     */
+    private static String counterDeltas(String rows, String sign) {
+        return "INSERT INTO annotation_counter_delta(counter, target_id, slice_id, delta) " +
+                "SELECT '" + AnnotationCounterService.IMAGE_REVIEWED_ANNOTATIONS + "', image_id, NULL, " + sign + " * count(*) " +
+                "FROM " + rows + " GROUP BY image_id " +
+                "UNION ALL " +
+                "SELECT '" + AnnotationCounterService.PROJECT_REVIEWED_ANNOTATIONS + "', project_id, NULL, " + sign + " * count(*) " +
+                "FROM " + rows + " WHERE project_id IS NOT NULL GROUP BY project_id " +
+                "UNION ALL " +
+                "SELECT '" + AnnotationCounterService.INDEX_REVIEWED_ANNOTATIONS + "', review_user_id, slice_id, " + sign + " * count(*) " +
+                "FROM " + rows + " WHERE slice_id IS NOT NULL GROUP BY review_user_id, slice_id";
+    }
+
+    private void flush() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            entityManager.flush();
+        }
+    }
+
+    private void updateProgress(Task task, long done, long total, String comment) {
+        if (task != null) {
+            taskService.updateTask(task, (int) Math.min(99, total > 0 ? done * 100 / total : 0), comment);
+        }
+    }
+
+    private static List<Long> layerIds(List<SecUser> users) {
+        return users.stream().map(SecUser::getId).toList();
+    }
+
+    private static class Layer {
+        private final String table;
+        private final String className;
+        // terms to copy, from the "reviewed" rows (id, parent_ident, user_id,...)
+        private final String terms;
+
+        private Layer(String table, String className, String terms) {
+            this.table = table;
+            this.className = className;
+            this.terms = terms;
+        }
+
+        private List<Long> users(List<SecUser> users) {
+            boolean algo = this.className.equals(AlgoAnnotation.class.getName());
+            return users.stream().filter(user -> user.isAlgo() == algo).map(SecUser::getId).toList();
+        }
+
+        private String notReviewed() {
+            return "a.image_id = :image AND a.user_id IN (:users) AND a.deleted IS NULL " +
+                    "AND NOT EXISTS (SELECT 1 FROM reviewed_annotation r WHERE r.parent_ident = a.id)";
+        }
+
+        private String reviewed() {
+            return "r.image_id = :image AND r.parent_class_name = :parentClassName AND r.parent_ident IN (" +
+                    "SELECT a.id FROM " + table + " a WHERE a.image_id = :image AND a.user_id IN (:users))";
+        }
+    }
+}
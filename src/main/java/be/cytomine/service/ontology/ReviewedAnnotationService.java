@@ -29,15 +29,13 @@ import be.cytomine.dto.ReviewedAnnotationStatsEntry;
 import be.cytomine.dto.SimplifiedAnnotation;
 import be.cytomine.dto.UserTermMapping;
 import be.cytomine.exceptions.AlreadyExistException;
-import be.cytomine.exceptions.CytomineMethodNotYetImplementedException;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.ReviewedAnnotationListing;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.ontology.ReviewedAnnotationRepository;
 import be.cytomine.repository.ontology.TermRepository;
-import be.cytomine.repository.ontology.UserAnnotationRepository;
-import be.cytomine.repository.security.UserRepository;
+import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
@@ -107,7 +105,7 @@ public class ReviewedAnnotationService extends ModelService {
     private TaskService taskService;
 
     @Autowired
-    private UserAnnotationRepository userAnnotationRepository;
+    private ReviewLayerService reviewLayerService;
 
     @Autowired
     private GenericAnnotationService genericAnnotationService;
@@ -116,7 +114,7 @@ public class ReviewedAnnotationService extends ModelService {
     private AlgoAnnotationTermService algoAnnotationTermService;
 
     @Autowired
-    private UserRepository userRepository;
+    private SecUserRepository secUserRepository;
 
     @Override
     public Class currentDomain() {
@@ -323,6 +321,12 @@ public class ReviewedAnnotationService extends ModelService {
 
 
 
+    /**
+     * Review all the annotations of the layers (users or jobs) on the image that are not reviewed yet.
+     * A layer review with many annotations runs in background: the result is empty and the progress is in the task
+     * (created if none is given).
+     * @return Ids of the new reviewed annotations
+     */
     public List<Long> reviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task, 2, "Extract parameters...");
@@ -330,7 +334,7 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:" + usersIds);
         }
         List<SecUser> users = usersIds.stream()
-                .map(x -> userRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
+                .map(x -> secUserRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageInstanceId)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageInstanceId));
 
@@ -342,50 +346,45 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:" + usersIds);
         }
 
-        taskService.updateTask(task, 2, "Extract parameters...");
-
-        List<AnnotationDomain> annotations = new ArrayList<>();
-
-        //get all annotations for each user
+        //get all annotations not yet reviewed for each layer
         taskService.updateTask(task,5,"Look for all annotations...");
-
-        for (SecUser user : users) {
-            if (user.isAlgo()) {
-                throw new CytomineMethodNotYetImplementedException(""); // TODO
-            } else {
-                annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
-            }
-        }
-
-        //review each annotation
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
-
-        int realReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
-        List<Long> reviewedIds = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realReviewed + " new reviewed annotations...");
-            }
-            entityManager.refresh(annotations.get(i));
-            if (reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId()).isEmpty()) {
-                //if not yet reviewed, review it
-                realReviewed++;
-                CommandResponse review = reviewAnnotation(annotations.get(i).getId(), null);
-                reviewedIds.add(review.getObject().getId());
-            }
-
-
+        SecUser currentUser = currentUserService.getCurrentUser();
+        long count = reviewLayerService.countNotReviewed(imageInstance.getId(), users);
+        taskService.updateTask(task,10,count + " annotations found...");
+
+        if (reviewLayerService.mustRunInBackground(count)) {
+            Task reviewTask = (task != null ? task : taskService.createNewTask(imageInstance.getProject(), currentUser, false));
+            Long projectId = imageInstance.getProject().getId();
+            reviewLayerService.runInBackground("Review of image " + imageInstanceId, reviewTask,
+                    () -> reviewLayer(imageInstanceId, projectId, users, currentUser, reviewTask));
+            return new ArrayList<>();
         }
+        List<Long> reviewedIds = reviewLayer(imageInstanceId, imageInstance.getProject().getId(), users, currentUser, task);
         taskService.finishTask(task);
         return reviewedIds;
     }
 
+    private List<Long> reviewLayer(Long imageInstanceId, Long projectId, List<SecUser> users, SecUser currentUser, Task task) {
+        List<Long> reviewedIds = reviewLayerService.review(imageInstanceId, users, currentUser, task);
+        reviewLayerService.saveCommand(new AddCommand(currentUser, null), projectId, getServiceName(), "reviewedAnnotations", reviewedIds,
+                reviewedIds.size() + " annotations reviewed in image " + imageInstanceId);
+        return reviewedIds;
+    }
+
+    /**
+     * Remove the review of all the annotations of the layers (users or jobs) on the image.
+     * A layer unreview with many annotations runs in background: the result is empty and the progress is in the task
+     * (created if none is given).
+     * @return Ids of the removed reviewed annotations
+     */
     public List<Long> unreviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task,2,"Extract parameters...");
+        if (usersIds==null || usersIds.isEmpty()) {
+            throw new WrongArgumentException("There is no layer:" + usersIds);
+        }
         List<SecUser> users = usersIds.stream()
-                .map(x -> userRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
+                .map(x -> secUserRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageInstanceId)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageInstanceId));
 
@@ -399,67 +398,29 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:"+usersIds);
         }
 
-        List<AnnotationDomain> annotations = new ArrayList<>();
         taskService.updateTask(task,5,"Look for all annotations...");
-        for (SecUser user : users) {
-            if (user.isAlgo()) {
-                throw new CytomineMethodNotYetImplementedException(""); // TODO
-            } else {
-                annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
-            }
-        }
-
-        //unreview each one
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
-        int realUnReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
-
-        List<ReviewedAnnotation> reviewed = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realUnReviewed + " new reviewed annotations...");
-            }
-            Optional<ReviewedAnnotation> optionalReviewedAnnotation = reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId());
-
-            if (optionalReviewedAnnotation.isPresent()) {
-                realUnReviewed++;
-                reviewed.add(optionalReviewedAnnotation.get());
-            }
-
-
-        }
-
-        if (!reviewed.isEmpty()) {
-            reviewedAnnotationRepository.deleteAll(reviewed);
+        SecUser currentUser = currentUserService.getCurrentUser();
+        long count = reviewLayerService.countReviewed(imageInstance.getId(), users);
+        taskService.updateTask(task,10,count + " annotations found...");
+
+        if (reviewLayerService.mustRunInBackground(count)) {
+            Task unreviewTask = (task != null ? task : taskService.createNewTask(imageInstance.getProject(), currentUser, false));
+            Long projectId = imageInstance.getProject().getId();
+            reviewLayerService.runInBackground("Unreview of image " + imageInstanceId, unreviewTask,
+                    () -> unreviewLayer(imageInstanceId, projectId, users, currentUser, unreviewTask));
+            return new ArrayList<>();
         }
-
-
-
+        List<Long> unreviewedIds = unreviewLayer(imageInstanceId, imageInstance.getProject().getId(), users, currentUser, task);
         taskService.finishTask(task);
-        return reviewed.stream().map(CytomineDomain::getId).collect(Collectors.toList());
+        return unreviewedIds;
     }
 
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
+    private List<Long> unreviewLayer(Long imageInstanceId, Long projectId, List<SecUser> users, SecUser currentUser, Task task) {
+        List<Long> unreviewedIds = reviewLayerService.unreview(imageInstanceId, users, task);
+        reviewLayerService.saveCommand(new DeleteCommand(currentUser, null), projectId, getServiceName(), "reviewedAnnotations", unreviewedIds,
+                unreviewedIds.size() + " annotations unreviewed in image " + imageInstanceId);
+        return unreviewedIds;
+    }
 
     protected void beforeAdd(CytomineDomain domain) {
         // this will be done in the PrePersist method ; but the validation is done before PrePersist
@@ -26,6 +26,7 @@ import be.cytomine.domain.security.SecUser;
 import be.cytomine.domain.security.User;
 import be.cytomine.dto.AnnotationLight;
 import be.cytomine.dto.SimplifiedAnnotation;
+import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.WrongArgumentException;
@@ -37,6 +38,7 @@ import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.dto.BoundariesCropParameter;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.SliceCoordinatesService;
@@ -46,6 +48,7 @@ import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.service.utils.ValidateGeometryService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.GeometryFormat;
 import be.cytomine.utils.GeometryUtils;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.Task;
@@ -54,12 +57,23 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static org.springframework.security.acls.domain.BasePermission.DELETE;
@@ -70,6 +84,18 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Transactional
 public class UserAnnotationService extends ModelService {
 
+    private static final int BULK_BATCH_SIZE = 1000;
+
+    private static final AtomicInteger BULK_THREADS = new AtomicInteger();
+
+    // geometries of a bulk import are simplified on these threads (not on the common ForkJoin pool)
+    private final ExecutorService bulkExecutor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), runnable -> {
+                Thread thread = new Thread(runnable, "annotation-bulk-" + BULK_THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
     @Autowired
     private UserAnnotationRepository userAnnotationRepository;
 
@@ -130,6 +156,15 @@ public class UserAnnotationService extends ModelService {
     @Autowired
     private SharedAnnotationRepository sharedAnnotationRepository;
 
+    @Autowired
+    private TermRepository termRepository;
+
+    @Autowired
+    private SequenceService sequenceService;
+
+    @Autowired
+    private AnnotationCounterService annotationCounterService;
+
     @Override
     public Class currentDomain() {
         return UserAnnotation.class;
@@ -344,62 +379,7 @@ public class UserAnnotationService extends ModelService {
             securityACLService.checkFullOrRestrictedForOwner(project, null);
         }
 
-        Geometry annotationShape;
-        try {
-            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
-        }
-        catch (Exception ignored) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-        if (!annotationShape.isValid()) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-
-        Envelope envelope = annotationShape.getEnvelopeInternal();
-        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
-        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
-                envelope.getMaxX() > image.getBaseImage().getWidth() ||
-                envelope.getMaxY() > image.getBaseImage().getHeight())) {
-            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
-            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
-            annotationShape = annotationShape.intersection(insideBounds);
-        }
-
-        if(!(annotationShape.getGeometryType().equals("LineString"))) {
-            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
-            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
-                throw new WrongArgumentException("Annotation dimension not valid");
-            }
-        }
-
-        //simplify annotation
-        try {
-            SimplifiedAnnotation simplifiedAnnotation =
-                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
-            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
-            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
-        } catch (Exception e) {
-            log.error("Cannot simplify annotation location:" + e);
-        }
-
-        if (jsonObject.isMissing("location")) {
-            jsonObject.put("location", annotationShape);
-            jsonObject.put("geometryCompression", 0.0d);
-        }
-
-        if (jsonObject.get("location") instanceof Geometry) {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
-        } else {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
-        }
+        prepareLocation(jsonObject, image);
 
         //Start transaction
         Transaction transaction = transactionService.start();
@@ -456,6 +436,348 @@ public class UserAnnotationService extends ModelService {
         return commandResponse;
     }
 
+    /**
+     * Add many annotations at once (e.g. annotations computed by an external algorithm).
+     * Geometries are prepared in parallel, annotations and annotation-terms are inserted with JDBC batches
+     * and the annotation counter deltas (image, project, annotation index) are added once per image/project/slice.
+     * Only one command (not undoable) is saved per project.
+     * Annotations with properties or tracks are added one by one (same behaviour as add).
+     * @param json Annotations data (same format as add)
+     * @return Response structure (same format as addMultiple)
+     */
+    @PreDestroy
+    public void shutdown() {
+        bulkExecutor.shutdownNow();
+    }
+
+    public JsonObject addBulk(List<JsonObject> json) {
+        SecUser currentUser = currentUserService.getCurrentUser();
+        //Check if user has a role that allows to create annotations
+        securityACLService.checkGuest(currentUser);
+
+        Map<Long, SliceInstance> slices = new HashMap<>();
+        Map<Long, SliceInstance> referenceSlices = new HashMap<>();
+        Map<Long, Term> terms = new HashMap<>();
+        Set<Project> checkedProjects = new HashSet<>();
+        Set<Project> checkedProjectsForOtherUser = new HashSet<>();
+
+        List<BulkAnnotation> annotations = new ArrayList<>();
+        for (JsonObject jsonObject : json) {
+            BulkAnnotation annotation = new BulkAnnotation(jsonObject);
+            annotations.add(annotation);
+            try {
+                if (!jsonObject.getJSONAttrMapString("property", new HashMap<>()).isEmpty()
+                        || !jsonObject.getJSONAttrMapString("properties", new HashMap<>()).isEmpty()
+                        || !jsonObject.getJSONAttrListLong("track", new ArrayList<>()).isEmpty()
+                        || !jsonObject.getJSONAttrListLong("tracks", new ArrayList<>()).isEmpty()) {
+                    CommandResponse commandResponse = add(jsonObject);
+                    annotation.result = JsonObject.of("domain", ((Map<String, Object>)commandResponse.getData().get("annotation")).get("id"), "status", commandResponse.getStatus());
+                    continue;
+                }
+
+                if (!jsonObject.isMissing("slice")) {
+                    Long sliceId = jsonObject.getJSONAttrLong("slice");
+                    annotation.slice = slices.computeIfAbsent(sliceId, id -> sliceInstanceService.find(id)
+                            .orElseThrow(() -> new ObjectNotFoundException("SliceInstance with id " + id)));
+                } else if (!jsonObject.isMissing("image")) {
+                    Long imageId = jsonObject.getJSONAttrLong("image");
+                    annotation.slice = referenceSlices.computeIfAbsent(imageId, id -> sliceCoordinatesService.getReferenceSlice(
+                            imageInstanceRepository.findById(id).orElseThrow(() -> new ObjectNotFoundException("ImageInstance with id " + id))));
+                } else {
+                    throw new WrongArgumentException("Cannot retrieve slice or image");
+                }
+                annotation.image = annotation.slice.getImage();
+                annotation.project = annotation.slice.getProject();
+
+                if (jsonObject.isMissing("location")) {
+                    throw new WrongArgumentException("Annotation must have a valid geometry:" + jsonObject.get("location"));
+                }
+
+                if (!checkedProjects.contains(annotation.project)) {
+                    //Check if user has at least READ permission for the project
+                    securityACLService.check(annotation.project, READ, currentUser);
+                    //Check if project EditingMode is not READ_ONLY
+                    securityACLService.checkIsNotReadOnly(annotation.project);
+                    checkedProjects.add(annotation.project);
+                }
+
+                if (jsonObject.isMissing("user")) {
+                    annotation.user = currentUser;
+                } else if (Objects.equals(jsonObject.getJSONAttrLong("user"), currentUser.getId())) {
+                    annotation.user = currentUser;
+                } else {
+                    // check if user is the owner of the annotation, if not check project editing mode and user role
+                    if (!checkedProjectsForOtherUser.contains(annotation.project)) {
+                        securityACLService.checkFullOrRestrictedForOwner(annotation.project, null);
+                        checkedProjectsForOtherUser.add(annotation.project);
+                    }
+                    annotation.user = Optional.ofNullable(entityManager.find(SecUser.class, jsonObject.getJSONAttrLong("user")))
+                            .orElseThrow(() -> new ObjectNotFoundException("SecUser", jsonObject.get("user")));
+                }
+
+                Set<Long> termIds = new LinkedHashSet<>();
+                termIds.addAll(jsonObject.getJSONAttrListLong("term", new ArrayList<>()));
+                termIds.addAll(jsonObject.getJSONAttrListLong("terms", new ArrayList<>()));
+                for (Long termId : termIds) {
+                    Term term = terms.computeIfAbsent(termId, id -> termRepository.findById(id)
+                            .orElseThrow(() -> new ObjectNotFoundException("Term", id)));
+                    if (annotation.project.getOntology() == null || !Objects.equals(term.getOntology().getId(), annotation.project.getOntology().getId())) {
+                        throw new WrongArgumentException("Term " + term.getName() + " from ontology " + term.getOntology().getName() + " is not in ontology from the annotation project");
+                    }
+                    annotation.termIds.add(termId);
+                }
+
+                // the geometry preparation does not read entities: it runs on other threads
+                annotation.imageWidth = annotation.image.getBaseImage().getWidth();
+                annotation.imageHeight = annotation.image.getBaseImage().getHeight();
+            } catch (CytomineException e) {
+                annotation.fail(e);
+            }
+        }
+
+        // the geometries are read and simplified in parallel (JTS only, no database access from the bulk threads)
+        List<CompletableFuture<Void>> simplifications = annotations.stream().filter(BulkAnnotation::isPending)
+                .map(annotation -> CompletableFuture.runAsync(() -> {
+                    try {
+                        annotation.location = simplifyLocation(annotation.json, annotation.imageWidth, annotation.imageHeight);
+                    } catch (CytomineException e) {
+                        annotation.fail(e);
+                    }
+                }, bulkExecutor))
+                .toList();
+        try {
+            CompletableFuture.allOf(simplifications.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+
+        for (BulkAnnotation annotation : annotations) {
+            if (!annotation.isPending()) {
+                continue;
+            }
+            try {
+                // may fall back on PostGIS, in the transaction of the request
+                Geometry location = validateGeometryService.tryToMakeItValidIfNotValid(annotation.location);
+                UserAnnotation userAnnotation = new UserAnnotation();
+                userAnnotation.setImage(annotation.image);
+                userAnnotation.setSlice(annotation.slice);
+                userAnnotation.setProject(annotation.project);
+                userAnnotation.setLocation(location);
+                userAnnotation.setGeometryCompression(annotation.json.getJSONAttrDouble("geometryCompression", 0.0d));
+                userAnnotation.beforeCreate();
+                annotation.annotation = userAnnotation;
+            } catch (CytomineException e) {
+                annotation.fail(e);
+            }
+        }
+
+        List<BulkAnnotation> toInsert = annotations.stream().filter(BulkAnnotation::isPending).toList();
+        if (!toInsert.isEmpty()) {
+            insertBulk(toInsert, currentUser);
+        }
+
+        List<JsonObject> result = new ArrayList<>();
+        List errors = new ArrayList();
+        for (BulkAnnotation annotation : annotations) {
+            if (annotation.error != null) {
+                errors.add(JsonObject.of("data", annotation.json, "message", annotation.error.msg));
+            }
+            result.add(annotation.result);
+        }
+        return buildAddMultipleResponse(result, errors);
+    }
+
+    private void insertBulk(List<BulkAnnotation> annotations, SecUser currentUser) {
+        Transaction transaction = transactionService.start();
+        int termCount = annotations.stream().mapToInt(x -> x.termIds.size()).sum();
+        Iterator<Long> ids = sequenceService.generateIDs(annotations.size() + termCount).iterator();
+        for (BulkAnnotation annotation : annotations) {
+            annotation.annotation.setId(ids.next());
+        }
+        entityManager.flush();
+
+        Session session = entityManager.unwrap(Session.class);
+        session.doWork(connection -> {
+            // counter deltas are added below, once for all annotations, instead of once per annotation in the triggers
+            try (PreparedStatement statement = connection.prepareStatement("SELECT set_config('cytomine.bulk_insert', ?, true)")) {
+                statement.setString(1, "true");
+                statement.execute();
+                insertAnnotations(connection, annotations, ids, currentUser);
+                statement.setString(1, "false");
+                statement.execute();
+            }
+
+            Map<List<Long>, Integer> imageCounts = new HashMap<>();
+            Map<List<Long>, Integer> projectCounts = new HashMap<>();
+            Map<List<Long>, Integer> indexCounts = new HashMap<>();
+            for (BulkAnnotation annotation : annotations) {
+                imageCounts.merge(List.of(annotation.image.getId()), 1, Integer::sum);
+                projectCounts.merge(List.of(annotation.project.getId()), 1, Integer::sum);
+                indexCounts.merge(List.of(annotation.user.getId(), annotation.slice.getId()), 1, Integer::sum);
+            }
+            annotationCounterService.addDeltas(connection, AnnotationCounterService.IMAGE_ANNOTATIONS, imageCounts);
+            annotationCounterService.addDeltas(connection, AnnotationCounterService.PROJECT_ANNOTATIONS, projectCounts);
+            annotationCounterService.addDeltas(connection, AnnotationCounterService.INDEX_ANNOTATIONS, indexCounts);
+        });
+
+        Map<Project, List<BulkAnnotation>> annotationsByProject = annotations.stream()
+                .collect(Collectors.groupingBy(x -> x.project, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Project, List<BulkAnnotation>> entry : annotationsByProject.entrySet()) {
+            List<Long> annotationIds = entry.getValue().stream().map(x -> x.annotation.getId()).toList();
+            Command command = new AddCommand(currentUser, transaction);
+            command.setProject(entry.getKey());
+            command.setServiceName(getServiceName());
+            command.setSaveOnUndoRedoStack(false);
+            command.setRefuseUndo(true);
+            command.setData(JsonObject.of("annotations", annotationIds).toJsonString());
+            command.setActionMessage(annotationIds.size() + " annotations added in project " + entry.getKey().getName());
+            entityManager.persist(command);
+            entityManager.persist(new CommandHistory(command));
+        }
+
+        for (BulkAnnotation annotation : annotations) {
+            annotation.result = JsonObject.of("domain", annotation.annotation.getId(), "status", 200);
+        }
+    }
+
+    private void insertAnnotations(Connection connection, List<BulkAnnotation> annotations, Iterator<Long> ids, SecUser currentUser) throws SQLException {
+        Timestamp now = new Timestamp(new Date().getTime());
+        try (PreparedStatement annotationStatement = connection.prepareStatement(
+                "INSERT INTO user_annotation(id, version, created, user_id, image_id, slice_id, project_id, location, wkt_location, " +
+                        "geometry_compression, area, area_unit, perimeter, perimeter_unit, count_comments, count_reviewed_annotations) " +
+                        "VALUES (?, 0, ?, ?, ?, ?, ?, ST_GeomFromText(?), ?, ?, ?, ?, ?, ?, 0, 0)");
+             PreparedStatement termStatement = connection.prepareStatement(
+                "INSERT INTO annotation_term(id, version, created, user_annotation_id, term_id, user_id) VALUES (?, 0, ?, ?, ?, ?)")) {
+            int batchSize = 0;
+            for (BulkAnnotation annotation : annotations) {
+                UserAnnotation userAnnotation = annotation.annotation;
+                annotationStatement.setLong(1, userAnnotation.getId());
+                annotationStatement.setTimestamp(2, now);
+                annotationStatement.setLong(3, annotation.user.getId());
+                annotationStatement.setLong(4, annotation.image.getId());
+                annotationStatement.setLong(5, annotation.slice.getId());
+                annotationStatement.setLong(6, annotation.project.getId());
+                annotationStatement.setString(7, userAnnotation.getWktLocation());
+                annotationStatement.setString(8, userAnnotation.getWktLocation());
+                annotationStatement.setDouble(9, userAnnotation.getGeometryCompression());
+                annotationStatement.setDouble(10, userAnnotation.getArea());
+                annotationStatement.setInt(11, userAnnotation.getAreaUnit());
+                annotationStatement.setDouble(12, userAnnotation.getPerimeter());
+                annotationStatement.setInt(13, userAnnotation.getPerimeterUnit());
+                annotationStatement.addBatch();
+                for (Long termId : annotation.termIds) {
+                    termStatement.setLong(1, ids.next());
+                    termStatement.setTimestamp(2, now);
+                    termStatement.setLong(3, userAnnotation.getId());
+                    termStatement.setLong(4, termId);
+                    termStatement.setLong(5, currentUser.getId());
+                    termStatement.addBatch();
+                }
+                if (++batchSize == BULK_BATCH_SIZE) {
+                    annotationStatement.executeBatch();
+                    termStatement.executeBatch();
+                    batchSize = 0;
+                }
+            }
+            annotationStatement.executeBatch();
+            termStatement.executeBatch();
+        }
+    }
+
+    /**
+     * State of an annotation during a bulk add
+     */
+    private static class BulkAnnotation {
+        final JsonObject json;
+        SliceInstance slice;
+        ImageInstance image;
+        Project project;
+        SecUser user;
+        Integer imageWidth;
+        Integer imageHeight;
+        final List<Long> termIds = new ArrayList<>();
+        volatile Geometry location;
+        UserAnnotation annotation;
+        CytomineException error;
+        JsonObject result;
+
+        BulkAnnotation(JsonObject json) {
+            this.json = json;
+        }
+
+        boolean isPending() {
+            return error == null && result == null;
+        }
+
+        void fail(CytomineException e) {
+            log.info(e.getMessage());
+            error = e;
+            result = JsonObject.of("message", e.msg, "status", e.code);
+        }
+    }
+
+    /**
+     * Check the annotation location in json, crop it to the image bounds, simplify it and make it valid.
+     * The prepared location (and its compression rate) replaces the location in json.
+     */
+    private void prepareLocation(JsonObject jsonObject, ImageInstance image) {
+        Geometry location = simplifyLocation(jsonObject, image.getBaseImage().getWidth(), image.getBaseImage().getHeight());
+        // the location is now kept as a geometry, whatever its format was
+        jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(location));
+        jsonObject.remove("geometryFormat");
+    }
+
+    /**
+     * Read the location, crop it to the image and simplify it. Only JTS is used: it can run on any thread.
+     */
+    private Geometry simplifyLocation(JsonObject jsonObject, Integer imageWidth, Integer imageHeight) {
+        Geometry annotationShape;
+        try {
+            annotationShape = GeometryFormat.readLocation(jsonObject);
+        }
+        catch (WrongArgumentException e) {
+            throw e;
+        }
+        catch (Exception ignored) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+        if (!annotationShape.isValid()) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+
+        Envelope envelope = annotationShape.getEnvelopeInternal();
+        boolean isSizeDefined = imageWidth!=null && imageHeight!=null;
+        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
+                envelope.getMaxX() > imageWidth ||
+                envelope.getMaxY() > imageHeight)) {
+            double maxX = Math.min(envelope.getMaxX(), imageWidth);
+            double maxY = Math.min(envelope.getMaxY(), imageHeight);
+            Geometry insideBounds = GeometryUtils.createBoundingBox(0, maxX, 0, maxY);
+            annotationShape = annotationShape.intersection(insideBounds);
+        }
+
+        if(!(annotationShape.getGeometryType().equals("LineString"))) {
+            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
+            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
+                throw new WrongArgumentException("Annotation dimension not valid");
+            }
+        }
+
+        //simplify annotation
+        Geometry location = annotationShape;
+        try {
+            SimplifiedAnnotation simplifiedAnnotation =
+                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
+            location = simplifiedAnnotation.getNewAnnotation();
+            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
+        } catch (Exception e) {
+            log.error("Cannot simplify annotation location:" + e);
+        }
+        return location;
+    }
+
     protected void beforeAdd(CytomineDomain domain) {
         // this will be done in the PrePersist method ; but the validation is done before PrePersist
         ((UserAnnotation)domain).setWktLocation(((UserAnnotation)domain).getLocation().toText());
@@ -486,9 +808,12 @@ public class UserAnnotationService extends ModelService {
 
         Geometry annotationShape;
         try {
-            annotationShape = new WKTReader().read(jsonNewData.getJSONAttrStr("location"));
+            annotationShape = GeometryFormat.readLocation(jsonNewData);
         }
-        catch (ParseException ignored) {
+        catch (WrongArgumentException e) {
+            throw e;
+        }
+        catch (Exception ignored) {
             throw new WrongArgumentException("Annotation location is not valid");
         }
 
@@ -500,36 +825,30 @@ public class UserAnnotationService extends ModelService {
                 .orElseThrow(() -> new WrongArgumentException("Annotation not associated with a valid image"));
 
         Envelope envelope = annotationShape.getEnvelopeInternal();
-        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
+        boolean isSizeDefined = imageWidth!=null && imageHeight!=null;
         if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
-                envelope.getMaxX() > image.getBaseImage().getWidth() ||
-                envelope.getMaxY() > image.getBaseImage().getHeight())) {
-            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
-            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
+                envelope.getMaxX() > imageWidth ||
+                envelope.getMaxY() > imageHeight)) {
+            double maxX = Math.min(envelope.getMaxX(), imageWidth);
+            double maxY = Math.min(envelope.getMaxY(), imageHeight);
+            Geometry insideBounds = GeometryUtils.createBoundingBox(0, maxX, 0, maxY);
             annotationShape = annotationShape.intersection(insideBounds);
         }
 
         //simplify annotation
+        Geometry location = annotationShape;
         try {
             double rate = jsonNewData.getJSONAttrDouble("geometryCompression", 0d);
             SimplifiedAnnotation data = simplifyGeometryService.simplifyPolygon(annotationShape, rate);
-            jsonNewData.put("location", data.getNewAnnotation());
+            location = data.getNewAnnotation();
             jsonNewData.put("geometryCompression", data.getRate());
         } catch (Exception e) {
             log.error("Cannot simplify annotation location:" + e);
         }
 
-        if (jsonNewData.get("location") instanceof Geometry) {
-            jsonNewData.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonNewData.get("location")));
-        } else {
-            jsonNewData.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonNewData.getJSONAttrStr("location")));
-        }
+        // the location is now kept as a geometry, whatever its format was
+        jsonNewData.put("location", validateGeometryService.tryToMakeItValidIfNotValid(location));
+        jsonNewData.remove("geometryFormat");
         CommandResponse result = executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
 
         return result;
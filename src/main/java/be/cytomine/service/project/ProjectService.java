@@ -18,7 +18,6 @@ package be.cytomine.service.project;
 
 import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.command.*;
-import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.ontology.AnnotationTerm;
 import be.cytomine.domain.ontology.Ontology;
 import be.cytomine.domain.project.Project;
@@ -42,12 +41,12 @@ import be.cytomine.repository.project.ProjectRepresentativeUserRepository;
 import be.cytomine.repository.security.SecRoleRepository;
 import be.cytomine.repository.security.UserRepository;
 import be.cytomine.repositorynosql.social.PersistentConnectionRepository;
+import be.cytomine.service.CascadeDeletionService;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.PermissionService;
 import be.cytomine.service.dto.ProjectBounds;
-import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.ontology.AlgoAnnotationTermService;
 import be.cytomine.service.ontology.AnnotationTermService;
 import be.cytomine.service.ontology.OntologyService;
@@ -148,7 +147,7 @@ public class ProjectService extends ModelService {
     private CommandRepository commandRepository;
 
     @Autowired
-    private ImageInstanceService imageInstanceService;
+    private CascadeDeletionService cascadeDeletionService;
 
     @Autowired
     private UndoStackItemRepository undoStackItemRepository;
@@ -889,6 +888,14 @@ public class ProjectService extends ModelService {
         SecUser currentUser = currentUserService.getCurrentUser();
         securityACLService.check(domain.container(),ADMINISTRATION);
         securityACLService.checkIsNotReadOnly(domain.container());
+        Project project = (Project) domain;
+        long numberOfAnnotations = project.getCountAnnotations() + project.getCountJobAnnotations() + project.getCountReviewedAnnotations();
+        if (cascadeDeletionService.mustRunInBackground(numberOfAnnotations)) {
+            Long id = project.getId();
+            return cascadeDeletionService.deleteInBackground(project, imageInstanceRepository.findAllIdsByProject(id), true, task,
+                    () -> executeCommand(new DeleteCommand(currentUser, transaction), projectRepository.findById(id)
+                            .orElseThrow(() -> new ObjectNotFoundException("Project", id)), null));
+        }
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c,domain, null);
     }
@@ -999,11 +1006,7 @@ public class ProjectService extends ModelService {
     }
 
     private void deleteDependentImageInstance(Project project, Transaction transaction, Task task) {
-         taskService.updateTask(task,(task!=null? "Delete " +imageInstanceRepository.countAllByProject(project)+ " images":""));
-        for (ImageInstance imageInstance : imageInstanceRepository.findAllByProject(project)) {
-            imageInstanceService.delete(imageInstance, transaction, task , false);
-        }
-
+        cascadeDeletionService.deleteImages(imageInstanceRepository.findAllIdsByProject(project.getId()), true, task);
     }
 
     @Override
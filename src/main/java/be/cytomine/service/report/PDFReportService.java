@@ -21,9 +21,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.awt.*;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import be.quodlibet.boxable.BaseTable;
 import be.quodlibet.boxable.Cell;
@@ -32,12 +32,14 @@ import be.quodlibet.boxable.Row;
 import be.quodlibet.boxable.datatable.DataTable;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Floats;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -52,14 +54,15 @@ public class PDFReportService {
     static final int PAGINATION_TOP_POSITION = 20;
     static final int PAGINATION_BOTTOM_POSITION = 20;
     static final int FONT_SIZE = 12;
+    /**
+     * Number of rows drawn at once: rows are buffered until a table of this size is drawn on the document.
+     */
+    static final int ROWS_BY_TABLE = 100;
 
-    private PDDocument document;
-    private PDPage page;
     private PDRectangle pageSize;
     private float contentWidth;
     private float contentHeight;
     private float maxPercentWidth;
-    private boolean documentIsUsed = false;
     /**
      * PDFWriter constructor
      */
@@ -85,13 +88,7 @@ public class PDFReportService {
      * Init PDFWriter variables
      */
     private void initPDFWriterService(){
-        log.info("Initializing PDF document");
-        document = new PDDocument();
-        page = new PDPage();
-        page.setMediaBox(new PDRectangle(PDRectangle.A4.getHeight(), PDRectangle.A4.getWidth()));
-        document.addPage(page);
-
-        pageSize = page.getMediaBox();
+        pageSize = new PDRectangle(PDRectangle.A4.getHeight(), PDRectangle.A4.getWidth());
         contentWidth = pageSize.getWidth() - MARGIN * 2;
         contentHeight = pageSize.getHeight() - MARGIN;
 
@@ -116,112 +113,188 @@ public class PDFReportService {
                            float[] columnWidth,
                            boolean hasPagination,
                            boolean hasHeader) throws ServerException {
+        if(dataArray == null){
+            log.error("Cannot generate pdf report with null data, expected type: Object[][].");
+            throw new ServerException("Cannot generate pdf report with null data, expected type: Object[][].");
+        }
 
-        checkData(dataArray);
-        if(documentIsUsed){
-            initPDFWriterService();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ReportWriter writer = openPDF(output, title, columnWidth, hasPagination, hasHeader)) {
+            for (Object[] row : dataArray) {
+                writer.writeRow(row);
+            }
         }
-        drawDataTable(arrayToString(dataArray), columnWidth, hasHeader);
+        return output.toByteArray();
+    }
 
+    /**
+     * Open a PDF report written row by row. The rows are drawn by tables of ROWS_BY_TABLE rows,
+     * each table continuing the previous one. Pages are kept in a temporary file until the report is closed,
+     * then the title and the pagination are added and the document is written to the output stream.
+     */
+    public ReportWriter openPDF(OutputStream output,
+                                String title,
+                                float[] columnWidth,
+                                boolean hasPagination,
+                                boolean hasHeader) throws ServerException {
         if(title == null){
             log.error("Cannot generate pdf report with null title, expected type: String.");
             throw new ServerException("Cannot generate pdf report with null title, expected type: String.");
         }
-        if(!title.isEmpty()) {
-            writeMessage(document.getPage(0), TOP_POSITION, pageSize.getHeight() - BOTTOM_POSITION, title);
-        }
-        if(hasPagination) {
-            setPagination();
-        }
-
-        try {
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            document.save(byteArrayOutputStream);
-            document.close();
-
-            // Convert inputStream to byte array
-            ByteArrayInputStream pdfInputStream = new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-            byte[] pdfByteArray = new byte[pdfInputStream.available()];
-            pdfInputStream.read(pdfByteArray);
+        log.info("Initializing PDF document");
+        return new PDFReportWriter(output, title, columnWidth, hasPagination, hasHeader);
+    }
 
-            log.info("PDF file has been generated");
-            return pdfByteArray;
-        } catch (IOException e) {
-            log.error("Could not save and close pdf document. Error: ".format(e.getMessage()));
-            throw new ServerException("Cannot generate pdf report with title=%s. Error: %s".format(title, e.getMessage()));
+    private class PDFReportWriter implements ReportWriter {
+
+        private final OutputStream output;
+        private final String title;
+        private final float[] columnWidth;
+        private final boolean hasPagination;
+        private final boolean hasHeader;
+
+        private final PDDocument document;
+        private PDPage page;
+        private float yStart;
+
+        private final List<List<String>> rows = new ArrayList<>();
+        private List<String> header;
+        private int nbOfCells = -1;
+        private float[] cellsSizePercent;
+        private boolean tableDrawn = false;
+        private boolean closed = false;
+        // a report that failed is not saved, the document is only released on close
+        private boolean failed = false;
+
+        private PDFReportWriter(OutputStream output, String title, float[] columnWidth, boolean hasPagination, boolean hasHeader) {
+            this.output = output;
+            this.title = title;
+            this.columnWidth = columnWidth;
+            this.hasPagination = hasPagination;
+            this.hasHeader = hasHeader;
+
+            document = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+            page = new PDPage();
+            page.setMediaBox(pageSize);
+            document.addPage(page);
+            yStart = contentHeight - MARGIN;
         }
-    }
 
-    /**
-     * Verify that all rows have the same number of cells
-     * Throw a Report Generation error if not
-     *
-     * @param  dataArray
-     */
-    private void checkData(Object[][] dataArray) throws ServerException {
-        if(dataArray != null) {
-            int nbOfCell = dataArray[0].length;
-            for (Object[] row : dataArray) {
-                if (row.length != nbOfCell) {
-                    log.error("All data rows should have the same number of cells");
-                    throw new ServerException("All data rows should have the same number of cells");
+        /**
+         * Verify that all rows have the same number of cells
+         * Throw a Report Generation error if not
+         */
+        @Override
+        public void writeRow(Object[] row) throws ServerException {
+            if (nbOfCells == -1) {
+                nbOfCells = row.length;
+            } else if (row.length != nbOfCells) {
+                failed = true;
+                log.error("All data rows should have the same number of cells");
+                throw new ServerException("All data rows should have the same number of cells");
+            }
+            List<String> cells = new ArrayList<>();
+            for (Object value : row) {
+                cells.add(String.valueOf(value));
+            }
+            if (hasHeader && header == null) {
+                header = cells;
+            } else {
+                rows.add(cells);
+            }
+            if (rows.size() >= ROWS_BY_TABLE) {
+                try {
+                    drawDataTable();
+                } catch (ServerException e) {
+                    failed = true;
+                    throw e;
                 }
             }
         }
-    }
 
-    /**
-     * Transform given data array in a string
-     * Value delimiter is space and row break is '\r\n'
-     *
-     * @param  dataArray
-     *
-     * @return String
-     */
-    private String arrayToString(Object[][] dataArray) throws ServerException {
-        if(dataArray == null){
-            log.error("Cannot generate pdf report with null data, expected type: Object[][].");
-            throw new ServerException("Cannot generate pdf report with null data, expected type: Object[][].");
-        }
-        String stringArray = "";
-        for(Object[] row : dataArray){
-            stringArray += Arrays.toString(row).replace('[', ' ').replace(']', ' ') + "\r\n";
+        @Override
+        public void close() throws ServerException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (failed) {
+                    return;
+                }
+                if (!rows.isEmpty() || !tableDrawn) {
+                    drawDataTable();
+                }
+                if(!title.isEmpty()) {
+                    writeMessage(document, document.getPage(0), TOP_POSITION, pageSize.getHeight() - BOTTOM_POSITION, title);
+                }
+                if(hasPagination) {
+                    setPagination(document);
+                }
+                document.save(output);
+                output.close();
+                log.info("PDF file has been generated");
+            } catch (IOException e) {
+                log.error(String.format("Could not save and close pdf document. Error: %s", e.getMessage()));
+                throw new ServerException(String.format("Cannot generate pdf report with title=%s. Error: %s", title, e.getMessage()));
+            } finally {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    log.error(String.format("Could not close pdf document. Error: %s", e.getMessage()));
+                }
+            }
         }
-        return stringArray;
-    }
 
-    /**
-     * Draw the data table on PDF document
-     *
-     * @param  data
-     *
-     * @return
-     */
-    private void drawDataTable(String data, float[] columnWidth, boolean hasHeader) throws ServerException {
-        log.info("Drawing data table");
-        try{
-            float yStart = contentHeight - MARGIN;
-            float bottomMargin = MARGIN * 2;
-            BaseTable baseTable = new BaseTable(yStart, contentHeight, bottomMargin, contentWidth, MARGIN, document, page, true, true);
-            DataTable dataTable = new DataTable(baseTable, page);
-
-            setDatatableColor(dataTable);
-            dataTable.addCsvToTable(data, hasHeader, ',');
-
-            List<Row<PDPage>> rows = dataTable.getTable().getRows();
-            if(columnWidth != null){
-                checkPercentArraySum(columnWidth);
-                checkColumnWidthSize(columnWidth, rows.get(0).getCells().size());
-                setColumnWidth(rows, columnWidth);
-            }else{
-                autoSetColumnWidth(rows);
+        /**
+         * Draw the buffered rows on PDF document, starting where the previous table ended.
+         * The header is the first row of the first table, it is repeated at the top of each new page.
+         */
+        private void drawDataTable() throws ServerException {
+            if (nbOfCells <= 0) {
+                // no cell to draw
+                rows.clear();
+                tableDrawn = true;
+                return;
             }
+            log.debug("Drawing data table");
+            try{
+                float bottomMargin = MARGIN * 2;
+                BaseTable baseTable = new BaseTable(yStart, contentHeight, bottomMargin, contentWidth, MARGIN, document, page, true, true);
+                DataTable dataTable = new DataTable(baseTable, page);
+
+                setDatatableColor(dataTable);
+                List<List> data = new ArrayList<>();
+                if (header != null) {
+                    data.add(header);
+                }
+                data.addAll(rows);
+                dataTable.addListToTable(data, hasHeader);
+
+                List<Row<PDPage>> tableRows = dataTable.getTable().getRows();
+                if (cellsSizePercent == null) {
+                    if(columnWidth != null){
+                        checkPercentArraySum(columnWidth);
+                        checkColumnWidthSize(columnWidth, tableRows.get(0).getCells().size());
+                        cellsSizePercent = columnWidth;
+                    }else{
+                        cellsSizePercent = autoColumnWidth(tableRows);
+                    }
+                }
+                setColumnWidth(tableRows, cellsSizePercent);
+                if (tableDrawn && header != null) {
+                    // the header is already drawn above, it is only repeated on the next pages
+                    tableRows.remove(0);
+                }
 
-            baseTable.draw();
-            documentIsUsed = true;
-        }catch(IOException e){
-            log.error("Failed to create or draw the data table: %s".format(e.getMessage()));
-            throw new ServerException("Cannot draw data table: s".format(e.getMessage()));
+                yStart = baseTable.draw();
+                page = baseTable.getCurrentPage();
+                rows.clear();
+                tableDrawn = true;
+            }catch(IOException e){
+                log.error(String.format("Failed to create or draw the data table: %s", e.getMessage()));
+                throw new ServerException(String.format("Cannot draw data table: %s", e.getMessage()));
+            }
         }
     }
 
@@ -276,9 +349,9 @@ public class PDFReportService {
      * and the maximum size is redistributed to the other cells.
      *
      * @param  rows
-     * @return
+     * @return Width of each column (in percent)
      */
-    private void autoSetColumnWidth(List<Row<PDPage>> rows){
+    private float[] autoColumnWidth(List<Row<PDPage>> rows){
         // Take second index (second row) if exists, to avoid possible headers.
         int secondIndex = 1;
         if(rows.size() == 1){
@@ -296,7 +369,7 @@ public class PDFReportService {
         int[] maxPercentIndexes = updateCellsSize(cellsSizePercent, nbOfCellPerRow);
         dispatchUnusedWidth(cellsSizePercent, nbOfCellPerRow, maxPercentIndexes);
 
-        setColumnWidth(rows, cellsSizePercent);
+        return cellsSizePercent;
     }
 
     /**
@@ -384,7 +457,7 @@ public class PDFReportService {
      * @param  message
      * @return
      */
-    private void writeMessage(PDPage page, float topPosition, float bottomPosition, String message) throws ServerException {
+    private void writeMessage(PDDocument document, PDPage page, float topPosition, float bottomPosition, String message) throws ServerException {
         try {
             PDPageContentStream contentStream  = new PDPageContentStream(document, page, PDPageContentStream.AppendMode.APPEND, true, true);
             contentStream.setFont(PDType1Font.HELVETICA_BOLD, FONT_SIZE);
@@ -404,12 +477,12 @@ public class PDFReportService {
      *
      * @return
      */
-    private void setPagination() throws ServerException {
+    private void setPagination(PDDocument document) throws ServerException {
         log.info("Setting pagination");
         int nbOfPages = document.getNumberOfPages();
         for (int i = 0; i < nbOfPages; i++) {
             PDPage nthPage = document.getPage(i);
-            writeMessage(nthPage, pageSize.getWidth() - PAGINATION_TOP_POSITION, PAGINATION_BOTTOM_POSITION, String.valueOf(i + 1));
+            writeMessage(document, nthPage, pageSize.getWidth() - PAGINATION_TOP_POSITION, PAGINATION_BOTTOM_POSITION, String.valueOf(i + 1));
         }
     }
 }
@@ -25,6 +25,7 @@ import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.OutputStream;
 import java.text.ParseException;
 import java.util.*;
 
@@ -118,6 +119,38 @@ public class ReportService {
         }
     }
 
+    /**
+     * Open an annotation report written row by row (see writeAnnotation), the column titles are already written.
+     */
+    public ReportWriter openAnnotationsReport(String projectName, Set<String> terms, Set<String> users, String format, OutputStream output) throws ServerException {
+        return openReport(getAnnotationReportTitle(projectName, terms, users), ANNOTATION_REPORT_COLUMNS, format, output);
+    }
+
+    public void writeAnnotation(ReportWriter writer, Map<String, Object> annotation) throws ServerException {
+        writer.writeRow(reportFormatService.formatAnnotationForReport(ANNOTATION_REPORT_COLUMNS, annotation));
+    }
+
+    public ReportWriter openReport(String title, List<ReportColumn> columns, String format, OutputStream output) throws ServerException {
+        float[] columnWidth = reportFormatService.getColumnWidth(columns);
+        ReportWriter writer;
+        switch (format){
+            case "csv":
+                writer = spreadsheetReportService.openSpreadsheet(output);
+                break;
+            case "xls":
+                writer = spreadsheetReportService.openSpreadsheetXLS(output);
+                break;
+            case "pdf":
+                writer = pdfReportService.openPDF(output, title, columnWidth, HAS_PAGINATION, HAS_HEADER);
+                break;
+            default :
+                log.error("Format should be one of these types: 'pdf', 'csv' or 'xls'.");
+                throw new ServerException("Failed to generate report, invalid format. Format should be one of these types: 'pdf', 'csv' or 'xls'.");
+        }
+        writer.writeRow(ReportFormatService.getColumnTitles(columns));
+        return writer;
+    }
+
     private String getConnectionHistoryReportTitle(String projectName, String userName){
         return "Connections of user "+ userName + " to project " + projectName;
     }
@@ -135,19 +168,25 @@ public class ReportService {
     }
 
     public String getConnectionHistoryReportFileName(String format, Long projectId, Long userId){
-        return "user_" + userId + "_connections_project_" + projectId + "_" + DateUtils.getSimpleFormatLocaleDate(new Date()) + "." + format;
+        return "user_" + userId + "_connections_project_" + projectId + "_" + DateUtils.getSimpleFormatLocaleDate(new Date()) + "." + getFileExtension(format);
     }
 
     public String getImageConsultationReportFileName(String format, Long projectId, Long userId){
-        return "image_consultations_of_user_" + userId + "_project_" + projectId + "_" + DateUtils.getSimpleFormatLocaleDate(new Date()) + "." + format;
+        return "image_consultations_of_user_" + userId + "_project_" + projectId + "_" + DateUtils.getSimpleFormatLocaleDate(new Date()) + "." + getFileExtension(format);
     }
 
     public String getAnnotationReportFileName(String format, Long projectId){
-        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_annotations_project" + projectId + "." + format;
+        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_annotations_project" + projectId + "." + getFileExtension(format);
     }
 
     public String getUsersReportFileName(String format, Long projectId){
-        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_users_project" + projectId + "." + format;
+        return DateUtils.getSimpleFormatLocaleDate(new Date()) + "_users_project" + projectId + "." + getFileExtension(format);
     }
 
+    /**
+     * The 'xls' format is written as an Office Open XML workbook
+     */
+    private String getFileExtension(String format){
+        return "xls".equals(format) ? "xlsx" : format;
+    }
 }
@@ -0,0 +1,35 @@
+package be.cytomine.service.report;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.ServerException;
+
+/**
+ * Report written row by row in an output stream.
+ * A row is not kept once written (the PDF writer only buffers the rows of the table being drawn),
+ * so the memory used does not depend on the size of the report.
+ */
+public interface ReportWriter extends AutoCloseable {
+
+    void writeRow(Object[] row) throws ServerException;
+
+    /**
+     * Write the end of the report and close the output stream
+     */
+    @Override
+    void close() throws ServerException;
+}
@@ -20,15 +20,12 @@ import be.cytomine.exceptions.ServerException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.*;
 import java.math.BigDecimal;
 
 @Service
@@ -36,31 +33,26 @@ import java.math.BigDecimal;
 public class SpreadsheetReportService {
 
     /**
-     * Write a spreadsheet report (xls)
+     * Number of rows of the xls sheet kept in memory, older rows are flushed to a temporary file
+     */
+    static final int XLS_ROWS_IN_MEMORY = 100;
+
+    /**
+     * Write a spreadsheet report (csv)
      *
      * @param  dataArray
      * @return Spreadsheet byte array report encoded in base 64
      */
     public byte[] writeSpreadsheet(Object[][] dataArray) throws ServerException {
-        log.info(String.format("Generating spread sheet with delimiter: '%s'", ";"));
-        CSVFormat format = CSVFormat.EXCEL.withDelimiter(';');
         ByteArrayOutputStream output = new ByteArrayOutputStream();
-        try (CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(output), format)){
-
+        try (ReportWriter writer = openSpreadsheet(output)) {
             for (Object[] row : dataArray) {
-                csvPrinter.printRecord(row);
+                writer.writeRow(row);
             }
-            csvPrinter.flush();
-
-            log.info("Spread sheet file has been generated");
-            return output.toByteArray();
-        } catch (IOException e) {
-            log.error("Failed to generate spread sheet. Error: %s".format(e.getMessage()));
-            throw new ServerException(String.format("Cannot generate spread sheet with params: format=%s. Error: %s",format, e.getMessage()));
         }
+        return output.toByteArray();
     }
 
-
     /**
      * Write a spreadsheet report (xls)
      *
@@ -68,15 +60,90 @@ public class SpreadsheetReportService {
      * @return Spreadsheet byte array report encoded in base 64
      */
     public byte[] writeSpreadsheetXLS(Object[][] dataArray) throws ServerException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ReportWriter writer = openSpreadsheetXLS(output)) {
+            for (Object[] row : dataArray) {
+                writer.writeRow(row);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Open a csv report, each row is written to the output stream as soon as it is given
+     */
+    public ReportWriter openSpreadsheet(OutputStream output) throws ServerException {
         log.info(String.format("Generating spread sheet with delimiter: '%s'", ";"));
-        HSSFWorkbook workbook = new HSSFWorkbook();
-        HSSFSheet sheet = workbook.createSheet("Sheet1");
-        int rowNum = 0;
-        for (var row : dataArray) {
+        CSVFormat format = CSVFormat.EXCEL.withDelimiter(';');
+        try {
+            return new CsvReportWriter(new CSVPrinter(new BufferedWriter(new OutputStreamWriter(output)), format));
+        } catch (IOException e) {
+            log.error(String.format("Failed to generate spread sheet. Error: %s", e.getMessage()));
+            throw new ServerException(String.format("Cannot generate spread sheet with params: format=%s. Error: %s",format, e.getMessage()));
+        }
+    }
+
+    /**
+     * Open a xls report. The workbook is streamed (xlsx format): only the last rows are kept in memory,
+     * the sheet is written to the output stream when the report is closed.
+     */
+    public ReportWriter openSpreadsheetXLS(OutputStream output) {
+        log.info("Generating streamed spreadsheet");
+        return new XlsReportWriter(new SXSSFWorkbook(XLS_ROWS_IN_MEMORY), output);
+    }
+
+    private static class CsvReportWriter implements ReportWriter {
+
+        private final CSVPrinter csvPrinter;
+
+        private CsvReportWriter(CSVPrinter csvPrinter) {
+            this.csvPrinter = csvPrinter;
+        }
+
+        @Override
+        public void writeRow(Object[] row) throws ServerException {
+            try {
+                csvPrinter.printRecord(row);
+            } catch (IOException e) {
+                log.error(String.format("Failed to write spread sheet row. Error: %s", e.getMessage()));
+                throw new ServerException(String.format("Cannot generate spread sheet. Error: %s", e.getMessage()));
+            }
+        }
+
+        @Override
+        public void close() throws ServerException {
+            try {
+                csvPrinter.close();
+                log.info("Spread sheet file has been generated");
+            } catch (IOException e) {
+                log.error(String.format("Failed to generate spread sheet. Error: %s", e.getMessage()));
+                throw new ServerException(String.format("Cannot generate spread sheet. Error: %s", e.getMessage()));
+            }
+        }
+    }
+
+    private static class XlsReportWriter implements ReportWriter {
+
+        private final SXSSFWorkbook workbook;
+
+        private final SXSSFSheet sheet;
+
+        private final OutputStream output;
+
+        private int rowNum = 0;
+
+        private XlsReportWriter(SXSSFWorkbook workbook, OutputStream output) {
+            this.workbook = workbook;
+            this.sheet = workbook.createSheet("Sheet1");
+            this.output = output;
+        }
+
+        @Override
+        public void writeRow(Object[] row) {
             var currentRow = sheet.createRow(rowNum++);
             int colNum = 0;
             for (var field : row) {
-                var currentCell = currentRow.createCell(colNum++);
+                Cell currentCell = currentRow.createCell(colNum++);
                 if (field instanceof String) {
                     currentCell.setCellValue((String) field);
                 } else if (field instanceof Integer) {
@@ -93,16 +160,19 @@ public class SpreadsheetReportService {
             }
         }
 
-        try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-            workbook.write(output);
-            log.info("Spreadsheet file has been generated");
-            return output.toByteArray();
-        } catch (IOException e) {
-            log.error("Failed to generate spreadsheet. Error: %s".format(e.getMessage()));
-            throw new ServerException(String.format("Cannot generate spreadsheet. Error: %s", e.getMessage()));
+        @Override
+        public void close() throws ServerException {
+            try {
+                workbook.write(output);
+                output.close();
+                log.info("Spreadsheet file has been generated");
+            } catch (IOException e) {
+                log.error(String.format("Failed to generate spreadsheet. Error: %s", e.getMessage()));
+                throw new ServerException(String.format("Cannot generate spreadsheet. Error: %s", e.getMessage()));
+            } finally {
+                // delete the temporary files of the flushed rows
+                workbook.dispose();
+            }
         }
-
     }
-
 }
-
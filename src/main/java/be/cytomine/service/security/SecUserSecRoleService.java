@@ -29,6 +29,7 @@ import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.SecRoleRepository;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repository.security.SecUserSecRoleRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.utils.CommandResponse;
@@ -64,6 +65,9 @@ public class SecUserSecRoleService extends ModelService {
     @Autowired
     SecUserRepository secUserRepository;
 
+    @Autowired
+    PrincipalCache principalCache;
+
     @Override
     public Class currentDomain() {
         return SecUserSecRoleService.class;
@@ -134,9 +138,7 @@ public class SecUserSecRoleService extends ModelService {
             securityACLService.checkUser(currentUser);
         }
 
-
-
-
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new AddCommand(currentUser),null,jsonObject);
     }
 
@@ -154,6 +156,7 @@ public class SecUserSecRoleService extends ModelService {
         } else {
             securityACLService.checkAdmin(currentUser);
         }
+        principalCache.invalidate(secUserSecRole.getSecUser().getUsername());
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c,domain, null);
     }
@@ -214,6 +217,7 @@ public class SecUserSecRoleService extends ModelService {
             susr.setSecRole(role);
             susr.setSecUser(user);
             super.saveDomain(susr);
+            principalCache.invalidate(user.getUsername());
         }
     }
     private void removeRole(SecUser user,SecRole role) {
@@ -223,6 +227,7 @@ public class SecUserSecRoleService extends ModelService {
                 throw new ForbiddenException("You cannot remove you a role");
             }
             super.removeDomain(linked.get());
+            principalCache.invalidate(user.getUsername());
         }
     }
 
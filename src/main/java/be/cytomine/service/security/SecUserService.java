@@ -24,6 +24,7 @@ import javax.persistence.Tuple;
 import javax.persistence.TupleElement;
 
 import org.apache.commons.lang3.time.DateUtils;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -106,6 +107,7 @@ import be.cytomine.repositorynosql.social.AnnotationActionRepository;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
@@ -124,6 +126,8 @@ import be.cytomine.service.project.ProjectRepresentativeUserService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.MemberActivityService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.utils.CommandResponse;
@@ -172,6 +176,9 @@ public class SecUserService extends ModelService {
     @Autowired
     private ProjectConnectionService projectConnectionService;
 
+    @Autowired
+    private MemberActivityService memberActivityService;
+
     @Autowired
     private ProjectRepresentativeUserService projectRepresentativeUserService;
 
@@ -196,6 +203,12 @@ public class SecUserService extends ModelService {
     @Autowired
     private SecUserSecRoleService secUserSecRoleService;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private PresenceService presenceService;
+
     @Autowired
     private AlgoAnnotationService algoAnnotationService;
 
@@ -485,88 +498,116 @@ public class SecUserService extends ModelService {
         if (userSearchExtension == null || userSearchExtension.noExtension()) {
             return listUsersByProject(project, searchParameters, sortColumn, sortDirection, max, offset);
         } else {
-            List<JsonObject> results = new ArrayList<>();
             Page<JsonObject> users;
-            List<JsonObject> images;
-            List<JsonObject> connections;
-            List<JsonObject> frequencies;
-
-            boolean usersFetched = false;
-            boolean consultationsFetched = false;
-            boolean connectionsFetched = false;
-            boolean frequenciessFetched = false;
-
             List<Long> userIds;
+            long total;
 
             if (ReflectionUtils.findField(User.class, sortColumn) != null || sortColumn.equals("projectRole")) {
                 users = this.listUsersByProject(project, searchParameters, sortColumn, sortDirection, max, offset);
-                usersFetched = true;
+                userIds = users.stream().map(JsonObject::getId).collect(Collectors.toList());
+                total = users.getTotalElements();
             } else {
-                users = this.listUsersByProject(project, searchParameters, "id", "asc", 0L, 0L);
+                // only the ids of all the members are read to sort them, the users are loaded for the requested page
+                List<Long> memberIds = this.listUsersByProject(project, searchParameters, null, true, "id", "asc", 0L, 0L)
+                        .stream().map(JsonObject::getId).collect(Collectors.toList());
+                userIds = sortUsersByActivity(project, memberIds, sortColumn, sortDirection, max, offset);
+                users = userIds.isEmpty() ? Page.empty() : this.listUsersByProject(project, new ArrayList<>(), userIds, false, "id", "asc", 0L, 0L);
+                total = memberIds.size();
             }
-            userIds = users.stream().map(x -> (Long) x.get("id")).collect(Collectors.toList());
             Map<Long, JsonObject> userMap = users.stream().collect(Collectors.toMap(JsonObject::getId, Function.identity()));
+            List<JsonObject> results = userIds.stream().map(userMap::get).filter(Objects::nonNull).collect(Collectors.toList());
 
-            switch (sortColumn) {
-                case "lastImageName":
-                    images = imageConsultationService.lastImageOfGivenUsersByProject(project, userIds, "name", sortDirection, max, offset);
-                    results = images.stream().map(x -> JsonObject.of("id", x.get("user"), "lastImage", x.get("image"))).collect(Collectors.toList());
-                    userIds = results.stream().map(x -> (Long) x.get("id")).collect(Collectors.toList());
-                    consultationsFetched = true;
-                    break;
-                case "lastConnection":
-                    connections = projectConnectionService.lastConnectionOfGivenUsersInProject(project, userIds, "created", sortDirection, max, offset);
-                    results = connections.stream().map(x -> JsonObject.of("id", x.get("user"), "lastConnection", (x.get("created")!=null? ((Date)x.get("created")).getTime() : null))).collect(Collectors.toList());
-                    userIds = results.stream().map(x -> (Long) x.get("id")).collect(Collectors.toList());
-                    connectionsFetched = true;
-                    break;
-                case "frequency":
-                    frequencies = projectConnectionService.numberOfConnectionsOfGivenByProject(project, userIds, "frequency", sortDirection, max, offset);
-                    results = frequencies.stream().map(x -> JsonObject.of("id", x.get("user"), "numberConnections", x.getJSONAttrInteger("frequency", 0))).collect(Collectors.toList());
-                    userIds = results.stream().map(x -> (Long) x.get("id")).collect(Collectors.toList());
-                    frequenciessFetched = true;
-                    break;
-            }
+            addActivities(project, results, userSearchExtension);
+            return PageUtils.buildPageFromPageResults(results, max, offset, total);
+        }
 
-            if (!usersFetched) {
-                for (JsonObject entry : results) {
-                    Map<String, Object> userJson = userMap.get((Long) entry.get("id"));
-                    entry.putAll(userJson);
-                }
+    }
+
+    /**
+     * Page of the project members sorted by lastImageName, lastConnection or frequency (members without activity first in ascending order)
+     */
+    private List<Long> sortUsersByActivity(Project project, List<Long> userIds, String sortColumn, String sortDirection, Long max, Long offset) {
+        if (memberActivityService.isEnabled()) {
+            String field = switch (sortColumn) {
+                case "lastImageName" -> MemberActivityService.LAST_IMAGE_NAME;
+                case "lastConnection" -> MemberActivityService.LAST_CONNECTION;
+                default -> MemberActivityService.CONNECTIONS;
+            };
+            return memberActivityService.sortUsers(project.getId(), userIds, field, sortDirection.equals("desc"), max, offset);
+        }
+        List<JsonObject> sorted = switch (sortColumn) {
+            case "lastImageName" -> imageConsultationService.lastImageOfGivenUsersByProject(project, userIds, "name", sortDirection, max, offset);
+            case "lastConnection" -> projectConnectionService.lastConnectionOfGivenUsersInProject(project, userIds, "created", sortDirection, max, offset);
+            default -> projectConnectionService.numberOfConnectionsOfGivenByProject(project, userIds, "frequency", sortDirection, max, offset);
+        };
+        return sorted.stream().map(x -> x.getJSONAttrLong("user")).collect(Collectors.toList());
+    }
+
+    /**
+     * Add the last image, last connection and number of connections of the users.
+     * The member activity lookup is a single query bounded by a MongoDB deadline, if it expires the columns are left empty.
+     * Without the member activity projection, the legacy aggregations are run.
+     */
+    private void addActivities(Project project, List<JsonObject> users, UserSearchExtension userSearchExtension) {
+        List<Long> userIds = users.stream().map(JsonObject::getId).collect(Collectors.toList());
+        Map<String, Object> lookupResults = new HashMap<>();
+        if (memberActivityService.isEnabled()) {
+            memberActivityService.findByUsers(project.getId(), userIds).ifPresent(activities -> lookupResults.put("activity", activities));
+        } else {
+            if (userSearchExtension.isWithLastImage()) {
+                lookupResults.put("lastImage", imageConsultationService.lastImageOfUsersByProject(project, userIds, "id", "asc", 0L, 0L));
             }
-            if (!consultationsFetched && userSearchExtension.isWithLastImage()) {
-                images = imageConsultationService.lastImageOfUsersByProject(project, userIds, "id", "asc", 0L, 0L);
-                Map<Long, JsonObject> imagesMap = images.stream().collect(Collectors.toMap(x -> x.getJSONAttrLong("user"), Function.identity()));
-                for (JsonObject entry : results) {
-                    Optional<Map<String, Object>> image = Optional.ofNullable(imagesMap.get(entry.getId()));
-                    entry.put("lastImage", image.map(x -> x.get("image")).orElse(null));
-                }
-                consultationsFetched = true;
+            if (userSearchExtension.isWithLastConnection()) {
+                lookupResults.put("lastConnection", projectConnectionService.lastConnectionInProject(project, userIds, "id", "asc", 0L, 0L));
             }
-            if (!connectionsFetched && userSearchExtension.isWithLastConnection()) {
-                connections = projectConnectionService.lastConnectionInProject(project, userIds, "id", "asc", 0L, 0L);
-                Map<Long, JsonObject> connectionsMap = connections.stream().collect(Collectors.toMap(x -> x.getJSONAttrLong("user"), Function.identity()));
-                for (JsonObject user : results) {
-                    Optional<Map<String, Object>> connection = Optional.ofNullable(connectionsMap.get(user.getId()));
-                    user.put("lastConnection", connection.map(x -> (x.get("created")!=null ? ((Date)x.get("created")).getTime() : null)).orElse(null));
-                }
-                connectionsFetched = true;
+            if (userSearchExtension.isWithNumberConnections()) {
+                lookupResults.put("numberConnections", projectConnectionService.numberOfConnectionsByProjectAndUser(project, userIds, "id", "asc", 0L, 0L));
             }
-            if (!frequenciessFetched && userSearchExtension.isWithNumberConnections()) {
-                frequencies = projectConnectionService.numberOfConnectionsByProjectAndUser(project, userIds, "id", "asc", 0L, 0L);
-                Map<Long, JsonObject> frequencyMap = frequencies.stream().collect(Collectors.toMap(x -> x.getJSONAttrLong("user"), Function.identity()));
-                for (JsonObject user : results) {
-                    Optional<JsonObject> frequency = Optional.ofNullable(frequencyMap.get(user.getId()));
-                    user.put("numberConnections", frequency.map(x -> x.getJSONAttrInteger("frequency",0)).orElse(null));
-                }
-                frequenciessFetched = true;
+        }
+
+        Map<Long, Document> activities = (Map<Long, Document>) lookupResults.getOrDefault("activity", Map.of());
+        Map<Long, JsonObject> images = byUser((List<JsonObject>) lookupResults.get("lastImage"));
+        Map<Long, JsonObject> connections = byUser((List<JsonObject>) lookupResults.get("lastConnection"));
+        Map<Long, JsonObject> frequencies = byUser((List<JsonObject>) lookupResults.get("numberConnections"));
+        boolean found = memberActivityService.isEnabled() && lookupResults.containsKey("activity");
+
+        for (JsonObject user : users) {
+            Optional<Document> activity = Optional.ofNullable(activities.get(user.getId()));
+            if (userSearchExtension.isWithLastImage()) {
+                user.put("lastImage", found ?
+                        activity.map(x -> x.get(MemberActivityService.LAST_IMAGE)).orElse(null) :
+                        Optional.ofNullable(images.get(user.getId())).map(x -> x.get("image")).orElse(null));
+            }
+            if (userSearchExtension.isWithLastConnection()) {
+                Optional<Date> lastConnection = found ?
+                        activity.map(x -> x.getDate(MemberActivityService.LAST_CONNECTION)) :
+                        Optional.ofNullable(connections.get(user.getId())).map(x -> (Date) x.get("created"));
+                user.put("lastConnection", lastConnection.map(Date::getTime).orElse(null));
+            }
+            if (userSearchExtension.isWithNumberConnections()) {
+                user.put("numberConnections", found ?
+                        activity.map(x -> ((Number) x.get(MemberActivityService.CONNECTIONS, 0)).intValue()).orElse(0) :
+                        Optional.ofNullable(frequencies.get(user.getId())).map(x -> x.getJSONAttrInteger("frequency", 0)).orElse(null));
             }
-            return PageUtils.buildPageFromPageResults(results, max, offset, (long)results.size());
         }
+    }
 
+    private static Map<Long, JsonObject> byUser(List<JsonObject> results) {
+        if (results == null) {
+            return Map.of();
+        }
+        return results.stream().collect(Collectors.toMap(x -> x.getJSONAttrLong("user"), Function.identity()));
     }
 
     public Page<JsonObject> listUsersByProject(Project project, List<SearchParameterEntry> searchParameters, String sortColumn, String sortDirection, Long max, Long offset) {
+        return listUsersByProject(project, searchParameters, null, false, sortColumn, sortDirection, max, offset);
+    }
+
+    /**
+     * @param userIds if not null, only these members are listed
+     * @param idsOnly only read the id and the role of the members
+     */
+    private Page<JsonObject> listUsersByProject(Project project, List<SearchParameterEntry> searchParameters, List<Long> userIds, boolean idsOnly, String sortColumn, String sortDirection, Long max, Long offset) {
         securityACLService.check(project, READ);
         // migration from grails: parameter boolean withProjectRole is always true
         Optional<SearchParameterEntry> onlineUserSearch = searchParameters.stream().filter(x -> x.getProperty().equals("status") && x.getValue().equals("online")).findFirst();
@@ -587,7 +628,7 @@ public class SecUserService extends ModelService {
         else {
             validatedSortColumn = "username";
         }
-        String select = "select distinct secUser ";
+        String select = idsOnly ? "select distinct secUser.id " : "select distinct secUser ";
         String from = "from ProjectRepresentativeUser r right outer join r.user secUser ON (r.project.id = " + project.getId() + "), " +
                 "AclObjectIdentity as aclObjectId, AclEntry as aclEntry, AclSid as aclSid ";
         String where = "where aclObjectId.objectId = " + project.getId() + " " +
@@ -610,6 +651,10 @@ public class SecUserService extends ModelService {
         if (onlineUserSearch.isPresent()) {
             where += " and secUser.id in :online_users ";
         }
+        if (userIds != null) {
+            where += " and secUser.id in :user_ids ";
+            mapParams.put("user_ids", userIds);
+        }
 
 
         if (projectRoleSearch.isPresent()) {
@@ -671,7 +716,7 @@ public class SecUserService extends ModelService {
         List<JsonObject> results = new ArrayList<>();
         List<Object[]> resultList = query.getResultList();
         for (Object[] row : resultList) {
-            JsonObject jsonObject = ((User) row[0]).toJsonObject();
+            JsonObject jsonObject = idsOnly ? JsonObject.of("id", row[0]) : ((User) row[0]).toJsonObject();
             jsonObject.put("role", (String) row[1]);
             results.add(jsonObject);
         }
@@ -694,6 +739,9 @@ public class SecUserService extends ModelService {
 //        }
         request = "SELECT COUNT(DISTINCT secUser) " + from + where;
         query = getEntityManager().createQuery(request);
+        if (userIds != null) {
+            query.setParameter("user_ids", userIds);
+        }
         long count = ((Long) query.getResultList().get(0));
         Page<JsonObject> page = PageUtils.buildPageFromPageResults(results, max, offset, count);
         return page;
@@ -829,6 +877,7 @@ public class SecUserService extends ModelService {
             throw new WrongArgumentException("User already locked !");
         }
 
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new EditCommand(currentUser, null), user, user.toJsonObject().withChange("enabled", false));
     }
 
@@ -840,6 +889,7 @@ public class SecUserService extends ModelService {
             throw new WrongArgumentException("User already unlocked !");
         }
 
+        principalCache.invalidate(user.getUsername());
         return executeCommand(new EditCommand(currentUser, null), user, user.toJsonObject().withChange("enabled", true));
     }
 
@@ -978,9 +1028,11 @@ public class SecUserService extends ModelService {
      */
     public List<SecUser> getAllOnlineUsers() {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceService.isEnabled()) {
+            return secUserRepository.findAllByIdIn(new ArrayList<>(presenceService.listOnlineUsers()));
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
         List<LastConnection> connections = lastConnectionRepository.findAllByCreatedAfter(xSecondAgo);
         List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
         return secUserRepository.findAllByIdIn(userIds);
@@ -991,9 +1043,11 @@ public class SecUserService extends ModelService {
      */
     public List<Long> getAllOnlineUserIds(Project project) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
+        if (presenceService.isEnabled()) {
+            return new ArrayList<>(presenceService.listOnlineUsers(project.getId()));
+        }
         //get date with -X secondes
         Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
         List<LastConnection> connections = lastConnectionRepository.findAllByProjectAndCreatedAfter(project.getId(), xSecondAgo);
         List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
         return userIds;
@@ -1081,7 +1135,11 @@ public class SecUserService extends ModelService {
         if (!jsonNewData.isMissing("password")) {
             changeUserPassword((User)domain, jsonNewData.getJSONAttrStr("password"));
         }
-        return executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
+        principalCache.invalidate(((SecUser) domain).getUsername());
+        CommandResponse response = executeCommand(new EditCommand(currentUser, null), domain, jsonNewData);
+        // the username may have changed
+        principalCache.invalidate(((SecUser) domain).getUsername());
+        return response;
     }
 
     /**
@@ -1105,6 +1163,7 @@ public class SecUserService extends ModelService {
             securityACLService.checkAdmin(currentUser);
             securityACLService.checkIsSameUser((User) domain, currentUser);
         }
+        principalCache.invalidate(((SecUser) domain).getUsername());
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c, domain, null);
     }
@@ -1150,6 +1209,7 @@ public class SecUserService extends ModelService {
         user.setPasswordExpired(false);
         user.setNewPassword(null);
         this.saveDomain(user);
+        principalCache.invalidate(user.getUsername());
     }
 
     public boolean isUserPassword(User user, String password) {
@@ -0,0 +1,131 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Active time of the open image consultations, accumulated as the viewer positions arrive.
+ * Each position adds the time elapsed since the previous one (or since the opening of the consultation),
+ * unless the gap is longer than INACTIVITY_GAP. This gives the same time as the scan of the positions of the consultation,
+ * so closing a consultation does not read them again.
+ *
+ * The state is kept in memory by (user, image). A consultation without state (opened before a restart, forgotten
+ * after maxIdleInMinutes, positions received out of order) is computed from the persistentUserPosition collection.
+ */
+@Component
+public class ImageConsultationActivity {
+
+    public static final long INACTIVITY_GAP = 15000L;
+
+    private final Map<String, Activity> activities = new ConcurrentHashMap<>();
+
+    private final ApplicationProperties applicationProperties;
+
+    public ImageConsultationActivity(ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.applicationProperties = applicationProperties;
+        meterRegistry.gaugeMapSize("cytomine.image.consultation.activity.size", List.of(), activities);
+    }
+
+    public void opened(Long consultation, Long user, Long image, Date created) {
+        if (!applicationProperties.getConsultationActivity().getEnabled()) {
+            return;
+        }
+        activities.put(key(user, image), new Activity(consultation, created.getTime()));
+    }
+
+    public void positioned(Long user, Long image, Date created) {
+        if (!applicationProperties.getConsultationActivity().getEnabled()) {
+            return;
+        }
+        Activity activity = activities.get(key(user, image));
+        if (activity != null) {
+            activity.add(created.getTime());
+        }
+    }
+
+    /**
+     * Active time of the consultation until the given date, empty if the consultation is not tracked
+     */
+    public Optional<Long> getTime(Long consultation, Long user, Long image, Date before) {
+        if (!applicationProperties.getConsultationActivity().getEnabled()) {
+            return Optional.empty();
+        }
+        Activity activity = activities.get(key(user, image));
+        if (activity == null || !activity.consultation.equals(consultation)) {
+            return Optional.empty();
+        }
+        return activity.getTime(before.getTime());
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        long limit = System.currentTimeMillis() - 60000 * applicationProperties.getConsultationActivity().getMaxIdleInMinutes();
+        activities.values().removeIf(activity -> activity.last < limit);
+    }
+
+    public void clear() {
+        activities.clear();
+    }
+
+    private static String key(Long user, Long image) {
+        return user + "/" + image;
+    }
+
+    private static class Activity {
+        private final Long consultation;
+        private final long start;
+        private volatile long last;
+        private long time;
+        // a position older than the last one would change the previous gaps, the positions must be read again
+        private boolean ordered = true;
+
+        private Activity(Long consultation, long start) {
+            this.consultation = consultation;
+            this.start = start;
+            this.last = start;
+        }
+
+        private synchronized void add(long date) {
+            if (date < start) {
+                return;
+            }
+            if (date < last) {
+                ordered = false;
+                return;
+            }
+            if (date - last < INACTIVITY_GAP) {
+                time += date - last;
+            }
+            last = date;
+        }
+
+        private synchronized Optional<Long> getTime(long before) {
+            // positions after the end of the consultation are not part of it
+            return (ordered && last <= before ? Optional.of(time) : Optional.empty());
+        }
+    }
+}
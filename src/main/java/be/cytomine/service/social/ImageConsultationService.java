@@ -26,9 +26,8 @@ import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.domain.social.PersistentUserPosition;
 import be.cytomine.exceptions.CytomineException;
 import be.cytomine.exceptions.ObjectNotFoundException;
-import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.repository.image.ImageInstanceRepository;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.repositorynosql.social.*;
@@ -38,6 +37,7 @@ import be.cytomine.service.UrlApi;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.stats.StatsRollupService;
 import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
@@ -123,6 +123,18 @@ public class ImageConsultationService {
     @Autowired
     ImageInstanceService imageInstanceService;
 
+    @Autowired
+    StatsRollupService statsRollupService;
+
+    @Autowired
+    MemberActivityService memberActivityService;
+
+    @Autowired
+    ImageConsultationActivity imageConsultationActivity;
+
+    @Autowired
+    UserAnnotationRepository userAnnotationRepository;
+
     public PersistentImageConsultation add(SecUser user, Long imageId, String session, String mode, Date created) {
         System.out.println(currentUserService.getCurrentUser());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageId)
@@ -153,6 +165,9 @@ public class ImageConsultationService {
 
 
         persistentImageConsultationRepository.insert(consultation);
+        imageConsultationActivity.opened(consultation.getId(), user.getId(), imageId, created);
+        statsRollupService.increment(StatsRollupService.IMAGE_CONSULTATION, consultation.getProject(), user.getId(), created);
+        memberActivityService.addConsultation(consultation.getProject(), user.getId(), imageId, consultation.getImageName(), created);
 
         return consultation;
     }
@@ -173,14 +188,27 @@ public class ImageConsultationService {
         }
 
         fillImageConsultation(consultation.get(), before);
-
-        persistentImageConsultationRepository.save(consultation.get());
     }
 
 
     public void fillImageConsultation(PersistentImageConsultation consultation, Date before) {
         Date after = consultation.getCreated();
 
+        // accumulated while the positions were added, the positions are only read again if the consultation was not tracked
+        Long time = imageConsultationActivity.getTime(consultation.getId(), consultation.getUser(), consultation.getImage(), before)
+                .orElseGet(() -> computeTimeFromPositions(consultation, before));
+        consultation.setTime(time);
+
+        // count created annotations
+        consultation.setCountCreatedAnnotations(userAnnotationRepository.countCreatedInImage(
+                consultation.getProject(), consultation.getUser(), consultation.getImage(), after, before).intValue());
+        persistentImageConsultationRepository.save(consultation);
+
+    }
+
+    private Long computeTimeFromPositions(PersistentImageConsultation consultation, Date before) {
+        Date after = consultation.getCreated();
+
 //        // collect {it.created.getTime} is really slow. I just want the getTime of PersistentConnection
 //        def db = mongo.getDB(noSQLCollectionService.getDatabaseName())
 //        def positions = db.persistentUserPosition.aggregate(
@@ -210,24 +238,7 @@ public class ImageConsultationService {
             first = time;
         }
 
-        consultation.setTime(continuousConnectionIntervals.stream().filter(x -> x < 15000L).reduce(0L, Long::sum));
-
-        if (consultation.getTime() == null) {
-            consultation.setTime(0L);
-        }
-
-        AnnotationListing al = new UserAnnotationListing(entityManager);
-        al.setProject(consultation.getProject());
-        al.setUser(consultation.getUser());
-        al.setImage(consultation.getImage());
-        al.setBeforeThan(before);
-        al.setAfterThan(after);
-
-        // count created annotations
-
-        consultation.setCountCreatedAnnotations(annotationListingService.listGeneric(al).size());
-        persistentImageConsultationRepository.save(consultation);
-
+        return continuousConnectionIntervals.stream().filter(x -> x < ImageConsultationActivity.INACTIVITY_GAP).reduce(0L, Long::sum);
     }
 
     public Page<PersistentImageConsultation> listImageConsultationByProjectAndUserNoImageDistinct(Project project, SecUser user, Integer max, Integer offset) {
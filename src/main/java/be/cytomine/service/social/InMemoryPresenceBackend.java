@@ -0,0 +1,157 @@
+package be.cytomine.service.social;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-process presence backend, for single-node deployments only: each core instance only knows the users
+ * that pinged it, so behind a load balancer a user would be seen online by one instance and offline by the others.
+ * Expired entries are removed by a timer wheel with a one second resolution: an entry is registered in the bucket
+ * of its expiration when it is created. When its bucket is reached, the entry is removed if it has not been touched
+ * meanwhile, otherwise it is moved to the bucket of its new expiration.
+ * Reads ignore entries that expired since the last tick, so results are exact.
+ */
+@Component
+public class InMemoryPresenceBackend implements PresenceBackend {
+
+    static final int WHEEL_SIZE = 512;
+
+    private final Map<String, Map<Long, Long>> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Expiration>[] wheel;
+
+    private volatile long lastTick;
+
+    public InMemoryPresenceBackend() {
+        wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        lastTick = System.currentTimeMillis() / 1000;
+    }
+
+    @Override
+    public void touch(String key, Long user, long expiration) {
+        boolean[] created = new boolean[1];
+        entries.compute(key, (k, users) -> {
+            if (users == null) {
+                users = new ConcurrentHashMap<>();
+            }
+            Long previous = users.get(user);
+            if (previous == null) {
+                users.put(user, expiration);
+                created[0] = true;
+            } else if (previous < expiration) {
+                users.put(user, expiration);
+            }
+            return users;
+        });
+        if (created[0]) {
+            schedule(key, user, expiration);
+        }
+    }
+
+    @Override
+    public Set<Long> list(String key, long now) {
+        Map<Long, Long> users = entries.get(key);
+        Set<Long> result = new HashSet<>();
+        if (users != null) {
+            users.forEach((user, expiration) -> {
+                if (expiration > now) {
+                    result.add(user);
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(String key, Long user, long now) {
+        Map<Long, Long> users = entries.get(key);
+        Long expiration = (users != null ? users.get(user) : null);
+        return expiration != null && expiration > now;
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void tick() {
+        advance(System.currentTimeMillis());
+    }
+
+    synchronized void advance(long now) {
+        long currentTick = now / 1000;
+        long firstTick = lastTick + 1;
+        for (long tick = firstTick; tick <= currentTick && tick < firstTick + WHEEL_SIZE; tick++) {
+            lastTick = tick;
+            Queue<Expiration> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+            int size = bucket.size();
+            for (int i = 0; i < size; i++) {
+                Expiration expiration = bucket.poll();
+                if (expiration == null) {
+                    break;
+                }
+                expire(expiration, now);
+            }
+        }
+        lastTick = currentTick;
+    }
+
+    int size() {
+        return entries.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void expire(Expiration candidate, long now) {
+        long[] reschedule = {-1};
+        entries.computeIfPresent(candidate.key, (k, users) -> {
+            Long expiration = users.get(candidate.user);
+            if (expiration != null && expiration <= now) {
+                users.remove(candidate.user);
+            } else if (expiration != null) {
+                reschedule[0] = expiration;
+            }
+            return users.isEmpty() ? null : users;
+        });
+        if (reschedule[0] != -1) {
+            schedule(candidate.key, candidate.user, reschedule[0]);
+        }
+    }
+
+    private void schedule(String key, Long user, long expiration) {
+        // an expiration in a tick already processed goes to the next one
+        long tick = Math.max(expiration / 1000, lastTick + 1);
+        wheel[(int) (tick % WHEEL_SIZE)].add(new Expiration(key, user));
+    }
+
+    private static class Expiration {
+        private final String key;
+        private final Long user;
+
+        private Expiration(String key, Long user) {
+            this.key = key;
+            this.user = user;
+        }
+    }
+}
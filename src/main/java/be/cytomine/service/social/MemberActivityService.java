@@ -0,0 +1,269 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.*;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Activity of each user in each project: last connection, number of connections, last consulted image.
+ * A document by project and user is updated when a connection or a consultation is added, so that the project
+ * member list reads (and sorts on) one indexed document per member instead of aggregating the raw collections.
+ *
+ * The activities of a user page are read with a server-side deadline (lookupTimeoutInMillis): a lookup that did not
+ * end in time is aborted by MongoDB and the member list is returned without its activity columns.
+ */
+@Slf4j
+@Service
+public class MemberActivityService {
+
+    public static final String COLLECTION = "projectMemberActivity";
+
+    public static final String LAST_CONNECTION = "lastConnection";
+
+    public static final String CONNECTIONS = "connections";
+
+    public static final String LAST_CONSULTATION = "lastConsultation";
+
+    public static final String LAST_IMAGE = "lastImage";
+
+    public static final String LAST_IMAGE_NAME = "lastImageName";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    public MemberActivityService(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.applicationProperties = applicationProperties;
+    }
+
+    public boolean isEnabled() {
+        return applicationProperties.getMemberActivity().getEnabled();
+    }
+
+    public void addConnection(Long project, Long user, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        getCollection().updateOne(
+                eq("_id", id(project, user)),
+                combine(
+                        setOnInsert("project", project),
+                        setOnInsert("user", user),
+                        max(LAST_CONNECTION, created),
+                        inc(CONNECTIONS, 1)
+                ),
+                new UpdateOptions().upsert(true)
+        );
+    }
+
+    public void addConsultation(Long project, Long user, Long image, String imageName, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        String id = id(project, user);
+        // the image is only replaced if this consultation is the last one
+        getCollection().bulkWrite(List.of(
+                new UpdateOneModel<>(
+                        eq("_id", id),
+                        combine(setOnInsert("project", project), setOnInsert("user", user), max(LAST_CONSULTATION, created)),
+                        new UpdateOptions().upsert(true)
+                ),
+                new UpdateOneModel<>(
+                        and(eq("_id", id), eq(LAST_CONSULTATION, created)),
+                        combine(set(LAST_IMAGE, image), set(LAST_IMAGE_NAME, imageName))
+                )
+        ), new BulkWriteOptions().ordered(true));
+    }
+
+    /**
+     * Recompute the last consulted image of the members whose last image is one of these images, once the
+     * consultations of the images are deleted. It is unset for the members without any consultation left.
+     */
+    public void removeImages(Collection<Long> images) {
+        if (!isEnabled() || images.isEmpty()) {
+            return;
+        }
+        MongoCollection<Document> consultations = mongoTemplate.getCollection("persistentImageConsultation");
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        for (Document activity : getCollection().find(in(LAST_IMAGE, images)).projection(include("project", "user"))) {
+            Document last = consultations.find(and(eq("project", activity.get("project")), eq("user", activity.get("user"))))
+                    .sort(descending("created"))
+                    .first();
+            Bson update = (last != null ?
+                    combine(set(LAST_CONSULTATION, last.get("created")), set(LAST_IMAGE, last.get("image")), set(LAST_IMAGE_NAME, last.get("imageName"))) :
+                    combine(unset(LAST_CONSULTATION), unset(LAST_IMAGE), unset(LAST_IMAGE_NAME)));
+            writes.add(new UpdateOneModel<>(eq("_id", activity.get("_id")), update));
+        }
+        if (!writes.isEmpty()) {
+            getCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    /**
+     * Activity of the users in the project, by user (users without activity are missing).
+     * Empty if the lookup did not end within lookupTimeoutInMillis.
+     */
+    public Optional<Map<Long, Document>> findByUsers(Long project, Collection<Long> users) {
+        long timeout = applicationProperties.getMemberActivity().getLookupTimeoutInMillis();
+        FindIterable<Document> find = getCollection().find(and(eq("project", project), in("user", users)));
+        if (timeout > 0) {
+            find = find.maxTime(timeout, TimeUnit.MILLISECONDS);
+        }
+        Map<Long, Document> activities = new HashMap<>();
+        try {
+            for (Document activity : find) {
+                activities.put(toLong(activity.get("user")), activity);
+            }
+        } catch (MongoExecutionTimeoutException e) {
+            log.warn("Activity lookup of {} users in project {} did not end in {} ms", users.size(), project, timeout);
+            return Optional.empty();
+        }
+        return Optional.of(activities);
+    }
+
+    /**
+     * Page of the users sorted by an activity field. Users without this activity come first in ascending order,
+     * last in descending order (in the given order). The users with activity are paged by the database.
+     */
+    public List<Long> sortUsers(Long project, List<Long> users, String field, boolean descending, long max, long offset) {
+        Bson withActivity = and(eq("project", project), in("user", users), exists(field));
+        Set<Long> active = new HashSet<>();
+        for (Object user : getCollection().distinct("user", withActivity, Object.class)) {
+            active.add(toLong(user));
+        }
+        List<Long> inactive = users.stream().filter(user -> !active.contains(user)).toList();
+
+        long limit = (max > 0 ? max : users.size());
+        long firstSize = (descending ? active.size() : inactive.size());
+        List<Long> page = new ArrayList<>();
+        if (offset < firstSize) {
+            page.addAll(descending ?
+                    activeUsers(withActivity, field, true, offset, limit) :
+                    inactive.subList((int) offset, (int) Math.min(inactive.size(), offset + limit)));
+        }
+        long remaining = limit - page.size();
+        if (remaining > 0) {
+            long secondOffset = Math.max(0, offset - firstSize);
+            page.addAll(descending ?
+                    inactive.subList((int) Math.min(inactive.size(), secondOffset), (int) Math.min(inactive.size(), secondOffset + remaining)) :
+                    activeUsers(withActivity, field, false, secondOffset, remaining));
+        }
+        return page;
+    }
+
+    public void backfillIfEmpty() {
+        if (isEnabled() && applicationProperties.getMemberActivity().getBackfillOnStartup()
+                && getCollection().estimatedDocumentCount() == 0) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Recompute all the member activities from the raw collections
+     */
+    public void rebuild() {
+        log.info("Rebuild member activities");
+        getCollection().deleteMany(new Document());
+        long connections = rebuild("persistentProjectConnection", List.of(
+                Document.parse("{$group : {_id : { project: '$project', user: '$user'}, " + LAST_CONNECTION + " : {$max : '$created'}, " + CONNECTIONS + " : {$sum : 1}}}")
+        ));
+        long consultations = rebuild("persistentImageConsultation", List.of(
+                Document.parse("{$sort : {created : -1}}"),
+                Document.parse("{$group : {_id : { project: '$project', user: '$user'}, " + LAST_CONSULTATION + " : {$first : '$created'}, " +
+                        LAST_IMAGE + " : {$first : '$image'}, " + LAST_IMAGE_NAME + " : {$first : '$imageName'}}}")
+        ));
+        log.info("Member activities rebuilt from {} connection and {} consultation groups", connections, consultations);
+    }
+
+    private long rebuild(String source, List<Bson> pipeline) {
+        MongoCollection<Document> collection = getCollection();
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        long count = 0;
+        try (MongoCursor<Document> cursor = mongoTemplate.getCollection(source).aggregate(pipeline).allowDiskUse(true).iterator()) {
+            while (cursor.hasNext()) {
+                Document result = cursor.next();
+                Document id = (Document) result.get("_id");
+                Long project = toLong(id.get("project"));
+                Long user = toLong(id.get("user"));
+                List<Bson> updates = new ArrayList<>(List.of(setOnInsert("project", project), setOnInsert("user", user)));
+                for (Map.Entry<String, Object> field : result.entrySet()) {
+                    if (!field.getKey().equals("_id")) {
+                        updates.add(set(field.getKey(), field.getValue()));
+                    }
+                }
+                writes.add(new UpdateOneModel<>(eq("_id", id(project, user)), combine(updates), new UpdateOptions().upsert(true)));
+                count++;
+                if (writes.size() >= BATCH_SIZE) {
+                    collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                    writes.clear();
+                }
+            }
+        }
+        if (!writes.isEmpty()) {
+            collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        return count;
+    }
+
+    private List<Long> activeUsers(Bson filter, String field, boolean descending, long offset, long limit) {
+        List<Long> users = new ArrayList<>();
+        for (Document activity : getCollection().find(filter)
+                .sort(orderBy(descending ? descending(field) : ascending(field), ascending("user")))
+                .skip((int) offset)
+                .limit((int) limit)
+                .projection(include("user"))) {
+            users.add(toLong(activity.get("user")));
+        }
+        return users;
+    }
+
+    private static String id(Long project, Long user) {
+        return project + "/" + user;
+    }
+
+    private static Long toLong(Object value) {
+        return (value != null ? ((Number) value).longValue() : null);
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+}
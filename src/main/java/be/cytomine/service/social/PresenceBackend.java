@@ -0,0 +1,40 @@
+package be.cytomine.service.social;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Set;
+
+/**
+ * Storage of the presence entries (key, user) => expiration, see PresenceService.
+ * The only implementation is InMemoryPresenceBackend: presence is not shared between core instances.
+ */
+public interface PresenceBackend {
+
+    /**
+     * Mark the user as present under the key until expiration (ms since epoch).
+     * An earlier expiration never shortens an existing entry.
+     */
+    void touch(String key, Long user, long expiration);
+
+    /**
+     * Users present under the key at the given time
+     */
+    Set<Long> list(String key, long now);
+
+    boolean contains(String key, Long user, long now);
+}
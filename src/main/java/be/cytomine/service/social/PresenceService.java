@@ -0,0 +1,115 @@
+package be.cytomine.service.social;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Who is online, on which project, image and slice.
+ * Fed by the connections (ping) and the viewer positions, answered from the presence backend
+ * instead of scanning the lastConnection/lastUserPosition collections.
+ * Disabled by default: the registry lives in the memory of the instance (see InMemoryPresenceBackend),
+ * so it must only be enabled when a single core instance runs.
+ */
+@Slf4j
+@Service
+public class PresenceService {
+
+    private static final String CONNECTION = "connection";
+
+    private final PresenceBackend presenceBackend;
+
+    private final ApplicationProperties applicationProperties;
+
+    public PresenceService(PresenceBackend presenceBackend, ApplicationProperties applicationProperties) {
+        this.presenceBackend = presenceBackend;
+        this.applicationProperties = applicationProperties;
+    }
+
+    @PostConstruct
+    public void warnIfEnabled() {
+        if (isEnabled()) {
+            log.warn("Online users are answered from the memory of this instance ({}): " +
+                    "disable application.presence.enabled if several core instances run", presenceBackend.getClass().getSimpleName());
+        }
+    }
+
+    public boolean isEnabled() {
+        return applicationProperties.getPresence().getEnabled();
+    }
+
+    public void connected(Long user, Long project, Date date) {
+        if (!isEnabled()) {
+            return;
+        }
+        long expiration = date.getTime() + 1000 * applicationProperties.getPresence().getConnectionTimeToLiveInSeconds();
+        presenceBackend.touch(CONNECTION, user, expiration);
+        if (project != null) {
+            presenceBackend.touch(projectKey(project), user, expiration);
+        }
+    }
+
+    public void positioned(Long user, Long image, Long slice, boolean broadcast, Date date) {
+        if (!isEnabled()) {
+            return;
+        }
+        long expiration = date.getTime() + 1000 * applicationProperties.getPresence().getPositionTimeToLiveInSeconds();
+        presenceBackend.touch(imageKey(image, null, false), user, expiration);
+        presenceBackend.touch(imageKey(image, slice, false), user, expiration);
+        if (broadcast) {
+            presenceBackend.touch(imageKey(image, null, true), user, expiration);
+            presenceBackend.touch(imageKey(image, slice, true), user, expiration);
+        }
+    }
+
+    /**
+     * Users connected recently, on any project
+     */
+    public Set<Long> listOnlineUsers() {
+        return presenceBackend.list(CONNECTION, System.currentTimeMillis());
+    }
+
+    public Set<Long> listOnlineUsers(Long project) {
+        return presenceBackend.list(projectKey(project), System.currentTimeMillis());
+    }
+
+    public boolean isOnline(Long user, Long project) {
+        return presenceBackend.contains(projectKey(project), user, System.currentTimeMillis());
+    }
+
+    /**
+     * Users with a recent position on the image (and slice if not null)
+     */
+    public Set<Long> listOnlineUsersByImage(Long image, Long slice, boolean broadcast) {
+        return presenceBackend.list(imageKey(image, slice, broadcast), System.currentTimeMillis());
+    }
+
+    private static String projectKey(Long project) {
+        return CONNECTION + "/" + project;
+    }
+
+    private static String imageKey(Long image, Long slice, boolean broadcast) {
+        return "position/" + image + (slice != null ? "/" + slice : "") + (broadcast ? "/broadcast" : "");
+    }
+}
@@ -36,6 +36,7 @@ import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.stats.StatsRollupService;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import com.mongodb.client.MongoClient;
@@ -79,6 +80,10 @@ import static org.springframework.security.acls.domain.BasePermission.*;
 public class ProjectConnectionService {
 
     public static final String DATABASE_NAME = "cytomine";
+
+    // first day (sunday) of the week of a rollup bucket
+    private static final String WEEK_START = "{$subtract:['$bucket', {$multiply : [{$subtract : [{$dayOfWeek: '$bucket'}, 1]}, 86400000]}]}";
+
     @Autowired
     CurrentUserService currentUserService;
 
@@ -106,6 +111,15 @@ public class ProjectConnectionService {
     @Autowired
     LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    PresenceService presenceService;
+
+    @Autowired
+    StatsRollupService statsRollupService;
+
+    @Autowired
+    MemberActivityService memberActivityService;
+
     @Autowired
     EntityManager entityManager;
 
@@ -143,6 +157,8 @@ public class ProjectConnectionService {
         connection.setBrowserVersion(browserVersion);
 
         persistentProjectConnectionRepository.insert(connection);
+        statsRollupService.increment(StatsRollupService.CONNECTION, project.getId(), user.getId(), created);
+        memberActivityService.addConnection(project.getId(), user.getId(), created);
 
         return connection;
     }
@@ -345,7 +361,9 @@ public class ProjectConnectionService {
 
         if(connections.get(0).getTime()==null) {
             connections.set(0, ((PersistentProjectConnection)(connections.get(0)).clone()));
-            boolean online = !lastConnectionRepository.findByProjectAndUser(project.getId(), user.getId()).isEmpty();
+            boolean online = (presenceService.isEnabled() ?
+                    presenceService.isOnline(user.getId(), project.getId()) :
+                    !lastConnectionRepository.findByProjectAndUser(project.getId(), user.getId()).isEmpty());
             fillProjectConnection(connections.get(0), new Date());
             if(online) {
                 connections.get(0).getExtraProperties().put("online", true);
@@ -472,6 +490,9 @@ public class ProjectConnectionService {
     public List<JsonObject> numberOfConnectionsByProjectOrderedByHourAndDays(Project project, Long afterThan, SecUser user) {
 
         securityACLService.check(project, WRITE);
+        if (statsRollupService.isEnabled()) {
+            return numberOfProjectConnectionsFromRollups("hour", afterThan, null, project.getId(), null);
+        }
         // what we want
         //db.persistentProjectConnection.aggregate( {"$match": {$and: [{project : ID_PROJECT}, {created : {$gte : new Date(AFTER) }}]}}, { "$project": { "created": {  "$subtract" : [  "$created",  {  "$add" : [  {"$millisecond" : "$created"}, { "$multiply" : [ {"$second" : "$created"}, 1000 ] }, { "$multiply" : [ {"$minute" : "$created"}, 60, 1000 ] } ] } ] } }  }, { "$project": { "y":{"$year":"$created"}, "m":{"$month":"$created"}, "d":{"$dayOfMonth":"$created"}, "h":{"$hour":"$created"}, "time":"$created" }  },  { "$group":{ "_id": { "year":"$y","month":"$m","day":"$d","hour":"$h"}, time:{"$first":"$time"},  "total":{ "$sum": 1}  }});
 
@@ -546,6 +567,13 @@ public class ProjectConnectionService {
         if (beforeThan == null) {
             beforeThan = new Date().getTime();
         }
+        if(period==null) {
+            period = "hour";
+        }
+        if (statsRollupService.isEnabled()) {
+            return numberOfProjectConnectionsFromRollups(period, afterThan, beforeThan,
+                    (project != null ? project.getId() : null), (user != null ? user.getId() : null));
+        }
         // what we want
         //db.persistentProjectConnection.aggregate( {"$match": {$and: [{project : ID_PROJECT}, {created : {$gte : new Date(AFTER) }}]}}, { "$project": { "created": {  "$subtract" : [  "$created",  {  "$add" : [  {"$millisecond" : "$created"}, { "$multiply" : [ {"$second" : "$created"}, 1000 ] }, { "$multiply" : [ {"$minute" : "$created"}, 60, 1000 ] } ] } ] } }  }, { "$project": { "y":{"$year":"$created"}, "m":{"$month":"$created"}, "d":{"$dayOfMonth":"$created"}, "h":{"$hour":"$created"}, "time":"$created" }  },  { "$group":{ "_id": { "year":"$y","month":"$m","day":"$d","hour":"$h"}, time:{"$first":"$time"},  "total":{ "$sum": 1}  }});
 
@@ -554,10 +582,6 @@ public class ProjectConnectionService {
         Bson projection2 = null;
         Bson group = null;
 
-        if(period==null) {
-            period = "hour";
-        }
-
         switch (period){
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
@@ -638,6 +662,13 @@ public class ProjectConnectionService {
         if(afterThan==null){
             afterThan = DateUtils.addYears(new Date(beforeThan), -1).getTime();
         }
+        if(period==null) {
+            period = "hour";
+        }
+        if (statsRollupService.isEnabled()) {
+            return averageOfProjectConnectionsFromRollups(period, afterThan, beforeThan,
+                    (project != null ? project.getId() : null), (user != null ? user.getId() : null));
+        }
 
         // what we want: db.persistentProjectConnection.aggregate( {"$match": {$and: [{project : ID_PROJECT}, {created : {$gte : new Date(AFTER) }}]}}, { "$project": { "created": {  "$subtract" : [  "$created",  {  "$add" : [  {"$millisecond" : "$created"}, { "$multiply" : [ {"$second" : "$created"}, 1000 ] }, { "$multiply" : [ {"$minute" : "$created"}, 60, 1000 ] } ] } ] } }  }, { "$project": { "y":{"$year":"$created"}, "m":{"$month":"$created"}, "d":{"$dayOfMonth":"$created"}, "h":{"$hour":"$created"}, "time":"$created" }  },  { "$group":{ "_id": { "year":"$y","month":"$m","day":"$d","hour":"$h"}, time:{"$first":"$time"},  "total":{ "$sum": 1}  }});
 
@@ -646,10 +677,6 @@ public class ProjectConnectionService {
         Bson projection2 = null;
         Bson group = null;
 
-        if(period==null) {
-            period = "hour";
-        }
-
         switch (period){
             case "hour" :
                 //substract all minutes,seconds & milliseconds (last unit is hour)
@@ -762,6 +789,46 @@ public class ProjectConnectionService {
 
 
 
+    /**
+     * Number of connections by hour, day or week (starting on sunday), read from the hourly/daily rollups
+     */
+    private List<JsonObject> numberOfProjectConnectionsFromRollups(String period, Long afterThan, Long beforeThan, Long project, Long user) {
+        String time = (period.equals("week") ? WEEK_START : "'$bucket'");
+        List<Document> results = statsRollupService.aggregate(StatsRollupService.CONNECTION, rollupGranularity(period), project, user,
+                (afterThan != null ? new Date(afterThan) : null), (beforeThan != null ? new Date(beforeThan) : null),
+                List.of(Document.parse("{$group : {_id : " + time + ", \"frequency\":{$sum:'$count'}}}")));
+        return results.stream().map(x -> JsonObject.of("time", x.get("_id"), "frequency", x.get("frequency"))).collect(Collectors.toList());
+    }
+
+    /**
+     * Share of the connections made at each hour of the day, day of the month or week of the year, read from the hourly/daily rollups
+     */
+    private List<JsonObject> averageOfProjectConnectionsFromRollups(String period, Long afterThan, Long beforeThan, Long project, Long user) {
+        String time = (period.equals("week") ? WEEK_START : "'$bucket'");
+        String key = switch (period) {
+            case "day" -> "{$dayOfMonth : '$bucket'}";
+            case "week" -> "{$week : " + WEEK_START + "}";
+            default -> "{$hour : '$bucket'}";
+        };
+        List<Document> results = statsRollupService.aggregate(StatsRollupService.CONNECTION, rollupGranularity(period), project, user,
+                new Date(afterThan), new Date(beforeThan),
+                List.of(Document.parse("{$group : {_id : " + key + ", \"time\":{$first:" + time + "}, \"frequency\":{$sum:'$count'}}}")));
+
+        int total = results.stream().map(x -> x.get("frequency", 0)).reduce(0, Integer::sum);
+        if (total == 0) {
+            total = 1;
+        }
+        List<JsonObject> connections = new ArrayList<>();
+        for (Document result : results) {
+            connections.add(JsonObject.of("time", result.get("time"), "frequency", ((Integer)result.get("frequency")).doubleValue()/total));
+        }
+        return connections;
+    }
+
+    private static String rollupGranularity(String period) {
+        return (period.equals("hour") ? StatsRollupService.HOUR : StatsRollupService.DAY);
+    }
+
     private static Consumer<Document> printDocuments() {
         return doc -> System.out.println(doc.toJson(JsonWriterSettings.builder().indent(true).build()));
     }
@@ -0,0 +1,126 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind buffer for the viewer positions.
+ * The last position of each (user, image, slice) is coalesced: only the most recent one of a flush window is written.
+ * The position history is kept in a bounded queue and written with a single insert per flush.
+ * When the queue is full, the caller flushes it itself (backpressure).
+ */
+@Slf4j
+@Component
+public class UserPositionBuffer {
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final BlockingQueue<PersistentUserPosition> positions;
+
+    private final Map<String, LastUserPosition> lastPositions = new ConcurrentHashMap<>();
+
+    private final Counter backpressure;
+
+    private final Counter dropped;
+
+    public UserPositionBuffer(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.applicationProperties = applicationProperties;
+        this.positions = new ArrayBlockingQueue<>(applicationProperties.getUserPositionBuffer().getCapacity());
+        this.backpressure = meterRegistry.counter("cytomine.user.position.buffer.backpressure");
+        this.dropped = meterRegistry.counter("cytomine.user.position.buffer.dropped");
+        meterRegistry.gaugeCollectionSize("cytomine.user.position.buffer.size", List.of(), positions);
+        meterRegistry.gaugeMapSize("cytomine.user.position.buffer.last", List.of(), lastPositions);
+    }
+
+    public void add(LastUserPosition lastPosition, PersistentUserPosition position) {
+        if (!applicationProperties.getUserPositionBuffer().getEnabled()) {
+            mongoTemplate.insert(lastPosition);
+            mongoTemplate.insert(position);
+            return;
+        }
+        lastPositions.merge(lastPosition.getUser() + "/" + lastPosition.getImage() + "/" + lastPosition.getSlice(), lastPosition,
+                (current, candidate) -> candidate.getCreated().before(current.getCreated()) ? current : candidate);
+        while (!positions.offer(position)) {
+            backpressure.increment();
+            flush();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${application.userPositionBuffer.flushDelayInMilliseconds:1000}")
+    public void scheduledFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Cannot flush user positions", e);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        log.info("Flush {} buffered user positions before shutdown", positions.size());
+        flush();
+    }
+
+    /**
+     * Write all the buffered positions
+     * @return Number of position written in the history
+     */
+    public synchronized int flush() {
+        List<LastUserPosition> last = new ArrayList<>();
+        for (Map.Entry<String, LastUserPosition> entry : lastPositions.entrySet()) {
+            // a position added meanwhile stays for the next flush
+            if (lastPositions.remove(entry.getKey(), entry.getValue())) {
+                last.add(entry.getValue());
+            }
+        }
+        List<PersistentUserPosition> history = new ArrayList<>();
+        positions.drainTo(history);
+
+        try {
+            if (!last.isEmpty()) {
+                mongoTemplate.insert(last, LastUserPosition.class);
+            }
+            if (!history.isEmpty()) {
+                mongoTemplate.insert(history, PersistentUserPosition.class);
+            }
+        } catch (RuntimeException e) {
+            dropped.increment(history.size());
+            throw e;
+        }
+        return history.size();
+    }
+}
@@ -34,6 +34,7 @@ import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.dto.AreaDTO;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.ExpiringMap;
 import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
@@ -48,18 +49,13 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.security.concurrent.DelegatingSecurityContextScheduledExecutorService;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
-import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import static com.mongodb.client.model.Aggregates.*;
 import static com.mongodb.client.model.Filters.*;
@@ -73,6 +69,8 @@ import static org.springframework.security.acls.domain.BasePermission.WRITE;
 public class UserPositionService {
 
     static final int USER_UNFOLLOWING_DELAY = 10;
+
+    static final Duration BROADCAST_IDLE_TIMEOUT = Duration.ofHours(1);
     public static final String DATABASE_NAME = "cytomine";
     @Autowired
     CurrentUserService currentUserService;
@@ -122,6 +120,15 @@ public class UserPositionService {
     @Autowired
     SequenceService sequenceService;
 
+    @Autowired
+    UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    PresenceService presenceService;
+
+    @Autowired
+    ImageConsultationActivity imageConsultationActivity;
+
 //
 //    public LastUserPosition add(SecUser user, SliceInstance sliceInstance) {
 //
@@ -131,11 +138,11 @@ public class UserPositionService {
 //
 //    }
 
-    // usersTracked key -> "trackedUserId/imageId"
-    public static Map<String, List<User>> broadcasters = new ConcurrentHashMap<>();
+    // usersTracked key -> "trackedUserId/imageId", forgotten after BROADCAST_IDLE_TIMEOUT without follower
+    public static Map<String, List<User>> broadcasters = new ExpiringMap<>(BROADCAST_IDLE_TIMEOUT, Integer.MAX_VALUE, true);
 
     // usersTracking key -> "followerId/imageId"
-    public static Map<String, Boolean> followers = new ConcurrentHashMap<>();
+    public static Map<String, Boolean> followers = new ExpiringMap<>(BROADCAST_IDLE_TIMEOUT, Integer.MAX_VALUE, true);
 
     public PersistentUserPosition add(
             Date created,
@@ -147,9 +154,8 @@ public class UserPositionService {
             Double rotation,
             Boolean broadcast) {
 
-        Optional<LastUserPosition> lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
+        securityACLService.check(imageInstance, READ);
 
-        //TODO: no ACL???
         LastUserPosition position = new LastUserPosition();
         position.setId(sequenceService.generateID());
         position.setUser(user.getId());
@@ -164,7 +170,6 @@ public class UserPositionService {
         position.setCreated(created);
         position.setUpdated(created);
         position.setImageName(imageInstance.getBlindInstanceFilename());
-        lastUserPositionRepository.insert(position);
 
         // It used to be WS through HTTP polling.
         // It probably can be removed at some point.
@@ -189,7 +194,11 @@ public class UserPositionService {
         persistedPosition.setCreated(created);
         persistedPosition.setUpdated(created);
         persistedPosition.setImageName(imageInstance.getBlindInstanceFilename());
-        persistentUserPositionRepository.insert(persistedPosition);
+
+        // written by batch, see UserPositionBuffer
+        userPositionBuffer.add(position, persistedPosition);
+        presenceService.positioned(user.getId(), imageInstance.getId(), sliceInstance.getId(), broadcast, created);
+        imageConsultationActivity.positioned(user.getId(), imageInstance.getId(), created);
 
         return persistedPosition;
     }
@@ -248,6 +257,9 @@ public class UserPositionService {
 
     public List<Long> listOnlineUsersByImage(ImageInstance image, SliceInstance slice, boolean broadcast) {
         securityACLService.check(image,READ);
+        if (presenceService.isEnabled()) {
+            return new ArrayList<>(presenceService.listOnlineUsersByImage(image.getId(), (slice != null ? slice.getId() : null), broadcast));
+        }
         Date thirtySecondsAgo = DateUtils.addSeconds(new Date(), -30);
 
         List<Bson> request = new ArrayList<>();
@@ -306,15 +318,7 @@ public class UserPositionService {
 
     public List<String> listFollowers(Long userId, Long imageId){
         String userAndImageId = userId.toString()+"/"+imageId.toString();
-        List<String> followersIds = new ArrayList<>();
-
-        ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        if(broadcastSession!=null){
-            ConcurrentWebSocketSessionDecorator[] followers = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-            if(followers != null) {
-                followersIds = webSocketUserPositionHandler.getSessionsUserIds(followers).stream().distinct().toList();
-            }
-        }
+        List<String> followersIds = WebSocketUserPositionHandler.registry.getFollowerIds(userAndImageId);
 
         List<User> poolingUsers = broadcasters.get(userAndImageId);
         if(poolingUsers != null){
@@ -421,8 +425,12 @@ public class UserPositionService {
     }
 
     private void removeFollower(Long followerId, String broadcaster){
+        List<User> currentFollowers = broadcasters.get(broadcaster);
+        if(currentFollowers == null){
+            return;
+        }
         List<User> newFollowers = new ArrayList<>();
-        for(User user : broadcasters.get(broadcaster)){
+        for(User user : currentFollowers){
             if(!user.getId().equals(followerId)){
                 newFollowers.add(user);
             }
@@ -430,22 +438,18 @@ public class UserPositionService {
         broadcasters.replace(broadcaster, newFollowers);
     }
 
-    @PostConstruct
-    public void positionScheduler(){
-        DelegatingSecurityContextScheduledExecutorService delegatedScheduler = new DelegatingSecurityContextScheduledExecutorService(
-                Executors.newScheduledThreadPool(1),
-                SecurityContextHolder.getContext()
-        );
-        delegatedScheduler.scheduleAtFixedRate(
-            () -> {
-                for(Map.Entry<String, Boolean> entry : followers.entrySet()){
-                    if(!entry.getValue()){
-                        followers.remove(entry.getKey());
-                        removeFollower(entry);
-                    }else{
-                        followers.replace(entry.getKey(), true, false);
-                    }
-                }
-            }, USER_UNFOLLOWING_DELAY, USER_UNFOLLOWING_DELAY, TimeUnit.SECONDS);
+    /**
+     * Remove the followers that did not fetch a position since the previous run
+     */
+    @Scheduled(fixedDelay = USER_UNFOLLOWING_DELAY * 1000, initialDelay = USER_UNFOLLOWING_DELAY * 1000)
+    public void removeInactiveFollowers(){
+        for(Map.Entry<String, Boolean> entry : followers.entrySet()){
+            if(!entry.getValue()){
+                followers.remove(entry.getKey());
+                removeFollower(entry);
+            }else{
+                followers.replace(entry.getKey(), true, false);
+            }
+        }
     }
 }
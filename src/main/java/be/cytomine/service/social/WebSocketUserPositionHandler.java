@@ -6,11 +6,14 @@ import be.cytomine.domain.social.LastUserPosition;
 import be.cytomine.exceptions.ServerException;
 import be.cytomine.repository.image.ImageInstanceRepository;
 import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.service.CoalescingMessageSender;
 import be.cytomine.service.CytomineWebSocketHandler;
+import be.cytomine.service.WebSocketSessionRegistry;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.SliceInstanceService;
 import be.cytomine.service.security.SecUserService;
-import be.cytomine.utils.JsonObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,21 +24,19 @@ import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Slf4j
 @Component
 public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
-    public static Map<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> sessionsTracked = new ConcurrentHashMap<>();
-
-    // sessionsTracked key -> "broadcastSessionId/imageId"
-    public static Map<String, ConcurrentWebSocketSessionDecorator> sessionsBroadcast = new ConcurrentHashMap<>();
-
-    // sessions key -> "userId"
-    public static Map<String, ConcurrentWebSocketSessionDecorator[]> sessions = new ConcurrentHashMap<>();
+    // sessions by user, broadcasts ("broadcasterId/imageId") and their followers
+    public static final WebSocketSessionRegistry registry = new WebSocketSessionRegistry();
 
     @Autowired
     UserPositionService userPositionService;
@@ -55,34 +56,51 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     @Autowired
     SecUserRepository secUserRepository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private ExecutorService positionSender;
+
+    private Counter droppedPositions;
+
+    @PostConstruct
+    public void init() {
+        positionSender = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "user-position-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        droppedPositions = meterRegistry.counter("cytomine.websocket.position.dropped");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        positionSender.shutdown();
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        sessions = super.afterConnectionEstablished(session, sessions);
+        ConcurrentWebSocketSessionDecorator sessionDecorator = super.afterConnectionEstablished(session, registry);
         String userId = session.getAttributes().get("userId").toString();
         String imageId = session.getAttributes().get("imageId").toString();
         boolean broadcast = Boolean.parseBoolean(session.getAttributes().get("broadcast").toString());
 
         if(broadcast){
-            ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 1000, 8192);
-            sessionsBroadcast.put(userId+"/"+imageId, sessionDecorator);
+            registry.registerBroadcast(userId+"/"+imageId, sessionDecorator);
         }
 
         log.debug("Established user position WebSocket connection {}", session.getId());
     }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         super.afterConnectionClosed(session, status);
 
         if(Boolean.parseBoolean(session.getAttributes().get("broadcast").toString())){
-            String userAndImageId = session.getAttributes().get("userId").toString() + '/' + session.getAttributes().get("imageId").toString();
-            ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(userAndImageId);
-            removeFromBroadcastSession(broadcastSession);
-            removeFromTrackerSessions(broadcastSession);
+            log.debug("Remove this broadcast session from broadcast sessions");
+            sendNotificationsAndCloseSessions(registry.removeBroadcast(session.getId()));
         }
-        else{
-            removeSessionFromTrackerSessions(session);
-        }
-        removeFromSessions(session);
+        registry.unregister(session.getId());
         log.debug("Closing user position WebSocket connection from {}", session.getRemoteAddress());
     }
 
@@ -93,63 +111,25 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) {
         // Payload is a bytes array.
         String payload = message.getPayload().toString();
-        String followerId = session.getAttributes().get("userId").toString();
         String imageId = session.getAttributes().get("imageId").toString();
 
-        boolean isNumeric = StringUtils.isNumeric(message.getPayload().toString());
-
-        if (!isNumeric) {
-            Map<String, Object> payloadMap = JsonObject.toMap(payload);
+        if (!StringUtils.isNumeric(payload)) {
             String userId = session.getAttributes().get("userId").toString();
-            sendPositionToFollowers(userId, imageId, message.getPayload().toString());
+            sendPositionToFollowers(userId, imageId, payload);
             return;
         }
 
-        ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(payload + "/" + imageId);
-        ConcurrentWebSocketSessionDecorator followerSession = getSession(followerId, session.getId());
-
-        if (broadcastSession != null && followerSession != null) {
-            addToTrackedSessions(broadcastSession, followerSession);
+        String broadcastKey = payload + "/" + imageId;
+        ConcurrentWebSocketSessionDecorator followerSession = registry.getSession(session.getId());
+        if (followerSession == null) {
+            log.error("Follower : " + session.getAttributes().get("userId") + " has no session with id : " + session.getId());
+        } else if (registry.getBroadcast(broadcastKey) != null) {
+            registry.follow(broadcastKey, followerSession);
         }
 
         moveFollowerAfterInitialConnection(Long.parseLong(payload), Long.parseLong(imageId), session);
     }
 
-    private ConcurrentWebSocketSessionDecorator getSession(String followerId, String sessionId){
-        ConcurrentWebSocketSessionDecorator followerSession = null;
-        ConcurrentWebSocketSessionDecorator[] followerSessions = WebSocketUserPositionHandler.sessions.get(followerId);
-
-        try {
-            followerSession = Arrays.stream(followerSessions).filter(session -> session.getId().equals(sessionId)).toList().get(0);
-        }catch (NullPointerException e){
-            log.error("Follower : " + followerId + " has no session with id : " + sessionId);
-        }
-        return followerSession;
-    }
-
-    private void addToTrackedSessions(ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator trackingSession){
-        if (WebSocketUserPositionHandler.sessionsTracked.containsKey(broadcastSession)) {
-            ConcurrentWebSocketSessionDecorator[] trackedSessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-
-            boolean alreadyContainsSession = false;
-            for (ConcurrentWebSocketSessionDecorator trackedSession : trackedSessions) {
-                if (trackedSession.getId().equals(trackingSession.getId())) {
-                    alreadyContainsSession = true;
-                    break;
-                }
-            }
-
-            if(!alreadyContainsSession){
-                trackedSessions = addSession(trackedSessions, trackingSession);
-            }
-
-            WebSocketUserPositionHandler.sessionsTracked.replace(broadcastSession, WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession), trackedSessions);
-        } else {
-            ConcurrentWebSocketSessionDecorator[] trackingSessions = new ConcurrentWebSocketSessionDecorator[]{trackingSession};
-            WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, trackingSessions);
-        }
-    }
-
     private void moveFollowerAfterInitialConnection(Long userId, Long imageId, WebSocketSession session) {
         // TODO : Uncomment to bypass authentication (websocket are not longer authenticated)
         // Comment for tests
@@ -178,22 +158,16 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     public void sendPositionToFollowers(String userId, String imageId, String position) throws ServerException {
-        String userAndImageId = userId+"/"+imageId;
-        if(WebSocketUserPositionHandler.sessionsBroadcast.containsKey(userAndImageId)){
-            ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-            ConcurrentWebSocketSessionDecorator[] sessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-            if(sessions != null){
-                sendPosition(sessions, position);
-            }
+        Collection<CoalescingMessageSender> followers = registry.getFollowers(userId+"/"+imageId);
+        if (followers.isEmpty()) {
+            return;
         }
-    }
-
-    private void sendPosition(ConcurrentWebSocketSessionDecorator[] sessions, String position){
         TextMessage message = new TextMessage(position);
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            new Thread(() -> {
-                sendPosition(s, message);
-            }).start();
+        for (CoalescingMessageSender follower : followers) {
+            if (follower.send(message, positionSender)) {
+                // the follower did not receive the previous position yet, it only gets the latest one
+                droppedPositions.increment();
+            }
         }
     }
 
@@ -201,94 +175,6 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         super.sendWebSocketMessage(session, position);
     }
 
-    public List<String> getSessionsUserIds(ConcurrentWebSocketSessionDecorator[] sessions){
-        List<String> userIds = new ArrayList<>();
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            String userId = getSessionUserId(s);
-            if(!userId.isEmpty()){
-                userIds.add(userId);
-            }
-        }
-        return userIds;
-    }
-
-    private String getSessionUserId(ConcurrentWebSocketSessionDecorator session){
-        String userId = "";
-        loop:
-        for(Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()){
-            for(ConcurrentWebSocketSessionDecorator sessionDecorator : entry.getValue()){
-
-                if(sessionDecorator.getId().equals(session.getId())){
-                    System.out.println("Find user !");
-                    userId = entry.getKey();
-                    break loop;
-                }
-
-            }
-        }
-        return userId;
-    }
-
-    private void removeSessionFromTrackerSessions(WebSocketSession session) {
-        log.debug("Remove this tracking session from tracked sessions");
-        for (Map.Entry<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessionsTracked.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    removeSessionFromTrackerSessions(session, entry.getKey());
-                }
-            }
-        }
-    }
-
-    private void removeSessionFromTrackerSessions(WebSocketSession session, ConcurrentWebSocketSessionDecorator trackedSession){
-        ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessionsTracked.get(trackedSession);
-        ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-        WebSocketUserPositionHandler.sessionsTracked.replace(trackedSession, oldSessions, newSessions);
-    }
-
-    private void removeFromSessions(WebSocketSession session) {
-        for (Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    String userId = entry.getKey();
-                    ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessions.get(userId);
-                    ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-                    WebSocketUserPositionHandler.sessions.replace(userId, oldSessions, newSessions);
-                }
-            }
-        }
-    }
-
-    private void removeFromTrackerSessions(ConcurrentWebSocketSessionDecorator broadcastSession){
-        log.debug("Remove this broadcast session from tracked sessions");
-        ConcurrentWebSocketSessionDecorator[] sessionDecorators = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-        if(sessionDecorators != null){
-            sendNotificationsAndCloseSessions(List.of(sessionDecorators));
-        }
-        WebSocketUserPositionHandler.sessionsTracked.remove(broadcastSession);
-    }
-
-    private void removeFromBroadcastSession(ConcurrentWebSocketSessionDecorator broadcastSession){
-        log.debug("Remove this broadcast session from broadcast sessions");
-        for(Map.Entry<String, ConcurrentWebSocketSessionDecorator> entry : WebSocketUserPositionHandler.sessionsBroadcast.entrySet()){
-            if(entry.getValue().getId().equals(broadcastSession.getId())){
-                WebSocketUserPositionHandler.sessionsBroadcast.remove(entry.getKey());
-            }
-        }
-    }
-
-    private ConcurrentWebSocketSessionDecorator[] removeSession(ConcurrentWebSocketSessionDecorator[] oldSessions, WebSocketSession oldSession){
-        ConcurrentWebSocketSessionDecorator[] newSessions = new ConcurrentWebSocketSessionDecorator[oldSessions.length - 1];
-        for(int i=0; i < oldSessions.length; i++){
-            if(!oldSessions[i].getId().equals(oldSession.getId())){
-                newSessions[i] = oldSessions[i];
-            }
-        }
-        return newSessions;
-    }
-
     private void sendNotificationsAndCloseSessions(List<ConcurrentWebSocketSessionDecorator> sessionDecorators){
         for(ConcurrentWebSocketSessionDecorator sessionDecorator : sessionDecorators){
             if(sessionDecorator.isOpen()){
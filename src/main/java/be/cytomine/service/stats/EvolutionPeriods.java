@@ -0,0 +1,121 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.JsonObject;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Consecutive periods of daysRange days from startDate until endDate, used by the evolution stats.
+ * An item is counted in the first period ending after its date (items before startDate are in the first period,
+ * items after the end of the last period are not counted).
+ *
+ * The period bounds are computed here once (calendar days, in the server time zone), the databases only count
+ * the items of each period: Postgres with width_bucket on the period ends, Mongo with a $bucket stage.
+ */
+public class EvolutionPeriods {
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final long endTime;
+
+    private final long[] counts;
+
+    public EvolutionPeriods(int daysRange, Date startDate, Date endDate) {
+        List<Long> periodStarts = new ArrayList<>();
+        List<Long> periodEnds = new ArrayList<>();
+        Calendar cal = Calendar.getInstance();
+        Date current = startDate;
+        endTime = endDate.getTime();
+        while (current.getTime() <= endTime) {
+            periodStarts.add(current.getTime());
+            cal.setTime(current);
+            cal.add(Calendar.DATE, daysRange);
+            current = cal.getTime();
+            periodEnds.add(current.getTime());
+        }
+        starts = periodStarts.stream().mapToLong(Long::longValue).toArray();
+        ends = periodEnds.stream().mapToLong(Long::longValue).toArray();
+        counts = new long[starts.length];
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Index of the period containing the date, size() if it is after the last period
+     */
+    public int indexOf(Date date) {
+        int index = Arrays.binarySearch(ends, date.getTime());
+        // an item at the end of a period belongs to the next one
+        return (index >= 0 ? index + 1 : -index - 1);
+    }
+
+    public void add(Date date, long count) {
+        addToPeriod(indexOf(date), count);
+    }
+
+    public void addToPeriod(int index, long count) {
+        if (index >= 0 && index < counts.length) {
+            counts[index] += count;
+        }
+    }
+
+    /**
+     * Ends of the periods, as a Postgres timestamp array literal (for width_bucket)
+     */
+    public String getEndsAsSqlArray() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringJoiner joiner = new StringJoiner(",", "{", "}");
+        for (long end : ends) {
+            joiner.add("\"" + format.format(new Date(end)) + "\"");
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Boundaries of a Mongo $bucket stage, the bucket of index i (its lower boundary is the i-th value) is the period i.
+     */
+    public List<Date> getMongoBoundaries() {
+        List<Date> boundaries = new ArrayList<>();
+        // the first period also contains the items before its start
+        boundaries.add(new Date(Math.min(0L, starts.length > 0 ? starts[0] : 0L)));
+        for (long end : ends) {
+            boundaries.add(new Date(end));
+        }
+        return boundaries;
+    }
+
+    public List<JsonObject> toJsonObjects(boolean accumulate) {
+        List<JsonObject> data = new ArrayList<>();
+        long count = 0;
+        for (int i = 0; i < starts.length; i++) {
+            count = (accumulate ? count : 0) + counts[i];
+            JsonObject item = new JsonObject();
+            item.put("date", starts[i]);
+            item.put("endDate", Math.min(ends[i], endTime));
+            item.put("size", Math.toIntExact(count));
+            data.add(item);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,213 @@
+package be.cytomine.service.stats;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Aggregates.*;
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Hourly and daily counters of project connections and image consultations, by project and user.
+ * Counters are incremented when an event is added, so that the connection/consultation stats read
+ * one document per bucket instead of every event.
+ * Buckets are in UTC, like the aggregations made on the raw collections.
+ */
+@Slf4j
+@Service
+public class StatsRollupService {
+
+    public static final String COLLECTION = "statsRollup";
+
+    public static final String CONNECTION = "connection";
+
+    public static final String IMAGE_CONSULTATION = "imageConsultation";
+
+    public static final String HOUR = "hour";
+
+    public static final String DAY = "day";
+
+    private static final long HOUR_IN_MILLIS = 3600000L;
+
+    private static final long DAY_IN_MILLIS = 86400000L;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ApplicationProperties applicationProperties;
+
+    public StatsRollupService(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties) {
+        this.mongoTemplate = mongoTemplate;
+        this.applicationProperties = applicationProperties;
+    }
+
+    public boolean isEnabled() {
+        return applicationProperties.getStatsRollup().getEnabled();
+    }
+
+    public void increment(String type, Long project, Long user, Date created) {
+        if (!isEnabled()) {
+            return;
+        }
+        getCollection().bulkWrite(List.of(
+                increment(type, HOUR, project, user, truncate(created, HOUR), 1),
+                increment(type, DAY, project, user, truncate(created, DAY), 1)
+        ), new BulkWriteOptions().ordered(false));
+    }
+
+    public static Date truncate(Date date, String granularity) {
+        long size = (granularity.equals(HOUR) ? HOUR_IN_MILLIS : DAY_IN_MILLIS);
+        return new Date(Math.floorDiv(date.getTime(), size) * size);
+    }
+
+    /**
+     * Apply the stages to the rollups of the given type and granularity.
+     * Project, user and dates are optional, dates are rounded to the bucket containing them.
+     */
+    public List<Document> aggregate(String type, String granularity, Long project, Long user, Date after, Date before, List<Bson> stages) {
+        List<Bson> filters = new ArrayList<>(List.of(eq("type", type), eq("granularity", granularity)));
+        if (project != null) {
+            filters.add(eq("project", project));
+        }
+        if (user != null) {
+            filters.add(eq("user", user));
+        }
+        if (after != null) {
+            filters.add(gte("bucket", truncate(after, granularity)));
+        }
+        if (before != null) {
+            filters.add(lte("bucket", before));
+        }
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(match(and(filters)));
+        pipeline.addAll(stages);
+        return getCollection().aggregate(pipeline).into(new ArrayList<>());
+    }
+
+    /**
+     * Number of events by bucket (_id: bucket date, count), sorted by bucket
+     */
+    public List<Document> countByBucket(String type, String granularity, Long project, Long user, Date after, Date before) {
+        return aggregate(type, granularity, project, user, after, before,
+                List.of(group("$bucket", Accumulators.sum("count", "$count")), sort(ascending("_id"))));
+    }
+
+    public void backfillIfEmpty() {
+        if (isEnabled() && applicationProperties.getStatsRollup().getBackfillOnStartup()
+                && getCollection().estimatedDocumentCount() == 0) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Recompute all the rollups from the raw collections
+     */
+    public void rebuild() {
+        rebuild(CONNECTION, "persistentProjectConnection");
+        rebuild(IMAGE_CONSULTATION, "persistentImageConsultation");
+    }
+
+    private void rebuild(String type, String source) {
+        log.info("Rebuild {} rollups from {}", type, source);
+        MongoCollection<Document> collection = getCollection();
+        collection.deleteMany(eq("type", type));
+
+        // hourly counters are computed by mongo, daily ones are summed from them
+        List<Bson> pipeline = List.of(
+                Document.parse("{$project : { project : 1, user : 1, bucket : {$subtract:['$created', {$add : [{$millisecond : '$created'}, {$multiply : [{$second : '$created'}, 1000]}, {$multiply : [{$minute : '$created'}, 60000]} ]}]}}}"),
+                Document.parse("{$group : {_id : { project: '$project', user: '$user', bucket: '$bucket'}, count : {$sum : 1}}}")
+        );
+        Map<String, Document> days = new HashMap<>();
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        long hours = 0;
+        try (MongoCursor<Document> cursor = mongoTemplate.getCollection(source).aggregate(pipeline).allowDiskUse(true).iterator()) {
+            while (cursor.hasNext()) {
+                Document result = cursor.next();
+                Document id = (Document) result.get("_id");
+                Long project = toLong(id.get("project"));
+                Long user = toLong(id.get("user"));
+                Date bucket = id.getDate("bucket");
+                int count = result.getInteger("count");
+
+                writes.add(increment(type, HOUR, project, user, bucket, count));
+                hours++;
+                if (writes.size() >= BATCH_SIZE) {
+                    collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                    writes.clear();
+                }
+
+                Date day = truncate(bucket, DAY);
+                days.computeIfAbsent(project + "/" + user + "/" + day.getTime(),
+                        key -> new Document("project", project).append("user", user).append("bucket", day).append("count", 0))
+                        .merge("count", count, (a, b) -> (Integer) a + (Integer) b);
+            }
+        }
+        for (Document day : days.values()) {
+            writes.add(increment(type, DAY, day.getLong("project"), day.getLong("user"), day.getDate("bucket"), day.getInteger("count")));
+            if (writes.size() >= BATCH_SIZE) {
+                collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+                writes.clear();
+            }
+        }
+        if (!writes.isEmpty()) {
+            collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        log.info("{} rollups rebuilt: {} hours, {} days", type, hours, days.size());
+    }
+
+    private static UpdateOneModel<Document> increment(String type, String granularity, Long project, Long user, Date bucket, int count) {
+        String id = type + "/" + granularity + "/" + project + "/" + user + "/" + bucket.getTime();
+        return new UpdateOneModel<>(
+                eq("_id", id),
+                combine(
+                        setOnInsert("type", type),
+                        setOnInsert("granularity", granularity),
+                        setOnInsert("project", project),
+                        setOnInsert("user", user),
+                        setOnInsert("bucket", bucket),
+                        inc("count", count)
+                ),
+                new UpdateOptions().upsert(true)
+        );
+    }
+
+    private static Long toLong(Object value) {
+        return (value != null ? ((Number) value).longValue() : null);
+    }
+
+    private MongoCollection<Document> getCollection() {
+        return mongoTemplate.getCollection(COLLECTION);
+    }
+}
@@ -36,15 +36,16 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecUserService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.JsonObject;
+import com.mongodb.client.model.BucketOptions;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.hibernate.Criteria;
 import org.hibernate.FetchMode;
 import org.hibernate.Session;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,12 +58,19 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static be.cytomine.utils.SQLUtils.castToLong;
+import static com.mongodb.client.model.Accumulators.sum;
+import static com.mongodb.client.model.Aggregates.bucket;
+import static com.mongodb.client.model.Aggregates.match;
+import static com.mongodb.client.model.Filters.*;
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
 @Service
 @Transactional
 public class StatsService {
 
+    // $bucket of the events after the last period
+    private static final String OTHER_PERIODS = "other";
+
     @Autowired
     EntityManager entityManager;
 
@@ -89,6 +97,9 @@ public class StatsService {
 
     @Autowired
     SecurityACLService securityACLService;
+
+    @Autowired
+    StatsRollupService statsRollupService;
     
     public Long total(Class domain){
         return entityManager.createQuery("SELECT COUNT(*) FROM " + domain.getName(), Long.class).getSingleResult();
@@ -141,27 +152,11 @@ public class StatsService {
     public List<JsonObject> statAnnotationEvolution(Project project, Term term, int daysRange, Date startDate, Date endDate, boolean reverseOrder, boolean accumulate){
         securityACLService.check(project,READ);
 
-        String request = "SELECT created " +
-                "FROM UserAnnotation " +
-                "WHERE project.id = :project_id " +
-                (term!=null ? "AND id IN (SELECT userAnnotation.id FROM AnnotationTerm WHERE term = :term_id) " : "") +
-                (startDate!=null ? " AND created > :startDate " : "") +
-                (endDate!=null ? " AND created < :endDate " : "") +
-                " ORDER BY created ASC";
-        javax.persistence.Query query = entityManager.createQuery(request, Date.class);
-        if(startDate!=null) {
-            query.setParameter("startDate", startDate);
-        }
-        if(endDate!=null) {
-            query.setParameter("endDate", endDate);
-        }
-        if(term!=null) {
-            query.setParameter("term_id", term.getId());
-        }
-        query.setParameter("project_id", project.getId());
-        List<Date> annotationsDates = query.getResultList();
+        String request = "FROM user_annotation " +
+                "WHERE project_id = :project_id " +
+                (term!=null ? "AND id IN (SELECT user_annotation_id FROM annotation_term WHERE term_id = :term_id) " : "");
 
-        List<JsonObject> data = aggregateByPeriods(annotationsDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
+        List<JsonObject> data = countAnnotationsByPeriods(request, project, term, daysRange, startDate, endDate, accumulate);
         if(reverseOrder) {
             Collections.reverse(data);
         }
@@ -172,27 +167,11 @@ public class StatsService {
     public List<JsonObject>  statAlgoAnnotationEvolution(Project project, Term term, int daysRange, Date startDate, Date endDate, boolean reverseOrder, boolean accumulate){
         securityACLService.check(project,READ);
 
-        String request = "SELECT created " +
-                "FROM AlgoAnnotation " +
-                "WHERE project.id = :project_id " +
-                (term!=null ? "AND id IN (SELECT annotationIdent FROM AlgoAnnotationTerm WHERE term = :term_id) " : "") +
-                (startDate!=null ? "AND created > :startDate " : "") +
-                (endDate!=null ? "AND created < :endDate " : "") +
-                "ORDER BY created ASC";
-        javax.persistence.Query query = entityManager.createQuery(request, Date.class);
-        if(startDate!=null) {
-            query.setParameter("startDate", startDate);
-        }
-        if(endDate!=null) {
-            query.setParameter("endDate", endDate);
-        }
-        if(term!=null) {
-            query.setParameter("term_id", term.getId());
-        }
-        query.setParameter("project_id", project.getId());
-        List<Date> annotationsDates = query.getResultList();
+        String request = "FROM algo_annotation " +
+                "WHERE project_id = :project_id " +
+                (term!=null ? "AND id IN (SELECT annotation_ident FROM algo_annotation_term WHERE term_id = :term_id) " : "");
 
-        List<JsonObject> data = aggregateByPeriods(annotationsDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
+        List<JsonObject> data = countAnnotationsByPeriods(request, project, term, daysRange, startDate, endDate, accumulate);
         if(reverseOrder) {
             Collections.reverse(data);
         }
@@ -203,13 +182,32 @@ public class StatsService {
     public List<JsonObject>  statReviewedAnnotationEvolution(Project project, Term term, int daysRange, Date startDate, Date endDate, boolean reverseOrder, boolean accumulate){
         securityACLService.check(project,READ);
 
-        String request = "SELECT created " +
-                "FROM reviewed_annotation " +
+        String request = "FROM reviewed_annotation " +
                 "WHERE project_id = :project_id " +
-                (term!=null ? "AND id IN (SELECT reviewed_annotation_terms_id FROM reviewed_annotation_term WHERE term_id = :term_id) " : "") +
+                (term!=null ? "AND id IN (SELECT reviewed_annotation_terms_id FROM reviewed_annotation_term WHERE term_id = :term_id) " : "");
+
+        List<JsonObject> data = countAnnotationsByPeriods(request, project, term, daysRange, startDate, endDate, accumulate);
+        if(reverseOrder) {
+            Collections.reverse(data);
+        }
+        return data;
+    }
+
+    /**
+     * Count the annotations of each period in the database, only one row by period is read.
+     * @param request FROM and WHERE clauses selecting the annotations
+     */
+    private List<JsonObject> countAnnotationsByPeriods(String request, Project project, Term term, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        EvolutionPeriods periods = new EvolutionPeriods(daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate));
+        if (periods.size() == 0) {
+            return periods.toJsonObjects(accumulate);
+        }
+
+        request = "SELECT width_bucket(created, CAST(:period_ends AS timestamp[])) AS period, count(*) " +
+                request +
                 (startDate!=null ? "AND created > :startDate " : "") +
                 (endDate!=null ? "AND created < :endDate " : "") +
-                "ORDER BY created ASC";
+                "GROUP BY period";
 
         javax.persistence.Query query = entityManager.createNativeQuery(request);
         if(startDate!=null) {
@@ -222,14 +220,13 @@ public class StatsService {
             query.setParameter("term_id", term.getId());
         }
         query.setParameter("project_id", project.getId());
+        query.setParameter("period_ends", periods.getEndsAsSqlArray());
 
-        List<java.util.Date> annotationsDates = query.getResultList();
-
-        List<JsonObject> data = aggregateByPeriods(annotationsDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
-        if(reverseOrder) {
-            Collections.reverse(data);
+        List<Object[]> rows = query.getResultList();
+        for (Object[] row : rows) {
+            periods.addToPeriod(((Number) row[0]).intValue(), ((Number) row[1]).longValue());
         }
-        return data;
+        return periods.toJsonObjects(accumulate);
     }
 
     public List<JsonObject> statUserSlide(Project project, Date startDate, Date endDate) {
@@ -550,99 +547,81 @@ public class StatsService {
 
     public List<JsonObject> statConnectionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project,READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate!=null && endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentProjectConnection> persistentProjectConnections = mongoTemplate.find(query, PersistentProjectConnection.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
+        if (statsRollupService.isEnabled()) {
+            return evolutionFromRollups(StatsRollupService.CONNECTION, project, daysRange, startDate, endDate, accumulate);
+        }
+        return countEventsByPeriods(PersistentProjectConnection.class, project, null, daysRange, startDate, endDate, accumulate);
     }
 
 
     public List<JsonObject> statImageConsultationsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project,READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate!=null && endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentImageConsultation> persistentProjectConnections = mongoTemplate.find(query, PersistentImageConsultation.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
+        if (statsRollupService.isEnabled()) {
+            return evolutionFromRollups(StatsRollupService.IMAGE_CONSULTATION, project, daysRange, startDate, endDate, accumulate);
+        }
+        return countEventsByPeriods(PersistentImageConsultation.class, project, null, daysRange, startDate, endDate, accumulate);
     }
 
     public List<JsonObject> statAnnotationActionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate, String type) {
         securityACLService.check(project,READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate!=null && endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        if(type!=null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("action").is(type));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<AnnotationAction> persistentProjectConnections = mongoTemplate.find(query, AnnotationAction.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate), accumulate);
+        return countEventsByPeriods(AnnotationAction.class, project, (type!=null ? eq("action", type) : null), daysRange, startDate, endDate, accumulate);
     }
 
 
-    private List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange,  Date startDate, Date endDate, boolean accumulate) {
-        List<JsonObject> data = new ArrayList<>();
-        int nbItems = creationDates.size();
-        int count = 0;
-        int idx = 0;
-
-        java.util.Date current = startDate;
-        Long endTime = endDate.getTime();
-        Calendar cal = Calendar.getInstance();
+    /**
+     * Count the events of a social collection in each period with a $bucket stage, only one document by period is read.
+     */
+    private List<JsonObject> countEventsByPeriods(Class<?> domain, Project project, Bson filter, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        EvolutionPeriods periods = new EvolutionPeriods(daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate));
+        if (periods.size() == 0) {
+            return periods.toJsonObjects(accumulate);
+        }
 
-        //for each period (of duration daysRange), compute the number of items
-        while(current.getTime() <= endTime) {
-            JsonObject item = new JsonObject();
-            item.put("date", current.getTime());
+        List<Bson> filters = new ArrayList<>();
+        filters.add(eq("project", project.getId()));
+        if (startDate!=null) {
+            filters.add(gte("created", startDate));
+        }
+        if (endDate!=null) {
+            filters.add(lte("created", endDate));
+        }
+        if (filter!=null) {
+            filters.add(filter);
+        }
 
-            //add a new step
-            cal.setTime(current);
-            cal.add(Calendar.DATE, daysRange);
-            current = cal.getTime();
+        List<Date> boundaries = periods.getMongoBoundaries();
+        List<Document> buckets = mongoTemplate.getCollection(mongoTemplate.getCollectionName(domain)).aggregate(List.of(
+                match(and(filters)),
+                bucket("$created", boundaries, new BucketOptions().defaultBucket(OTHER_PERIODS).output(sum("count", 1)))
+        )).into(new ArrayList<>());
+        addBucketsToPeriods(buckets, boundaries, periods);
+        return periods.toJsonObjects(accumulate);
+    }
 
-            if(!accumulate) {
-                count = 0;
-            }
+    /**
+     * Evolution computed from the hourly rollups, events are counted in the period containing the start of their hour
+     */
+    private List<JsonObject> evolutionFromRollups(String type, Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        EvolutionPeriods periods = new EvolutionPeriods(daysRange, (startDate==null ? project.getCreated() : startDate), (endDate==null ? new Date() : endDate));
+        if (periods.size() == 0) {
+            return periods.toJsonObjects(accumulate);
+        }
+
+        List<Date> boundaries = periods.getMongoBoundaries();
+        List<Document> buckets = statsRollupService.aggregate(type, StatsRollupService.HOUR, project.getId(), null, startDate, endDate, List.of(
+                bucket("$bucket", boundaries, new BucketOptions().defaultBucket(OTHER_PERIODS).output(sum("count", "$count")))
+        ));
+        addBucketsToPeriods(buckets, boundaries, periods);
+        return periods.toJsonObjects(accumulate);
+    }
 
-            while(idx < nbItems && creationDates.get(idx).getTime() < current.getTime()) {
-                idx++;
-                count++;
+    private static void addBucketsToPeriods(List<Document> buckets, List<Date> boundaries, EvolutionPeriods periods) {
+        for (Document bucket : buckets) {
+            int index = boundaries.indexOf(bucket.get("_id"));
+            if (index >= 0) {
+                periods.addToPeriod(index, ((Number) bucket.get("count")).longValue());
             }
-
-            item.put("endDate", Math.min(current.getTime(), endTime));
-            item.put("size", count);
-            data.add(item);
         }
-        return data;
     }
 
-
-
 }
@@ -0,0 +1,191 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.ExpiringMap;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Annotation density of the slices, kept timeToLiveInSeconds in memory.
+ * The viewer asks for the annotations of a bbox each time it moves, the kmeans rule of these requests
+ * is taken from here instead of reading the slice, the user and the annotation index each time.
+ *
+ * A density is not updated when annotations are added or removed. After timeToLiveInSeconds, the annotation
+ * counters of the slice (annotation_index and its pending deltas) are read again: the slice annotations are only
+ * scanned again if they changed, or after maxAgeInSeconds (annotations moved without changing the counters).
+ * Concurrent requests for a slice that is not loaded wait for a single load.
+ */
+@Component
+public class AnnotationDensityCache {
+
+    private static final String X_CELL = "LEAST(GREATEST(CAST(floor((ST_XMin(location) + ST_XMax(location)) / 2 * :grid / :width) AS integer), 0), :grid - 1)";
+
+    private static final String Y_CELL = "LEAST(GREATEST(CAST(floor((ST_YMin(location) + ST_YMax(location)) / 2 * :grid / :height) AS integer), 0), :grid - 1)";
+
+    private static final String CELL = Y_CELL + " * :grid + " + X_CELL;
+
+    private final EntityManager entityManager;
+
+    private final ApplicationProperties applicationProperties;
+
+    private final Map<Long, CachedDensity> densities;
+
+    private final Map<Long, CompletableFuture<SliceAnnotationDensity>> loadings = new ConcurrentHashMap<>();
+
+    public AnnotationDensityCache(EntityManager entityManager, ApplicationProperties applicationProperties, MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.applicationProperties = applicationProperties;
+        this.densities = new ExpiringMap<Long, CachedDensity>(
+                () -> (applicationProperties.getAnnotationDensity().getTimeToLiveInSeconds() > 0 ?
+                        1000 * Math.max(applicationProperties.getAnnotationDensity().getTimeToLiveInSeconds(), applicationProperties.getAnnotationDensity().getMaxAgeInSeconds()) : 0),
+                () -> applicationProperties.getAnnotationDensity().getMaxSlices(),
+                false
+        ).withMetrics(meterRegistry, "annotation.density");
+    }
+
+    /**
+     * Annotation density of the slice, null if the slice does not exist
+     */
+    public SliceAnnotationDensity get(Long slice) {
+        CachedDensity cached = densities.get(slice);
+        if (cached != null) {
+            long now = System.currentTimeMillis();
+            if (now - cached.checkedAt < 1000 * applicationProperties.getAnnotationDensity().getTimeToLiveInSeconds()) {
+                return cached.density;
+            }
+            if (cached.signature.equals(loadSignature(slice))) {
+                cached.checkedAt = now;
+                return cached.density;
+            }
+        }
+        CompletableFuture<SliceAnnotationDensity> loading = new CompletableFuture<>();
+        CompletableFuture<SliceAnnotationDensity> current = loadings.putIfAbsent(slice, loading);
+        if (current != null) {
+            return current.join();
+        }
+        try {
+            // read before the annotations: a change made during the scan is seen on the next check
+            String signature = (applicationProperties.getAnnotationDensity().getTimeToLiveInSeconds() > 0 ? loadSignature(slice) : null);
+            SliceAnnotationDensity density = load(slice);
+            if (density != null && signature != null) {
+                densities.put(slice, new CachedDensity(density, signature));
+            } else {
+                densities.remove(slice);
+            }
+            loading.complete(density);
+            return density;
+        } catch (RuntimeException e) {
+            loading.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(slice, loading);
+        }
+    }
+
+    public void evict(Long slice) {
+        densities.remove(slice);
+    }
+
+    public void clear() {
+        densities.clear();
+    }
+
+    private SliceAnnotationDensity load(Long slice) {
+        Tuple image = (Tuple) entityManager.createNativeQuery(
+                "SELECT si.image_id, ai.width, ai.height " +
+                "FROM slice_instance si " +
+                "INNER JOIN image_instance ii ON si.image_id = ii.id " +
+                "INNER JOIN abstract_image ai ON ii.base_image_id = ai.id " +
+                "WHERE si.id = :slice", Tuple.class)
+                .setParameter("slice", slice)
+                .getResultStream().findFirst().orElse(null);
+        if (image == null) {
+            return null;
+        }
+
+        SliceAnnotationDensity density = new SliceAnnotationDensity(
+                ((Number) image.get(0)).longValue(),
+                (Integer) image.get(1),
+                (Integer) image.get(2),
+                applicationProperties.getAnnotationDensity().getGridSize()
+        );
+
+        String request = "SELECT user_id, cell, count(*) FROM (" +
+                "SELECT user_id, " + CELL + " AS cell FROM user_annotation WHERE slice_id = :slice AND deleted IS NULL " +
+                "UNION ALL " +
+                "SELECT user_id, " + CELL + " AS cell FROM algo_annotation WHERE slice_id = :slice AND deleted IS NULL" +
+                ") a GROUP BY user_id, cell " +
+                "UNION ALL " +
+                "SELECT NULL, " + CELL + " AS cell, count(*) FROM reviewed_annotation WHERE slice_id = :slice AND deleted IS NULL GROUP BY cell";
+
+        // without image size, all the annotations are in the single cell
+        List<Tuple> cells = entityManager.createNativeQuery(request, Tuple.class)
+                .setParameter("slice", slice)
+                .setParameter("grid", density.getGridSize())
+                .setParameter("width", (double) (density.hasSize() ? density.getWidth() : 1))
+                .setParameter("height", (double) (density.hasSize() ? density.getHeight() : 1))
+                .getResultList();
+        for (Tuple cell : cells) {
+            Number user = (Number) cell.get(0);
+            density.add(
+                    (user != null ? user.longValue() : null),
+                    ((Number) cell.get(1)).intValue(),
+                    ((Number) cell.get(2)).intValue()
+            );
+        }
+        return density;
+    }
+
+    /**
+     * Annotation counters of the slice: they change when an annotation of the slice is added, removed or reviewed
+     */
+    private String loadSignature(Long slice) {
+        List<Tuple> counters = entityManager.createNativeQuery(
+                "SELECT user_id, count_annotation, count_reviewed_annotation FROM annotation_index WHERE slice_id = :slice " +
+                "UNION ALL " +
+                "SELECT NULL, count(*), COALESCE(SUM(delta), 0) FROM annotation_counter_delta WHERE slice_id = :slice " +
+                "ORDER BY 1 NULLS FIRST", Tuple.class)
+                .setParameter("slice", slice)
+                .getResultList();
+        StringBuilder signature = new StringBuilder();
+        for (Tuple counter : counters) {
+            signature.append(counter.get(0)).append(':').append(counter.get(1)).append(':').append(counter.get(2)).append(';');
+        }
+        return signature.toString();
+    }
+
+    private static class CachedDensity {
+        private final SliceAnnotationDensity density;
+        private final String signature;
+        private volatile long checkedAt;
+
+        private CachedDensity(SliceAnnotationDensity density, String signature) {
+            this.density = density;
+            this.signature = signature;
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -16,13 +16,11 @@ package be.cytomine.service.utils;
 * limitations under the License.
 */
 
-import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.exceptions.WrongArgumentException;
-import be.cytomine.repository.image.SliceInstanceRepository;
 import be.cytomine.service.dto.Kmeans;
-import be.cytomine.service.ontology.AnnotationIndexService;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
 import com.vividsolutions.jts.io.WKTReader;
@@ -36,16 +34,15 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 @Service
 @AllArgsConstructor
 public class KmeansGeometryService {
 
-    private final AnnotationIndexService annotationIndexService;
-
     private final EntityManager entityManager;
 
-    private final SliceInstanceRepository sliceInstanceRepository;
+    private final AnnotationDensityCache annotationDensityCache;
 
     public static final int FULL = 3;
     public static final int KMEANSFULL = 2;
@@ -113,34 +110,41 @@ public class KmeansGeometryService {
     }
 
     public int mustBeReduce(List<Long> slices, Long user, String bbox) {
-        List<SliceInstance> sliceInstances = sliceInstanceRepository.findAllById(slices);
-
-        SecUser secUser = null;
-        if (user!=null) {
-            secUser = entityManager.find(SecUser.class, user);
-        }
         try {
-            return mustBeReduce(sliceInstances, secUser,new WKTReader().read(bbox));
+            return mustBeReduce(slices, user, new WKTReader().read(bbox));
         } catch (ParseException e) {
             throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + bbox);
         }
     }
 
-
     public int mustBeReduce(List<SliceInstance> slices, SecUser user, Geometry bbox) {
-        List<ImageInstance> images = slices.stream().map(x -> x.getImage()).distinct().toList();
+        return mustBeReduce(slices.stream().map(SliceInstance::getId).toList(), (user != null ? user.getId() : null), bbox);
+    }
 
-        if (images.size() != 1) {
+    /**
+     * Rule to apply for the annotations of the user in the bbox (reviewed annotations if user is null).
+     * The rule line is chosen with the bbox width ratio, the number of annotations is the number of annotations
+     * the whole image would have with the density of the bbox (the number of annotations of the slices if
+     * the annotations are evenly spread).
+     */
+    public int mustBeReduce(List<Long> slices, Long user, Geometry bbox) {
+        List<SliceAnnotationDensity> densities = slices.stream()
+                .map(annotationDensityCache::get)
+                .filter(Objects::nonNull)
+                .toList();
+
+        if (densities.stream().map(SliceAnnotationDensity::getImage).distinct().count() != 1) {
             throw new WrongArgumentException("To use kmeans, all slices must belong to the same image.");
         }
-        ImageInstance image = images.get(0);
+        SliceAnnotationDensity image = densities.get(0);
 
-        if (image.getBaseImage().getWidth()==null) {
+        if (image.getWidth()==null) {
             return  FULL;
         }
 
-        double imageWidth = image.getBaseImage().getWidth();
-        double bboxWidth = bbox.getEnvelopeInternal().getWidth();
+        double imageWidth = image.getWidth();
+        Envelope bboxEnvelope = bbox.getEnvelopeInternal();
+        double bboxWidth = bboxEnvelope.getWidth();
 
         double ratio = bboxWidth/imageWidth;
 
@@ -148,7 +152,19 @@ public class KmeansGeometryService {
 
         Map<Integer, Integer> ruleLine = rules.get(Math.min(ratio25,100));
 
-        long numberOfAnnotation = Math.max(0, annotationIndexService.count(slices,user));
+        long numberOfAnnotation;
+        if (image.hasSize()) {
+            Envelope imageEnvelope = new Envelope(0, image.getWidth(), 0, image.getHeight());
+            Envelope visible = bboxEnvelope.intersection(imageEnvelope);
+            if (visible.getArea() <= 0) {
+                return FULL;
+            }
+            double visibleRatio = visible.getArea() / imageEnvelope.getArea();
+            double inBbox = densities.stream().mapToDouble(density -> density.estimate(user, visible)).sum();
+            numberOfAnnotation = Math.round(inBbox / visibleRatio);
+        } else {
+            numberOfAnnotation = densities.stream().mapToLong(density -> density.count(user)).sum();
+        }
 
         Integer rule = getRuleForNumberOfAnnotations(numberOfAnnotation, ruleLine);
         return rule;
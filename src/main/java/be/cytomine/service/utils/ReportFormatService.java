@@ -115,19 +115,32 @@ public class ReportFormatService {
         Object[][] report = initReport(data, headers);
 
         for(int i = 0; i < data.size(); i++){
-            Map<String, Object> element = data.get(i);
-            for(int j = 0; j < headers.length; j++){
+            report[i + 1] = formatAnnotationForReport(columns, data.get(i));
+        }
+        headerPropertyToTitle(columns, report);
+        return report;
+    }
 
-                Object value = getAnnotationValue(element.get(headers[j]), element, headers[j].toString());
+    /**
+     * Transform an annotation into a report row corresponding to given columns.
+     *
+     * @param  columns
+     * @param  annotation
+     * @return Object[]
+     */
+    public Object[] formatAnnotationForReport(List<ReportColumn> columns, Map<String, Object> annotation){
+        Object[] row = new Object[columns.size()];
+        for(int j = 0; j < row.length; j++){
+            String header = columns.get(j).property;
 
-                if(value == null){
-                    value = "";
-                }
-                report[i + 1][j] = value;
+            Object value = getAnnotationValue(annotation.get(header), annotation, header);
+
+            if(value == null){
+                value = "";
             }
+            row[j] = value;
         }
-        headerPropertyToTitle(columns, report);
-        return report;
+        return row;
     }
 
     /**
@@ -207,6 +220,16 @@ public class ReportFormatService {
         return columns.stream().map(reportColumn -> reportColumn.property).toArray();
     }
 
+    /**
+     * Get report column titles from a list of ReportColumn
+     *
+     * @param  columns list of ReportColumn
+     * @return ReportColumn titles
+     */
+    public static Object[] getColumnTitles(List<ReportColumn> columns){
+        return columns.stream().map(reportColumn -> reportColumn.title).toArray();
+    }
+
     /**
      * Convert data headers (actually property values of columns list)
      * to columns titles.
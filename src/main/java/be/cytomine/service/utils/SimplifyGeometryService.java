@@ -36,6 +36,15 @@ public class SimplifyGeometryService {
     @Value("${application.annotation.maxNumberOfPoint}")
     Double maxNumberOfPoint;
 
+    /* Max number of simplifications to find a rate (prevent infinite loop) */
+    static final int MAX_SIMPLIFICATIONS = 40;
+
+    /* First rate tried for a geometry without length (points) */
+    static final double MIN_RATE = 0.25d;
+
+    /* The search stops when the rate is known within this fraction */
+    static final double RATE_PRECISION = 0.01d;
+
     public SimplifiedAnnotation simplifyPolygon(String form, Long minPoint, Long maxPoint) {
         try {
             return simplifyPolygon(new WKTReader().read(form), minPoint, maxPoint);
@@ -77,9 +86,7 @@ public class SimplifyGeometryService {
         numOfGeometry = Math.min(10, numOfGeometry);
 
         double ratioMax = 1.3d;
-        double ratioMin = 1.7d;
         Double maxNumberOfPoint = this.maxNumberOfPoint;
-        Double minNumberOfPoint = 100.0d;
 
         double numberOfPoint = geometry.getNumPoints();
 
@@ -91,41 +98,16 @@ public class SimplifyGeometryService {
             rateLimitMax = Math.max(numberOfPoint / ratioMax, numOfGeometry * maxNumberOfPoint);
         }
 
-        /* Minimum number of point that we would have (500/10 (min 10 max 100)=min 50 points)*/
-        double rateLimitMin;
-        if (minPoint!=null) {
-            rateLimitMin = minPoint * numOfGeometry;
-        } else {
-            rateLimitMin = Math.min(Math.max(numberOfPoint / ratioMin, 10), numOfGeometry * minNumberOfPoint);
+        if (numberOfPoint <= rateLimitMax) {
+            return new SimplifiedAnnotation((Geometry)geometry.clone(), 0.0d);
         }
 
-        /* Increase value for the increment (allow to converge faster) */
-        double incrThreshold = 0.25d;
-        double i = 0;
-        double rate = 0;
-
-        /* Max number of loop (prevent infinite loop) */
-        int maxLoop = 1000;
-
-        Geometry newGeometry = (Geometry)geometry.clone();
-        Boolean isPolygonAndNotValid = (geometry instanceof Polygon && !((Polygon) geometry).isValid());
-        Boolean isMultiPolygon = (geometry instanceof MultiPolygon);
-        while (numberOfPoint > rateLimitMax && maxLoop > 0) {
-            rate = i;
-            if (isPolygonAndNotValid || isMultiPolygon) {
-                newGeometry = TopologyPreservingSimplifier.simplify(geometry, rate);
-            } else {
-                newGeometry = DouglasPeuckerSimplifier.simplify(geometry, rate);
-            }
-
-            if (newGeometry.getNumPoints() < rateLimitMin)
-                break;
+        /* Minimum number of point that we would have: the search stops as soon as a rate gives between rateLimitMin
+           and rateLimitMax points. Without minPoint, it looks for the lowest rate giving at most rateLimitMax points */
+        double rateLimitMin = (minPoint != null ? Math.min(minPoint * numOfGeometry, rateLimitMax) : 0);
 
-            i = i + ((incrThreshold));
-            numberOfPoint = newGeometry.getNumPoints();
-            maxLoop--;
-        }
-        return new SimplifiedAnnotation(newGeometry, rate);
+        boolean preserveTopology = (geometry instanceof Polygon && !geometry.isValid()) || geometry instanceof MultiPolygon;
+        return searchRate(geometry, preserveTopology, rateLimitMin, rateLimitMax);
     }
 
 
@@ -155,17 +137,48 @@ public class SimplifyGeometryService {
             return reduceGeometryPrecision(geometry);
         }
 
-        double index = 2d;
-        int max = 1000;
-        while (index < max) {
-            geometry = TopologyPreservingSimplifier.simplify(geometry, index);
-            if (geometry.getNumPoints() < 150) {
-                break;
+        geometry = searchRate(geometry, true, 0, 149).getNewAnnotation();
+        return reduceGeometryPrecision(geometry);
+    }
+
+    /**
+     * Search a rate giving between minPoint and maxPoint points (the number of points decreases when the rate increases).
+     * The search only depends on the geometry: it starts from the mean length of its segments, doubles the rate until
+     * the geometry has few enough points, then bisects. It stops at the first rate giving at least minPoint points
+     * (if minPoint > 0), otherwise when the lowest rate giving at most maxPoint points is known within RATE_PRECISION,
+     * so that the simplification keeps as much detail as possible. If no rate is found within MAX_SIMPLIFICATIONS,
+     * the last simplification is returned.
+     */
+    SimplifiedAnnotation searchRate(Geometry geometry, boolean preserveTopology, double minPoint, double maxPoint) {
+        if (geometry.getNumPoints() <= maxPoint) {
+            return new SimplifiedAnnotation(geometry, 0.0d);
+        }
+        double low = 0;
+        double high = -1;
+        Geometry lowGeometry = geometry;
+        Geometry highGeometry = null;
+        double rate = Math.max(geometry.getLength() / geometry.getNumPoints(), MIN_RATE);
+        for (int i = 0; i < MAX_SIMPLIFICATIONS && (highGeometry == null || high - low > high * RATE_PRECISION); i++) {
+            Geometry newGeometry = simplify(geometry, rate, preserveTopology);
+            if (newGeometry.getNumPoints() > maxPoint) {
+                low = rate;
+                lowGeometry = newGeometry;
+            } else {
+                high = rate;
+                highGeometry = newGeometry;
+                if (minPoint > 0 && newGeometry.getNumPoints() >= minPoint) {
+                    break;
+                }
             }
-            index = (index + 5) * 1.1;
+            rate = (highGeometry == null ? rate * 2 : (low + high) / 2);
         }
+        return (highGeometry != null ? new SimplifiedAnnotation(highGeometry, high) : new SimplifiedAnnotation(lowGeometry, low));
+    }
 
-        return reduceGeometryPrecision(geometry);
+    private Geometry simplify(Geometry geometry, double rate, boolean preserveTopology) {
+        return preserveTopology ?
+                TopologyPreservingSimplifier.simplify(geometry, rate) :
+                DouglasPeuckerSimplifier.simplify(geometry, rate);
     }
 
     public Geometry reduceGeometryPrecision(Geometry geometry) {
@@ -0,0 +1,125 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Number of annotations of a slice, by user and by cell of a gridSize x gridSize grid over the image.
+ * An annotation is in the cell containing the center of its bounding box.
+ * User annotations and algo annotations are counted by user, reviewed annotations apart (user null).
+ *
+ * If the image size is unknown, the grid has a single cell: only the number of annotations is known.
+ */
+public class SliceAnnotationDensity {
+
+    private final Long image;
+
+    private final Integer width;
+
+    private final Integer height;
+
+    private final int gridSize;
+
+    private final Map<Long, int[]> userCells = new HashMap<>();
+
+    private final int[] reviewedCells;
+
+    public SliceAnnotationDensity(Long image, Integer width, Integer height, int gridSize) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.gridSize = (hasSize() ? gridSize : 1);
+        this.reviewedCells = new int[this.gridSize * this.gridSize];
+    }
+
+    public Long getImage() {
+        return image;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    public boolean hasSize() {
+        return width != null && height != null && width > 0 && height > 0;
+    }
+
+    /**
+     * Add annotations in a cell (index = row * gridSize + column), user null for reviewed annotations
+     */
+    public void add(Long user, int cell, int count) {
+        int[] cells = (user == null ? reviewedCells : userCells.computeIfAbsent(user, x -> new int[gridSize * gridSize]));
+        cells[cell] += count;
+    }
+
+    /**
+     * Number of annotations of the user (reviewed annotations if user is null)
+     */
+    public long count(Long user) {
+        long count = 0;
+        for (int value : cells(user)) {
+            count += value;
+        }
+        return count;
+    }
+
+    /**
+     * Estimated number of annotations of the user (reviewed annotations if user is null) in the area.
+     * Annotations are considered evenly spread inside a cell.
+     */
+    public double estimate(Long user, Envelope area) {
+        if (!hasSize()) {
+            return count(user);
+        }
+        int[] cells = cells(user);
+        double cellWidth = (double) width / gridSize;
+        double cellHeight = (double) height / gridSize;
+        int minColumn = Math.max(0, (int) Math.floor(area.getMinX() / cellWidth));
+        int maxColumn = Math.min(gridSize - 1, (int) Math.floor(area.getMaxX() / cellWidth));
+        int minRow = Math.max(0, (int) Math.floor(area.getMinY() / cellHeight));
+        int maxRow = Math.min(gridSize - 1, (int) Math.floor(area.getMaxY() / cellHeight));
+
+        double estimate = 0;
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int count = cells[row * gridSize + column];
+                if (count == 0) {
+                    continue;
+                }
+                Envelope cell = new Envelope(column * cellWidth, (column + 1) * cellWidth, row * cellHeight, (row + 1) * cellHeight);
+                estimate += count * cell.intersection(area).getArea() / cell.getArea();
+            }
+        }
+        return estimate;
+    }
+
+    private int[] cells(Long user) {
+        return (user == null ? reviewedCells : userCells.getOrDefault(user, new int[0]));
+    }
+}
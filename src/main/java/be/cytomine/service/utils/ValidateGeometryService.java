@@ -15,18 +15,17 @@ package be.cytomine.service.utils;
 * See the License for the specific language governing permissions and
 * limitations under the License.
 */
-
 import be.cytomine.exceptions.WrongArgumentException;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
 import com.vividsolutions.jts.io.WKTReader;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
-import javax.persistence.Tuple;
 import java.util.List;
 
 @Service
@@ -48,59 +47,56 @@ public class ValidateGeometryService {
     }
 
 
+    /**
+     * Make the geometry valid (buffer(0), then PostGIS ST_MakeValid if still not valid).
+     * The geometry is exchanged with PostGIS as WKB, it is never written or read as text.
+     */
     public Geometry tryToMakeItValidIfNotValid(Geometry location) {
-        Geometry result = location;
-        try {
-            String backupLocation = location.toText();
-            Geometry geom = new WKTReader().read(location.toText());
-            Geometry validGeom;
-            String type = geom.getGeometryType().toUpperCase();
-
-            if (!geom.isValid()) {
-                log.info("Geometry is not valid");
-                //selfintersect,...
-                validGeom = geom.buffer(0);
-                result = validGeom;
-                geom = new WKTReader().read(result.toText());
-                type = geom.getGeometryType().toUpperCase();
-
-                if (!geom.isValid() || geom.isEmpty()) {
-                    //if not valid after buffer(0) or empty after buffer 0
-                    //user_image already filter nested image
-                    log.info("Geometry is not valid, even after a buffer(0)!");
-                    String request = "SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))";
-                    log.info(request);
-                    Query nativeQuery = entityManager.createNativeQuery("SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))", Tuple.class);
-                    List<Tuple> resultList = nativeQuery.getResultList();
-                    for (Tuple tuple : resultList) {
-                        String text = (String)tuple.get(0);
-                        geom = new WKTReader().read(text);
-                        type = geom.getGeometryType().toUpperCase();
-                        if (type.equals("GEOMETRYCOLLECTION")) {
-                            geom = geom.getGeometryN(0);
-                            type = geom.getGeometryType().toUpperCase();
-                        }
-                        result = geom;
-                    }
+        Geometry geom = location;
+        if (!geom.isValid()) {
+            log.info("Geometry is not valid");
+            //selfintersect,...
+            geom = geom.buffer(0);
 
+            if (!geom.isValid() || geom.isEmpty()) {
+                //if not valid after buffer(0) or empty after buffer 0
+                //user_image already filter nested image
+                log.info("Geometry is not valid, even after a buffer(0)!");
+                try {
+                    geom = makeValid(location);
+                } catch (ParseException exception) {
+                    return geom;
                 }
             }
+        }
 
-            if (geom.isEmpty()) {
-                log.info("Geometry is empty");
-                //empty polygon,...
-                throw new WrongArgumentException(geom.toText() + " is an empty geometry!");
-            }
+        if (geom.isEmpty()) {
+            log.info("Geometry is empty");
+            //empty polygon,...
+            throw new WrongArgumentException(geom.toText() + " is an empty geometry!");
+        }
 
-            //for geometrycollection, we may take first collection element
-            if (type.equals("MULTILINESTRING") || type.equals("GEOMETRYCOLLECTION")) {
-                //geometry collection, take first elem
-                throw new WrongArgumentException(geom.getGeometryType() + " is not a valid geometry type!");
-            }
-        } catch (ParseException exception) {
+        //for geometrycollection, we may take first collection element
+        String type = geom.getGeometryType().toUpperCase();
+        if (type.equals("MULTILINESTRING") || type.equals("GEOMETRYCOLLECTION")) {
+            //geometry collection, take first elem
+            throw new WrongArgumentException(geom.getGeometryType() + " is not a valid geometry type!");
+        }
+        return geom;
+    }
 
+    private Geometry makeValid(Geometry location) throws ParseException {
+        List<byte[]> results = entityManager.createNativeQuery("SELECT ST_AsBinary(ST_MakeValid(ST_GeomFromWKB(:location)))")
+                .setParameter("location", new WKBWriter().write(location))
+                .getResultList();
+        Geometry geom = location;
+        for (byte[] result : results) {
+            geom = new WKBReader().read(result);
+            if (geom.getGeometryType().toUpperCase().equals("GEOMETRYCOLLECTION")) {
+                geom = geom.getGeometryN(0);
+            }
         }
-        return result;
+        return geom;
     }
 
 }
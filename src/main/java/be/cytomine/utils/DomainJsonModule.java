@@ -0,0 +1,73 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.CytomineSocialDomain;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Jackson serializers for the domains, so that a domain (or a list of domains) can be given as is to the JSON writer.
+ * A domain is written with the fields of its toJsonObject(), converted when the generator reaches it:
+ * a list response only converts the items of the requested page, and each map can be collected as soon as it is written.
+ */
+public class DomainJsonModule extends SimpleModule {
+
+    public DomainJsonModule() {
+        super("DomainJsonModule");
+        addSerializer(CytomineDomain.class, new CytomineDomainSerializer());
+        addSerializer(CytomineSocialDomain.class, new CytomineSocialDomainSerializer());
+    }
+
+    private static void writeFields(Map<String, Object> fields, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            provider.defaultSerializeField(field.getKey(), field.getValue(), generator);
+        }
+        generator.writeEndObject();
+    }
+
+    public static class CytomineDomainSerializer extends StdSerializer<CytomineDomain> {
+
+        public CytomineDomainSerializer() {
+            super(CytomineDomain.class);
+        }
+
+        @Override
+        public void serialize(CytomineDomain domain, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writeFields(domain.toJsonObject(), generator, provider);
+        }
+    }
+
+    public static class CytomineSocialDomainSerializer extends StdSerializer<CytomineSocialDomain> {
+
+        public CytomineSocialDomainSerializer() {
+            super(CytomineSocialDomain.class);
+        }
+
+        @Override
+        public void serialize(CytomineSocialDomain domain, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            writeFields(domain.toJsonObject(), generator, provider);
+        }
+    }
+}
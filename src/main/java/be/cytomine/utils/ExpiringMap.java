@@ -0,0 +1,328 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrent map whose entries expire after a time to live, bounded to a maximum number of entries.
+ *
+ * An expired entry is never returned: it is checked on each read and removed there, the remaining ones are removed
+ * every minute by a single daemon thread shared by all the maps (a map that is no longer referenced is not kept alive
+ * by the cleaner). When the map is full, expired entries are removed first, then the entry that expires first.
+ * By default an entry lives timeToLive after its last write, with refreshOnRead after its last read or write.
+ * A time to live <= 0 disables the map: nothing is stored.
+ *
+ * size() and the iteration may include entries that expired since the last cleaning, get() and containsKey() do not.
+ */
+@Slf4j
+public class ExpiringMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    static final long CLEANING_DELAY_IN_SECONDS = 60;
+
+    private static final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "expiring-map-cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private final LongSupplier timeToLiveInMillis;
+
+    private final IntSupplier maxEntries;
+
+    private final boolean refreshOnRead;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private Counter evictions;
+
+    public ExpiringMap(Duration timeToLive) {
+        this(timeToLive, Integer.MAX_VALUE, false);
+    }
+
+    public ExpiringMap(Duration timeToLive, int maxEntries, boolean refreshOnRead) {
+        this(timeToLive::toMillis, () -> maxEntries, refreshOnRead);
+    }
+
+    /**
+     * @param timeToLiveInMillis read on each write (e.g. from the application properties)
+     * @param maxEntries read on each write of a new key
+     */
+    public ExpiringMap(LongSupplier timeToLiveInMillis, IntSupplier maxEntries, boolean refreshOnRead) {
+        this.timeToLiveInMillis = timeToLiveInMillis;
+        this.maxEntries = maxEntries;
+        this.refreshOnRead = refreshOnRead;
+        scheduleCleaning(this);
+    }
+
+    /**
+     * Publish the size of the map and counters of its reads (hit/miss) and of its evicted entries
+     * as cytomine.{name}.cache.size, cytomine.{name}.cache.requests and cytomine.{name}.cache.evictions
+     */
+    public ExpiringMap<K, V> withMetrics(MeterRegistry meterRegistry, String name) {
+        String prefix = "cytomine." + name + ".cache";
+        hits = meterRegistry.counter(prefix + ".requests", "result", "hit");
+        misses = meterRegistry.counter(prefix + ".requests", "result", "miss");
+        evictions = meterRegistry.counter(prefix + ".evictions");
+        meterRegistry.gaugeMapSize(prefix + ".size", List.of(), entries);
+        return this;
+    }
+
+    @Override
+    public V get(Object key) {
+        V value = getValue(key);
+        count(value != null ? hits : misses, 1);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getValue(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Objects.requireNonNull(value);
+        long timeToLive = timeToLiveInMillis.getAsLong();
+        if (timeToLive <= 0) {
+            entries.remove(key);
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (!entries.containsKey(key)) {
+            makeRoom(now);
+        }
+        Entry<V> previous = entries.put(key, new Entry<>(value, now + timeToLive));
+        return (previous != null && !previous.isExpired(now) ? previous.value : null);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(value);
+        long timeToLive = timeToLiveInMillis.getAsLong();
+        if (timeToLive <= 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (!entries.containsKey(key)) {
+            makeRoom(now);
+        }
+        List<V> previous = new ArrayList<>(1);
+        entries.compute(key, (k, entry) -> {
+            if (entry == null || entry.isExpired(now)) {
+                return new Entry<>(value, now + timeToLive);
+            }
+            previous.add(entry.value);
+            return entry;
+        });
+        return (previous.isEmpty() ? null : previous.get(0));
+    }
+
+    @Override
+    public V remove(Object key) {
+        Entry<V> previous = entries.remove(key);
+        return (previous != null && !previous.isExpired(System.currentTimeMillis()) ? previous.value : null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.isExpired(System.currentTimeMillis()) || !entry.value.equals(value)) {
+            return false;
+        }
+        return entries.remove(key, entry);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(newValue);
+        long now = System.currentTimeMillis();
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.isExpired(now) || !entry.value.equals(oldValue)) {
+            return false;
+        }
+        return entries.replace(key, entry, new Entry<>(newValue, now + timeToLiveInMillis.getAsLong()));
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        Objects.requireNonNull(value);
+        long now = System.currentTimeMillis();
+        List<V> previous = new ArrayList<>(1);
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.isExpired(now)) {
+                return null;
+            }
+            previous.add(entry.value);
+            return new Entry<>(value, now + timeToLiveInMillis.getAsLong());
+        });
+        return (previous.isEmpty() ? null : previous.get(0));
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                long now = System.currentTimeMillis();
+                Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().stream()
+                        .filter(entry -> !entry.getValue().isExpired(now))
+                        .iterator();
+                return new Iterator<>() {
+                    private K current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        Map.Entry<K, Entry<V>> next = iterator.next();
+                        current = next.getKey();
+                        return new SimpleImmutableEntry<>(next.getKey(), next.getValue().value);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        entries.remove(current);
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+
+            @Override
+            public void clear() {
+                entries.clear();
+            }
+        };
+    }
+
+    /**
+     * Remove the expired entries (also done every minute by the shared cleaner)
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        int size = entries.size();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+        count(evictions, Math.max(0, size - entries.size()));
+    }
+
+    private V getValue(Object key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry.isExpired(now)) {
+            entries.remove(key, entry);
+            count(evictions, 1);
+            return null;
+        }
+        if (refreshOnRead) {
+            entry.expiration = now + timeToLiveInMillis.getAsLong();
+        }
+        return entry.value;
+    }
+
+    private void makeRoom(long now) {
+        int max = maxEntries.getAsInt();
+        if (entries.size() < max) {
+            return;
+        }
+        evictExpired();
+        while (entries.size() >= max) {
+            Optional<Map.Entry<K, Entry<V>>> first = entries.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().expiration));
+            if (first.isEmpty()) {
+                return;
+            }
+            if (entries.remove(first.get().getKey(), first.get().getValue())) {
+                count(evictions, 1);
+            }
+        }
+    }
+
+    private static void count(Counter counter, double amount) {
+        if (counter != null && amount > 0) {
+            counter.increment(amount);
+        }
+    }
+
+    private static void scheduleCleaning(ExpiringMap<?, ?> map) {
+        WeakReference<ExpiringMap<?, ?>> reference = new WeakReference<>(map);
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        task.set(cleaner.scheduleWithFixedDelay(() -> {
+            ExpiringMap<?, ?> current = reference.get();
+            if (current == null) {
+                task.get().cancel(false);
+                return;
+            }
+            try {
+                current.evictExpired();
+            } catch (RuntimeException e) {
+                log.error("Cannot remove expired entries", e);
+            }
+        }, CLEANING_DELAY_IN_SECONDS, CLEANING_DELAY_IN_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private volatile long expiration;
+
+        private Entry(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        private boolean isExpired(long now) {
+            return expiration <= now;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.WrongArgumentException;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKTReader;
+
+import java.util.Base64;
+
+/**
+ * Format of the annotation locations exchanged with the clients (geometryFormat parameter), WKT by default.
+ *
+ * WKB is read and written without text parsing; in json, it is base64 encoded (hex encoded, as PostGIS, is also read).
+ * TWKB is only written by the listings: coordinates rounded to a number of decimal digits (geometryPrecision)
+ * and stored as variable-length deltas, a few bytes by point.
+ */
+public enum GeometryFormat {
+    WKT, WKB, TWKB;
+
+    public static final int MAX_TWKB_PRECISION = 7;
+
+    public static GeometryFormat fromParameter(String value) {
+        if (value == null || value.isEmpty()) {
+            return WKT;
+        }
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new WrongArgumentException("Geometry format " + value + " is not supported (wkt, wkb or twkb)");
+        }
+    }
+
+    /**
+     * Location of an annotation json, in the format of its geometryFormat field
+     */
+    public static Geometry readLocation(JsonObject json) throws ParseException {
+        return fromParameter(json.getJSONAttrStr("geometryFormat")).read(json.get("location"));
+    }
+
+    /**
+     * Geometry of a location: a JTS geometry is kept as is, a string is read in this format
+     */
+    public Geometry read(Object location) throws ParseException {
+        if (location instanceof Geometry) {
+            return (Geometry) location;
+        }
+        if (location == null) {
+            throw new ParseException("No location");
+        }
+        String value = location.toString();
+        switch (this) {
+            case WKB:
+                // a WKB starts with its byte order (00 or 01): "0" in hex, "A" in base64
+                byte[] bytes;
+                try {
+                    bytes = (value.startsWith("0") ? WKBReader.hexToBytes(value) : Base64.getDecoder().decode(value));
+                } catch (RuntimeException e) {
+                    throw new ParseException("Location is not an encoded WKB: " + e.getMessage());
+                }
+                return new WKBReader().read(bytes);
+            case TWKB:
+                throw new WrongArgumentException("TWKB is only available to list annotations");
+            default:
+                return new WKTReader().read(value);
+        }
+    }
+
+    /**
+     * SQL expression of the geometry column in this format, null for WKT (the text is stored with the geometry)
+     */
+    public String toSqlColumn(String column, int precision) {
+        switch (this) {
+            case WKB:
+                return "ST_AsBinary(" + column + ")";
+            case TWKB:
+                if (Math.abs(precision) > MAX_TWKB_PRECISION) {
+                    throw new WrongArgumentException("Geometry precision must be between -" + MAX_TWKB_PRECISION + " and " + MAX_TWKB_PRECISION);
+                }
+                return "ST_AsTWKB(" + column + ", " + precision + ")";
+            default:
+                return null;
+        }
+    }
+}
@@ -35,6 +35,10 @@ import static be.cytomine.utils.DateUtils.MONGO_DB_FORMAT;
 
 public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
+    // an ObjectMapper is thread-safe once configured, sharing it keeps its serializer caches between calls
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new DomainJsonModule());
+
     public JsonObject() {
 
     }
@@ -128,7 +132,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static String toJsonString(Object o) {
         try {
-            return new ObjectMapper().writeValueAsString(o);
+            return objectMapper.writeValueAsString(o);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return "invalid json string";
@@ -137,7 +141,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static Map<String, Object> toMap(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<Map<String, Object>>(){});
+            return objectMapper.readValue(json, new TypeReference<Map<String, Object>>(){});
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -146,7 +150,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static <T> T toObject(String json, Class<? extends T> c) {
         try {
-            return new ObjectMapper().readValue(json, c);
+            return objectMapper.readValue(json, c);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -155,7 +159,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<String> toStringList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<String>>(){});
+            return objectMapper.readValue(json, new TypeReference<List<String>>(){});
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -164,7 +168,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static List<Map<String, Object>> toMapList(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<List<Map<String, Object>>>(){});
+            return objectMapper.readValue(json, new TypeReference<List<Map<String, Object>>>(){});
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
@@ -174,7 +178,7 @@ public class JsonObject extends HashMap<String, Object> implements JsonInput {
 
     public static JsonObject toJsonObject(String json) {
         try {
-            return new ObjectMapper().readValue(json, new TypeReference<JsonObject>(){});
+            return objectMapper.readValue(json, new TypeReference<JsonObject>(){});
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             return null;
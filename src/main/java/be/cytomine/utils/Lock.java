@@ -30,7 +30,6 @@ import java.util.concurrent.locks.ReentrantLock;
 public class Lock {
 
     private Map<Long, ReentrantLock> projectLocks = new ConcurrentHashMap<>();
-    private Map<String, ReentrantLock> wsSessionsLock = new ConcurrentHashMap<>();
 
     private Map<Long, ReentrantLock> customUILocks = new ConcurrentHashMap<>();
     private static Lock lock = null;
@@ -81,23 +80,4 @@ public class Lock {
         log.debug("Unlock Custom UI  project " + project.getId());
         customUILocks.get(project.getId()).unlock();
     }
-
-
-    public boolean lockUsedWsSession(String userId) {
-        try {
-            log.debug("Try to lock web socket session " + userId);
-            wsSessionsLock.putIfAbsent(userId, new ReentrantLock());
-            log.debug("WebSocket session of user {} current lock {}", userId, wsSessionsLock.get(userId).isLocked());
-            boolean result = wsSessionsLock.get(userId).tryLock(60, TimeUnit.SECONDS);
-            log.debug("WebSocket session for user {} lock result {}", userId, result);
-            return result;
-        } catch (InterruptedException e) {
-            throw new ServerException("Cannot acquire lock on user " + userId, e);
-        }
-    }
-
-    public void unlockUserWsSession(String userId) {
-        log.debug("Unlock WebSocket session for user " + userId);
-        wsSessionsLock.get(userId).unlock();
-    }
 }
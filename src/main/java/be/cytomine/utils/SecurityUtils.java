@@ -18,6 +18,7 @@ package be.cytomine.utils;
 
 import be.cytomine.domain.security.SecUser;
 import be.cytomine.repository.security.SecUserRepository;
+import be.cytomine.security.PrincipalCache;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.security.current.FullCurrentUser;
 import be.cytomine.security.current.PartialCurrentUser;
@@ -77,6 +78,11 @@ public class SecurityUtils {
             FullCurrentUser fullCurrentUser = new FullCurrentUser();
             fullCurrentUser.setUser((SecUser)authentication.getDetails());
             return fullCurrentUser;
+        } else if (authentication.getDetails() instanceof PrincipalCache.Principal) {
+            // the entity is only loaded if the caller asks for it (see CurrentUserService)
+            PartialCurrentUser partialCurrentUser = new PartialCurrentUser();
+            partialCurrentUser.setUsername(((PrincipalCache.Principal) authentication.getDetails()).getUsername());
+            return partialCurrentUser;
         } else if (authentication.getPrincipal() instanceof String) {
             PartialCurrentUser partialCurrentUser = new PartialCurrentUser();
             partialCurrentUser.setUsername((String)authentication.getPrincipal());
@@ -0,0 +1,15 @@
+--changeset lrollus (generated):1636385276500-10
+CREATE OR REPLACE FUNCTION incrementAnnotationReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+            IF (current_setting('cytomine.bulk_insert', true) = 'true') THEN
+                RETURN NEW;
+END IF;
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    NEW.image_id, NEW.project_id, NEW.review_user_id, NEW.slice_id, 1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, 1);
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE INDEX IF NOT EXISTS reviewed_annotation_parent_ident_index ON reviewed_annotation(parent_ident);
+-------------------------------------------------------------------------------------
@@ -0,0 +1,41 @@
+--changeset lrollus (generated):1636385276500-7
+CREATE OR REPLACE FUNCTION beforeInsertUserAnnotation() RETURNS TRIGGER AS $incUserAnnBefore$
+            DECLARE
+currentImage  image_instance%ROWTYPE;
+            currentProject  project%ROWTYPE;
+            currentIndex  annotation_index%ROWTYPE;
+BEGIN
+                IF (current_setting('cytomine.bulk_insert', true) = 'true') THEN
+                    RETURN NEW;
+END IF;
+SELECT * INTO currentImage FROM image_instance where id = NEW.image_id FOR UPDATE;
+SELECT * INTO currentProject FROM project where id = NEW.project_id FOR UPDATE;
+SELECT * INTO currentIndex FROM annotation_index WHERE user_id = NEW.user_id AND slice_id = NEW.slice_id;
+RETURN NEW;
+END ;
+            $incUserAnnBefore$ LANGUAGE plpgsql;
+--------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertUserAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+        DECLARE
+alreadyExist INTEGER;
+BEGIN
+                IF (current_setting('cytomine.bulk_insert', true) = 'true') THEN
+                    RETURN NEW;
+END IF;
+UPDATE image_instance
+SET count_image_annotations = count_image_annotations + 1
+WHERE image_instance.id = NEW.image_id;
+
+UPDATE project
+SET count_annotations = count_annotations + 1
+WHERE project.id = NEW.project_id;
+
+SELECT count(*) INTO alreadyExist FROM annotation_index WHERE user_id = NEW.user_id AND slice_id = NEW.slice_id;
+IF (alreadyExist=0) THEN
+                    INSERT INTO annotation_index(user_id, slice_id, count_annotation, count_reviewed_annotation, version, id) VALUES(NEW.user_id,NEW.slice_id,0,0,0,nextval('hibernate_sequence'));
+END IF;
+UPDATE annotation_index SET count_annotation = count_annotation+1, version = version+1 WHERE user_id = NEW.user_id AND slice_id = NEW.slice_id;
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+--------------------------------------------------------------------------------------
@@ -0,0 +1,151 @@
+--changeset lrollus (generated):1636385276500-8
+CREATE TABLE IF NOT EXISTS annotation_counter_delta (
+    counter VARCHAR(64) NOT NULL,
+    target_id BIGINT NOT NULL,
+    slice_id BIGINT,
+    delta INTEGER NOT NULL
+);
+CREATE INDEX IF NOT EXISTS annotation_counter_delta_slice_idx ON annotation_counter_delta(slice_id);
+-------------------------------------------------------------------------------------
+DROP TRIGGER IF EXISTS beforeInsertUserAnnotationTrigger on user_annotation;
+DROP TRIGGER IF EXISTS beforeDeleteUserAnnotationTrigger on user_annotation;
+DROP TRIGGER IF EXISTS beforeInsertAlgoAnnotationTrigger on algo_annotation;
+DROP TRIGGER IF EXISTS beforeDeleteAlgoAnnotation on algo_annotation;
+DROP TRIGGER IF EXISTS beforeInsertReviewedAnnotationTrigger on reviewed_annotation;
+DROP TRIGGER IF EXISTS beforeDeleteReviewedAnnotationTrigger on reviewed_annotation;
+DROP FUNCTION IF EXISTS beforeInsertUserAnnotation();
+DROP FUNCTION IF EXISTS beforeDeleteUserAnnotation();
+DROP FUNCTION IF EXISTS beforeInsertAlgoAnnotation();
+DROP FUNCTION IF EXISTS beforeDeleteAlgoAnnotation();
+DROP FUNCTION IF EXISTS beforeInsertReviewedAnnotation();
+DROP FUNCTION IF EXISTS beforeDeleteReviewedAnnotation();
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION addAnnotationCounterDeltas(image_counter VARCHAR, project_counter VARCHAR, index_counter VARCHAR,
+        current_image_id BIGINT, current_project_id BIGINT, current_user_id BIGINT, current_slice_id BIGINT, current_delta INTEGER) RETURNS VOID AS $addCounterDeltas$
+BEGIN
+INSERT INTO annotation_counter_delta(counter, target_id, slice_id, delta) VALUES
+    (image_counter, current_image_id, NULL, current_delta),
+    (project_counter, current_project_id, NULL, current_delta),
+    (index_counter, current_user_id, current_slice_id, current_delta);
+END ;
+$addCounterDeltas$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertUserAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+BEGIN
+                IF (current_setting('cytomine.bulk_insert', true) = 'true') THEN
+                    RETURN NEW;
+END IF;
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_annotations', 'project.count_annotations', 'annotation_index.count_annotation',
+    NEW.image_id, NEW.project_id, NEW.user_id, NEW.slice_id, 1);
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterUpdateUserAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+BEGIN
+                IF(NEW.user_id<>OLD.user_id) THEN
+INSERT INTO annotation_counter_delta(counter, target_id, slice_id, delta) VALUES
+    ('annotation_index.count_annotation', NEW.user_id, NEW.slice_id, 1),
+    ('annotation_index.count_annotation', OLD.user_id, OLD.slice_id, -1);
+END IF;
+                IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_annotations', 'project.count_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, 1);
+ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_annotations', 'project.count_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteUserAnnotation() RETURNS TRIGGER AS $decUserAnnAfter$
+BEGIN
+                IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_annotations', 'project.count_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN OLD;
+END ;
+$decUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterInsertAlgoAnnotation() RETURNS TRIGGER AS $incAlgoAnnAfter$
+BEGIN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_job_annotations', 'project.count_job_annotations', 'annotation_index.count_annotation',
+    NEW.image_id, NEW.project_id, NEW.user_id, NEW.slice_id, 1);
+RETURN NEW;
+END ;
+$incAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterUpdateAlgoAnnotation() RETURNS TRIGGER AS $incUserAnnAfter$
+BEGIN
+                IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_job_annotations', 'project.count_job_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, 1);
+ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_job_annotations', 'project.count_job_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN NEW;
+END ;
+$incUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteAlgoAnnotation() RETURNS TRIGGER AS $decAlgoAnnAfter$
+BEGIN
+                IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_job_annotations', 'project.count_job_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN OLD;
+END ;
+$decAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION updateParentReviewedAnnotationCount(parent_class VARCHAR, parent_id BIGINT, current_delta INTEGER) RETURNS VOID AS $updParentRevAnn$
+BEGIN
+IF parent_class = 'be.cytomine.domain.ontology.UserAnnotation' THEN
+UPDATE user_annotation
+SET count_reviewed_annotations = count_reviewed_annotations + current_delta
+WHERE user_annotation.id = parent_id;
+ELSEIF parent_class = 'be.cytomine.domain.ontology.AlgoAnnotation' THEN
+UPDATE algo_annotation
+SET count_reviewed_annotations = count_reviewed_annotations + current_delta
+WHERE algo_annotation.id = parent_id;
+END IF;
+END ;
+$updParentRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION incrementAnnotationReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    NEW.image_id, NEW.project_id, NEW.review_user_id, NEW.slice_id, 1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, 1);
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION updateAnnotationReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+            IF NEW.deleted IS NULL AND OLD.deleted IS NOT NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    NEW.image_id, NEW.project_id, NEW.review_user_id, NEW.slice_id, 1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, 1);
+            ELSEIF NEW.deleted IS NOT NULL AND OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    NEW.image_id, NEW.project_id, NEW.review_user_id, NEW.slice_id, -1);
+PERFORM updateParentReviewedAnnotationCount(NEW.parent_class_name, NEW.parent_ident, -1);
+END IF;
+RETURN NEW;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+            IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    OLD.image_id, OLD.project_id, OLD.review_user_id, OLD.slice_id, -1);
+PERFORM updateParentReviewedAnnotationCount(OLD.parent_class_name, OLD.parent_ident, -1);
+END IF;
+RETURN OLD;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
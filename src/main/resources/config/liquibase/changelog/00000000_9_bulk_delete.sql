@@ -0,0 +1,41 @@
+--changeset lrollus (generated):1636385276500-9
+CREATE OR REPLACE FUNCTION afterDeleteUserAnnotation() RETURNS TRIGGER AS $decUserAnnAfter$
+BEGIN
+                IF (current_setting('cytomine.bulk_delete', true) = 'true') THEN
+                    RETURN OLD;
+END IF;
+                IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_annotations', 'project.count_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN OLD;
+END ;
+$decUserAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteAlgoAnnotation() RETURNS TRIGGER AS $decAlgoAnnAfter$
+BEGIN
+                IF (current_setting('cytomine.bulk_delete', true) = 'true') THEN
+                    RETURN OLD;
+END IF;
+                IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_job_annotations', 'project.count_job_annotations', 'annotation_index.count_annotation',
+    OLD.image_id, OLD.project_id, OLD.user_id, OLD.slice_id, -1);
+END IF;
+RETURN OLD;
+END ;
+$decAlgoAnnAfter$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
+CREATE OR REPLACE FUNCTION afterDeleteReviewedAnnotation() RETURNS trigger as $incAnnRevAnn$
+BEGIN
+            IF (current_setting('cytomine.bulk_delete', true) = 'true') THEN
+                RETURN OLD;
+END IF;
+            IF OLD.deleted IS NULL THEN
+PERFORM addAnnotationCounterDeltas('image_instance.count_image_reviewed_annotations', 'project.count_reviewed_annotations', 'annotation_index.count_reviewed_annotation',
+    OLD.image_id, OLD.project_id, OLD.review_user_id, OLD.slice_id, -1);
+PERFORM updateParentReviewedAnnotationCount(OLD.parent_class_name, OLD.parent_ident, -1);
+END IF;
+RETURN OLD;
+END ;
+$incAnnRevAnn$ LANGUAGE plpgsql;
+-------------------------------------------------------------------------------------
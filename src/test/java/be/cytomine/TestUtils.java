@@ -22,11 +22,11 @@ import be.cytomine.domain.ontology.Term;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.utils.StringUtils;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.springframework.test.web.servlet.MvcResult;
 
 import java.io.*;
@@ -72,7 +72,7 @@ public class TestUtils {
         ByteArrayInputStream inputStream = new ByteArrayInputStream(spreadsheetData);
         Workbook workbook = null;
 
-        workbook = new HSSFWorkbook(inputStream);
+        workbook = WorkbookFactory.create(inputStream);
 
         Sheet sheet = workbook.getSheetAt(0);
 
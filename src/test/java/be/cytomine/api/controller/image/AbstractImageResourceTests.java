@@ -696,6 +696,8 @@ public class AbstractImageResourceTests {
 
         MvcResult mvcResult = restAbstractImageControllerMockMvc.perform(get("/api/abstractimage/{id}/crop.png", image.getId())
                         .param("location", "POLYGON((1 1,50 10,50 50,10 50,1 1))"))
+                .andReturn();
+        mvcResult = restAbstractImageControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -727,6 +729,8 @@ public class AbstractImageResourceTests {
         );
 
         MvcResult mvcResult = restAbstractImageControllerMockMvc.perform(get("/api/abstractimage/{id}/window-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restAbstractImageControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -764,6 +768,8 @@ public class AbstractImageResourceTests {
         );
 
         MvcResult mvcResult = restAbstractImageControllerMockMvc.perform(get("/api/abstractimage/{id}/camera-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restAbstractImageControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -58,6 +58,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -762,6 +763,8 @@ public class ImageInstanceResourceTests {
 
         MvcResult mvcResult = restImageInstanceControllerMockMvc.perform(get("/api/imageinstance/{id}/crop.png?maxSize=512", image.getId())
                         .param("location", "POLYGON((1 1,50 10,50 50,10 50,1 1))"))
+                .andReturn();
+        mvcResult = restImageInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -789,6 +792,8 @@ public class ImageInstanceResourceTests {
         );
 
         MvcResult mvcResult = restImageInstanceControllerMockMvc.perform(get("/api/imageinstance/{id}/window-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restImageInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -824,6 +829,8 @@ public class ImageInstanceResourceTests {
         );
 
         MvcResult mvcResult = restImageInstanceControllerMockMvc.perform(get("/api/imageinstance/{id}/camera-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restImageInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -54,6 +54,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -283,6 +284,8 @@ public class SliceInstanceResourceTests {
 
         MvcResult mvcResult = restSliceInstanceControllerMockMvc.perform(get("/api/sliceinstance/{id}/crop.png", image.getId())
                         .param("location", "POLYGON((1 1,50 10,50 50,10 50,1 1))"))
+                .andReturn();
+        mvcResult = restSliceInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -310,6 +313,8 @@ public class SliceInstanceResourceTests {
 
 
         MvcResult mvcResult = restSliceInstanceControllerMockMvc.perform(get("/api/sliceinstance/{id}/window-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restSliceInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -344,6 +349,8 @@ public class SliceInstanceResourceTests {
         );
 
         MvcResult mvcResult = restSliceInstanceControllerMockMvc.perform(get("/api/sliceinstance/{id}/camera-10-20-30-40.png", image.getId()))
+                .andReturn();
+        mvcResult = restSliceInstanceControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
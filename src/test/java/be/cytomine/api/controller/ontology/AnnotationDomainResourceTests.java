@@ -555,6 +555,88 @@ public class AnnotationDomainResourceTests {
 
 
 
+    @Test
+    @Transactional
+    public void search_annotation_without_result() throws Exception {
+        ImageInstance emptyImage = builder.given_an_image_instance(project);
+
+        MvcResult result = restAnnotationDomainControllerMockMvc.perform(get("/api/annotation/search.json")
+                        .param("image", emptyImage.getId().toString())
+                        .param("max", "10")
+                        .param("offset", "0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.collection").isEmpty())
+                .andExpect(jsonPath("$.size").value(0))
+                .andExpect(jsonPath("$.offset").value(0))
+                .andExpect(jsonPath("$.perPage").value(0))
+                .andExpect(jsonPath("$.totalPages").value(0))
+                .andReturn();
+
+        assertThat(JsonObject.toMap(result.getResponse().getContentAsString()).get("nextCursor")).isNull();
+    }
+
+    @Test
+    @Transactional
+    public void search_annotation_pages_match_the_former_response() throws Exception {
+        List<Object> all = (List<Object>) JsonObject.toMap(restAnnotationDomainControllerMockMvc.perform(get("/api/annotation/search.json")
+                        .param("image", this.image.getId().toString()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString()).get("collection");
+        assertThat(all).hasSize(6);
+
+        for (int max : List.of(0, 2, 4, 10)) {
+            for (int offset : List.of(0, 1, 4, 6, 8)) {
+                Map<String, Object> response = JsonObject.toMap(restAnnotationDomainControllerMockMvc.perform(get("/api/annotation/search.json")
+                                .param("image", this.image.getId().toString())
+                                .param("max", String.valueOf(max))
+                                .param("offset", String.valueOf(offset)))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getContentAsString());
+
+                // response built by RestCytomineController.responseSuccess(list, offset, max) before streaming
+                int realMax = (max != 0 ? max : Integer.MAX_VALUE);
+                List<Object> expectedCollection = (offset >= all.size() ? List.of() : all.subList(offset, offset + Math.min(all.size() - offset, realMax)));
+                assertThat(response.get("collection")).isEqualTo(expectedCollection);
+                assertThat(((Number) response.get("offset")).intValue()).isEqualTo(offset);
+                assertThat(((Number) response.get("perPage")).intValue()).isEqualTo(Math.min(realMax, all.size()));
+                assertThat(((Number) response.get("size")).intValue()).isEqualTo(all.size());
+                assertThat(((Number) response.get("totalPages")).intValue()).isEqualTo((int) Math.ceil((double) all.size() / (double) realMax));
+                assertThat(response.keySet()).containsExactlyInAnyOrder("collection", "offset", "perPage", "size", "totalPages", "nextCursor");
+            }
+        }
+    }
+
+    @Test
+    @Transactional
+    public void list_user_annotation_with_cursor() throws Exception {
+        Project project = builder.given_a_project();
+
+        UserAnnotation a1 = builder.given_a_user_annotation(project);
+        UserAnnotation a2 = builder.given_a_user_annotation(project);
+        UserAnnotation a3 = builder.given_a_user_annotation(project);
+
+        restAnnotationDomainControllerMockMvc.perform(get("/api/annotation/search.json")
+                        .param("project", project.getId().toString())
+                        .param("max", "2"))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(3))
+                .andExpect(jsonPath("$.collection[*].id").value(Matchers.contains(a3.getId().intValue(), a2.getId().intValue())))
+                .andExpect(jsonPath("$.nextCursor").value(a2.getId().intValue()))
+                .andReturn();
+
+        restAnnotationDomainControllerMockMvc.perform(get("/api/annotation/search.json")
+                        .param("project", project.getId().toString())
+                        .param("max", "2")
+                        .param("cursor", a2.getId().toString()))
+                .andDo(print())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.size").value(3))
+                .andExpect(jsonPath("$.collection[*].id").value(Matchers.contains(a1.getId().intValue())))
+                .andExpect(jsonPath("$.nextCursor").isEmpty())
+                .andReturn();
+    }
+
     @Disabled("Disabled until Software package is up!")
     @Test
     void list_user_annotation_with_suggested_term() {
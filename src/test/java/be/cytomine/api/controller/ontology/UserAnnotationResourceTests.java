@@ -483,6 +483,8 @@ public class UserAnnotationResourceTests {
         );
 
         MvcResult mvcResult = restUserAnnotationControllerMockMvc.perform(get("/api/userannotation/{id}/crop.png?maxSize=512", annotation.getId()))
+                .andReturn();
+        mvcResult = restUserAnnotationControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -512,6 +514,8 @@ public class UserAnnotationResourceTests {
         );
 
         MvcResult mvcResult = restUserAnnotationControllerMockMvc.perform(get("/api/userannotation/{id}/mask.png?maxSize=512", annotation.getId()))
+                .andReturn();
+        mvcResult = restUserAnnotationControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
@@ -542,6 +546,8 @@ public class UserAnnotationResourceTests {
         );
 
         MvcResult mvcResult = restUserAnnotationControllerMockMvc.perform(get("/api/userannotation/{id}/alphamask.png", annotation.getId()))
+                .andReturn();
+        mvcResult = restUserAnnotationControllerMockMvc.perform(asyncDispatch(mvcResult))
                 .andDo(print())
                 .andExpect(status().isOk())
                 .andReturn();
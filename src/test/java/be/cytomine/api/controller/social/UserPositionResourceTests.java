@@ -257,9 +257,9 @@ public class UserPositionResourceTests {
         Long currentUserId = currentUserService.getCurrentUser().getId();
         String currentUserAndImageId = currentUserId.toString()+"/"+imageId.toString();
 
-        WebSocketUserPositionHandler.sessionsBroadcast.put(currentUserAndImageId, sessionDecoratorA);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecoratorA, new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorB});
-        WebSocketUserPositionHandler.sessions.put(userA.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorA});
+        WebSocketUserPositionHandler.registry.register(userA.getId().toString(), sessionDecoratorA);
+        WebSocketUserPositionHandler.registry.registerBroadcast(currentUserAndImageId, sessionDecoratorA);
+        WebSocketUserPositionHandler.registry.follow(currentUserAndImageId, sessionDecoratorB);
         UserPositionService.broadcasters.put(currentUserAndImageId, new ArrayList<>(Collections.singleton(userB)));
 
         restUserPositionControllerMockMvc.perform(get("/api/imageinstance/{image}/followers/{user}.json", imageId, currentUserId))
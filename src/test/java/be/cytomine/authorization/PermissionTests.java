@@ -21,11 +21,13 @@ import be.cytomine.CytomineCoreApplication;
 import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.ontology.Ontology;
 import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.repository.security.AclRepository;
 import be.cytomine.service.PermissionService;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.service.security.SecurityACLService;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -52,6 +54,9 @@ public class PermissionTests {
     @Autowired
     AclRepository aclRepository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Test
     public void create_permission() {
         Ontology ontology = builder.given_an_ontology();
@@ -106,6 +111,32 @@ public class PermissionTests {
         assertThat(acEntry).isNotNull();
     }
 
+    @Test
+    public void acl_masks_are_loaded_once_per_user_and_invalidated_on_write() {
+        User user = builder.given_a_user();
+        Ontology ontology = builder.given_an_ontology();
+        Ontology otherOntology = builder.given_an_ontology();
+
+        // inserted without the service: the cache is not aware of this entry
+        Long aclSidId = permissionService.getAclSid(user.getUsername());
+        Long aclObjectIdentity = permissionService.getAclObjectIdentity(ontology, permissionService.getAclClassId(ontology), aclSidId);
+        aclRepository.insertAclEntry(0, aclObjectIdentity, BasePermission.READ.getMask(), aclSidId);
+
+        double hits = meterRegistry.counter("cytomine.acl.cache.requests", "result", "hit").count();
+        double misses = meterRegistry.counter("cytomine.acl.cache.requests", "result", "miss").count();
+        assertThat(permissionService.hasACLPermission(ontology, user.getUsername(), BasePermission.READ)).isTrue();
+        assertThat(permissionService.hasACLPermission(ontology, user.getUsername(), BasePermission.WRITE)).isFalse();
+        assertThat(permissionService.hasACLPermission(otherOntology, user.getUsername(), BasePermission.READ)).isFalse();
+        assertThat(meterRegistry.counter("cytomine.acl.cache.requests", "result", "miss").count()).isEqualTo(misses + 1);
+        assertThat(meterRegistry.counter("cytomine.acl.cache.requests", "result", "hit").count()).isEqualTo(hits + 2);
+
+        permissionService.addPermission(otherOntology, user.getUsername(), BasePermission.READ);
+        assertThat(permissionService.hasACLPermission(otherOntology, user.getUsername(), BasePermission.READ)).isTrue();
+
+        permissionService.deletePermission(ontology, user.getUsername(), BasePermission.READ);
+        assertThat(permissionService.hasACLPermission(ontology, user.getUsername(), BasePermission.READ)).isFalse();
+    }
+
 //    public void deletePermission(CytomineDomain domain, String username, Permission permission) {
 //        log.info("Delete permission for {}, {}, {}", username, permission.getMask(), domain.getId());
 //        Long aclObjectIdentity = aclRepository.getAclObjectIdentityFromDomainId(domain.getId());
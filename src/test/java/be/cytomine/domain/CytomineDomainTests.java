@@ -18,9 +18,11 @@ package be.cytomine.domain;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.ontology.Ontology;
 import be.cytomine.domain.ontology.RelationTerm;
 import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.domain.project.Project;
 import be.cytomine.exceptions.AlreadyExistException;
 import be.cytomine.exceptions.WrongArgumentException;
@@ -30,6 +32,9 @@ import be.cytomine.service.CommandService;
 import be.cytomine.service.command.TransactionService;
 import be.cytomine.service.ontology.TermService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonObject;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,8 +44,11 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import javax.transaction.Transactional;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -88,4 +96,27 @@ public class CytomineDomainTests {
 
         assertThat(ontology.getUpdated()).isBetween(beforeUpdate, afterUpdate, true, true);
     }
+
+    @Test
+    void domain_list_written_by_json_writer_matches_json_object_list() throws JsonProcessingException {
+        Project project = builder.given_a_project();
+        List<ImageInstance> images = new ArrayList<>();
+        List<UserAnnotation> annotations = new ArrayList<>();
+        List<Project> projects = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ImageInstance image = builder.given_an_image_instance(project);
+            images.add(image);
+            annotations.add(builder.given_a_user_annotation(builder.given_a_slice_instance(image, 0, 0, 0)));
+            projects.add(builder.given_a_project());
+        }
+
+        for (List<? extends CytomineDomain> domains : List.of(images, annotations, projects)) {
+            // previous implementation: convert each domain to a JsonObject, then serialize the list with a new mapper
+            String jsonObjects = new ObjectMapper().writeValueAsString(JsonObject.of("collection",
+                    domains.stream().map(CytomineDomain::toJsonObject).collect(Collectors.toList())));
+            String written = JsonObject.of("collection", domains).toJsonString();
+
+            assertThat(JsonObject.toMap(written)).isEqualTo(JsonObject.toMap(jsonObjects));
+        }
+    }
 }
@@ -23,6 +23,7 @@ import be.cytomine.exceptions.ForbiddenException;
 import be.cytomine.repository.security.SecUserRepository;
 import be.cytomine.security.jwt.TokenProvider;
 import be.cytomine.security.jwt.TokenType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -61,9 +62,9 @@ class JWTFilterTest {
 
         SecUser secUser = new SecUser();
         secUser.setUsername("test-user");
-        Mockito.when(secUserRepository.findByUsernameLikeIgnoreCase(eq("test-user"))).thenReturn(Optional.of(secUser));
+        Mockito.when(secUserRepository.findWithRolesByUsernameLikeIgnoreCase(eq("test-user"))).thenReturn(Optional.of(secUser));
 
-        tokenProvider = new TokenProvider(applicationProperties, secUserRepository);
+        tokenProvider = new TokenProvider(applicationProperties, new PrincipalCache(secUserRepository, applicationProperties, new SimpleMeterRegistry()));
 //        ReflectionTestUtils.setField(tokenProvider, "key", Keys.hmacShaKeyFor(Decoders.BASE64.decode(base64Secret)));
 //        ReflectionTestUtils.setField(tokenProvider, "tokenValidityInMilliseconds", 6000000);
 //        ReflectionTestUtils.setField(tokenProvider, "tokenValidityInMillisecondsForRememberMe", 6000000);
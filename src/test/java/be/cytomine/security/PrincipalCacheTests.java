@@ -0,0 +1,159 @@
+package be.cytomine.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.security.SecRole;
+import be.cytomine.domain.security.SecUser;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.security.SecRoleRepository;
+import be.cytomine.service.security.SecUserSecRoleService;
+import be.cytomine.service.security.SecUserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class PrincipalCacheTests {
+
+    @Autowired
+    PrincipalCache principalCache;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    SecUserService secUserService;
+
+    @Autowired
+    SecUserSecRoleService secUserSecRoleService;
+
+    @Autowired
+    SecRoleRepository secRoleRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @BeforeEach
+    public void enableCache() {
+        applicationProperties.getPrincipalCache().setTimeToLiveInSeconds(30L);
+        principalCache.invalidateAll();
+    }
+
+    @AfterEach
+    public void disableCache() {
+        applicationProperties.getPrincipalCache().setTimeToLiveInSeconds(0L);
+        principalCache.invalidateAll();
+    }
+
+    @Test
+    void principal_is_read_once_per_token() {
+        User user = builder.given_a_user();
+        double hits = meterRegistry.counter("cytomine.principal.cache.requests", "result", "hit").count();
+        double misses = meterRegistry.counter("cytomine.principal.cache.requests", "result", "miss").count();
+
+        SecUser first = principalCache.findByUsername(user.getUsername(), "token1").get();
+        assertThat(principalCache.findByUsername(user.getUsername().toUpperCase(), "token1").get()).isSameAs(first);
+        principalCache.findByUsername(user.getUsername(), "token2");
+
+        assertThat(meterRegistry.counter("cytomine.principal.cache.requests", "result", "hit").count()).isEqualTo(hits + 1);
+        assertThat(meterRegistry.counter("cytomine.principal.cache.requests", "result", "miss").count()).isEqualTo(misses + 2);
+    }
+
+    @Test
+    void cached_principal_is_loaded_in_the_current_persistence_context() {
+        User user = builder.given_a_user();
+        principalCache.findByUsername(user.getUsername(), "token");
+        entityManager.flush();
+        entityManager.clear();
+
+        SecUser cached = principalCache.findByUsername(user.getUsername(), "token").get();
+
+        assertThat(entityManager.contains(cached)).isTrue();
+        assertThat(cached.getId()).isEqualTo(user.getId());
+    }
+
+    @Test
+    void cached_principal_is_a_snapshot_that_does_not_read_the_database() {
+        User user = builder.given_a_user();
+        PrincipalCache.Principal first = principalCache.findPrincipal(user.getUsername(), "token").get();
+        entityManager.flush();
+        entityManager.clear();
+
+        PrincipalCache.Principal cached = principalCache.findPrincipal(user.getUsername(), "token").get();
+
+        assertThat(cached).isSameAs(first);
+        assertThat(cached.getId()).isEqualTo(user.getId());
+        assertThat(cached.getAuthorities()).containsExactlyInAnyOrderElementsOf(
+                user.getRoles().stream().map(SecRole::getAuthority).toList());
+        assertThat(cached.isEnabled()).isTrue();
+        assertThat(entityManager.contains(user)).isFalse();
+    }
+
+    @Test
+    void unknown_user_is_not_cached() {
+        assertThat(principalCache.findByUsername("unknown_user_for_principal_cache", "token")).isEmpty();
+        builder.given_a_user("unknown_user_for_principal_cache");
+        assertThat(principalCache.findByUsername("unknown_user_for_principal_cache", "token")).isPresent();
+    }
+
+    @Test
+    void lock_user_invalidates_principal() {
+        User user = builder.given_a_user();
+        SecUser cached = principalCache.findByUsername(user.getUsername(), "token").get();
+        assertThat(cached.getEnabled()).isTrue();
+
+        secUserService.lock(user);
+
+        assertThat(principalCache.findByUsername(user.getUsername(), "token").get().getEnabled()).isFalse();
+        assertThat(principalCache.findPrincipal(user.getUsername(), "token").get().isEnabled()).isFalse();
+    }
+
+    @Test
+    void role_change_invalidates_principal() {
+        User user = builder.given_a_guest();
+        principalCache.findByUsername(user.getUsername(), "token");
+        double misses = meterRegistry.counter("cytomine.principal.cache.requests", "result", "miss").count();
+
+        secUserSecRoleService.define(user, secRoleRepository.getUser());
+
+        PrincipalCache.Principal principal = principalCache.findPrincipal(user.getUsername(), "token").get();
+        assertThat(meterRegistry.counter("cytomine.principal.cache.requests", "result", "miss").count()).isEqualTo(misses + 1);
+        assertThat(principal.getAuthorities()).contains(secRoleRepository.getUser().getAuthority());
+    }
+}
@@ -0,0 +1,284 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.CascadeDeletionProperties;
+import be.cytomine.domain.command.DeleteCommand;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.AlgoAnnotation;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.repository.command.CommandRepository;
+import be.cytomine.repository.image.ImageInstanceRepository;
+import be.cytomine.repository.project.ProjectRepository;
+import be.cytomine.service.ontology.AnnotationCounterService;
+import be.cytomine.service.project.ProjectService;
+import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.MemberActivityService;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.Task;
+import org.apache.commons.lang3.time.DateUtils;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class CascadeDeletionServiceTests {
+
+    @Autowired
+    CascadeDeletionService cascadeDeletionService;
+
+    @Autowired
+    ProjectService projectService;
+
+    @Autowired
+    ProjectRepository projectRepository;
+
+    @Autowired
+    ImageInstanceRepository imageInstanceRepository;
+
+    @Autowired
+    CommandRepository commandRepository;
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    TaskService taskService;
+
+    @Autowired
+    ImageConsultationService imageConsultationService;
+
+    @Autowired
+    MemberActivityService memberActivityService;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @AfterEach
+    public void resetProperties() {
+        CascadeDeletionProperties defaults = new CascadeDeletionProperties();
+        applicationProperties.getCascadeDeletion().setBackgroundThreshold(defaults.getBackgroundThreshold());
+        applicationProperties.getCascadeDeletion().setChunkSize(defaults.getChunkSize());
+        applicationProperties.getCascadeDeletion().setImagesByChunk(defaults.getImagesByChunk());
+    }
+
+    @Test
+    void delete_project_deletes_its_images_and_their_dependencies() {
+        Project project = builder.given_a_project();
+        ImageInstance image = given_an_annotated_slice(project, 3).getImage();
+        ImageInstance otherImage = given_an_annotated_slice(project, 2).getImage();
+        ImageInstance imageOfAnotherProject = given_an_annotated_slice(builder.given_a_project(), 2).getImage();
+        applicationProperties.getCascadeDeletion().setChunkSize(2);
+
+        CommandResponse response = projectService.delete(project, null, null, true);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(entityManager.find(Project.class, project.getId())).isNull();
+        for (ImageInstance deleted : List.of(image, otherImage)) {
+            assertThat(entityManager.find(ImageInstance.class, deleted.getId())).isNull();
+            assertThat(countRows("slice_instance", deleted)).isEqualTo(0);
+            assertThat(countRows("user_annotation", deleted)).isEqualTo(0);
+        }
+        assertThat(entityManager.find(ImageInstance.class, imageOfAnotherProject.getId())).isNotNull();
+        assertThat(countRows("user_annotation", imageOfAnotherProject)).isEqualTo(2);
+    }
+
+    @Test
+    void delete_images_with_images_removes_the_images_of_the_project() {
+        Project project = builder.given_a_project();
+        ImageInstance image = given_an_annotated_slice(project, 2).getImage();
+
+        Map<String, Long> deleted = cascadeDeletionService.deleteImages(imageInstanceRepository.findAllIdsByProject(project.getId()), true, null);
+
+        assertThat(deleted.get("user_annotation")).isEqualTo(2);
+        assertThat(deleted.get("annotation_term")).isEqualTo(2);
+        assertThat(deleted.get("slice_instance")).isEqualTo(1);
+        assertThat(deleted.get("image_instance")).isEqualTo(1);
+        assertThat(entityManager.find(ImageInstance.class, image.getId())).isNull();
+        assertThat(entityManager.find(Project.class, project.getId())).isNotNull();
+    }
+
+    @Test
+    void project_counters_are_decremented_once_per_statement() {
+        Project project = builder.given_a_project();
+        SliceInstance slice = given_an_annotated_slice(project, 3);
+        ImageInstance image = slice.getImage();
+        AlgoAnnotation algoAnnotation = builder.given_a_not_persisted_algo_annotation(project);
+        algoAnnotation.setImage(image);
+        algoAnnotation.setSlice(slice);
+        builder.persistAndReturn(algoAnnotation);
+        UserAnnotation deletedAnnotation = builder.given_a_user_annotation(slice);
+        deletedAnnotation.setDeleted(new Date());
+        builder.persistAndReturn(deletedAnnotation);
+        ImageInstance otherImage = given_an_annotated_slice(project, 2).getImage();
+        annotationCounterService.flush();
+        entityManager.refresh(project);
+        assertThat(project.getCountAnnotations()).isEqualTo(5);
+        assertThat(project.getCountJobAnnotations()).isEqualTo(1);
+
+        cascadeDeletionService.deleteImages(List.of(image.getId()), true, null);
+
+        // the annotation triggers are bypassed: a single delta for the 4 user annotations (one of them already deleted)
+        assertThat(entityManager.createNativeQuery("SELECT delta FROM annotation_counter_delta " +
+                        "WHERE counter = :counter AND target_id = :project")
+                .setParameter("counter", AnnotationCounterService.PROJECT_ANNOTATIONS)
+                .setParameter("project", project.getId())
+                .getResultList()).hasSize(1);
+
+        annotationCounterService.flush();
+        entityManager.refresh(project);
+        assertThat(project.getCountAnnotations()).isEqualTo(2);
+        assertThat(project.getCountJobAnnotations()).isEqualTo(0);
+        assertThat(countRows("user_annotation", otherImage)).isEqualTo(2);
+    }
+
+    @Test
+    void interrupted_project_deletion_is_completed_by_deleting_the_project_again() {
+        Project project = builder.given_a_project();
+        ImageInstance image = given_an_annotated_slice(project, 3).getImage();
+        ImageInstance otherImage = given_an_annotated_slice(project, 2).getImage();
+        annotationCounterService.flush();
+
+        // the deletion stopped after the first image, before the project command
+        cascadeDeletionService.deleteImages(List.of(image.getId()), true, null);
+        assertThat(entityManager.find(Project.class, project.getId())).isNotNull();
+
+        CommandResponse response = projectService.delete(project, null, null, true);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(entityManager.find(Project.class, project.getId())).isNull();
+        assertThat(entityManager.find(ImageInstance.class, otherImage.getId())).isNull();
+        assertThat(countRows("user_annotation", otherImage)).isEqualTo(0);
+    }
+
+    @Test
+    void member_last_image_is_recomputed_when_its_consultations_are_deleted() {
+        Project project = builder.given_a_project();
+        ImageInstance image = given_an_annotated_slice(project, 1).getImage();
+        ImageInstance otherImage = given_an_annotated_slice(project, 1).getImage();
+        User userWithAnotherConsultation = builder.given_a_user();
+        User userWithoutAnotherConsultation = builder.given_a_user();
+        imageConsultationService.add(userWithAnotherConsultation, otherImage.getId(), "xxx", "mode", DateUtils.addDays(new Date(), -2));
+        imageConsultationService.add(userWithAnotherConsultation, image.getId(), "xxx", "mode", DateUtils.addDays(new Date(), -1));
+        imageConsultationService.add(userWithoutAnotherConsultation, image.getId(), "xxx", "mode", DateUtils.addDays(new Date(), -1));
+
+        cascadeDeletionService.deleteImages(List.of(image.getId()), true, null);
+
+        Map<Long, Document> activities = memberActivityService.findByUsers(project.getId(),
+                List.of(userWithAnotherConsultation.getId(), userWithoutAnotherConsultation.getId())).get();
+        assertThat(((Number) activities.get(userWithAnotherConsultation.getId()).get(MemberActivityService.LAST_IMAGE)).longValue())
+                .isEqualTo(otherImage.getId());
+        assertThat(activities.get(userWithAnotherConsultation.getId()).getDate(MemberActivityService.LAST_CONSULTATION))
+                .isCloseTo(DateUtils.addDays(new Date(), -2), 60_000);
+        assertThat(activities.get(userWithoutAnotherConsultation.getId()).containsKey(MemberActivityService.LAST_IMAGE)).isFalse();
+        assertThat(activities.get(userWithoutAnotherConsultation.getId()).containsKey(MemberActivityService.LAST_IMAGE_NAME)).isFalse();
+    }
+
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    void project_above_the_background_threshold_is_deleted_after_commit() throws InterruptedException {
+        applicationProperties.getCascadeDeletion().setBackgroundThreshold(2L);
+        applicationProperties.getCascadeDeletion().setImagesByChunk(1);
+        long deleteCommands = countProjectDeleteCommands();
+
+        Long projectId = transactionTemplate.execute(status -> {
+            Project project = builder.given_a_project();
+            given_an_annotated_slice(project, 2);
+            given_an_annotated_slice(project, 2);
+            annotationCounterService.flush();
+            entityManager.refresh(project);
+            return project.getId();
+        });
+
+        Long taskId = transactionTemplate.execute(status -> {
+            CommandResponse response = projectService.delete(projectRepository.findById(projectId).get(), null, null, true);
+            // nothing is deleted before the commit
+            assertThat(response.getStatus()).isEqualTo(200);
+            assertThat(imageInstanceRepository.findAllIdsByProject(projectId)).hasSize(2);
+            return ((JsonObject) response.getData().get("task")).getJSONAttrLong("id");
+        });
+
+        Task task = taskService.get(taskId);
+        for (int i = 0; i < 300 && task.getProgress() < 100; i++) {
+            Thread.sleep(100);
+            task = taskService.get(taskId);
+        }
+
+        assertThat(task.getProgress()).isEqualTo(100);
+        assertThat(taskService.getLastComments(task, 10)).anyMatch(comment -> comment.startsWith("50%:Delete images 2 to 2 of 2"));
+        assertThat(projectRepository.findById(projectId)).isEmpty();
+        assertThat(imageInstanceRepository.findAllIdsByProject(projectId)).isEmpty();
+        assertThat(countProjectDeleteCommands()).isEqualTo(deleteCommands + 1);
+    }
+
+    /**
+     * Slice of a new image of the project, with annotations that have a term
+     */
+    private SliceInstance given_an_annotated_slice(Project project, int annotations) {
+        ImageInstance image = builder.given_an_image_instance(project);
+        SliceInstance slice = builder.given_a_slice_instance(image, 0, 0, 0);
+        for (int i = 0; i < annotations; i++) {
+            builder.given_an_annotation_term(builder.given_a_user_annotation(slice));
+        }
+        return slice;
+    }
+
+    private long countRows(String table, ImageInstance image) {
+        return ((Number) entityManager.createNativeQuery("SELECT count(*) FROM " + table + " WHERE image_id = :image")
+                .setParameter("image", image.getId())
+                .getSingleResult()).longValue();
+    }
+
+    private long countProjectDeleteCommands() {
+        return commandRepository.findAll().stream()
+                .filter(command -> command instanceof DeleteCommand && "ProjectService".equals(command.getServiceName()))
+                .count();
+    }
+}
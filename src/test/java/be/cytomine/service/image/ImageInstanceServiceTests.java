@@ -27,6 +27,7 @@ import be.cytomine.domain.meta.Description;
 import be.cytomine.domain.meta.Property;
 import be.cytomine.domain.meta.TagDomainAssociation;
 import be.cytomine.domain.ontology.AlgoAnnotation;
+import be.cytomine.domain.ontology.AnnotationTerm;
 import be.cytomine.domain.ontology.AnnotationTrack;
 import be.cytomine.domain.ontology.ReviewedAnnotation;
 import be.cytomine.domain.ontology.UserAnnotation;
@@ -782,6 +783,27 @@ public class ImageInstanceServiceTests {
         assertThat(persistentUserPositionRepository.count()).isEqualTo(0);
     }
 
+    @Test
+    void delete_image_instance_deletes_annotation_dependencies_only_for_this_image() {
+        AnnotationTerm annotationTerm = builder.given_an_annotation_term();
+        UserAnnotation userAnnotation = annotationTerm.getUserAnnotation();
+        ImageInstance imageInstance = userAnnotation.getImage();
+        Property annotationProperty = builder.given_a_property(userAnnotation, "mustbedeleted", "value");
+
+        AnnotationTerm otherAnnotationTerm = builder.given_an_annotation_term();
+
+        CommandResponse commandResponse = imageInstanceService.delete(imageInstance, null, null, true);
+
+        assertThat(commandResponse.getStatus()).isEqualTo(200);
+        AssertionsForClassTypes.assertThat(entityManager.find(ImageInstance.class, imageInstance.getId())).isNull();
+        AssertionsForClassTypes.assertThat(entityManager.find(UserAnnotation.class, userAnnotation.getId())).isNull();
+        AssertionsForClassTypes.assertThat(entityManager.find(AnnotationTerm.class, annotationTerm.getId())).isNull();
+        AssertionsForClassTypes.assertThat(entityManager.find(Property.class, annotationProperty.getId())).isNull();
+
+        AssertionsForClassTypes.assertThat(entityManager.find(AnnotationTerm.class, otherAnnotationTerm.getId())).isNotNull();
+        AssertionsForClassTypes.assertThat(entityManager.find(UserAnnotation.class, otherAnnotationTerm.getUserAnnotation().getId())).isNotNull();
+    }
+
 
 
     @Test
@@ -0,0 +1,46 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageServerResponseCacheTests {
+
+    @Test
+    public void responses_spilled_by_a_previous_run_are_deleted_on_startup(@TempDir Path directory) throws IOException {
+        Path spilled = Files.write(directory.resolve(UUID.randomUUID().toString()), new byte[] {1, 2, 3});
+        Path otherFile = Files.write(directory.resolve("README"), new byte[] {1});
+
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageServerCache().setEnabled(true);
+        applicationProperties.getImageServerCache().setDiskPath(directory.toString());
+        new ImageServerResponseCache(applicationProperties, new SimpleMeterRegistry()).clearDiskSpill();
+
+        assertThat(spilled).doesNotExist();
+        assertThat(otherFile).exists();
+    }
+}
@@ -19,12 +19,15 @@ package be.cytomine.service.middleware;
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
 import be.cytomine.authorization.AbstractAuthorizationTest;
+import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.image.AbstractImage;
 import be.cytomine.domain.image.AbstractSlice;
 import be.cytomine.domain.image.UploadedFile;
 import be.cytomine.domain.image.server.Storage;
 import be.cytomine.domain.middleware.ImageServer;
 import be.cytomine.domain.ontology.Ontology;
+import be.cytomine.dto.PimsStreamResponse;
+import be.cytomine.exceptions.NotModifiedException;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.image.server.StorageRepository;
 import be.cytomine.service.CommandService;
@@ -38,6 +41,7 @@ import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.RequestPatternBuilder;
 import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 import com.vividsolutions.jts.io.ParseException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -50,6 +54,7 @@ import org.springframework.security.test.context.support.WithMockUser;
 import javax.transaction.Transactional;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
@@ -57,6 +62,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
@@ -75,6 +82,15 @@ public class ImageServerServiceTests {
     @Autowired
     ImageServerService imageServerService;
 
+    @Autowired
+    ImageServerHttpClient imageServerHttpClient;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
     private static WireMockServer wireMockServer = new WireMockServer(8888);
 
     @BeforeAll
@@ -120,6 +136,28 @@ public class ImageServerServiceTests {
         assertThat(imageServerService.list().stream().anyMatch(item -> item.getId().equals(imageServer.getId()))).isTrue();
     }
 
+    @Test
+    void image_server_requests_reuse_client_and_token() throws IOException {
+        ImageServer imageServer = builder.given_an_image_server();
+        imageServer.setUrl("http://localhost:8888");
+        imageServer = builder.persistAndReturn(imageServer);
+
+        configureFor("localhost", 8888);
+        stubFor(get(urlEqualTo("/storage/size.json"))
+                .willReturn(
+                        aResponse().withBody("{\"used\":193396892,\"available\":445132860,\"usedP\":0.302878435,\"hostname\":\"b52416f53249\",\"mount\":\"/data/images\",\"ip\":null}")
+                )
+        );
+
+        imageServerService.storageSpace(imageServer);
+        imageServerService.storageSpace(imageServer);
+
+        List<LoggedRequest> requests = findAll(getRequestedFor(urlEqualTo("/storage/size.json")));
+        assertThat(requests.stream().map(x -> x.getHeader("Authorization")).distinct()).hasSize(1);
+        assertThat(imageServerHttpClient.getClient("http://localhost:8888")).isSameAs(imageServerHttpClient.getClient("http://localhost:8888"));
+        assertThat(meterRegistry.find("cytomine.imageserver.requests").tag("server", "http://localhost:8888").timer()).isNotNull();
+    }
+
     @Test
     void retrieve_storage_spaces() throws IOException {
         ImageServer imageServer = builder.given_an_image_server();
@@ -389,6 +427,40 @@ public class ImageServerServiceTests {
     }
 
 
+    @Test
+    void get_thumb_for_abstract_image_from_response_cache() throws IOException {
+        AbstractImage image = builder.given_an_abstract_image();
+        image.getUploadedFile().getImageServer().setBasePath("/data/images");
+        image.getUploadedFile().getImageServer().setUrl("http://localhost:8888");
+        image.getUploadedFile().setFilename("1636379100999/CMU-2/" + UUID.randomUUID() + ".mrxs");
+        image.getUploadedFile().setContentType("MRXS");
+
+        AbstractSlice slice = builder.given_an_abstract_slice(image, 0, 0, 0);
+        slice.setUploadedFile(image.getUploadedFile());
+
+        configureFor("localhost", 8888);
+        String url = "/image/" + URLEncoder.encode(image.getPath(), StandardCharsets.UTF_8).replace("%2F", "/") + "/thumb?z_slices=0&timepoints=0&length=256";
+        byte[] mockResponse = UUID.randomUUID().toString().getBytes();
+        stubFor(get(urlEqualTo(url))
+                .willReturn(
+                        aResponse().withBody(mockResponse).withHeader("ETag", "\"v1\"").withHeader("Cache-Control", "max-age=3600")
+                )
+        );
+        ImageParameter imageParameter = new ImageParameter();
+        imageParameter.setMaxSize(256);
+        imageParameter.setFormat("png");
+
+        applicationProperties.getImageServerCache().setEnabled(true);
+        try {
+            assertThat(imageServerService.thumb(slice, imageParameter, null).getContent()).isEqualTo(mockResponse);
+            assertThat(imageServerService.thumb(slice, imageParameter, null).getContent()).isEqualTo(mockResponse);
+            Assertions.assertThrows(NotModifiedException.class, () -> imageServerService.thumb(slice, imageParameter, "\"v1\""));
+        } finally {
+            applicationProperties.getImageServerCache().setEnabled(false);
+        }
+        verify(1, getRequestedFor(urlEqualTo(url)));
+    }
+
     @Test
     void get_crop_for_abstract_image() throws IOException, ParseException {
         AbstractImage image = builder.given_an_abstract_image();
@@ -437,6 +509,117 @@ public class ImageServerServiceTests {
 
     }
 
+    @Test
+    void get_crop_for_abstract_image_asynchronously() throws Exception {
+        AbstractImage image = builder.given_an_abstract_image();
+        image.setWidth(109240);
+        image.setHeight(220696);
+        image.getUploadedFile().getImageServer().setBasePath("/data/images");
+        image.getUploadedFile().getImageServer().setUrl("http://localhost:8888");
+        image.getUploadedFile().setFilename("1636379100999/CMU-2/CMU-2.mrxs");
+        image.getUploadedFile().setContentType("MRXS");
+
+        AbstractSlice slice = builder.given_an_abstract_slice(image, 0, 0, 0);
+        slice.setUploadedFile(image.getUploadedFile());
+
+        configureFor("localhost", 8888);
+        byte[] mockResponse = UUID.randomUUID().toString().getBytes();
+
+        String url = "/image/" + URLEncoder.encode(image.getPath(), StandardCharsets.UTF_8).replace("%2F", "/") + "/annotation/drawing";
+        stubFor(post(urlEqualTo(url))
+                .willReturn(
+                        aResponse().withBody(mockResponse)
+                )
+        );
+
+        CropParameter cropParameter = new CropParameter();
+        cropParameter.setLocation("POLYGON((1 1,50 10,50 50,10 50,1 1))");
+        cropParameter.setFormat("png");
+        cropParameter.setDraw(true);
+        cropParameter.setIncreaseArea(1.25);
+        cropParameter.setComplete(true);
+
+        PimsStreamResponse response = imageServerService.cropAsync(slice, cropParameter, null).get(10, TimeUnit.SECONDS);
+        assertThat(imageServerHttpClient.getRequestsInProgress("http://localhost:8888")).isEqualTo(1);
+        try (InputStream content = response.getContent()) {
+            assertThat(content.readAllBytes()).isEqualTo(mockResponse);
+        }
+        assertThat(imageServerHttpClient.getRequestsInProgress("http://localhost:8888")).isEqualTo(0);
+    }
+
+    @Test
+    void image_server_slot_is_released_when_the_response_arrives_after_the_request_is_given_up() throws Exception {
+        AbstractImage image = builder.given_an_abstract_image();
+        image.setWidth(109240);
+        image.setHeight(220696);
+        image.getUploadedFile().getImageServer().setBasePath("/data/images");
+        image.getUploadedFile().getImageServer().setUrl("http://localhost:8888");
+        image.getUploadedFile().setFilename("1636379100999/CMU-2/CMU-2.mrxs");
+        image.getUploadedFile().setContentType("MRXS");
+
+        AbstractSlice slice = builder.given_an_abstract_slice(image, 0, 0, 0);
+        slice.setUploadedFile(image.getUploadedFile());
+
+        configureFor("localhost", 8888);
+        String url = "/image/" + URLEncoder.encode(image.getPath(), StandardCharsets.UTF_8).replace("%2F", "/") + "/window";
+        stubFor(post(urlEqualTo(url))
+                .willReturn(
+                        aResponse().withBody(UUID.randomUUID().toString().getBytes()).withFixedDelay(1000)
+                )
+        );
+
+        WindowParameter windowParameter = new WindowParameter();
+        windowParameter.setX(10);
+        windowParameter.setY(20);
+        windowParameter.setW(30);
+        windowParameter.setH(40);
+        windowParameter.setFormat("png");
+        CompletableFuture<PimsStreamResponse> response = imageServerService.windowAsync(slice, windowParameter, null);
+        Thread.sleep(200);
+        assertThat(imageServerHttpClient.getRequestsInProgress("http://localhost:8888")).isEqualTo(1);
+
+        // what the client request does when it times out (see RestCytomineController.responseImageAsync)
+        response.cancel(false);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (imageServerHttpClient.getRequestsInProgress("http://localhost:8888") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(imageServerHttpClient.getRequestsInProgress("http://localhost:8888")).isEqualTo(0);
+    }
+
+    @Test
+    void image_server_request_given_up_while_waiting_leaves_the_queue() {
+        ImageServerHttpClient.ConcurrencyLimit limit = new ImageServerHttpClient.ConcurrencyLimit(1);
+        CompletableFuture<Void> first = limit.acquire();
+        CompletableFuture<Void> second = limit.acquire();
+        CompletableFuture<Void> third = limit.acquire();
+
+        second.cancel(false);
+        limit.release();
+        assertThat(third).isDone();
+        assertThat(limit.getInProgress()).isEqualTo(1);
+
+        limit.release();
+        assertThat(limit.getInProgress()).isEqualTo(0);
+    }
+
+    @Test
+    void image_server_requests_over_concurrency_limit_wait_for_a_free_slot() {
+        ImageServerHttpClient.ConcurrencyLimit limit = new ImageServerHttpClient.ConcurrencyLimit(1);
+        CompletableFuture<Void> first = limit.acquire();
+        CompletableFuture<Void> second = limit.acquire();
+        assertThat(first).isDone();
+        assertThat(second).isNotDone();
+
+        limit.release();
+        assertThat(second).isDone();
+        assertThat(limit.getInProgress()).isEqualTo(1);
+
+        limit.release();
+        assertThat(limit.getInProgress()).isEqualTo(0);
+    }
+
 
     @Test
     void get_window_for_abstract_image() throws UnsupportedEncodingException, ParseException {
@@ -0,0 +1,123 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationCounterServiceTests {
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Test
+    void annotation_counters_are_updated_on_flush() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        User user = builder.given_superadmin();
+        annotationCounterService.flush();
+
+        builder.given_a_user_annotation(slice, user);
+        builder.given_a_user_annotation(slice, user);
+        entityManager.flush();
+
+        // the annotation index read path includes the pending deltas
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(2);
+        assertThat(annotationIndexService.list(slice)).hasSize(1);
+
+        assertThat(annotationCounterService.flush()).isEqualTo(3);
+        ImageInstance image = slice.getImage();
+        Project project = slice.getProject();
+        entityManager.refresh(image);
+        entityManager.refresh(project);
+        assertThat(image.getCountImageAnnotations()).isEqualTo(2);
+        assertThat(project.getCountAnnotations()).isEqualTo(2);
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(2);
+        assertThat(annotationIndexService.list(slice).get(0).getCountAnnotation()).isEqualTo(2);
+
+        assertThat(annotationCounterService.flush()).isEqualTo(0);
+    }
+
+    @Test
+    void deleted_annotation_decrements_counters() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        User user = builder.given_superadmin();
+        UserAnnotation annotation = builder.given_a_user_annotation(slice, user);
+        builder.given_a_user_annotation(slice, user);
+        entityManager.flush();
+
+        entityManager.remove(annotation);
+        entityManager.flush();
+
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(1);
+        annotationCounterService.flush();
+        ImageInstance image = slice.getImage();
+        entityManager.refresh(image);
+        assertThat(image.getCountImageAnnotations()).isEqualTo(1);
+    }
+
+    @Test
+    void reconciliation_fixes_wrong_counters() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        User user = builder.given_superadmin();
+        builder.given_a_user_annotation(slice, user);
+        annotationCounterService.flush();
+
+        Project project = slice.getProject();
+        entityManager.createNativeQuery("UPDATE project SET count_annotations = 42 WHERE id = " + project.getId()).executeUpdate();
+        entityManager.createNativeQuery("UPDATE annotation_index SET count_annotation = 42 WHERE slice_id = " + slice.getId()).executeUpdate();
+        // not flushed yet
+        builder.given_a_user_annotation(slice, user);
+        entityManager.flush();
+
+        assertThat(annotationCounterService.reconcile()).isGreaterThanOrEqualTo(2);
+        assertThat(annotationIndexService.count(List.of(slice), user)).isEqualTo(2);
+
+        annotationCounterService.flush();
+        entityManager.refresh(project);
+        assertThat(project.getCountAnnotations()).isEqualTo(2);
+        assertThat(annotationIndexService.count(slice, user)).isEqualTo(2);
+    }
+}
@@ -20,6 +20,7 @@ import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
 import be.cytomine.TestUtils;
 import be.cytomine.domain.CytomineDomain;
+import be.cytomine.domain.image.AbstractImage;
 import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.ontology.*;
@@ -42,8 +43,10 @@ import be.cytomine.service.dto.Kmeans;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.utils.KmeansGeometryService;
 import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.GeometryFormat;
 import be.cytomine.utils.JsonObject;
 import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKTReader;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
@@ -56,6 +59,7 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -108,6 +112,26 @@ public class AnnotationListingServiceTests {
                 .doesNotContain(userAnnotationFromAnotherProject.getId());
     }
 
+    @Test
+    void search_user_annotation_with_binary_location() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setColumnsToPrint(new ArrayList<>(List.of("basic", "wkt")));
+        userAnnotationListing.setImage(userAnnotation.getImage().getId());
+        userAnnotationListing.setGeometryFormat(GeometryFormat.WKB);
+        List<AnnotationResult> results = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(results).hasSize(1);
+        byte[] wkb = (byte[]) results.get(0).get("location");
+        assertThat(new WKBReader().read(wkb).equalsExact(userAnnotation.getLocation())).isTrue();
+
+        userAnnotationListing.setGeometryFormat(GeometryFormat.TWKB);
+        userAnnotationListing.setGeometryPrecision(0);
+        results = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(results).hasSize(1);
+        assertThat((byte[]) results.get(0).get("location")).isNotEmpty().hasSizeLessThan(wkb.length);
+    }
+
     @Test
     void search_user_annotation_by_image() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -176,6 +200,36 @@ public class AnnotationListingServiceTests {
     }
 
 
+    @Test
+    void search_user_annotation_with_pagination_keeps_terms_of_annotation_in_page() {
+        Project project = builder.given_a_project();
+        UserAnnotation a1 = builder.given_a_user_annotation(project);
+        UserAnnotation a2 = builder.given_a_user_annotation(project);
+        UserAnnotation a3 = builder.given_a_user_annotation(project);
+        Term term1 = builder.given_a_term(project.getOntology());
+        Term term2 = builder.given_a_term(project.getOntology());
+        builder.given_an_annotation_term(a2, term1);
+        builder.given_an_annotation_term(a2, term2);
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(project.getId());
+        userAnnotationListing.setMax(2L);
+        userAnnotationListing.setOffset(0L);
+
+        List<AnnotationResult> page = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(userAnnotationListing.isPaginatedInSql()).isTrue();
+        assertThat(page.stream().map(x -> x.get("id"))).containsExactly(a3.getId(), a2.getId());
+        assertThat((List<Long>)page.get(1).get("term")).containsExactlyInAnyOrder(term1.getId(), term2.getId());
+        assertThat(annotationListingService.countGeneric(userAnnotationListing)).isEqualTo(3);
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(project.getId());
+        userAnnotationListing.setMax(2L);
+        userAnnotationListing.setAfterAnnotation(a2.getId());
+        page = annotationListingService.listGeneric(userAnnotationListing);
+        assertThat(page.stream().map(x -> x.get("id"))).containsExactly(a1.getId());
+    }
+
     @Test
     void search_user_annotation_with_multiple_terms() {
         UserAnnotation userAnnotation = builder.given_an_annotation_term().getUserAnnotation();
@@ -598,4 +652,28 @@ public class AnnotationListingServiceTests {
 
     }
 
+    @Test
+    void kmeans_rule_uses_annotation_density_of_bbox() throws ParseException {
+        AbstractImage abstractImage = builder.given_a_not_persisted_abstract_image();
+        abstractImage.setWidth(1000);
+        abstractImage.setHeight(32000);
+        builder.persistAndReturn(abstractImage);
+        ImageInstance imageInstance = builder.given_an_image_instance(abstractImage, builder.given_a_project());
+        SliceInstance sliceInstance = builder.given_a_slice_instance(imageInstance, builder.given_an_abstract_slice(abstractImage, 0, 0, 0));
+        User user = builder.given_superadmin();
+
+        // all the annotations are in the first row of the density grid (32 rows of 1000)
+        for (int i = 0; i < 100; i++) {
+            builder.given_a_user_annotation(sliceInstance, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))", user, null);
+        }
+
+        // the image has 100 annotations, but with the density of the first row it would have 3200
+        assertThat(kmeansGeometryService.mustBeReduce(List.of(sliceInstance.getId()), user.getId(), "POLYGON ((0 0, 1000 0, 1000 1000, 0 1000, 0 0))"))
+                .isEqualTo(KmeansGeometryService.KMEANSFULL);
+        assertThat(kmeansGeometryService.mustBeReduce(List.of(sliceInstance.getId()), user.getId(), "POLYGON ((0 16000, 1000 16000, 1000 17000, 0 17000, 0 16000))"))
+                .isEqualTo(KmeansGeometryService.FULL);
+        assertThat(kmeansGeometryService.mustBeReduce(List.of(sliceInstance.getId()), user.getId(), "POLYGON ((0 0, 1000 0, 1000 32000, 0 32000, 0 0))"))
+                .isEqualTo(KmeansGeometryService.FULL);
+    }
+
 }
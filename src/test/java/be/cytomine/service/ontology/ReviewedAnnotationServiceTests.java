@@ -634,6 +634,49 @@ public class ReviewedAnnotationServiceTests {
         });
     }
 
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Test
+    void review_and_unreview_all_user_layers_with_terms_and_counters() {
+        ImageInstance image = builder.given_an_image_instance();
+        imageInstanceService.startReview(image);
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(image.getProject());
+        userAnnotation.setImage(image);
+        builder.persistAndReturn(userAnnotation);
+        AnnotationTerm annotationTerm = builder.given_an_annotation_term(userAnnotation);
+        UserAnnotation alreadyReviewed = builder.given_a_not_persisted_user_annotation(image.getProject());
+        alreadyReviewed.setImage(image);
+        builder.persistAndReturn(alreadyReviewed);
+        reviewedAnnotationService.reviewAnnotation(alreadyReviewed.getId(), null);
+
+        List<Long> ids = reviewedAnnotationService.reviewLayer(image.getId(), List.of(userAnnotation.getUser().getId()), null);
+
+        assertThat(ids).hasSize(1);
+        ReviewedAnnotation reviewedAnnotation = reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId()).get();
+        assertThat(reviewedAnnotation.getId()).isEqualTo(ids.get(0));
+        assertThat(reviewedAnnotation.termsId()).containsExactly(annotationTerm.getTerm().getId());
+        assertThat(reviewedAnnotation.getReviewUser().getId()).isEqualTo(builder.given_superadmin().getId());
+
+        annotationCounterService.flush();
+        entityManager.refresh(userAnnotation);
+        entityManager.refresh(image);
+        assertThat(userAnnotation.getCountReviewedAnnotations()).isEqualTo(1);
+        assertThat(image.getCountImageReviewedAnnotations()).isEqualTo(2);
+
+        ids = reviewedAnnotationService.unreviewLayer(image.getId(), List.of(userAnnotation.getUser().getId()), null);
+
+        assertThat(ids).hasSize(2);
+        assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isEmpty();
+        assertThat(reviewedAnnotationRepository.findByParentIdent(alreadyReviewed.getId())).isEmpty();
+
+        annotationCounterService.flush();
+        entityManager.refresh(userAnnotation);
+        entityManager.refresh(image);
+        assertThat(userAnnotation.getCountReviewedAnnotations()).isEqualTo(0);
+        assertThat(image.getCountImageReviewedAnnotations()).isEqualTo(0);
+    }
+
     @Autowired
     TransactionTemplate transactionTemplate;
 
@@ -655,6 +698,7 @@ public class ReviewedAnnotationServiceTests {
         assertThat(image.getProject().getCountReviewedAnnotations()).isEqualTo(0);
 
         reviewedAnnotationService.reviewAnnotation(userAnnotation.getId(), null);
+        annotationCounterService.flush();
 
         entityManager.refresh(userAnnotation);
         entityManager.refresh(image);
@@ -665,6 +709,7 @@ public class ReviewedAnnotationServiceTests {
         assertThat(image.getProject().getCountReviewedAnnotations()).isEqualTo(1);
 
         reviewedAnnotationService.unReviewAnnotation(userAnnotation.getId());
+        annotationCounterService.flush();
 
         entityManager.refresh(userAnnotation);
         entityManager.refresh(image);
@@ -689,6 +734,7 @@ public class ReviewedAnnotationServiceTests {
         assertThat(image.getProject().getCountReviewedAnnotations()).isEqualTo(0);
 
         reviewedAnnotationService.reviewAnnotation(annotation.getId(), null);
+        annotationCounterService.flush();
 
         entityManager.refresh(annotation);
         entityManager.refresh(image);
@@ -699,6 +745,7 @@ public class ReviewedAnnotationServiceTests {
         assertThat(image.getProject().getCountReviewedAnnotations()).isEqualTo(1);
 
         reviewedAnnotationService.unReviewAnnotation(annotation.getId());
+        annotationCounterService.flush();
 
         entityManager.refresh(annotation);
         entityManager.refresh(image);
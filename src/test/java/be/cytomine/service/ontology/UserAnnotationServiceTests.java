@@ -39,6 +39,7 @@ import be.cytomine.service.dto.AnnotationResult;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
 import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBWriter;
 import com.vividsolutions.jts.io.WKTReader;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
@@ -54,6 +55,8 @@ import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -87,6 +90,9 @@ public class UserAnnotationServiceTests {
     @Autowired
     EntityManager entityManager;
 
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
     @Test
     void get_userAnnotation_with_success() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -261,6 +267,29 @@ public class UserAnnotationServiceTests {
         AssertionsForClassTypes.assertThat(userAnnotationService.find(commandResponse.getObject().getId())).isPresent();
     }
 
+    @Test
+    void add_valid_user_annotation_with_wkb_location() {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        JsonObject jsonObject = userAnnotation.toJsonObject();
+        jsonObject.put("location", Base64.getEncoder().encodeToString(new WKBWriter().write(userAnnotation.getLocation())));
+        jsonObject.put("geometryFormat", "wkb");
+
+        CommandResponse commandResponse = userAnnotationService.add(jsonObject);
+
+        assertThat(commandResponse.getStatus()).isEqualTo(200);
+        UserAnnotation created = userAnnotationService.find(commandResponse.getObject().getId()).get();
+        assertThat(created.getLocation().equalsExact(userAnnotation.getLocation())).isTrue();
+        assertThat(created.getWktLocation()).isEqualTo(userAnnotation.getLocation().toText());
+    }
+
+    @Test
+    void add_user_annotation_with_unknown_geometry_format_fails() {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        JsonObject jsonObject = userAnnotation.toJsonObject();
+        jsonObject.put("geometryFormat", "geojson");
+        Assertions.assertThrows(WrongArgumentException.class, () -> userAnnotationService.add(jsonObject));
+    }
+
     @Test
     void add_valid_guest_annotation_with_success() {
         UserAnnotation userAnnotation = builder.given_a_not_persisted_guest_annotation();
@@ -361,6 +390,70 @@ public class UserAnnotationServiceTests {
     }
 
 
+    @Test
+    void add_user_annotations_in_bulk() {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term term = builder.given_a_term(userAnnotation.getProject().getOntology());
+        Term termFromAnotherOntology = builder.given_a_term();
+        long countImageAnnotations = userAnnotation.getImage().getCountImageAnnotations();
+        long countProjectAnnotations = userAnnotation.getProject().getCountAnnotations();
+
+        List<JsonObject> json = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            JsonObject jsonObject = userAnnotation.toJsonObject();
+            jsonObject.put("term", List.of(term.getId()));
+            json.add(jsonObject);
+        }
+        JsonObject wrongTerm = userAnnotation.toJsonObject();
+        wrongTerm.put("term", List.of(termFromAnotherOntology.getId()));
+        json.add(wrongTerm);
+
+        JsonObject response = userAnnotationService.addBulk(json);
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(206);
+
+        List<UserAnnotation> created = userAnnotationRepository.findAllByImage(userAnnotation.getImage());
+        assertThat(created).hasSize(3);
+        for (UserAnnotation annotation : created) {
+            entityManager.refresh(annotation);
+            assertThat(annotation.termsId()).containsExactly(term.getId());
+            assertThat(annotation.getWktLocation()).isNotNull();
+            assertThat(annotation.getArea()).isNotNull();
+        }
+
+        annotationCounterService.flush();
+        entityManager.refresh(userAnnotation.getImage());
+        entityManager.refresh(userAnnotation.getProject());
+        assertThat(userAnnotation.getImage().getCountImageAnnotations()).isEqualTo(countImageAnnotations + 3);
+        assertThat(userAnnotation.getProject().getCountAnnotations()).isEqualTo(countProjectAnnotations + 3);
+    }
+
+    @Test
+    void add_user_annotations_in_bulk_crops_locations_and_rejects_invalid_ones() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        int imageWidth = userAnnotation.getImage().getBaseImage().getWidth();
+
+        List<JsonObject> json = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            JsonObject outsideImage = userAnnotation.toJsonObject();
+            outsideImage.put("location", "POLYGON ((" + (imageWidth - 100) + " 100, " + (imageWidth + 100) + " 100, "
+                    + (imageWidth + 100) + " 300, " + (imageWidth - 100) + " 300, " + (imageWidth - 100) + " 100))");
+            json.add(outsideImage);
+        }
+        JsonObject selfIntersecting = userAnnotation.toJsonObject();
+        selfIntersecting.put("location", "POLYGON ((0 0, 100 100, 100 0, 0 100, 0 0))");
+        json.add(selfIntersecting);
+
+        JsonObject response = userAnnotationService.addBulk(json);
+        assertThat(response.getJSONAttrInteger("status")).isEqualTo(206);
+
+        List<UserAnnotation> created = userAnnotationRepository.findAllByImage(userAnnotation.getImage());
+        assertThat(created).hasSize(5);
+        for (UserAnnotation annotation : created) {
+            entityManager.refresh(annotation);
+            assertThat(annotation.getLocation().getEnvelopeInternal().getMaxX()).isEqualTo(imageWidth);
+        }
+    }
+
     @Test
     void add_user_annotation_bad_geom() throws ParseException {
         UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
@@ -513,6 +606,15 @@ public class UserAnnotationServiceTests {
         }) ;
     }
 
+    @Test
+    void edit_user_annotation_with_malformed_wkb_location_fails() {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        JsonObject jsonObject = userAnnotation.toJsonObject();
+        jsonObject.put("location", Base64.getEncoder().encodeToString(new byte[] {0, 0, 0, 0, 3}));
+        jsonObject.put("geometryFormat", "wkb");
+        Assertions.assertThrows(WrongArgumentException.class, () -> userAnnotationService.update(userAnnotation, jsonObject));
+    }
+
     @Test
     void delete_user_annotation_with_success() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -26,10 +26,12 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.test.context.support.WithMockUser;
 
 import javax.transaction.Transactional;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest(classes = CytomineCoreApplication.class)
 @AutoConfigureMockMvc
@@ -127,6 +129,20 @@ public class PDFReportServiceTests {
         testData(validData, "title", null,true, false);
     }
 
+    @Test
+    public void generate_pdf_with_rows_written_one_by_one_works() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ReportWriter writer = pdfReportService.openPDF(output, "title", customColumnWidth, true, true)) {
+            writer.writeRow(validData[0]);
+            for (int i = 0; i < 10 * PDFReportService.ROWS_BY_TABLE; i++) {
+                writer.writeRow(validData[1]);
+            }
+        }
+        try (PDDocument document = PDDocument.load(output.toByteArray())) {
+            assertTrue(document.getNumberOfPages() > 1);
+        }
+    }
+
     private void testData(Object[][] dataArray,
                           String title,
                           float[] customColumnWidth,
@@ -17,6 +17,9 @@ package be.cytomine.service.report;
 */
 
 import be.cytomine.CytomineCoreApplication;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -24,6 +27,9 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.security.test.context.support.WithMockUser;
 
 import javax.transaction.Transactional;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -71,6 +77,26 @@ public class SpreadsheetReportServiceTests {
         assertEquals(createSpreadsheet(emptyData), emptyCsvDataResult);
     }
 
+    @Test
+    public void generate_xls_with_more_rows_than_legacy_format_limit_works() throws IOException {
+        int nbOfRows = 70000;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ReportWriter writer = spreadsheetReportService.openSpreadsheetXLS(output)) {
+            writer.writeRow(new Object[]{"ID", "Name"});
+            for (int i = 0; i < nbOfRows; i++) {
+                writer.writeRow(new Object[]{(long) i, "annotation " + i});
+            }
+        }
+
+        try (Workbook workbook = WorkbookFactory.create(new ByteArrayInputStream(output.toByteArray()))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(nbOfRows, sheet.getLastRowNum());
+            assertEquals("ID", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals(nbOfRows - 1, (long) sheet.getRow(nbOfRows).getCell(0).getNumericCellValue());
+            assertEquals("annotation " + (nbOfRows - 1), sheet.getRow(nbOfRows).getCell(1).getStringCellValue());
+        }
+    }
+
     private String createSpreadsheet(Object[][] data) {
         byte[] csvByteArray = spreadsheetReportService.writeSpreadsheet(data);
         return new String(csvByteArray);
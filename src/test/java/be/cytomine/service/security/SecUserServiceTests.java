@@ -18,6 +18,7 @@ package be.cytomine.service.security;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.image.UploadedFile;
@@ -47,6 +48,7 @@ import be.cytomine.service.dto.AreaDTO;
 import be.cytomine.service.image.server.StorageService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.MemberActivityService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.service.social.UserPositionServiceTests;
@@ -54,8 +56,13 @@ import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.filters.SearchOperation;
 import be.cytomine.utils.filters.SearchParameterEntry;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import org.apache.commons.lang3.time.DateUtils;
 import org.assertj.core.api.AssertionsForClassTypes;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -64,16 +71,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.Page;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.context.request.RequestContextHolder;
 
 import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
 import static org.springframework.security.acls.domain.BasePermission.*;
 
 
@@ -137,6 +151,9 @@ public class SecUserServiceTests {
     @Autowired
     UserPositionService userPositionService;
 
+    @Autowired
+    ApplicationProperties applicationProperties;
+
     @BeforeEach
     public void init() {
         persistentConnectionRepository.deleteAll();
@@ -506,6 +523,108 @@ public class SecUserServiceTests {
     }
 
 
+    @Test
+    void list_user_extended_without_member_activity_projection() {
+        User userWhoHasOpenImage = builder.given_a_user();
+        User userNeverOpenImage = builder.given_a_user();
+
+        Project project = builder.given_a_project();
+
+        builder.addUserToProject(project, userWhoHasOpenImage.getUsername(), READ);
+        builder.addUserToProject(project, userNeverOpenImage.getUsername(), READ);
+
+        ImageInstance imageInstance = builder.given_an_image_instance(project);
+        given_a_persistent_image_consultation(userWhoHasOpenImage, imageInstance, DateUtils.addDays(new Date(), -1));
+        PersistentProjectConnection connection = given_a_persistent_connection_in_project(userWhoHasOpenImage, project, DateUtils.addDays(new Date(), -1));
+
+        UserSearchExtension userSearchExtension = new UserSearchExtension();
+        userSearchExtension.setWithLastImage(true);
+        userSearchExtension.setWithLastConnection(true);
+        userSearchExtension.setWithNumberConnections(true);
+
+        boolean enabled = applicationProperties.getMemberActivity().getEnabled();
+        applicationProperties.getMemberActivity().setEnabled(false);
+        try {
+            Page<JsonObject> page = secUserService.listUsersExtendedByProject(
+                    project, userSearchExtension, new ArrayList<>(), "id", "asc", 0L, 0L);
+            assertThat(page.getTotalElements()).isEqualTo(2);
+            JsonObject withActivity = page.getContent().stream().filter(x -> x.getId().equals(userWhoHasOpenImage.getId())).findFirst().get();
+            assertThat(withActivity.getJSONAttrLong("lastImage")).isEqualTo(imageInstance.getId());
+            assertThat(withActivity.getJSONAttrDate("lastConnection")).isEqualTo(connection.getCreated());
+            assertThat(withActivity.getJSONAttrInteger("numberConnections")).isEqualTo(1);
+            JsonObject withoutActivity = page.getContent().stream().filter(x -> x.getId().equals(userNeverOpenImage.getId())).findFirst().get();
+            assertThat(withoutActivity.get("lastImage")).isNull();
+            assertThat(withoutActivity.get("lastConnection")).isNull();
+        } finally {
+            applicationProperties.getMemberActivity().setEnabled(enabled);
+        }
+    }
+
+    @Test
+    void list_user_extended_sorted_by_activity_loads_only_the_requested_page() {
+        User userWhoHasOpenProject = builder.given_a_user();
+        User userWhoHasOpenProjectAfter = builder.given_a_user();
+        User userNeverOpenProject = builder.given_a_user();
+
+        Project project = builder.given_a_project();
+
+        builder.addUserToProject(project, userWhoHasOpenProject.getUsername(), READ);
+        builder.addUserToProject(project, userWhoHasOpenProjectAfter.getUsername(), READ);
+        builder.addUserToProject(project, userNeverOpenProject.getUsername(), WRITE);
+
+        given_a_persistent_connection_in_project(userWhoHasOpenProject, project, DateUtils.addDays(new Date(), -2));
+        given_a_persistent_connection_in_project(userWhoHasOpenProjectAfter, project, DateUtils.addDays(new Date(), -1));
+
+        UserSearchExtension userSearchExtension = new UserSearchExtension();
+        userSearchExtension.setWithLastConnection(true);
+        Page<JsonObject> page = secUserService.listUsersExtendedByProject(
+                project, userSearchExtension, new ArrayList<>(), "lastConnection", "desc", 1L, 1L);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent()).hasSize(1);
+        assertThat(page.getContent().get(0).getId()).isEqualTo(userWhoHasOpenProject.getId());
+        assertThat(page.getContent().get(0).get("role")).isEqualTo("contributor");
+        assertThat(page.getContent().get(0).get("username")).isEqualTo(userWhoHasOpenProject.getUsername());
+    }
+
+    @Test
+    void list_user_extended_leaves_activity_columns_empty_when_the_lookup_deadline_expires() {
+        User user = builder.given_a_user();
+        Project project = builder.given_a_project();
+        builder.addUserToProject(project, user.getUsername(), READ);
+        given_a_persistent_image_consultation(user, builder.given_an_image_instance(project), DateUtils.addDays(new Date(), -1));
+        given_a_persistent_connection_in_project(user, project, DateUtils.addDays(new Date(), -1));
+
+        // MongoDB aborts the lookup once its maxTimeMS is exceeded
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        FindIterable<Document> find = mock(FindIterable.class);
+        when(mongoTemplate.getCollection(MemberActivityService.COLLECTION)).thenReturn(collection);
+        when(collection.find(any(Bson.class))).thenReturn(find);
+        when(find.maxTime(anyLong(), any(TimeUnit.class))).thenReturn(find);
+        when(find.iterator()).thenThrow(new MongoExecutionTimeoutException(50, "operation exceeded time limit"));
+
+        UserSearchExtension userSearchExtension = new UserSearchExtension();
+        userSearchExtension.setWithLastImage(true);
+        userSearchExtension.setWithLastConnection(true);
+        userSearchExtension.setWithNumberConnections(true);
+
+        SecUserService target = AopTestUtils.getTargetObject(secUserService);
+        Object memberActivityService = ReflectionTestUtils.getField(target, "memberActivityService");
+        ReflectionTestUtils.setField(target, "memberActivityService", new MemberActivityService(mongoTemplate, applicationProperties));
+        try {
+            Page<JsonObject> page = secUserService.listUsersExtendedByProject(
+                    project, userSearchExtension, new ArrayList<>(), "id", "asc", 0L, 0L);
+            assertThat(page.getTotalElements()).isEqualTo(1);
+            assertThat(page.getContent().get(0).getId()).isEqualTo(user.getId());
+            assertThat(page.getContent().get(0).get("lastImage")).isNull();
+            assertThat(page.getContent().get(0).get("lastConnection")).isNull();
+            assertThat(page.getContent().get(0).get("numberConnections")).isNull();
+            verify(find).maxTime(applicationProperties.getMemberActivity().getLookupTimeoutInMillis(), TimeUnit.MILLISECONDS);
+        } finally {
+            ReflectionTestUtils.setField(target, "memberActivityService", memberActivityService);
+        }
+    }
+
     @Test
     void list_user_extended_with_last_connection() {
         User userWhoHasOpenProject = builder.given_a_user();
@@ -588,6 +707,46 @@ public class SecUserServiceTests {
         assertThat(page.getContent().get(2).getJSONAttrInteger("numberConnections")).isEqualTo(11);
     }
 
+    @Test
+    void list_user_extended_paged_by_last_connection_or_username() {
+        User userWhoHasOpenProject = builder.given_a_user();
+        User userWhoHasOpenProjectAfter = builder.given_a_user();
+        User userNeverOpenProject = builder.given_a_user();
+
+        Project project = builder.given_a_project();
+
+        builder.addUserToProject(project, userWhoHasOpenProject.getUsername(), READ);
+        builder.addUserToProject(project, userWhoHasOpenProjectAfter.getUsername(), READ);
+        builder.addUserToProject(project, userNeverOpenProject.getUsername(), WRITE);
+
+        given_a_persistent_connection_in_project(userWhoHasOpenProject, project, DateUtils.addDays(new Date(), -3));
+        PersistentProjectConnection userWhoHasOpenProjectConnection = given_a_persistent_connection_in_project(userWhoHasOpenProject, project, DateUtils.addDays(new Date(), -2));
+        PersistentProjectConnection userWhoHasOpenProjectAfterConnection = given_a_persistent_connection_in_project(userWhoHasOpenProjectAfter, project, DateUtils.addDays(new Date(), -1));
+
+        UserSearchExtension userSearchExtension = new UserSearchExtension();
+        userSearchExtension.setWithLastConnection(true);
+        userSearchExtension.setWithNumberConnections(true);
+
+        Page<JsonObject> page = secUserService.listUsersExtendedByProject(
+                project, userSearchExtension, new ArrayList<>(), "lastConnection", "asc", 2L, 1L);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent()).hasSize(2);
+        assertThat(page.getContent().get(0).getJSONAttrLong("id")).isEqualTo(userWhoHasOpenProject.getId());
+        assertThat(page.getContent().get(0).getJSONAttrDate("lastConnection")).isEqualTo(userWhoHasOpenProjectConnection.getCreated());
+        assertThat(page.getContent().get(0).getJSONAttrInteger("numberConnections")).isEqualTo(2);
+        assertThat(page.getContent().get(1).getJSONAttrLong("id")).isEqualTo(userWhoHasOpenProjectAfter.getId());
+        assertThat(page.getContent().get(1).getJSONAttrDate("lastConnection")).isEqualTo(userWhoHasOpenProjectAfterConnection.getCreated());
+
+        page = secUserService.listUsersExtendedByProject(
+                project, userSearchExtension, new ArrayList<>(), "id", "asc", 0L, 0L);
+        assertThat(page.getTotalElements()).isEqualTo(3);
+        assertThat(page.getContent().stream().map(x -> x.getJSONAttrLong("id")))
+                .containsExactly(userWhoHasOpenProject.getId(), userWhoHasOpenProjectAfter.getId(), userNeverOpenProject.getId());
+        assertThat(page.getContent().get(1).getJSONAttrDate("lastConnection")).isEqualTo(userWhoHasOpenProjectAfterConnection.getCreated());
+        assertThat(page.getContent().get(2).getJSONAttrDate("lastConnection")).isNull();
+        assertThat(page.getContent().get(2).getJSONAttrInteger("numberConnections")).isEqualTo(0);
+    }
+
     @Test
     void list_project_admins() {
         User user = builder.given_superadmin();
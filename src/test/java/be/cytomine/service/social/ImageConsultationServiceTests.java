@@ -86,6 +86,9 @@ public class ImageConsultationServiceTests {
     @Autowired
     SliceCoordinatesService sliceCoordinatesService;
 
+    @Autowired
+    ImageConsultationActivity imageConsultationActivity;
+
     @BeforeEach
     public void cleanDB() {
         persistentImageConsultationRepository.deleteAll();
@@ -159,6 +162,46 @@ public class ImageConsultationServiceTests {
         assertThat(allByUserAndProject.getContent().get(2).getCountCreatedAnnotations()).isEqualTo(1);
     }
 
+    @Test
+    void consultation_time_is_accumulated_while_positions_are_added() {
+        User user = builder.given_superadmin();
+        ImageInstance imageInstance = builder.given_a_slice_instance().getImage();
+        SliceInstance sliceInstance = sliceCoordinatesService.getReferenceSlice(imageInstance);
+        Date start = DateUtils.addMinutes(new Date(), -10);
+
+        PersistentImageConsultation consultation = imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", start);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 2), user, sliceInstance, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 4), user, sliceInstance, USER_VIEW);
+        // idle for more than 15 seconds, not counted
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 30), user, sliceInstance, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 31), user, sliceInstance, USER_VIEW);
+
+        assertThat(imageConsultationActivity.getTime(consultation.getId(), user.getId(), imageInstance.getId(), DateUtils.addSeconds(start, 40)))
+                .contains(5000L);
+
+        imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", DateUtils.addSeconds(start, 40));
+        assertThat(persistentImageConsultationRepository.findById(consultation.getId()).get().getTime()).isEqualTo(5000L);
+    }
+
+    @Test
+    void consultation_time_is_computed_from_positions_when_not_tracked() {
+        User user = builder.given_superadmin();
+        ImageInstance imageInstance = builder.given_a_slice_instance().getImage();
+        SliceInstance sliceInstance = sliceCoordinatesService.getReferenceSlice(imageInstance);
+        Date start = DateUtils.addMinutes(new Date(), -10);
+
+        PersistentImageConsultation consultation = imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", start);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 2), user, sliceInstance, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 4), user, sliceInstance, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 30), user, sliceInstance, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 31), user, sliceInstance, USER_VIEW);
+        // e.g. restart
+        imageConsultationActivity.clear();
+
+        imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", DateUtils.addSeconds(start, 40));
+        assertThat(persistentImageConsultationRepository.findById(consultation.getId()).get().getTime()).isEqualTo(5000L);
+    }
+
     @Test
     void list_image_consultation_by_project_and_user_do_not_distinct_image() {
         User user = builder.given_superadmin();
@@ -0,0 +1,101 @@
+package be.cytomine.service.social;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PresenceServiceTests {
+
+    InMemoryPresenceBackend backend;
+
+    ApplicationProperties applicationProperties;
+
+    PresenceService presenceService;
+
+    @BeforeEach
+    public void setup() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getPresence().setEnabled(true);
+        backend = new InMemoryPresenceBackend();
+        presenceService = new PresenceService(backend, applicationProperties);
+    }
+
+    @Test
+    void presence_is_disabled_by_default() {
+        assertThat(new ApplicationProperties().getPresence().getEnabled()).isFalse();
+
+        applicationProperties.getPresence().setEnabled(false);
+        presenceService.connected(1L, 100L, new Date());
+        presenceService.positioned(1L, 10L, 11L, false, new Date());
+
+        assertThat(backend.size()).isEqualTo(0);
+    }
+
+    @Test
+    void connected_users_are_online() {
+        Date now = new Date();
+        presenceService.connected(1L, 100L, now);
+        presenceService.connected(2L, null, now);
+        presenceService.connected(3L, 100L, new Date(now.getTime() - 301_000));
+
+        assertThat(presenceService.listOnlineUsers()).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(presenceService.listOnlineUsers(100L)).containsExactly(1L);
+        assertThat(presenceService.isOnline(1L, 100L)).isTrue();
+        assertThat(presenceService.isOnline(2L, 100L)).isFalse();
+    }
+
+    @Test
+    void positions_are_indexed_by_image_slice_and_broadcast() {
+        Date now = new Date();
+        presenceService.positioned(1L, 10L, 11L, false, now);
+        presenceService.positioned(2L, 10L, 12L, true, now);
+
+        assertThat(presenceService.listOnlineUsersByImage(10L, null, false)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(presenceService.listOnlineUsersByImage(10L, 11L, false)).containsExactly(1L);
+        assertThat(presenceService.listOnlineUsersByImage(10L, null, true)).containsExactly(2L);
+        assertThat(presenceService.listOnlineUsersByImage(10L, 11L, true)).isEmpty();
+        assertThat(presenceService.listOnlineUsersByImage(20L, null, false)).isEmpty();
+    }
+
+    @Test
+    void expired_entries_are_removed_by_the_timer_wheel() {
+        long now = System.currentTimeMillis();
+        presenceService.positioned(1L, 10L, 11L, false, new Date(now));
+        presenceService.positioned(2L, 10L, 11L, false, new Date(now));
+        int size = backend.size();
+        assertThat(size).isEqualTo(4);
+
+        backend.advance(now + 10_000);
+        // user 1 keeps moving
+        presenceService.positioned(1L, 10L, 11L, false, new Date(now + 10_000));
+        assertThat(backend.size()).isEqualTo(4);
+
+        backend.advance(now + 32_000);
+        assertThat(backend.size()).isEqualTo(2);
+        assertThat(backend.list("position/10", now + 32_000)).containsExactly(1L);
+
+        backend.advance(now + 42_000);
+        assertThat(backend.size()).isEqualTo(0);
+    }
+}
@@ -18,6 +18,7 @@ package be.cytomine.service.social;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.ontology.UserAnnotation;
@@ -90,13 +91,18 @@ public class UserPositionServiceTests {
     @Autowired
     MongoClient mongoClient;
 
+    @Autowired
+    UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
     @BeforeEach
     public void cleanDB() {
         lastUserPositionRepository.deleteAll();
         persistentUserPositionRepository.deleteAll();
 
-        WebSocketUserPositionHandler.sessionsTracked = new ConcurrentHashMap<>();
-        WebSocketUserPositionHandler.sessions = new ConcurrentHashMap<>();
+        WebSocketUserPositionHandler.registry.clear();
         UserPositionService.followers = new ConcurrentHashMap<>();
         UserPositionService.broadcasters = new ConcurrentHashMap<>();
     }
@@ -142,6 +148,36 @@ public class UserPositionServiceTests {
     }
 
 
+    @Test
+    void buffered_positions_are_coalesced_and_written_on_flush() {
+        User mainUser = builder.given_superadmin();
+        User anotherUser = builder.given_a_user();
+        SliceInstance sliceInstance = builder.given_a_slice_instance();
+        Date now = new Date();
+
+        applicationProperties.getUserPositionBuffer().setEnabled(true);
+        try {
+            given_a_persistent_user_position(DateUtils.addSeconds(now, -2), mainUser, sliceInstance, USER_VIEW);
+            given_a_persistent_user_position(now, mainUser, sliceInstance, ANOTHER_USER_VIEW);
+            given_a_persistent_user_position(DateUtils.addSeconds(now, -1), mainUser, sliceInstance, USER_VIEW);
+            given_a_persistent_user_position(now, anotherUser, sliceInstance, USER_VIEW);
+
+            assertThat(lastUserPositionRepository.count()).isEqualTo(0);
+            assertThat(persistentUserPositionRepository.count()).isEqualTo(0);
+
+            assertThat(userPositionBuffer.flush()).isEqualTo(4);
+        } finally {
+            applicationProperties.getUserPositionBuffer().setEnabled(false);
+        }
+
+        assertThat(persistentUserPositionRepository.count()).isEqualTo(4);
+        assertThat(lastUserPositionRepository.count()).isEqualTo(2);
+        Optional<LastUserPosition> lastUserPosition
+                = userPositionService.lastPositionByUser(sliceInstance.getImage(), sliceInstance, mainUser, false);
+        assertThat(lastUserPosition.get().getLocation()).isEqualTo(ANOTHER_USER_VIEW.toMongodbLocation().getCoordinates());
+        assertThat(userPositionBuffer.flush()).isEqualTo(0);
+    }
+
     @Test
     void retrieve_last_position_for_user() {
         User mainUser = builder.given_superadmin();
@@ -410,9 +446,9 @@ public class UserPositionServiceTests {
 
         User user = builder.given_a_user();
 
-        WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
-        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.registry.register(user.getId().toString(), sessionDecorator);
+        WebSocketUserPositionHandler.registry.registerBroadcast(user.getId().toString()+"/514", sessionDecorator);
+        WebSocketUserPositionHandler.registry.follow(user.getId().toString()+"/514", new ConcurrentWebSocketSessionDecorator(session, 0, 0));
 
         List<String> users = userPositionService.listFollowers(user.getId(), 514L);
 
@@ -429,9 +465,9 @@ public class UserPositionServiceTests {
 
         User user = builder.given_a_user();
 
-        WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
-        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.registry.register(user.getId().toString(), sessionDecorator);
+        WebSocketUserPositionHandler.registry.registerBroadcast(user.getId().toString()+"/514", sessionDecorator);
+        WebSocketUserPositionHandler.registry.follow(user.getId().toString()+"/514", new ConcurrentWebSocketSessionDecorator(session, 0, 0));
         UserPositionService.broadcasters.put("89/514", List.of(user));
 
         List<String> users = userPositionService.listFollowers(89L, 514L);
@@ -2,7 +2,7 @@ package be.cytomine.service.social;
 
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
-import be.cytomine.exceptions.ServerException;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -15,17 +15,16 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static be.cytomine.service.social.WebSocketUserPositionHandler.registry;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
-import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest(classes = CytomineCoreApplication.class)
@@ -40,224 +39,181 @@ public class WebSocketUserPositionTests {
     @Autowired
     WebSocketUserPositionHandler webSocketUserPositionHandler;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @AfterEach
     public void cleanSessions(){
-        WebSocketUserPositionHandler.sessions = new ConcurrentHashMap<>();
-        WebSocketUserPositionHandler.sessionsTracked = new ConcurrentHashMap<>();
-        WebSocketUserPositionHandler.sessionsBroadcast = new ConcurrentHashMap<>();
+        registry.clear();
     }
 
     @Test
     public void create_session_for_not_connected_user() {
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "false"));
+        WebSocketSession session = given_a_session("1", "54", "imageId", false);
 
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNull();
-        assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNull();
+        assertThat(registry.getBroadcast("54/imageId")).isNull();
+        assertThat(registry.getSessions("54")).isEmpty();
         webSocketUserPositionHandler.afterConnectionEstablished(session);
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNull();
-        assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNotEmpty();
+        assertThat(registry.getBroadcast("54/imageId")).isNull();
+        assertThat(registry.getSessions("54")).hasSize(1);
+        assertThat(registry.getOwner("1")).isEqualTo("54");
     }
 
     @Test
     public void create_broadcast_session_for_not_connected_user() {
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "true"));
+        WebSocketSession session = given_a_session("1", "54", "imageId", true);
 
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNull();
-        assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNull();
+        assertThat(registry.getBroadcast("54/imageId")).isNull();
+        assertThat(registry.getSessions("54")).isEmpty();
         webSocketUserPositionHandler.afterConnectionEstablished(session);
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNotNull();
-        assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNotEmpty();
+        assertThat(registry.getBroadcast("54/imageId")).isNotNull();
+        assertThat(registry.getSessions("54")).hasSize(1);
     }
 
     @Test
     public void add_session_for_already_connected_user() {
-        ConcurrentWebSocketSessionDecorator sessionDecorator = mock(ConcurrentWebSocketSessionDecorator.class);
-        connectSession(sessionDecorator, "54", "imageId", "false");
-        connectSession(sessionDecorator, "89", "imageId", "false");
-        assertThat(WebSocketUserPositionHandler.sessions.get("54").length).isEqualTo(1);
-        assertThat(WebSocketUserPositionHandler.sessions.get("89").length).isEqualTo(1);
-
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "false"));
-
-        webSocketUserPositionHandler.afterConnectionEstablished(session);
-        assertThat(WebSocketUserPositionHandler.sessions.get("54").length).isEqualTo(2);
-        assertThat(WebSocketUserPositionHandler.sessions.get("89").length).isEqualTo(1);
+        connectSession(given_a_session("1", "54", "imageId", false));
+        connectSession(given_a_session("2", "89", "imageId", false));
+        assertThat(registry.getSessions("54")).hasSize(1);
+        assertThat(registry.getSessions("89")).hasSize(1);
+
+        connectSession(given_a_session("3", "54", "imageId", false));
+        assertThat(registry.getSessions("54")).hasSize(2);
+        assertThat(registry.getSessions("89")).hasSize(1);
     }
 
     @Test
     public void add_track_session_to_not_tracked_user() {
-        ConcurrentWebSocketSessionDecorator sessionDecorator = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
-        connectSession(sessionDecorator, userId, imageInstanceId,"true");
+        connectSession(given_a_session("1", userId, imageInstanceId, true));
 
         // Should have created a broadcast session
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId)).isNotNull();
+        assertThat(registry.getBroadcast(userAndImageId)).isNotNull();
 
         // Ask for follow the broadcast session
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
-        when(session.getId()).thenReturn("1234");
-        when(sessionDecorator.getId()).thenReturn("1234");
+        WebSocketSession session = given_a_session("1234", userId, imageInstanceId, false);
+        connectSession(session);
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(1);
     }
 
     @Test
     public void add_track_session_to_already_tracked_user() {
-        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
-        connectSession(followerSession, userId, imageInstanceId,"true");
-        initFollowingSession(userAndImageId, broadcastSession, followerSession);
+        connectSession(given_a_session("1", userId, imageInstanceId, true));
+        initFollowingSession(userAndImageId, given_a_session("5678", userId, imageInstanceId, false));
 
         //Should have added session to sessions tracked
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
-
-        WebSocketSession session = mock(WebSocketSession.class);
-        connectSession(session, userId, imageInstanceId,"false");
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(1);
 
-        when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("5678");
+        WebSocketSession session = given_a_session("1234", userId, imageInstanceId, false);
+        connectSession(session);
 
         // Ask a new follow on the broadcast session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(2);
     }
 
     @Test
     public void add_track_session_who_is_already_tracking() {
-        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        when(followerSession.getId()).thenReturn("5678");
-
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
-        connectSession(followerSession, userId, imageInstanceId,"true");
-        initFollowingSession(userAndImageId, broadcastSession, followerSession);
+        connectSession(given_a_session("1", userId, imageInstanceId, true));
+        initFollowingSession(userAndImageId, given_a_session("5678", userId, imageInstanceId, false));
 
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getId()).thenReturn("1234");
-        connectSession(session, userId, imageInstanceId,"false");
+        WebSocketSession session = given_a_session("1234", userId, imageInstanceId, false);
+        connectSession(session);
 
         // Ask a new follow on the broadcast session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
-
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(2);
 
         // Ask a follow on the broadcast session with already tracking session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(2);
     }
 
     @Test
     public void add_some_track_sessions_to_already_tracked_user() {
-        ConcurrentWebSocketSessionDecorator followerSession1 = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator followerSession2 = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator followerSession3 = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId1 = builder.given_a_user().getId().toString();
         String userId2 = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId1+"/"+imageInstanceId;
-        initFollowingSession(userAndImageId, broadcastSession, followerSession1);
+
+        connectSession(given_a_session("0", userId1, imageInstanceId, true));
+        initFollowingSession(userAndImageId, given_a_session("1", userId1, imageInstanceId, false));
 
         //Should have added session to sessions tracked
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(1);
 
         // Simulate that user is connected to Cytomine with 2 sessions
-        connectSession(followerSession2, userId2, imageInstanceId,"false");
-        connectSession(followerSession3, userId2, imageInstanceId,"false");
-        when(followerSession1.getId()).thenReturn("1");
-        when(followerSession2.getId()).thenReturn("2");
-        when(followerSession3.getId()).thenReturn("3");
+        WebSocketSession followerSession2 = given_a_session("2", userId2, imageInstanceId, false);
+        WebSocketSession followerSession3 = given_a_session("3", userId2, imageInstanceId, false);
+        connectSession(followerSession2);
+        connectSession(followerSession3);
 
         // Ask for session 2 only to follow the broadcast session
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes(userId2, imageInstanceId, "false"));
-        when(session.getId()).thenReturn("2");
-
-        webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        webSocketUserPositionHandler.handleMessage(followerSession2, new TextMessage(userId1));
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(2);
 
         // Ask for session 3 only to follow the broadcast session
-        when(session.getId()).thenReturn("3");
-        webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(3);
+        webSocketUserPositionHandler.handleMessage(followerSession3, new TextMessage(userId1));
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(3);
+        assertThat(registry.getFollowerIds(userAndImageId)).containsExactlyInAnyOrder(userId1, userId2);
     }
 
     @Test
     public void remove_tracking_sessions_from_tracked_sessions() throws Exception {
-        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
-        connectSession(followerSession, userId,imageInstanceId, "false");
-        initFollowingSession(userAndImageId, broadcastSession, followerSession);
+        connectSession(given_a_session("1", userId, imageInstanceId, true));
+        WebSocketSession followerSession = given_a_session("1234", userId, imageInstanceId, false);
+        initFollowingSession(userAndImageId, followerSession);
 
         // Broadcast session should be followed by follower session
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(1);
 
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
-        when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("1234");
-
-        // Close the followerSession (by calling afterConnectionClosed with mock session with same session id)
-        webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
+        // Close the followerSession
+        webSocketUserPositionHandler.afterConnectionClosed(followerSession, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(registry.getFollowers(userAndImageId)).isEmpty();
+        assertThat(registry.getBroadcast(userAndImageId)).isNotNull();
     }
 
     @Test
     public void remove_broadcasting_sessions_from_tracked_sessions() throws Exception {
-        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
-        connectSession(followerSession, userId, imageInstanceId,"false");
-        initFollowingSession(userAndImageId, broadcastSession, followerSession);
-
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        WebSocketSession broadcastSession = given_a_session("1234", userId, imageInstanceId, true);
+        connectSession(broadcastSession);
+        WebSocketSession followerSession = given_a_session("5678", userId, imageInstanceId, false);
+        when(followerSession.isOpen()).thenReturn(true);
+        initFollowingSession(userAndImageId, followerSession);
 
-        WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "true"));
-        when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("5678");
-        when(broadcastSession.getId()).thenReturn("1234");
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(1);
 
-        // Close the broadcastSession (by calling afterConnectionClosed with mock session with same session id)
-        webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
+        // Close the broadcastSession
+        webSocketUserPositionHandler.afterConnectionClosed(broadcastSession, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId)).isNull();
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession)).isNull();
+        assertThat(registry.getBroadcast(userAndImageId)).isNull();
+        assertThat(registry.getFollowers(userAndImageId)).isEmpty();
+        // followers are notified and closed
+        assertThat(registry.getSessions(userId)).isEmpty();
+        verify(followerSession).sendMessage(new TextMessage("stop-track"));
     }
 
     @Test
@@ -265,11 +221,10 @@ public class WebSocketUserPositionTests {
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
 
-        WebSocketSession session = mock(WebSocketSession.class);
-        connectSession(session, userId, imageInstanceId, "true");
+        connectSession(given_a_session("1", userId, imageInstanceId, true));
 
-        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
-        when(session.getId()).thenReturn("1234");
+        WebSocketSession session = given_a_session("1234", userId, imageInstanceId, false);
+        connectSession(session);
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
         when(session.isOpen()).thenReturn(true);
@@ -287,41 +242,90 @@ public class WebSocketUserPositionTests {
 
     @Test
     public void remove_session_if_connection_closed() throws Exception {
-        WebSocketSession session = mock(WebSocketSession.class);
-        ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
-        ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
-
         String userId = builder.given_a_user().getId().toString();
-        String userAndImageId = userId+"/imageId";
-        connectSession(session, userId, "imageId", "false");
-        initFollowingSession(userAndImageId, broadcastSession, followerSession);
+        connectSession(given_a_session("0", "89", "imageId", true));
+        WebSocketSession session = given_a_session("1", userId, "imageId", false);
+        initFollowingSession("89/imageId", session);
 
-        assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(1);
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(registry.getSessions(userId)).hasSize(1);
+        assertThat(registry.getFollowers("89/imageId")).hasSize(1);
 
-        when(session.getId()).thenReturn("1");
-        when(followerSession.getId()).thenReturn("1");
-        // Close the session (by calling afterConnectionClosed with mock session with same session id)
+        // Close the session
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(0);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(registry.getSessions(userId)).isEmpty();
+        assertThat(registry.getOwner("1")).isNull();
+        assertThat(registry.getFollowers("89/imageId")).isEmpty();
     }
 
+    @Test
+    public void hundreds_of_followers_get_the_latest_position_of_the_broadcaster() throws Exception {
+        String broadcasterId = builder.given_a_user().getId().toString();
+        String imageInstanceId = builder.given_an_image_instance().getId().toString();
+        String userAndImageId = broadcasterId+"/"+imageInstanceId;
+        double dropped = meterRegistry.counter("cytomine.websocket.position.dropped").count();
+
+        WebSocketSession broadcastSession = given_a_session("broadcast", broadcasterId, imageInstanceId, true);
+        connectSession(broadcastSession);
+
+        int followerCount = 300;
+        int positionCount = 200;
+        List<WebSocketSession> followers = new ArrayList<>();
+        List<AtomicInteger> received = new ArrayList<>();
+        for (int i = 0; i < followerCount; i++) {
+            WebSocketSession follower = given_a_session("follower" + i, String.valueOf(100000 + i), imageInstanceId, false);
+            AtomicInteger count = new AtomicInteger();
+            // the first follower is a slow client
+            long delay = (i == 0 ? 20 : 0);
+            when(follower.isOpen()).thenReturn(true);
+            doAnswer(invocation -> {
+                count.incrementAndGet();
+                Thread.sleep(delay);
+                return null;
+            }).when(follower).sendMessage(any());
+            connectSession(follower);
+            webSocketUserPositionHandler.handleMessage(follower, new TextMessage(broadcasterId));
+            followers.add(follower);
+            received.add(count);
+        }
+        assertThat(registry.getFollowers(userAndImageId)).hasSize(followerCount);
+
+        for (int i = 0; i < positionCount; i++) {
+            webSocketUserPositionHandler.handleMessage(broadcastSession, new TextMessage("{\"x\":" + i + "}"));
+        }
+
+        // every follower ends with the last position, the slow one skips the stale ones
+        for (WebSocketSession follower : followers) {
+            verify(follower, timeout(10000)).sendMessage(new TextMessage("{\"x\":" + (positionCount - 1) + "}"));
+        }
+        assertThat(received.get(0).get()).isLessThan(positionCount);
+        assertThat(meterRegistry.counter("cytomine.websocket.position.dropped").count()).isGreaterThan(dropped);
+
+        webSocketUserPositionHandler.afterConnectionClosed(broadcastSession, CloseStatus.NORMAL);
+        assertThat(registry.getBroadcast(userAndImageId)).isNull();
+        for (int i = 0; i < followerCount; i++) {
+            assertThat(registry.getSessions(String.valueOf(100000 + i))).isEmpty();
+        }
+    }
+
+    private WebSocketSession given_a_session(String sessionId, String userId, String imageId, boolean broadcast) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageId, String.valueOf(broadcast)));
+        return session;
+    }
 
-    private void connectSession(WebSocketSession session, String userId, String imageId, String broadcast){
-        when(session.getAttributes()).thenReturn(Map.of("userId", userId, "imageId", imageId, "broadcast", broadcast));
+    private void connectSession(WebSocketSession session){
         webSocketUserPositionHandler.afterConnectionEstablished(session);
     }
 
-    private void initFollowingSession(String userAndImageId, ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator followerSession){
-        WebSocketUserPositionHandler.sessionsBroadcast.put(userAndImageId, broadcastSession);
-        WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, new ConcurrentWebSocketSessionDecorator[]{followerSession});
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession).length).isEqualTo(1);
+    private void initFollowingSession(String userAndImageId, WebSocketSession followerSession){
+        connectSession(followerSession);
+        registry.follow(userAndImageId, registry.getSession(followerSession.getId()));
+        assertThat(registry.getFollowers(userAndImageId)).isNotEmpty();
     }
 
     private Map<String, Object> sessionAttributes(String userId, String imageId, String broadcast){
         return Map.of("userId", userId, "imageId", imageId, "broadcast", broadcast);
     }
-}
\ No newline at end of file
+}
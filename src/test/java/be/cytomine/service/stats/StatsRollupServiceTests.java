@@ -0,0 +1,155 @@
+package be.cytomine.service.stats;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.ProjectConnectionService;
+import be.cytomine.utils.JsonObject;
+import org.apache.commons.lang3.time.DateUtils;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.transaction.Transactional;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class StatsRollupServiceTests {
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    StatsRollupService statsRollupService;
+
+    @Autowired
+    StatsService statsService;
+
+    @Autowired
+    ProjectConnectionService projectConnectionService;
+
+    @Autowired
+    ImageConsultationService imageConsultationService;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+
+    @AfterEach
+    public void enableRollups() {
+        applicationProperties.getStatsRollup().setEnabled(true);
+    }
+
+    @Test
+    void connections_are_counted_by_hour_and_day() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:05:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T13:30:00"));
+
+        List<Document> hours = statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.HOUR, project.getId(), user.getId(), null, null);
+        assertThat(hours).hasSize(2);
+        assertThat(hours.get(0).getDate("_id")).isEqualTo(StatsRollupService.truncate(simpleDateFormat.parse("2022-01-01T12:00:00"), StatsRollupService.HOUR));
+        assertThat(hours.get(0).getInteger("count")).isEqualTo(2);
+        assertThat(hours.get(1).getInteger("count")).isEqualTo(1);
+
+        List<Document> days = statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.DAY, project.getId(), null, null, null);
+        assertThat(days).hasSize(1);
+        assertThat(days.get(0).getInteger("count")).isEqualTo(3);
+
+        assertThat(statsRollupService.countByBucket(StatsRollupService.IMAGE_CONSULTATION, StatsRollupService.HOUR, project.getId(), null, null, null)).isEmpty();
+    }
+
+    @Test
+    void rollups_give_the_same_stats_as_the_raw_collections() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        ImageInstance imageInstance = builder.given_an_image_instance(project);
+
+        for (String date : List.of("2021-12-30T23:10:00", "2022-01-01T12:00:00", "2022-01-01T12:05:00", "2022-01-01T13:30:00", "2022-01-20T03:00:00")) {
+            given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse(date));
+            imageConsultationService.add(user, imageInstance.getId(), "xxx", "mode", simpleDateFormat.parse(date));
+        }
+        Long before = simpleDateFormat.parse("2022-02-01T12:00:00").getTime();
+        Date start = simpleDateFormat.parse("2021-12-01T00:00:00");
+        Date end = simpleDateFormat.parse("2022-02-01T00:00:00");
+
+        for (String period : List.of("hour", "day", "week")) {
+            assertSameStats(() -> byTime(projectConnectionService.numberOfProjectConnections(period, null, before, project, user)));
+            assertSameStats(() -> projectConnectionService.averageOfProjectConnections(period, null, before, project, user).stream()
+                    .map(x -> x.get("frequency")).sorted().collect(Collectors.toList()));
+        }
+        assertSameStats(() -> byTime(projectConnectionService.numberOfConnectionsByProjectOrderedByHourAndDays(project, null, user)));
+        assertSameStats(() -> statsService.statConnectionsEvolution(project, 7, start, end, true));
+        assertSameStats(() -> statsService.statImageConsultationsEvolution(project, 7, start, end, false));
+    }
+
+    @Test
+    void rebuild_rollups_from_the_raw_collections() throws ParseException {
+        Project project = builder.given_a_project();
+        User user = builder.given_superadmin();
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-01T12:00:00"));
+        given_a_persistent_connection_in_project(user, project, simpleDateFormat.parse("2022-01-02T12:05:00"));
+        List<Document> hours = statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.HOUR, project.getId(), null, null, null);
+        List<Document> days = statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.DAY, project.getId(), null, null, null);
+
+        statsRollupService.rebuild();
+
+        assertThat(statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.HOUR, project.getId(), null, null, null)).isEqualTo(hours);
+        assertThat(statsRollupService.countByBucket(StatsRollupService.CONNECTION, StatsRollupService.DAY, project.getId(), null, null, null)).isEqualTo(days);
+    }
+
+    private void assertSameStats(Supplier<Object> stats) {
+        applicationProperties.getStatsRollup().setEnabled(true);
+        Object fromRollups = stats.get();
+        applicationProperties.getStatsRollup().setEnabled(false);
+        Object fromRawCollections = stats.get();
+        applicationProperties.getStatsRollup().setEnabled(true);
+        assertThat(fromRollups).isEqualTo(fromRawCollections);
+    }
+
+    private Map<Object, Object> byTime(List<JsonObject> results) {
+        return results.stream().collect(Collectors.toMap(x -> x.get("time"), x -> x.get("frequency")));
+    }
+
+    private void given_a_persistent_connection_in_project(User user, Project project, Date created) {
+        projectConnectionService.add(user, project, "xxx", "linux", "chrome", "123", created);
+    }
+}
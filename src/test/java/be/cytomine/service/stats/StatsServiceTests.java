@@ -248,6 +248,80 @@ public class StatsServiceTests {
 
     }
 
+    @Test
+    void annotation_evolution_counted_in_database_matches_the_evolution_of_all_dates() {
+        Project project = builder.given_a_project();
+        Date endDate = new Date();
+        Date startDate = DateUtils.addDays(endDate, -45);
+        // a few annotations around each period boundary, and before the first period
+        List<Date> createdDates = new ArrayList<>();
+        createdDates.add(DateUtils.addDays(startDate, -5));
+        createdDates.add(DateUtils.addSeconds(startDate, 1));
+        for (Date boundary = DateUtils.addDays(startDate, 7); boundary.before(endDate); boundary = DateUtils.addDays(boundary, 7)) {
+            createdDates.add(DateUtils.addSeconds(boundary, -1));
+            createdDates.add(boundary);
+            createdDates.add(DateUtils.addSeconds(boundary, 1));
+        }
+        for (Date created : createdDates) {
+            UserAnnotation annotation = builder.given_a_user_annotation(project);
+            annotation.setCreated(created);
+            builder.persistAndReturn(annotation);
+        }
+        entityManager.flush();
+
+        // previous implementation: read every date and count them in java
+        List<Date> dates = entityManager.createQuery("SELECT created FROM UserAnnotation WHERE project.id = :project_id " +
+                        "AND created > :startDate AND created < :endDate ORDER BY created ASC", Date.class)
+                .setParameter("project_id", project.getId())
+                .setParameter("startDate", startDate)
+                .setParameter("endDate", endDate)
+                .getResultList();
+        List<JsonObject> expected = aggregateByPeriods(dates, 7, startDate, endDate, true);
+
+        List<JsonObject> jsonObjects = statsService.statAnnotationEvolution(project, null, 7, startDate, endDate, false, true);
+
+        assertThat(jsonObjects).isEqualTo(expected);
+        assertThat(dates).hasSize(createdDates.size() - 1);
+        assertThat(jsonObjects.get(jsonObjects.size() - 1).getJSONAttrLong("size")).isEqualTo(dates.size());
+    }
+
+    /**
+     * Copy of the aggregation done in java before the evolutions were counted in the databases
+     */
+    private static List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        List<JsonObject> data = new ArrayList<>();
+        int nbItems = creationDates.size();
+        int count = 0;
+        int idx = 0;
+
+        Date current = startDate;
+        Long endTime = endDate.getTime();
+        Calendar cal = Calendar.getInstance();
+
+        while(current.getTime() <= endTime) {
+            JsonObject item = new JsonObject();
+            item.put("date", current.getTime());
+
+            cal.setTime(current);
+            cal.add(Calendar.DATE, daysRange);
+            current = cal.getTime();
+
+            if(!accumulate) {
+                count = 0;
+            }
+
+            while(idx < nbItems && creationDates.get(idx).getTime() < current.getTime()) {
+                count++;
+                idx++;
+            }
+
+            item.put("endDate", Math.min(current.getTime(), endTime));
+            item.put("size", count);
+            data.add(item);
+        }
+        return data;
+    }
+
     @Test
     void stats_algo_annotation_evolution() {
         Project project = builder.given_a_project();
@@ -0,0 +1,110 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.security.User;
+import com.vividsolutions.jts.io.ParseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import javax.transaction.Transactional;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationDensityCacheTests {
+
+    @Autowired
+    AnnotationDensityCache annotationDensityCache;
+
+    @Autowired
+    ApplicationProperties applicationProperties;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    SliceInstance sliceInstance;
+
+    User user;
+
+    @BeforeEach
+    public void setUp() {
+        AbstractImage abstractImage = builder.given_a_not_persisted_abstract_image();
+        abstractImage.setWidth(1000);
+        abstractImage.setHeight(1000);
+        builder.persistAndReturn(abstractImage);
+        ImageInstance imageInstance = builder.given_an_image_instance(abstractImage, builder.given_a_project());
+        sliceInstance = builder.given_a_slice_instance(imageInstance, builder.given_an_abstract_slice(abstractImage, 0, 0, 0));
+        user = builder.given_superadmin();
+        annotationDensityCache.clear();
+    }
+
+    @AfterEach
+    public void resetProperties() {
+        applicationProperties.getAnnotationDensity().setTimeToLiveInSeconds(60L);
+        annotationDensityCache.clear();
+    }
+
+    @Test
+    void deleted_annotations_are_not_counted() throws ParseException {
+        for (int i = 0; i < 3; i++) {
+            builder.given_a_user_annotation(sliceInstance, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))", user, null);
+        }
+        UserAnnotation deleted = builder.given_a_user_annotation(sliceInstance, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))", user, null);
+        deleted.setDeleted(new Date());
+        builder.persistAndReturn(deleted);
+
+        assertThat(annotationDensityCache.get(sliceInstance.getId()).count(user.getId())).isEqualTo(3);
+    }
+
+    @Test
+    void density_is_only_reloaded_when_the_annotation_counters_change() throws ParseException, InterruptedException {
+        applicationProperties.getAnnotationDensity().setTimeToLiveInSeconds(1L);
+        builder.given_a_user_annotation(sliceInstance, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))", user, null);
+        SliceAnnotationDensity density = annotationDensityCache.get(sliceInstance.getId());
+        assertThat(density.count(user.getId())).isEqualTo(1);
+
+        Thread.sleep(1100);
+        // counters unchanged: the slice annotations are not read again
+        assertThat(annotationDensityCache.get(sliceInstance.getId())).isSameAs(density);
+
+        builder.given_a_user_annotation(sliceInstance, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))", user, null);
+        // still within the time to live of the last check
+        assertThat(annotationDensityCache.get(sliceInstance.getId())).isSameAs(density);
+
+        Thread.sleep(1100);
+        SliceAnnotationDensity reloaded = annotationDensityCache.get(sliceInstance.getId());
+        assertThat(reloaded).isNotSameAs(density);
+        assertThat(reloaded.count(user.getId())).isEqualTo(2);
+    }
+}
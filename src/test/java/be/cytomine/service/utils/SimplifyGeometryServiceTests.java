@@ -21,7 +21,9 @@ import be.cytomine.CytomineCoreApplication;
 import be.cytomine.TestUtils;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.dto.SimplifiedAnnotation;
+import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.io.ParseException;
@@ -36,6 +38,7 @@ import javax.transaction.Transactional;
 import java.io.File;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 @SpringBootTest(classes = CytomineCoreApplication.class)
 @AutoConfigureMockMvc
@@ -137,6 +140,92 @@ public class SimplifyGeometryServiceTests {
         assertThat(result.getNewAnnotation().getNumPoints()).isGreaterThanOrEqualTo((int)getPointMultiplyByGeometriesOrInteriorRings(annotation.getLocation(), minPoint));
     }
 
+    @Test
+    public void simplify_huge_freehand_annotation() {
+        Geometry location = freehandPolygon(20000, 5000, 5000, 3000);
+        assertThat(location.isValid()).isTrue();
+
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(location, 100L, 150L);
+
+        assertThat(result.getNewAnnotation().getNumPoints()).isBetween(100, 150);
+        assertThat(result.getRate()).isGreaterThan(0);
+
+        // default limits: at least 1.3 times fewer points
+        result = simplifyGeometryService.simplifyPolygon(location, null, null);
+        assertThat(result.getNewAnnotation().getNumPoints()).isLessThanOrEqualTo((int) (location.getNumPoints() / 1.3)).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void simplify_with_the_lowest_rate_reaching_the_maximum() {
+        Geometry location = freehandPolygon(20000, 5000, 5000, 3000);
+
+        // without minimum, the search keeps as many points as possible
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(location, null, 150L);
+        simplifyGeometryService.simplifyPolygon(freehandPolygon(500, 100, 100, 50), 10L, 20L);
+        SimplifiedAnnotation again = simplifyGeometryService.simplifyPolygon(location, null, 150L);
+
+        // the result only depends on the geometry
+        assertThat(again.getRate()).isEqualTo(result.getRate());
+        assertThat(again.getNewAnnotation().equalsExact(result.getNewAnnotation())).isTrue();
+        // a lower rate keeps too many points
+        assertThat(simplifyGeometryService.simplifyPolygon(location, result.getRate() * 0.9).getNewAnnotation().getNumPoints()).isGreaterThan(150);
+    }
+
+    @Test
+    public void simplify_stops_once_the_number_of_points_is_between_the_limits() {
+        Geometry location = freehandPolygon(20000, 5000, 5000, 3000);
+
+        SimplifiedAnnotation lowest = simplifyGeometryService.simplifyPolygon(location, null, 150L);
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(location, 100L, 150L);
+
+        assertThat(result.getNewAnnotation().getNumPoints()).isBetween(100, 150);
+        assertThat(result.getRate()).isGreaterThanOrEqualTo(lowest.getRate());
+        assertThat(simplifyGeometryService.simplifyPolygon(location, 100L, 150L).getRate()).isEqualTo(result.getRate());
+    }
+
+    @Test
+    public void simplify_multipolygon_annotation() {
+        Geometry first = freehandPolygon(3000, 2000, 2000, 1000);
+        Geometry second = freehandPolygon(3000, 6000, 2000, 1000);
+        Geometry location = new GeometryFactory().createMultiPolygon(new Polygon[] {(Polygon) first, (Polygon) second});
+
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(location, 100L, 150L);
+
+        assertThat(result.getNewAnnotation()).isInstanceOf(MultiPolygon.class);
+        assertThat(result.getNewAnnotation().getNumPoints())
+                .isLessThanOrEqualTo(getPointMultiplyByGeometriesOrInteriorRings(location, 150))
+                .isGreaterThanOrEqualTo(getPointMultiplyByGeometriesOrInteriorRings(location, 100));
+    }
+
+    @Test
+    public void simplify_invalid_annotation() {
+        // a figure eight: the ring crosses itself in the middle
+        int half = 2000;
+        Coordinate[] coordinates = new Coordinate[half * 2 + 1];
+        for (int i = 0; i < half * 2; i++) {
+            double angle = 2 * Math.PI * i / (half * 2);
+            coordinates[i] = new Coordinate(5000 + 3000 * Math.sin(angle), 5000 + 1500 * Math.sin(2 * angle));
+        }
+        coordinates[half * 2] = coordinates[0];
+        GeometryFactory factory = new GeometryFactory();
+        Geometry location = factory.createPolygon(factory.createLinearRing(coordinates), null);
+        assertThat(location.isValid()).isFalse();
+
+        SimplifiedAnnotation result = simplifyGeometryService.simplifyPolygon(location, 100L, 150L);
+
+        assertThat(result.getNewAnnotation().getNumPoints()).isBetween(100, 150);
+    }
+
+    @Test
+    public void simplify_huge_annotation_for_crop() {
+        Geometry location = freehandPolygon(20000, 5000, 5000, 3000);
+
+        Geometry result = simplifyGeometryService.simplifyPolygonForCrop(location);
+
+        assertThat(result.getNumPoints()).isLessThan(150);
+        assertThat(result.getEnvelopeInternal().getWidth()).isCloseTo(location.getEnvelopeInternal().getWidth(), within(500d));
+    }
+
     @Test
     public void simplify_annotation_with_rate() throws ParseException {
 
@@ -152,6 +241,21 @@ public class SimplifyGeometryServiceTests {
     }
 
 
+    /**
+     * Star-shaped polygon with a wavy border, as drawn by hand (or traced by an algorithm)
+     */
+    private static Geometry freehandPolygon(int numberOfPoints, double centerX, double centerY, double radius) {
+        Coordinate[] coordinates = new Coordinate[numberOfPoints + 1];
+        for (int i = 0; i < numberOfPoints; i++) {
+            double angle = 2 * Math.PI * i / numberOfPoints;
+            double r = radius * (1 + 0.05 * Math.sin(37 * angle) + 0.02 * Math.sin(301 * angle));
+            coordinates[i] = new Coordinate(centerX + r * Math.cos(angle), centerY + r * Math.sin(angle));
+        }
+        coordinates[numberOfPoints] = coordinates[0];
+        GeometryFactory factory = new GeometryFactory();
+        return factory.createPolygon(factory.createLinearRing(coordinates), null);
+    }
+
     public static int getPointMultiplyByGeometriesOrInteriorRings(Geometry geometry, long numberOfPoints){
         int result = 0;
         if (geometry instanceof MultiPolygon) {
@@ -0,0 +1,112 @@
+package be.cytomine.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpiringMapTests {
+
+    @Test
+    public void entries_expire_after_time_to_live() throws InterruptedException {
+        Map<String, String> map = new ExpiringMap<>(Duration.ofMillis(100));
+        map.put("a", "1");
+        assertThat(map.get("a")).isEqualTo("1");
+        assertThat(map.containsKey("a")).isTrue();
+
+        Thread.sleep(150);
+        assertThat(map.get("a")).isNull();
+        assertThat(map.containsKey("a")).isFalse();
+        assertThat(map).isEmpty();
+    }
+
+    @Test
+    public void read_refreshes_entries_when_requested() throws InterruptedException {
+        Map<String, String> map = new ExpiringMap<>(Duration.ofMillis(200), Integer.MAX_VALUE, true);
+        map.put("a", "1");
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(100);
+            assertThat(map.get("a")).isEqualTo("1");
+        }
+        Thread.sleep(250);
+        assertThat(map.get("a")).isNull();
+    }
+
+    @Test
+    public void map_is_bounded_to_max_entries() {
+        Map<String, String> map = new ExpiringMap<>(Duration.ofMinutes(1), 2, false);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+
+        assertThat(map).hasSize(2);
+        // the entry that expires first is evicted
+        assertThat(map.get("a")).isNull();
+        assertThat(map.get("c")).isEqualTo("3");
+
+        map.put("c", "4");
+        assertThat(map).hasSize(2).containsEntry("b", "2").containsEntry("c", "4");
+    }
+
+    @Test
+    public void nothing_is_stored_without_time_to_live() {
+        Map<String, String> map = new ExpiringMap<>(Duration.ZERO);
+        map.put("a", "1");
+        assertThat(map.get("a")).isNull();
+        assertThat(map).isEmpty();
+    }
+
+    @Test
+    public void concurrent_map_operations() {
+        Map<String, Boolean> map = new ExpiringMap<>(Duration.ofMinutes(1));
+        assertThat(map.putIfAbsent("a", true)).isNull();
+        assertThat(map.putIfAbsent("a", false)).isTrue();
+        assertThat(map.replace("a", false, true)).isFalse();
+        assertThat(map.replace("a", true, false)).isTrue();
+        assertThat(map.get("a")).isFalse();
+        assertThat(map.remove("a", true)).isFalse();
+        assertThat(map.remove("a", false)).isTrue();
+        assertThat(map).isEmpty();
+
+        map.put("b", true);
+        map.put("c", true);
+        map.entrySet().removeIf(entry -> entry.getKey().equals("b"));
+        assertThat(map).containsOnlyKeys("c");
+    }
+
+    @Test
+    public void metrics_are_published() {
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Map<String, String> map = new ExpiringMap<String, String>(Duration.ofMinutes(1), 1, false)
+                .withMetrics(meterRegistry, "test");
+        map.put("a", "1");
+        map.get("a");
+        map.get("b");
+        map.put("b", "2");
+
+        assertThat(meterRegistry.counter("cytomine.test.cache.requests", "result", "hit").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("cytomine.test.cache.requests", "result", "miss").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("cytomine.test.cache.evictions").count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cytomine.test.cache.size").gauge().value()).isEqualTo(1);
+    }
+}